@@ -0,0 +1,40 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.gs.download;
+
+import javax.imageio.ImageWriteParam;
+import org.geoserver.wcs.responses.COGCoverageResponseDelegate;
+import org.geoserver.wcs.responses.GeoTiffWriterHelper;
+import org.geoserver.wps.ppio.GeoTiffPPIO;
+import org.geotools.gce.geotiff.GeoTiffWriteParams;
+
+/**
+ * Encodes a coverage as a Cloud Optimized GeoTIFF, tiled and with internal overviews, so that
+ * clients can range read the download results. Tiling and compression default to 512x512 and
+ * deflate, and can be changed with the same parameters as the GeoTIFF output.
+ */
+public class COGPPIO extends GeoTiffPPIO {
+
+    static final int DEFAULT_TILE_SIZE = 512;
+
+    public COGPPIO() {
+        super(COGCoverageResponseDelegate.COG_CONTENT_TYPE);
+    }
+
+    @Override
+    protected void setDefaultParams(GeoTiffWriterHelper helper) {
+        helper.setOverviews(true);
+        GeoTiffWriteParams writeParams = helper.getImageIoWriteParams();
+        writeParams.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        writeParams.setTiling(DEFAULT_TILE_SIZE, DEFAULT_TILE_SIZE);
+        writeParams.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        writeParams.setCompressionType("Deflate");
+    }
+
+    @Override
+    public String getFileExtension() {
+        return "tif";
+    }
+}
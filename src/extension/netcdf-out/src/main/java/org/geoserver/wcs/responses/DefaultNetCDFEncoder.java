@@ -343,7 +343,16 @@ public class DefaultNetCDFEncoder extends AbstractNetCDFEncoder {
         // the same sample model
         final int imageDataType = sampleGranule.getRenderedImage().getSampleModel().getDataType();
         final DataType netCDFDataType = var.getDataType();
-        final Array matrix = NetCDFUtilities.getArray(dimSize, netCDFDataType);
+
+        // allocate an array for a single spatial slice, each granule in the stack is written
+        // as soon as its slice is filled, so that memory usage does not depend on the
+        // number of granules
+        final int[] spatialDimensionSize = new int[numDimensions];
+        Arrays.fill(spatialDimensionSize, 1);
+        spatialDimensionSize[numDimensions - 2] = dimSize[numDimensions - 2];
+        spatialDimensionSize[numDimensions - 1] = dimSize[numDimensions - 1];
+        final Array matrix = NetCDFUtilities.getArray(spatialDimensionSize, netCDFDataType);
+        final Index matrixIndex = matrix.getIndex();
 
         // Loop over all granules
         for (GridCoverage2D gridCoverage : granuleStack.getGranules()) {
@@ -366,11 +375,9 @@ public class DefaultNetCDFEncoder extends AbstractNetCDFEncoder {
             int maxTileX = maxX / tileWidth - (maxX < 0 ? (-maxX % tileWidth > 0 ? 1 : 0) : 0);
             int maxTileY = maxY / tileHeight - (maxY < 0 ? (-maxY % tileHeight > 0 ? 1 : 0) : 0);
 
-            final Index matrixIndex = matrix.getIndex();
-            final int indexing[] = new int[numDimensions];
-
             // Update the NetCDF array indexing to set values for a specific 2D slice
-            updateIndexing(indexing, gridCoverage);
+            final int originIndexing[] = new int[numDimensions];
+            updateIndexing(originIndexing, gridCoverage);
 
             // copy non-scalar extra variable data
             if (!nonscalarExtraVariables.isEmpty()) {
@@ -381,7 +388,7 @@ public class DefaultNetCDFEncoder extends AbstractNetCDFEncoder {
                 // This loop also ensures that the source for each granule is only opened once.
                 boolean needSource = false;
                 for (ExtraVariableRecord record : nonscalarExtraVariables) {
-                    if (!record.writtenIndices.contains(indexing[record.dimensionIndex])) {
+                    if (!record.writtenIndices.contains(originIndexing[record.dimensionIndex])) {
                         needSource = true;
                         break;
                     }
@@ -391,14 +398,15 @@ public class DefaultNetCDFEncoder extends AbstractNetCDFEncoder {
                         if (source != null) {
                             for (ExtraVariableRecord record : nonscalarExtraVariables) {
                                 if (!record.writtenIndices.contains(
-                                        indexing[record.dimensionIndex])) {
+                                        originIndexing[record.dimensionIndex])) {
                                     writer.write(
                                             writer.findVariable(record.extraVariable.getOutput()),
-                                            new int[] {indexing[record.dimensionIndex]},
+                                            new int[] {originIndexing[record.dimensionIndex]},
                                             source.findVariable(record.extraVariable.getSource())
                                                     .read()
                                                     .reshape(new int[] {1}));
-                                    record.writtenIndices.add(indexing[record.dimensionIndex]);
+                                    record.writtenIndices.add(
+                                            originIndexing[record.dimensionIndex]);
                                 }
                             }
                         }
@@ -412,6 +420,9 @@ public class DefaultNetCDFEncoder extends AbstractNetCDFEncoder {
 
             // Loop over bands using a RandomIter
             final RandomIter data = RandomIterFactory.create(ri, null);
+            // the local slice indexing, all the extra dimensions are set to 0, the spatial ones are
+            // set in the loop
+            final int indexing[] = new int[numDimensions];
             for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
                 for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
                     for (int trow = 0; trow < tileHeight; trow++) {
@@ -447,13 +458,13 @@ public class DefaultNetCDFEncoder extends AbstractNetCDFEncoder {
             }
             // Finalize the iterator
             data.done();
-        }
 
-        // ------------------------------
-        // Write the data to the variable
-        // ------------------------------
-        writer.write(var, matrix);
-        writer.flush();
+            // ------------------------------
+            // Write the slice to the variable
+            // ------------------------------
+            writer.write(var, originIndexing, matrix);
+            writer.flush();
+        }
     }
 
     @Override
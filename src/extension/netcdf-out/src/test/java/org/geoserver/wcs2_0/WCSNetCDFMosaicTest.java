@@ -636,6 +636,27 @@ public class WCSNetCDFMosaicTest extends WCSNetCDFBaseTest {
         coverageView = new CoverageView("dummyView", coverageBands);
     }
 
+    @Test
+    public void testRequestScaledSlices() throws Exception {
+        // the two time slices of Temperature_surface, scaled, each slice must be scaled alike
+        MockHttpServletResponse response =
+                getAsServletResponse(
+                        "ows?request=GetCoverage&service=WCS&version=2.0.1"
+                                + "&coverageId=wcs__Temperature_surface&format=application/custom"
+                                + "&SCALEFACTOR=2");
+        assertNotNull(response);
+        GridCoverage2D lastResult =
+                applicationContext.getBean(WCSResponseInterceptor.class).getLastResult();
+        assertTrue(lastResult instanceof GranuleStack);
+        GranuleStack stack = (GranuleStack) lastResult;
+
+        assertEquals(2, stack.getGranules().size());
+        for (GridCoverage2D c : stack.getGranules()) {
+            assertEquals(14, c.getGridGeometry().getGridRange2D().width);
+            assertEquals(10, c.getGridGeometry().getGridRange2D().height);
+        }
+    }
+
     /** Configure NetCDF output settings for <code>Temperature_surface</code>. */
     private void configureTemperatureSurface() {
         NetCDFLayerSettingsContainer container = new NetCDFLayerSettingsContainer();
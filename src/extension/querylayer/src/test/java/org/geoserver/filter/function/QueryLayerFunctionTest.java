@@ -10,9 +10,14 @@ import static org.junit.Assert.*;
 import java.util.Collection;
 import org.geoserver.data.test.MockData;
 import org.geoserver.test.GeoServerSystemTestSupport;
+import org.geoserver.wms.StyleCompiler;
 import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
 import org.junit.Test;
 import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.PropertyIsEqualTo;
 import org.opengis.filter.expression.Function;
 
 public class QueryLayerFunctionTest extends GeoServerSystemTestSupport {
@@ -49,6 +54,28 @@ public class QueryLayerFunctionTest extends GeoServerSystemTestSupport {
         assertTrue(result.contains("215 Main Street"));
     }
 
+    @Test
+    public void testCompiledStyle() {
+        // the query results change along with the data, the function cannot be folded
+        Function function =
+                ff.function(
+                        "querySingle", //
+                        ff.literal(getLayerId(MockData.BUILDINGS)), //
+                        ff.literal("ADDRESS"), //
+                        ff.literal("FID = '113'"));
+        StyleBuilder sb = new StyleBuilder();
+        Rule rule = sb.createRule(sb.createPolygonSymbolizer());
+        rule.setFilter(ff.equals(ff.property("ADDRESS"), function));
+        Style style = sb.createStyle();
+        style.featureTypeStyles().add(sb.createFeatureTypeStyle("Feature", rule));
+
+        Style compiled = StyleCompiler.compile(style);
+        Rule compiledRule = compiled.featureTypeStyles().get(0).rules().get(0);
+        PropertyIsEqualTo filter = (PropertyIsEqualTo) compiledRule.getFilter();
+        assertTrue(filter.getExpression2() instanceof QueryFunction);
+        assertEquals("123 Main Street", filter.getExpression2().evaluate(null));
+    }
+
     @Test
     public void testQueryTooMany() throws Exception {
         try {
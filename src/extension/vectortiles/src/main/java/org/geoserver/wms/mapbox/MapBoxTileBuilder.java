@@ -7,7 +7,10 @@ package org.geoserver.wms.mapbox;
 import static org.geoserver.wms.mapbox.MapBoxTileBuilderFactory.MIME_TYPE;
 
 import java.awt.Rectangle;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 import no.ecc.vectortile.VectorTileEncoder;
@@ -15,7 +18,9 @@ import no.ecc.vectortile.VectorTileEncoderNoClip;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.map.RawMap;
 import org.geoserver.wms.vector.VectorTileBuilder;
+import org.geotools.data.Query;
 import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.Layer;
 import org.geotools.util.logging.Logging;
 import org.locationtech.jts.geom.Geometry;
 
@@ -25,11 +30,21 @@ public class MapBoxTileBuilder implements VectorTileBuilder {
 
     private VectorTileEncoder encoder;
 
+    /** Encodes layers in the database, null if the tile is not square */
+    private PostGISTileEncoder databaseEncoder;
+
+    /** Layers already encoded by the database */
+    private List<byte[]> encodedLayers = new ArrayList<>();
+
     public MapBoxTileBuilder(Rectangle mapSize, ReferencedEnvelope mapArea) {
         final int extent = Math.max(mapSize.width, mapSize.height);
         final int polygonClipBuffer = extent / 32;
         final boolean autoScale = false;
         this.encoder = new VectorTileEncoderNoClip(extent, polygonClipBuffer, autoScale);
+        if (mapSize.width == mapSize.height) {
+            // the database maps the tile on a square extent
+            this.databaseEncoder = new PostGISTileEncoder(extent);
+        }
     }
 
     @Override
@@ -54,9 +69,33 @@ public class MapBoxTileBuilder implements VectorTileBuilder {
         encoder.addFeature(layerName, properties, geometry, id);
     }
 
+    @Override
+    public boolean addLayer(Layer layer, Query query, WMSMapContent mapContent, int buffer)
+            throws IOException {
+        if (databaseEncoder == null) {
+            return false;
+        }
+        byte[] encoded = databaseEncoder.encode(layer, query, mapContent, buffer);
+        if (encoded == null) {
+            return false;
+        }
+        encodedLayers.add(encoded);
+        return true;
+    }
+
     @Override
     public RawMap build(WMSMapContent mapContent) throws IOException {
         byte[] contents = encoder.encode();
+        if (!encodedLayers.isEmpty()) {
+            // layers are a repeated field of the tile message, concatenating encoded tiles
+            // results in a tile containing all their layers
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            bos.write(contents);
+            for (byte[] layer : encodedLayers) {
+                bos.write(layer);
+            }
+            contents = bos.toByteArray();
+        }
         return new RawMap(mapContent, contents, MIME_TYPE);
     }
 }
@@ -0,0 +1,378 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.mapbox;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.ProjectionPolicy;
+import org.geoserver.security.decorators.DecoratingFeatureSource;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.data.jdbc.FilterToSQL;
+import org.geotools.data.jdbc.FilterToSQLException;
+import org.geotools.data.postgis.PostGISDialect;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.filter.text.cql2.CQLException;
+import org.geotools.filter.text.ecql.ECQL;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.JDBCFeatureSource;
+import org.geotools.jdbc.JDBCFeatureStore;
+import org.geotools.jdbc.PrimaryKey;
+import org.geotools.jdbc.PrimaryKeyColumn;
+import org.geotools.jdbc.SQLDialect;
+import org.geotools.map.Layer;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.feature.type.PropertyDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Encodes a whole layer as a Mapbox vector tile layer directly in PostGIS, using {@code
+ * ST_AsMVTGeom} and {@code ST_AsMVT}, thus skipping the creation of features and the Java based
+ * clip/simplify/transform pipeline.
+ *
+ * <p>The database encoding is used only when the result matches the one of the Java pipeline,
+ * that is, when the layer is a plain PostGIS table (no SQL views, no security wrappers, no
+ * reprojection to a declared CRS), the query filter can be fully encoded in SQL, the target CRS is
+ * an EPSG code in east/north axis order, and no other layer of the map shares the same name. In
+ * any other case {@link #encode} returns {@code null} and the caller should fall back on the
+ * feature pipeline.
+ */
+class PostGISTileEncoder {
+
+    static final Logger LOGGER = Logging.getLogger(PostGISTileEncoder.class);
+
+    /** Allows to disable the database encoding, falling back on the Java pipeline in all cases */
+    static final boolean ENABLED =
+            Boolean.valueOf(System.getProperty("org.geoserver.vectortiles.postgis", "true"));
+
+    /** Minimum PostGIS version supporting ST_AsMVT, as major * 100 + minor */
+    static final int MVT_VERSION = 204;
+
+    /** Minimum PostGIS version supporting the feature_id_name argument of ST_AsMVT */
+    static final int MVT_FEATURE_ID_VERSION = 300;
+
+    /** Gutter added around the tile, same as the one used by the Java pipeline clipping */
+    static final int CLIP_BUFFER_PIXELS = 12;
+
+    static final String GEOMETRY_ALIAS = "__mvt_geom";
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    /** PostGIS version of each store, -1 if it could not be determined */
+    static final Map<JDBCDataStore, Integer> VERSIONS =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final int extent;
+
+    PostGISTileEncoder(int extent) {
+        this.extent = extent;
+    }
+
+    /**
+     * Encodes the layer as a single layer vector tile, returns {@code null} if the layer cannot be
+     * encoded in the database
+     *
+     * @param layer The layer to encode
+     * @param query The query selecting the features relevant to the style and tile extent
+     * @param mapContent The map being built
+     * @param buffer The rendering buffer, in tile pixels
+     */
+    byte[] encode(Layer layer, Query query, WMSMapContent mapContent, int buffer)
+            throws IOException {
+        if (!ENABLED) {
+            return null;
+        }
+        FeatureSource<?, ?> source = layer.getFeatureSource();
+        if (source instanceof DecoratingFeatureSource) {
+            // security restrictions are applied in Java
+            return null;
+        }
+        if (isNameShared(layer, mapContent)) {
+            // a tile cannot contain two layers with the same name, the feature pipeline merges
+            // the features of all the map layers sharing it in a single vector tile layer
+            return null;
+        }
+        FeatureTypeInfo info = getFeatureTypeInfo(mapContent, source);
+        if (info == null || !hasNativeCRS(info)) {
+            return null;
+        }
+        if (!(info.getStore().getDataStore(null) instanceof JDBCDataStore)) {
+            return null;
+        }
+        JDBCDataStore store = (JDBCDataStore) info.getStore().getDataStore(null);
+        SQLDialect dialect = store.getSQLDialect();
+        String tableName = info.getNativeName();
+        if (!(dialect instanceof PostGISDialect)
+                || store.getVirtualTables().containsKey(tableName)) {
+            return null;
+        }
+        Integer targetSrid = getTargetSrid(mapContent.getRenderingArea());
+        SimpleFeatureType nativeSchema = store.getSchema(tableName);
+        GeometryDescriptor geometry = nativeSchema.getGeometryDescriptor();
+        Integer nativeSrid =
+                geometry == null
+                        ? null
+                        : (Integer) geometry.getUserData().get(JDBCDataStore.JDBC_NATIVE_SRID);
+        if (targetSrid == null || nativeSrid == null || nativeSrid <= 0) {
+            return null;
+        }
+        String where = encodeFilter(store, nativeSchema, query, info);
+        if (where == null) {
+            return null;
+        }
+
+        Connection cx = store.getConnection(Transaction.AUTO_COMMIT);
+        Statement st = null;
+        ResultSet rs = null;
+        try {
+            int version = getVersion(store, cx);
+            if (version < MVT_VERSION) {
+                return null;
+            }
+            String idColumn =
+                    version >= MVT_FEATURE_ID_VERSION ? getIdColumn(store, tableName) : null;
+            String sql =
+                    buildSQL(
+                            store,
+                            layer,
+                            tableName,
+                            geometry.getLocalName(),
+                            nativeSrid,
+                            targetSrid,
+                            mapContent.getRenderingArea(),
+                            idColumn,
+                            where,
+                            buffer + CLIP_BUFFER_PIXELS);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Encoding vector tile layer in the database: " + sql);
+            }
+            st = cx.createStatement();
+            rs = st.executeQuery(sql);
+            byte[] result = rs.next() ? rs.getBytes(1) : null;
+            return result == null ? new byte[0] : result;
+        } catch (SQLException e) {
+            LOGGER.log(
+                    Level.WARNING,
+                    "Failed to encode vector tile layer "
+                            + tableName
+                            + " in the database, falling back on the feature pipeline",
+                    e);
+            return null;
+        } finally {
+            store.closeSafe(rs);
+            store.closeSafe(st);
+            store.closeSafe(cx);
+        }
+    }
+
+    private FeatureTypeInfo getFeatureTypeInfo(
+            WMSMapContent mapContent, FeatureSource<?, ?> source) {
+        GetMapRequest request = mapContent.getRequest();
+        if (request == null || request.getLayers() == null) {
+            return null;
+        }
+        for (MapLayerInfo mapLayer : request.getLayers()) {
+            if (mapLayer.getType() == MapLayerInfo.TYPE_VECTOR
+                    && mapLayer.getFeature() != null
+                    && mapLayer.getFeature().getQualifiedName().equals(source.getName())) {
+                return mapLayer.getFeature();
+            }
+        }
+        return null;
+    }
+
+    /** Checks whether other layers of the map would be encoded with the same layer name */
+    private boolean isNameShared(Layer layer, WMSMapContent mapContent) {
+        String name = layer.getFeatureSource().getName().getLocalPart();
+        for (Layer other : mapContent.layers()) {
+            if (other != layer
+                    && other.getFeatureSource() != null
+                    && name.equals(other.getFeatureSource().getName().getLocalPart())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Checks the published features are in the same CRS as the ones in the database */
+    private boolean hasNativeCRS(FeatureTypeInfo info) {
+        return info.getProjectionPolicy() == ProjectionPolicy.NONE
+                || CRS.equalsIgnoreMetadata(info.getNativeCRS(), info.getCRS());
+    }
+
+    private Integer getTargetSrid(ReferencedEnvelope renderingArea) {
+        CoordinateReferenceSystem crs = renderingArea.getCoordinateReferenceSystem();
+        if (crs == null || CRS.getAxisOrder(crs) == CRS.AxisOrder.NORTH_EAST) {
+            return null;
+        }
+        try {
+            return CRS.lookupEpsgCode(crs, false);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not determine the EPSG code of the map CRS", e);
+            return null;
+        }
+    }
+
+    /**
+     * Encodes the query filter, along with the layer definition filter, in SQL. Returns {@code
+     * null} if the filter cannot be fully encoded
+     */
+    private String encodeFilter(
+            JDBCDataStore store, SimpleFeatureType nativeSchema, Query query, FeatureTypeInfo info)
+            throws IOException {
+        Filter filter = query.getFilter() == null ? Filter.INCLUDE : query.getFilter();
+        try {
+            if (info.getCqlFilter() != null && !info.getCqlFilter().trim().isEmpty()) {
+                filter = FF.and(filter, ECQL.toFilter(info.getCqlFilter()));
+            }
+            FilterToSQL filterToSQL = store.createFilterToSQL(nativeSchema);
+            if (!filterToSQL.getCapabilities().fullySupports(filter)) {
+                return null;
+            }
+            filterToSQL.setInline(true);
+            return filterToSQL.encodeToString(filter);
+        } catch (FilterToSQLException | CQLException e) {
+            LOGGER.log(Level.FINE, "Could not encode the vector tile filter in SQL", e);
+            return null;
+        }
+    }
+
+    private int getVersion(JDBCDataStore store, Connection cx) {
+        Integer version = VERSIONS.get(store);
+        if (version == null) {
+            version = -1;
+            try (Statement st = cx.createStatement();
+                    ResultSet rs = st.executeQuery("SELECT postgis_lib_version()")) {
+                if (rs.next()) {
+                    String[] parts = rs.getString(1).split("\\.");
+                    version = Integer.parseInt(parts[0]) * 100 + Integer.parseInt(parts[1]);
+                }
+            } catch (SQLException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Could not determine the PostGIS version", e);
+            }
+            VERSIONS.put(store, version);
+        }
+        return version;
+    }
+
+    /**
+     * Returns the primary key column to be used as the MVT feature id, if the primary key is made
+     * of a single integral column, as the Java pipeline can only encode numeric ids
+     */
+    private String getIdColumn(JDBCDataStore store, String tableName) throws IOException {
+        ContentFeatureSource source = store.getFeatureSource(tableName);
+        PrimaryKey key = null;
+        if (source instanceof JDBCFeatureStore) {
+            key = ((JDBCFeatureStore) source).getPrimaryKey();
+        } else if (source instanceof JDBCFeatureSource) {
+            key = ((JDBCFeatureSource) source).getPrimaryKey();
+        }
+        if (key == null || key.getColumns().size() != 1) {
+            return null;
+        }
+        PrimaryKeyColumn column = key.getColumns().get(0);
+        Class<?> type = column.getType();
+        if (Integer.class.equals(type) || Long.class.equals(type) || Short.class.equals(type)) {
+            return column.getName();
+        }
+        return null;
+    }
+
+    private String buildSQL(
+            JDBCDataStore store,
+            Layer layer,
+            String tableName,
+            String geometryName,
+            int nativeSrid,
+            int targetSrid,
+            ReferencedEnvelope bounds,
+            String idColumn,
+            String where,
+            int buffer) {
+        SQLDialect dialect = store.getSQLDialect();
+        StringBuffer sql = new StringBuffer("SELECT ST_AsMVT(q, ");
+        appendLiteral(layer.getFeatureSource().getName().getLocalPart(), sql);
+        sql.append(", ").append(extent).append(", ");
+        appendLiteral(GEOMETRY_ALIAS, sql);
+        if (idColumn != null) {
+            sql.append(", ");
+            appendLiteral(idColumn, sql);
+        }
+        sql.append(") FROM (SELECT ");
+
+        // the published attributes, which might be a subset of the table ones
+        for (PropertyDescriptor pd : layer.getFeatureSource().getSchema().getDescriptors()) {
+            if (pd instanceof AttributeDescriptor && !(pd instanceof GeometryDescriptor)) {
+                dialect.encodeColumnName(null, pd.getName().getLocalPart(), sql);
+                sql.append(", ");
+            }
+        }
+        if (idColumn != null) {
+            dialect.encodeColumnName(null, idColumn, sql);
+            sql.append(", ");
+        }
+
+        String envelope =
+                "ST_MakeEnvelope("
+                        + bounds.getMinX()
+                        + ", "
+                        + bounds.getMinY()
+                        + ", "
+                        + bounds.getMaxX()
+                        + ", "
+                        + bounds.getMaxY()
+                        + ", "
+                        + targetSrid
+                        + ")";
+        sql.append("ST_AsMVTGeom(");
+        if (nativeSrid != targetSrid) {
+            sql.append("ST_Transform(");
+            dialect.encodeColumnName(null, geometryName, sql);
+            sql.append(", ").append(targetSrid).append(")");
+        } else {
+            dialect.encodeColumnName(null, geometryName, sql);
+        }
+        sql.append(", ").append(envelope).append(", ").append(extent);
+        sql.append(", ").append(buffer).append(", true) AS ");
+        sql.append('"').append(GEOMETRY_ALIAS).append('"');
+
+        sql.append(" FROM ");
+        if (store.getDatabaseSchema() != null) {
+            dialect.encodeSchemaName(store.getDatabaseSchema(), sql);
+            sql.append(".");
+        }
+        dialect.encodeTableName(tableName, sql);
+        if (where != null && !where.trim().isEmpty()) {
+            sql.append(" WHERE ").append(where);
+        }
+        sql.append(") AS q WHERE q.\"").append(GEOMETRY_ALIAS).append("\" IS NOT NULL");
+        return sql.toString();
+    }
+
+    private void appendLiteral(String value, StringBuffer sql) {
+        sql.append('\'').append(value.replace("'", "''")).append('\'');
+    }
+}
@@ -8,6 +8,8 @@ import java.io.IOException;
 import java.util.Map;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WebMap;
+import org.geotools.data.Query;
+import org.geotools.map.Layer;
 import org.locationtech.jts.geom.Geometry;
 
 /** Collects features into a vector tile */
@@ -29,6 +31,23 @@ public interface VectorTileBuilder {
             Geometry geometry,
             Map<String, Object> properties);
 
+    /**
+     * Tries to add a whole layer to the tile in one shot, for example by having the data source
+     * encode it, skipping the feature by feature pipeline
+     *
+     * @param layer The layer to add
+     * @param query The query selecting the features relevant to the style and tile extent
+     * @param mapContent The context for building the tile
+     * @param buffer The rendering buffer, in pixels
+     * @return {@code true} if the layer has been added, {@code false} if its features should be
+     *     added one by one instead
+     * @throws IOException
+     */
+    default boolean addLayer(Layer layer, Query query, WMSMapContent mapContent, int buffer)
+            throws IOException {
+        return false;
+    }
+
     /**
      * Build the tile
      *
@@ -122,12 +122,20 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
                                     paintArea,
                                     VectorMapRenderUtils.getMapScale(mapContent, renderingArea),
                                     (FeatureType) featureSource.getSchema()));
-            Pipeline pipeline =
-                    getPipeline(mapContent, renderingArea, paintArea, sourceCrs, buffer);
-
             Query query = getStyleQuery(layer, mapContent);
             query.getHints().remove(Hints.SCREENMAP);
 
+            // let the builder encode the whole layer if it can, it only knows how to do that
+            // with clipped features in screen coordinates
+            if (clipToMapBounds
+                    && transformToScreenCoordinates
+                    && vectorTileBuilder.addLayer(layer, query, mapContent, buffer)) {
+                continue;
+            }
+
+            Pipeline pipeline =
+                    getPipeline(mapContent, renderingArea, paintArea, sourceCrs, buffer);
+
             FeatureCollection<?, ?> features = featureSource.getFeatures(query);
 
             run(features, pipeline, geometryDescriptor, vectorTileBuilder, layer);
@@ -0,0 +1,244 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.mapbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import no.ecc.vectortile.VectorTileDecoder;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.ProjectionPolicy;
+import org.geoserver.catalog.SLDHandler;
+import org.geoserver.config.GeoServerLoader;
+import org.geoserver.platform.GeoServerExtensionsHelper;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.map.RawMap;
+import org.geoserver.wms.vector.VectorTileMapOutputFormat;
+import org.geotools.data.DataStoreFinder;
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.map.FeatureLayer;
+import org.geotools.referencing.CRS;
+import org.geotools.styling.NamedLayer;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyledLayerDescriptor;
+import org.geotools.test.FixtureUtilities;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.springframework.context.support.StaticApplicationContext;
+
+/**
+ * Runs the database encoding of vector tile layers against a PostGIS database, configured in the
+ * {@code ~/.geoserver/vectortiles-postgis.properties} fixture file with the PostGIS data store
+ * connection parameters. The tests are skipped if the fixture file is missing.
+ */
+public class PostGISTileEncoderOnlineTest {
+
+    static final String FIXTURE_ID = "vectortiles-postgis";
+
+    static final String TABLE = "mvt_points";
+
+    private JDBCDataStore store;
+
+    private SimpleFeatureSource source;
+
+    private Style style;
+
+    private CoordinateReferenceSystem webMercator;
+
+    private List<WMSMapContent> mapContents = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        File fixtureFile =
+                FixtureUtilities.getFixtureFile(
+                        new File(System.getProperty("user.home"), ".geoserver"), FIXTURE_ID);
+        if (!fixtureFile.exists()) {
+            FixtureUtilities.printSkipNotice(FIXTURE_ID, fixtureFile);
+        }
+        Assume.assumeTrue(fixtureFile.exists());
+        Properties fixture = FixtureUtilities.loadProperties(fixtureFile);
+        store = (JDBCDataStore) DataStoreFinder.getDataStore(new HashMap<>(fixture));
+        Assume.assumeTrue(store != null);
+
+        // avoid lots of application context unset warnings in the console
+        GeoServerExtensionsHelper.init(new StaticApplicationContext());
+
+        try (Connection cx = store.getConnection(Transaction.AUTO_COMMIT);
+                Statement st = cx.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS \"" + TABLE + "\"");
+            st.execute(
+                    "CREATE TABLE \""
+                            + TABLE
+                            + "\" (fid serial PRIMARY KEY, name varchar, "
+                            + "geom geometry(Point, 4326))");
+            st.execute(
+                    "INSERT INTO \""
+                            + TABLE
+                            + "\" (name, geom) VALUES "
+                            + "('a', ST_SetSRID(ST_MakePoint(10, 10), 4326)), "
+                            + "('b', ST_SetSRID(ST_MakePoint(20, 20), 4326))");
+        }
+        source = store.getFeatureSource(TABLE);
+        style = parseStyle("default_point.sld");
+        webMercator = CRS.decode("EPSG:3857");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mapContents.forEach(mc -> mc.dispose());
+        if (store != null) {
+            try (Connection cx = store.getConnection(Transaction.AUTO_COMMIT);
+                    Statement st = cx.createStatement()) {
+                st.execute("DROP TABLE IF EXISTS \"" + TABLE + "\"");
+            }
+            store.dispose();
+        }
+    }
+
+    @Test
+    public void testEncodeInDatabase() throws Exception {
+        FeatureLayer layer = new FeatureLayer(source, style);
+        WMSMapContent mapContent = createMapContent(layer);
+
+        MapBoxTileBuilder builder =
+                new MapBoxTileBuilder(new Rectangle(256, 256), mapContent.getRenderingArea());
+        assertTrue(builder.addLayer(layer, new Query(TABLE), mapContent, 0));
+
+        byte[] tile = encode(builder.build(mapContent));
+        assertEquals(1, countLayers(tile));
+        assertEquals(2, new VectorTileDecoder().decode(tile, TABLE).asList().size());
+    }
+
+    @Test
+    public void testSharedLayerName() throws Exception {
+        // the same table, twice in the same map
+        FeatureLayer layer1 = new FeatureLayer(source, style);
+        FeatureLayer layer2 = new FeatureLayer(source, style);
+        WMSMapContent mapContent = createMapContent(layer1, layer2);
+
+        MapBoxTileBuilder builder =
+                new MapBoxTileBuilder(new Rectangle(256, 256), mapContent.getRenderingArea());
+        assertFalse(builder.addLayer(layer1, new Query(TABLE), mapContent, 0));
+        assertFalse(builder.addLayer(layer2, new Query(TABLE), mapContent, 0));
+
+        // the whole map ends up in a single vector tile layer, with the features of both
+        VectorTileMapOutputFormat outputFormat =
+                new VectorTileMapOutputFormat(new MapBoxTileBuilderFactory());
+        outputFormat.setClipToMapBounds(true);
+        outputFormat.setTransformToScreenCoordinates(true);
+        byte[] tile = encode((RawMap) outputFormat.produceMap(mapContent));
+        assertEquals(1, countLayers(tile));
+        assertEquals(4, new VectorTileDecoder().decode(tile, TABLE).asList().size());
+    }
+
+    private WMSMapContent createMapContent(FeatureLayer... layers) throws Exception {
+        ReferencedEnvelope bounds = new ReferencedEnvelope(0, 4e6, 0, 4e6, webMercator);
+
+        FeatureTypeInfo info = mock(FeatureTypeInfo.class);
+        DataStoreInfo storeInfo = mock(DataStoreInfo.class);
+        doReturn(store).when(storeInfo).getDataStore(null);
+        when(info.getStore()).thenReturn(storeInfo);
+        when(info.getNativeName()).thenReturn(TABLE);
+        when(info.getQualifiedName()).thenReturn(source.getName());
+        when(info.getProjectionPolicy()).thenReturn(ProjectionPolicy.NONE);
+        MapLayerInfo mapLayer = mock(MapLayerInfo.class);
+        when(mapLayer.getType()).thenReturn(MapLayerInfo.TYPE_VECTOR);
+        when(mapLayer.getFeature()).thenReturn(info);
+
+        GetMapRequest request = new GetMapRequest();
+        List<MapLayerInfo> mapLayers = new ArrayList<>();
+        List<Style> styles = new ArrayList<>();
+        for (int i = 0; i < layers.length; i++) {
+            mapLayers.add(mapLayer);
+            styles.add(style);
+        }
+        request.setLayers(mapLayers);
+        request.setStyles(styles);
+        request.setBbox((Envelope) bounds);
+        request.setCrs(webMercator);
+        request.setSRS("EPSG:3857");
+        request.setWidth(256);
+        request.setHeight(256);
+        request.setRawKvp(new HashMap<>());
+
+        WMSMapContent mapContent = new WMSMapContent(request);
+        mapContent.getViewport().setBounds(bounds);
+        for (FeatureLayer layer : layers) {
+            mapContent.addLayer(layer);
+        }
+        mapContent.setMapWidth(256);
+        mapContent.setMapHeight(256);
+        mapContents.add(mapContent);
+        return mapContent;
+    }
+
+    private byte[] encode(RawMap map) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        map.writeTo(bos);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Counts the layer messages in the tile, the decoder merges the ones sharing the same name.
+     * Layers are the field 3 of the tile message, the only one a tile has.
+     */
+    private int countLayers(byte[] tile) {
+        int count = 0;
+        int[] position = {0};
+        while (position[0] < tile.length) {
+            long key = readVarint(tile, position);
+            assertEquals("Unexpected wire type", 2, key & 0x7);
+            if ((key >>> 3) == 3) {
+                count++;
+            }
+            position[0] += (int) readVarint(tile, position);
+        }
+        return count;
+    }
+
+    private long readVarint(byte[] bytes, int[] position) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[position[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static Style parseStyle(String styleResource) throws IOException {
+        try (InputStream in = GeoServerLoader.class.getResourceAsStream(styleResource)) {
+            StyledLayerDescriptor sld = new SLDHandler().parse(in, null, null, null);
+            return ((NamedLayer) sld.getStyledLayers()[0]).getStyles()[0];
+        }
+    }
+}
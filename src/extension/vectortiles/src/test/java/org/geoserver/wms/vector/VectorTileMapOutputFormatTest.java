@@ -355,6 +355,30 @@ public class VectorTileMapOutputFormatTest {
                         any(Map.class));
     }
 
+    @Test
+    public void testLayerEncodedByBuilder() throws Exception {
+        outputFormat.setTransformToScreenCoordinates(true);
+
+        ReferencedEnvelope mapBounds = new ReferencedEnvelope(-90, 90, 0, 180, WGS84);
+        Rectangle renderingArea = new Rectangle(256, 256);
+
+        WMSMapContent mapContent = createMapContent(mapBounds, renderingArea, null, pointLayer);
+
+        WebMap mockMap = mock(WebMap.class);
+        when(tileBuilderMock.build(same(mapContent))).thenReturn(mockMap);
+        when(tileBuilderMock.addLayer(
+                        same(pointLayer), any(Query.class), same(mapContent), anyInt()))
+                .thenReturn(true);
+
+        assertSame(mockMap, outputFormat.produceMap(mapContent));
+
+        verify(tileBuilderMock, times(1))
+                .addLayer(same(pointLayer), any(Query.class), same(mapContent), anyInt());
+        verify(tileBuilderMock, never())
+                .addFeature(
+                        anyString(), anyString(), anyString(), any(Geometry.class), any(Map.class));
+    }
+
     @Test
     public void testCQLfilter() throws Exception {
         ReferencedEnvelope mapBounds = new ReferencedEnvelope(-90, 90, 0, 180, WGS84);
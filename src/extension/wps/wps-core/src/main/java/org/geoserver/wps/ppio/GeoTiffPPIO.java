@@ -66,7 +66,11 @@ public class GeoTiffPPIO extends BinaryPPIO {
     private static final Logger LOGGER = Logging.getLogger(GeoTiffPPIO.class);
 
     protected GeoTiffPPIO() {
-        super(GridCoverage2D.class, GridCoverage2D.class, "image/tiff");
+        this("image/tiff");
+    }
+
+    protected GeoTiffPPIO(String mimeType) {
+        super(GridCoverage2D.class, GridCoverage2D.class, mimeType);
     }
 
     @Override
@@ -97,6 +101,7 @@ public class GeoTiffPPIO extends BinaryPPIO {
             throws Exception {
         GridCoverage2D coverage = (GridCoverage2D) value;
         GeoTiffWriterHelper helper = new GeoTiffWriterHelper(coverage);
+        setDefaultParams(helper);
         setEncodingParams(helper, encodingParameters);
 
         try {
@@ -106,6 +111,14 @@ public class GeoTiffPPIO extends BinaryPPIO {
         }
     }
 
+    /**
+     * Allows subclasses to change the default writing parameters, before the encoding parameters
+     * are applied
+     */
+    protected void setDefaultParams(GeoTiffWriterHelper helper) {
+        // nothing to do by default
+    }
+
     private void setEncodingParams(
             GeoTiffWriterHelper helper, Map<String, Object> encodingParameters) {
         if (encodingParameters != null && !encodingParameters.isEmpty()) {
@@ -8,6 +8,7 @@ package org.geoserver.gwc;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -93,8 +94,9 @@ public class ConfigurableBlobStore extends MemoryBlobStore implements BlobStore
         // 2 containing a mapping key-cacheProvider description
         // 3 containing a mapping key-cacheConfiguration
         // where key is the cacheProvider classname
-        HashMap<String, CacheProvider> cacheProviders = new HashMap<String, CacheProvider>();
-        HashMap<String, String> cacheProvidersNames = new HashMap<String, String>();
+        // keep the extension order, so that the default provider comes first
+        Map<String, CacheProvider> cacheProviders = new LinkedHashMap<String, CacheProvider>();
+        Map<String, String> cacheProvidersNames = new LinkedHashMap<String, String>();
         List<CacheProvider> extensions = GeoServerExtensions.extensions(CacheProvider.class);
         for (CacheProvider provider : extensions) {
             if (provider.isAvailable()) {
@@ -388,6 +390,24 @@ public class ConfigurableBlobStore extends MemoryBlobStore implements BlobStore
         return new CacheStatistics();
     }
 
+    /**
+     * Returns the hit and miss statistics of each layer, if the configured cache provider tracks
+     * them (see {@link StripedMemoryCacheProvider#getLayerStatistics()}), or an empty map otherwise
+     */
+    public Map<String, CacheStatistics> getLayerCacheStatistics() {
+        if (configured.get()) {
+            actualOperations.incrementAndGet();
+            try {
+                if (cache instanceof StripedMemoryCacheProvider) {
+                    return ((StripedMemoryCacheProvider) cache).getLayerStatistics();
+                }
+            } finally {
+                actualOperations.decrementAndGet();
+            }
+        }
+        return Collections.emptyMap();
+    }
+
     public void clearCache() {
         // Check if the blobstore has already been configured
         if (configured.get()) {
@@ -494,6 +514,10 @@ public class ConfigurableBlobStore extends MemoryBlobStore implements BlobStore
         // Getting Cache configuration for the CacheProvider
         CacheConfiguration cacheConfiguration =
                 gwcConfig.getCacheConfigurations().get(cacheProvider);
+        if (cacheConfiguration == null) {
+            // provider never configured before, go with the defaults
+            cacheConfiguration = new CacheConfiguration();
+        }
         // Add the internal Cache configuration for the first time
         if (LOGGER.isLoggable(Level.FINEST)) {
             LOGGER.finest("Configuring cache");
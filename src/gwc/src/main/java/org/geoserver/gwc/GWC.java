@@ -20,6 +20,8 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
@@ -37,6 +39,15 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.http.Cookie;
@@ -80,6 +91,7 @@ import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapResponse;
+import org.geotools.data.util.NullProgressListener;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
 import org.geotools.geometry.GeneralEnvelope;
@@ -148,6 +160,7 @@ import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.NoSuchAuthorityCodeException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
+import org.opengis.util.ProgressListener;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
@@ -163,7 +176,15 @@ import org.springframework.context.ApplicationContextAware;
  */
 public class GWC implements DisposableBean, InitializingBean, ApplicationContextAware {
 
-    private static final String GLOBAL_LOCK_KEY = "global";
+    private static final String GRIDSET_LOCK_PREFIX = "gwc_lock_gridset_";
+
+    private static final String LAYER_LOCK_PREFIX = "gwc_lock_layer_";
+
+    /** Number of threads used to update/truncate layers during gridset changes */
+    static final int LAYER_UPDATE_THREADS =
+            Integer.getInteger(
+                    "gwc.layer.update.threads", Runtime.getRuntime().availableProcessors());
+
     public static final String WORKSPACE_PARAM = "WORKSPACE";
 
     /** @see #get() */
@@ -172,7 +193,7 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
     static final Logger log = Logging.getLogger(GWC.class);
 
     /** @see #getResponseEncoder(MimeType, RenderedImageMap) */
-    private Map<String, Response> cachedTileEncoders = new HashMap<String, Response>();
+    private Map<String, Response> cachedTileEncoders = new ConcurrentHashMap<String, Response>();
 
     private final TileLayerDispatcher tld;
 
@@ -213,6 +234,9 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
 
     private BlobStoreAggregator blobStoreAggregator;
 
+    /** @see #getLayerUpdateExecutor() */
+    private ExecutorService layerUpdateExecutor;
+
     /**
      * Constructor for the GWC mediator
      *
@@ -337,6 +361,13 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         if (this.catalogStyleChangeListener != null) {
             catalog.removeListener(this.catalogStyleChangeListener);
         }
+        synchronized (this) {
+            if (layerUpdateExecutor != null) {
+                layerUpdateExecutor.shutdown();
+                layerUpdateExecutor = null;
+            }
+        }
+        GeoServerTileLayer.shutdownMetatileEncoderPool();
         GWC.set(null);
     }
 
@@ -1559,11 +1590,36 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         tld.addGridSet(gridSet);
     }
 
-    public synchronized void modifyGridSet(final String oldGridSetName, final GridSet newGridSet)
+    public void modifyGridSet(final String oldGridSetName, final GridSet newGridSet)
+            throws IllegalArgumentException, IOException, GeoWebCacheException {
+        modifyGridSet(oldGridSetName, newGridSet, new NullProgressListener());
+    }
+
+    /**
+     * Replaces the gridset named {@code oldGridSetName} with {@code newGridSet}, updating (and
+     * truncating if needed) all the tile layers referencing it.
+     *
+     * <p>The affected layers are processed in parallel on a bounded executor, each one while
+     * holding its own layer lock, so that only the affected layers are ever locked. Progress is
+     * reported to the {@code listener} as the layers get processed, and the operation is stopped
+     * as soon as the listener gets cancelled or the calling thread is interrupted.
+     *
+     * <p>If the operation is stopped, or fails on any layer, the changes are rolled back: the
+     * layers get their original gridsubset back and the old gridset is restored in the broker. The
+     * tiles already truncated are not restored, the affected layers will just have to re-render
+     * them.
+     *
+     * @param oldGridSetName the name of the gridset to be replaced
+     * @param newGridSet the new gridset definition
+     * @param listener the progress listener, used also to check for cancellation
+     */
+    public void modifyGridSet(
+            final String oldGridSetName, final GridSet newGridSet, ProgressListener listener)
             throws IllegalArgumentException, IOException, GeoWebCacheException {
 
         checkNotNull(oldGridSetName);
         checkNotNull(newGridSet);
+        checkNotNull(listener);
 
         final GridSet oldGridSet = gridSetBroker.get(oldGridSetName);
         if (null == oldGridSet) {
@@ -1577,76 +1633,298 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
             log.info("### New gridset: " + newGridSet);
         }
 
-        Map<TileLayer, GridSubset> affectedLayers = new HashMap<TileLayer, GridSubset>();
-        Lock lock = null;
+        final String operation = "Modify gridset " + oldGridSetName;
+        // the original gridsubset of the layers detached from the old gridset
+        final Map<TileLayer, GridSubset> affectedLayers = new ConcurrentHashMap<>();
+        // the layers whose configuration has been saved with the new gridsubset
+        final Set<TileLayer> savedLayers = ConcurrentHashMap.newKeySet();
+        // lock both the old and new gridset names, in a predictable order to avoid deadlocks
+        final List<Lock> locks = new ArrayList<>();
         try {
-            lock = lockProvider.getLock(GLOBAL_LOCK_KEY);
+            for (String gridSetName :
+                    new TreeSet<>(Arrays.asList(oldGridSetName, newGridSet.getName()))) {
+                locks.add(lockProvider.getLock(GRIDSET_LOCK_PREFIX + gridSetName));
+            }
+            listener.started();
 
+            List<TileLayer> candidates = new ArrayList<>();
             for (TileLayer layer : getTileLayers()) {
-                GridSubset gridSubet;
-                if (null != (gridSubet = layer.getGridSubset(oldGridSetName))) {
-                    affectedLayers.put(layer, gridSubet);
-                    layer.removeGridSubset(oldGridSetName);
-                    if (needsTruncate) {
-                        deleteCacheByGridSetId(layer.getName(), oldGridSetName);
-                    }
+                if (layer.getGridSubset(oldGridSetName) != null) {
+                    candidates.add(layer);
                 }
             }
 
-            getGridSetBroker().remove(oldGridSetName);
-            getGridSetBroker().put(newGridSet);
-
-            // tld.removeGridset(oldGridSetName);
-            // tld.addGridSet(newGridSet);
-            // if (isRename && !needsTruncate) {
-            // // /TODO: quotaStore.renameGridSet(oldGridSetName, newGidSetName);
-            // }
-
-            final boolean sameSRS = oldGridSet.getSrs().equals(newGridSet.getSrs());
+            // first detach the old gridsubset (and the cache) from each affected layer
+            try {
+                runPerLayer(
+                        operation,
+                        candidates,
+                        layer -> {
+                            GridSubset gridSubet = layer.getGridSubset(oldGridSetName);
+                            if (null != gridSubet) {
+                                affectedLayers.put(layer, gridSubet);
+                                layer.removeGridSubset(oldGridSetName);
+                                if (needsTruncate) {
+                                    deleteCacheByGridSetId(layer.getName(), oldGridSetName);
+                                }
+                            }
+                        },
+                        listener,
+                        0f,
+                        50f);
+            } catch (IOException | GeoWebCacheException | RuntimeException e) {
+                // the broker has not been touched yet, just re-attach the layers
+                restoreGridSubsets(operation, affectedLayers, null, null, false);
+                throw e;
+            }
 
-            final int maxZoomLevel = newGridSet.getNumLevels() - 1;
+            try {
+                getGridSetBroker().remove(oldGridSetName);
+                getGridSetBroker().put(newGridSet);
+
+                // tld.removeGridset(oldGridSetName);
+                // tld.addGridSet(newGridSet);
+                // if (isRename && !needsTruncate) {
+                // // /TODO: quotaStore.renameGridSet(oldGridSetName, newGidSetName);
+                // }
+
+                final boolean sameSRS = oldGridSet.getSrs().equals(newGridSet.getSrs());
+
+                final int maxZoomLevel = newGridSet.getNumLevels() - 1;
+
+                // now restore the gridsubset for each layer
+                runPerLayer(
+                        operation,
+                        affectedLayers.keySet(),
+                        layer -> {
+                            GridSubset gsubset = affectedLayers.get(layer);
+
+                            BoundingBox gridSetExtent = gsubset.getOriginalExtent();
+                            if (null != gridSetExtent && sameSRS) {
+                                gridSetExtent =
+                                        newGridSet.getOriginalExtent().intersection(gridSetExtent);
+                            }
 
-            Set<TileLayerConfiguration> saveConfigurations = new HashSet<>();
+                            int zoomStart = gsubset.getZoomStart();
+                            int zoomStop = gsubset.getZoomStop();
 
-            // now restore the gridsubset for each layer
-            for (Map.Entry<TileLayer, GridSubset> entry : affectedLayers.entrySet()) {
-                TileLayer layer = entry.getKey();
-                GridSubset gsubset = entry.getValue();
+                            if (zoomStart > maxZoomLevel) {
+                                zoomStart = maxZoomLevel;
+                            }
+                            if (zoomStop > maxZoomLevel || zoomStop < zoomStart) {
+                                zoomStop = maxZoomLevel;
+                            }
 
-                BoundingBox gridSetExtent = gsubset.getOriginalExtent();
-                if (null != gridSetExtent && sameSRS) {
-                    gridSetExtent = newGridSet.getOriginalExtent().intersection(gridSetExtent);
+                            GridSubset newGridSubset =
+                                    GridSubsetFactory.createGridSubSet(
+                                            newGridSet, gridSetExtent, zoomStart, zoomStop);
+
+                            layer.removeGridSubset(oldGridSetName);
+                            layer.addGridSubset(newGridSubset);
+
+                            TileLayerConfiguration config = tld.getConfiguration(layer);
+                            config.modifyLayer(layer);
+                            savedLayers.add(layer);
+                        },
+                        listener,
+                        50f,
+                        100f);
+            } catch (IOException | GeoWebCacheException | RuntimeException e) {
+                // put back the old gridset, and the old gridsubset in all the layers
+                restoreGridSubsets(
+                        operation, affectedLayers, oldGridSet, newGridSet, needsTruncate);
+                for (TileLayer layer : savedLayers) {
+                    try {
+                        tld.getConfiguration(layer).modifyLayer(layer);
+                    } catch (RuntimeException re) {
+                        log.log(
+                                Level.WARNING,
+                                operation + ": failed to restore layer " + layer.getName(),
+                                re);
+                    }
                 }
+                throw e;
+            }
 
-                int zoomStart = gsubset.getZoomStart();
-                int zoomStop = gsubset.getZoomStop();
+            listener.complete();
+        } finally {
+            for (Lock lock : locks) {
+                lock.release();
+            }
+        }
+    }
 
-                if (zoomStart > maxZoomLevel) {
-                    zoomStart = maxZoomLevel;
+    /**
+     * Rolls back a partial gridset modification, re-attaching the original gridsubsets to the
+     * layers they have been detached from. If {@code newGridSet} is not null the broker has already
+     * been updated, so the new gridset is detached from the layers and replaced with {@code
+     * oldGridSet} in the broker first. Failures are logged, so that as many layers as possible get
+     * restored.
+     */
+    private void restoreGridSubsets(
+            final String operation,
+            final Map<TileLayer, GridSubset> detached,
+            final GridSet oldGridSet,
+            final GridSet newGridSet,
+            final boolean truncateNew) {
+        if (newGridSet != null) {
+            final String newGridSetName = newGridSet.getName();
+            for (TileLayer layer : detached.keySet()) {
+                if (layer.removeGridSubset(newGridSetName) != null && truncateNew) {
+                    // tiles cached in the meantime are not valid for the old gridset
+                    try {
+                        deleteCacheByGridSetId(layer.getName(), newGridSetName);
+                    } catch (RuntimeException e) {
+                        log.log(
+                                Level.WARNING,
+                                operation + ": failed to truncate layer " + layer.getName(),
+                                e);
+                    }
                 }
-                if (zoomStop > maxZoomLevel || zoomStop < zoomStart) {
-                    zoomStop = maxZoomLevel;
+            }
+            try {
+                if (getGridSetBroker().get(newGridSetName) != null) {
+                    getGridSetBroker().remove(newGridSetName);
                 }
+                if (getGridSetBroker().get(oldGridSet.getName()) == null) {
+                    getGridSetBroker().put(oldGridSet);
+                }
+            } catch (RuntimeException e) {
+                log.log(
+                        Level.WARNING,
+                        operation + ": failed to restore gridset " + oldGridSet.getName(),
+                        e);
+            }
+        }
+        for (Map.Entry<TileLayer, GridSubset> entry : detached.entrySet()) {
+            entry.getKey().addGridSubset(entry.getValue());
+        }
+    }
 
-                GridSubset newGridSubset =
-                        GridSubsetFactory.createGridSubSet(
-                                newGridSet, gridSetExtent, zoomStart, zoomStop);
+    /**
+     * Runs the given action against each layer on the layer update executor, each one while
+     * holding the lock of the layer it's working on. Progress is reported to the listener linearly
+     * between {@code startProgress} and {@code endProgress} as the actions complete.
+     *
+     * <p>If the listener gets cancelled, or the calling thread gets interrupted, the pending
+     * actions are skipped and a {@link GeoWebCacheException} is thrown. The first failure of an
+     * action also skips the pending ones and is rethrown to the caller. The actions already running
+     * are never interrupted, as that would break the storage I/O they are performing, and are
+     * waited for before returning, so that the caller can safely roll back their changes.
+     */
+    private void runPerLayer(
+            final String operation,
+            final Collection<TileLayer> layers,
+            final LayerAction action,
+            final ProgressListener listener,
+            final float startProgress,
+            final float endProgress)
+            throws IOException, GeoWebCacheException {
+        if (listener.isCanceled()) {
+            throw new GeoWebCacheException(operation + " has been cancelled");
+        }
+        if (layers.isEmpty()) {
+            listener.progress(endProgress);
+            return;
+        }
 
-                layer.removeGridSubset(oldGridSetName);
-                layer.addGridSubset(newGridSubset);
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final CompletionService<String> completion =
+                new ExecutorCompletionService<>(getLayerUpdateExecutor());
+        final List<Future<String>> futures = new ArrayList<>(layers.size());
+        for (final TileLayer layer : layers) {
+            futures.add(
+                    completion.submit(
+                            () -> {
+                                if (stopped.get() || listener.isCanceled()) {
+                                    return layer.getName();
+                                }
+                                Lock lock = null;
+                                try {
+                                    lock =
+                                            lockProvider.getLock(
+                                                    LAYER_LOCK_PREFIX + layer.getName());
+                                    action.run(layer);
+                                } finally {
+                                    if (lock != null) {
+                                        lock.release();
+                                    }
+                                }
+                                return layer.getName();
+                            }));
+        }
 
-                TileLayerConfiguration config = tld.getConfiguration(layer);
-                config.modifyLayer(layer);
-                saveConfigurations.add(config);
+        final float step = (endProgress - startProgress) / layers.size();
+        try {
+            for (int done = 1; done <= futures.size(); done++) {
+                Future<String> future = null;
+                while (future == null) {
+                    if (listener.isCanceled()) {
+                        throw new GeoWebCacheException(operation + " has been cancelled");
+                    }
+                    future = completion.poll(1, TimeUnit.SECONDS);
+                }
+                String layerName = future.get();
+                listener.progress(startProgress + step * done);
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine(
+                            operation
+                                    + ": processed layer "
+                                    + layerName
+                                    + " ("
+                                    + done
+                                    + "/"
+                                    + futures.size()
+                                    + ")");
+                }
             }
-
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeoWebCacheException(operation + " has been interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            listener.exceptionOccurred(cause);
+            Throwables.propagateIfPossible(cause, IOException.class, GeoWebCacheException.class);
+            throw new GeoWebCacheException(cause);
         } finally {
-            if (lock != null) {
-                lock.release();
+            // no-op for the completed ones, makes the pending ones skip their action in case of
+            // failure, and waits for the running ones to be done with their layer
+            stopped.set(true);
+            for (Future<String> future : futures) {
+                try {
+                    Uninterruptibles.getUninterruptibly(future);
+                } catch (ExecutionException ignore) {
+                    // already reported, or following the first failure
+                }
             }
         }
     }
 
+    /**
+     * Returns the executor used to process layers in parallel during gridset modifications and
+     * removals, creating it on first usage. The pool size is controlled by the {@code
+     * gwc.layer.update.threads} system variable, and defaults to the number of available
+     * processors.
+     */
+    private synchronized ExecutorService getLayerUpdateExecutor() {
+        if (layerUpdateExecutor == null) {
+            layerUpdateExecutor =
+                    Executors.newFixedThreadPool(
+                            LAYER_UPDATE_THREADS,
+                            new ThreadFactoryBuilder()
+                                    .setNameFormat("GWC-LayerUpdate-%d")
+                                    .setDaemon(true)
+                                    .build());
+        }
+        return layerUpdateExecutor;
+    }
+
+    /** An action performed on a single tile layer, while holding its layer lock */
+    @FunctionalInterface
+    private interface LayerAction {
+        void run(TileLayer layer) throws IOException, GeoWebCacheException;
+    }
+
     private BlobStoreAggregator getBlobStoreAggregator() {
         return blobStoreAggregator;
     }
@@ -1661,10 +1939,10 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
      */
     @SuppressWarnings("unchecked")
     public Response getResponseEncoder(MimeType responseFormat, RenderedImageMap metaTileMap) {
-        final String format = responseFormat.getFormat();
         final String mimeType = responseFormat.getMimeType();
 
-        Response response = cachedTileEncoders.get(format);
+        // the encoders are looked up by mime type, and called concurrently while slicing meta tiles
+        Response response = cachedTileEncoders.get(mimeType);
         if (response == null) {
             final Operation operation;
             {
@@ -1685,11 +1963,9 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
             final Class<?> webMapClass = metaTileMap.getClass();
             for (Response r : extensions) {
                 if (r.getBinding().isAssignableFrom(webMapClass) && r.canHandle(operation)) {
-                    synchronized (cachedTileEncoders) {
-                        cachedTileEncoders.put(mimeType, r);
-                        response = r;
-                        break;
-                    }
+                    cachedTileEncoders.put(mimeType, r);
+                    response = r;
+                    break;
                 }
             }
             if (response == null) {
@@ -2103,41 +2379,101 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         }
     }
 
-    public synchronized void removeGridSets(final Set<String> gridsetIds)
+    public void removeGridSets(final Set<String> gridsetIds)
+            throws IOException, GeoWebCacheException {
+        removeGridSets(gridsetIds, new NullProgressListener());
+    }
+
+    /**
+     * Removes the given gridsets, along with the cached contents of all the tile layers referencing
+     * them. The affected layers are processed in parallel, see {@link #modifyGridSet(String,
+     * GridSet, ProgressListener)} for details about locking, progress and cancellation.
+     *
+     * <p>The gridsets are removed from the broker only once all the layers have been updated. If
+     * the operation is stopped, or fails on any layer, the layers get their gridsubsets back (but
+     * not the truncated tiles) and the gridsets are left in place.
+     *
+     * @param gridsetIds the names of the gridsets to be removed
+     * @param listener the progress listener, used also to check for cancellation
+     */
+    public void removeGridSets(final Set<String> gridsetIds, ProgressListener listener)
             throws IOException, GeoWebCacheException {
         checkNotNull(gridsetIds);
+        checkNotNull(listener);
+
+        final String operation = "Remove gridsets " + gridsetIds;
+        // the gridsubsets removed from each layer, and whether the layer was enabled
+        final Map<TileLayer, List<GridSubset>> removedSubsets = new ConcurrentHashMap<>();
+        final Set<TileLayer> enabledLayers = ConcurrentHashMap.newKeySet();
+        // lock the gridsets in a predictable order, to avoid deadlocks
+        final List<Lock> locks = new ArrayList<>();
+        try {
+            for (String gridSetId : new TreeSet<>(gridsetIds)) {
+                locks.add(lockProvider.getLock(GRIDSET_LOCK_PREFIX + gridSetId));
+            }
+            listener.started();
 
-        final Set<String> affectedLayers = getLayerNamesForGridSets(gridsetIds);
+            final Set<String> affectedLayerNames = getLayerNamesForGridSets(gridsetIds);
+            final List<TileLayer> affectedLayers = new ArrayList<>(affectedLayerNames.size());
+            for (String layerName : affectedLayerNames) {
+                affectedLayers.add(getTileLayerByName(layerName));
+            }
 
-        for (String layerName : affectedLayers) {
-            TileLayer tileLayer = getTileLayerByName(layerName);
-            Lock lock = null;
             try {
-                lock = lockProvider.getLock("gwc_lock_layer_" + layerName);
-
-                for (String gridSetId : gridsetIds) {
-                    if (tileLayer.getGridSubsets().contains(gridSetId)) {
-                        tileLayer.removeGridSubset(gridSetId);
-                        deleteCacheByGridSetId(layerName, gridSetId);
+                runPerLayer(
+                        operation,
+                        affectedLayers,
+                        tileLayer -> {
+                            List<GridSubset> removed = new ArrayList<>();
+                            removedSubsets.put(tileLayer, removed);
+                            if (tileLayer.isEnabled()) {
+                                enabledLayers.add(tileLayer);
+                            }
+                            for (String gridSetId : gridsetIds) {
+                                if (tileLayer.getGridSubsets().contains(gridSetId)) {
+                                    removed.add(tileLayer.removeGridSubset(gridSetId));
+                                    deleteCacheByGridSetId(tileLayer.getName(), gridSetId);
+                                }
+                            }
+                            if (tileLayer.getGridSubsets().isEmpty()) {
+                                tileLayer.setEnabled(false);
+                            }
+                            try {
+                                tld.modify(tileLayer);
+                            } catch (IllegalArgumentException ignore) {
+                                // layer removed? don't care
+                            }
+                        },
+                        listener,
+                        0f,
+                        100f);
+            } catch (IOException | GeoWebCacheException | RuntimeException e) {
+                for (Map.Entry<TileLayer, List<GridSubset>> entry : removedSubsets.entrySet()) {
+                    TileLayer tileLayer = entry.getKey();
+                    for (GridSubset gridSubset : entry.getValue()) {
+                        tileLayer.addGridSubset(gridSubset);
+                    }
+                    tileLayer.setEnabled(enabledLayers.contains(tileLayer));
+                    try {
+                        tld.modify(tileLayer);
+                    } catch (RuntimeException re) {
+                        log.log(
+                                Level.WARNING,
+                                operation + ": failed to restore layer " + tileLayer.getName(),
+                                re);
                     }
                 }
-                if (tileLayer.getGridSubsets().isEmpty()) {
-                    tileLayer.setEnabled(false);
-                }
-                try {
-                    tld.modify(tileLayer);
-                } catch (IllegalArgumentException ignore) {
-                    // layer removed? don't care
-                }
-            } finally {
-                if (lock != null) {
-                    lock.release();
-                }
+                throw e;
             }
-        }
 
-        for (String gridSetId : gridsetIds) {
-            gridSetBroker.remove(gridSetId);
+            for (String gridSetId : gridsetIds) {
+                gridSetBroker.remove(gridSetId);
+            }
+            listener.complete();
+        } finally {
+            for (Lock lock : locks) {
+                lock.release();
+            }
         }
     }
 
@@ -0,0 +1,583 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.IOUtils;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.io.Resource;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.blobstore.memory.CacheConfiguration;
+import org.geowebcache.storage.blobstore.memory.CacheConfiguration.EvictionPolicy;
+import org.geowebcache.storage.blobstore.memory.CacheProvider;
+import org.geowebcache.storage.blobstore.memory.CacheStatistics;
+
+/**
+ * In memory {@link CacheProvider} sized on the actual tile bytes and split in independently locked
+ * segments, so that it scales under highly concurrent access.
+ *
+ * <p>Each segment follows the W-TinyLFU admission scheme: new tiles enter a small LRU window, and
+ * when the window overflows its oldest tile is admitted in the main LRU area only if it has been
+ * requested more often than the tile it would evict, according to a compact frequency sketch. This
+ * keeps the hot zoom levels in memory even when scanning or seeding through large areas.
+ *
+ * <p>The tile contents can be kept off-heap, in direct buffers, by setting the {@code
+ * gwc.memorycache.offheap} system variable to {@code true}, reducing the garbage collector load for
+ * large caches. Hits and misses are also tracked by layer, see {@link #getLayerStatistics()}.
+ */
+public class StripedMemoryCacheProvider implements CacheProvider {
+
+    private static final Logger LOGGER = Logging.getLogger(StripedMemoryCacheProvider.class);
+
+    /** Whether the tiles are stored off-heap by default */
+    static final boolean OFF_HEAP = Boolean.getBoolean("gwc.memorycache.offheap");
+
+    /** Fraction of each segment reserved to the admission window */
+    static final double WINDOW_RATIO = 0.01;
+
+    /** Estimated average tile size, used to size the frequency sketches */
+    static final int AVERAGE_TILE_SIZE = 16 * 1024;
+
+    /** Estimated memory overhead of each cached tile, besides its contents */
+    static final int TILE_OVERHEAD = 128;
+
+    static final long BYTES_PER_MB = 1024 * 1024;
+
+    private static final List<EvictionPolicy> POLICIES =
+            Collections.unmodifiableList(
+                    Arrays.asList(
+                            EvictionPolicy.NULL,
+                            EvictionPolicy.EXPIRE_AFTER_WRITE,
+                            EvictionPolicy.EXPIRE_AFTER_ACCESS));
+
+    private final boolean offHeap;
+
+    private volatile Segment[] segments;
+
+    private volatile EvictionPolicy policy;
+
+    private volatile long expirationMillis;
+
+    private volatile long maxSize;
+
+    private final Set<String> uncachedLayers = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentMap<String, Counters> layerCounters = new ConcurrentHashMap<>();
+
+    private final Counters counters = new Counters();
+
+    private final LongAdder evictions = new LongAdder();
+
+    public StripedMemoryCacheProvider() {
+        this(new CacheConfiguration(), OFF_HEAP);
+    }
+
+    public StripedMemoryCacheProvider(CacheConfiguration configuration, boolean offHeap) {
+        this.offHeap = offHeap;
+        configure(configuration);
+    }
+
+    @Override
+    public TileObject getTileObj(TileObject obj) {
+        final String layerName = obj.getLayerName();
+        if (uncachedLayers.contains(layerName)) {
+            return null;
+        }
+        final String key = generateTileKey(obj);
+        final CachedTile cached = segmentFor(key).get(key, System.currentTimeMillis());
+        Counters layer = layerCounters.computeIfAbsent(layerName, l -> new Counters());
+        if (cached == null) {
+            counters.misses.increment();
+            layer.misses.increment();
+            return null;
+        }
+        counters.hits.increment();
+        layer.hits.increment();
+
+        TileObject result =
+                TileObject.createCompleteTileObject(
+                        layerName,
+                        obj.getXYZ(),
+                        obj.getGridSetId(),
+                        obj.getBlobFormat(),
+                        obj.getParameters(),
+                        new ByteArrayResource(cached.getContents()));
+        result.setCreated(cached.created);
+        return result;
+    }
+
+    @Override
+    public void putTileObj(TileObject obj) {
+        final String layerName = obj.getLayerName();
+        final Resource blob = obj.getBlob();
+        if (uncachedLayers.contains(layerName) || blob == null) {
+            return;
+        }
+        byte[] contents;
+        try (InputStream is = blob.getInputStream()) {
+            contents = IOUtils.toByteArray(is);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not read tile contents, won't be cached", e);
+            return;
+        }
+        final String key = generateTileKey(obj);
+        CachedTile tile;
+        try {
+            tile = new CachedTile(layerName, key, contents, offHeap, obj.getCreated());
+        } catch (OutOfMemoryError e) {
+            // direct memory exhausted, the tile is served anyways, just not cached
+            LOGGER.log(Level.FINE, "Could not allocate the tile contents, won't be cached", e);
+            return;
+        }
+        segmentFor(key).put(key, tile);
+    }
+
+    @Override
+    public void removeTileObj(TileObject obj) {
+        final String key = generateTileKey(obj);
+        segmentFor(key).remove(key);
+    }
+
+    @Override
+    public void removeLayer(String layername) {
+        for (Segment segment : segments) {
+            segment.removeLayer(layername);
+        }
+        layerCounters.remove(layername);
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public void reset() {
+        clear();
+        counters.reset();
+        evictions.reset();
+        layerCounters.clear();
+    }
+
+    @Override
+    public CacheStatistics getStatistics() {
+        long actualSize = 0;
+        for (Segment segment : segments) {
+            actualSize += segment.getSize();
+        }
+        CacheStatistics statistics = counters.toStatistics();
+        statistics.setEvictionCount(evictions.sum());
+        statistics.setTotalSize(maxSize);
+        statistics.setActualSize(actualSize);
+        statistics.setCurrentMemoryOccupation(
+                maxSize > 0 ? Math.round(actualSize * 10000d / maxSize) / 100d : 0);
+        return statistics;
+    }
+
+    /**
+     * Returns hit and miss statistics for each layer that has been requested since the last reset.
+     * Only the hit, miss and request counts and rates are filled in.
+     */
+    public Map<String, CacheStatistics> getLayerStatistics() {
+        Map<String, CacheStatistics> result = new HashMap<>();
+        for (Map.Entry<String, Counters> entry : layerCounters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toStatistics());
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void configure(CacheConfiguration configuration) {
+        EvictionPolicy policy = configuration.getPolicy();
+        this.policy = POLICIES.contains(policy) ? policy : EvictionPolicy.NULL;
+        this.expirationMillis = configuration.getEvictionTime() * 1000;
+        this.maxSize = configuration.getHardMemoryLimit() * BYTES_PER_MB;
+
+        // power of two number of segments, so that the segment can be picked by masking the hash
+        int level = Math.max(1, configuration.getConcurrencyLevel());
+        int count = Integer.highestOneBit(level);
+        if (count < level) {
+            count <<= 1;
+        }
+        Segment[] segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maxSize / count);
+        }
+        Segment[] previous = this.segments;
+        this.segments = segments;
+        if (previous != null) {
+            for (Segment segment : previous) {
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    public void addUncachedLayer(String layername) {
+        uncachedLayers.add(layername);
+        for (Segment segment : segments) {
+            segment.removeLayer(layername);
+        }
+    }
+
+    @Override
+    public void removeUncachedLayer(String layername) {
+        uncachedLayers.remove(layername);
+    }
+
+    @Override
+    public boolean containsUncachedLayer(String layername) {
+        return uncachedLayers.contains(layername);
+    }
+
+    @Override
+    public List<EvictionPolicy> getSupportedPolicies() {
+        return POLICIES;
+    }
+
+    @Override
+    public boolean isImmutable() {
+        return false;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "Striped W-TinyLFU Cache";
+    }
+
+    private Segment segmentFor(String key) {
+        Segment[] segments = this.segments;
+        return segments[spread(key.hashCode()) & (segments.length - 1)];
+    }
+
+    static int spread(int hash) {
+        return (hash ^ (hash >>> 16)) * 0x45d9f3b;
+    }
+
+    static String generateTileKey(TileObject obj) {
+        long[] xyz = obj.getXYZ();
+        return new StringBuilder(obj.getLayerName())
+                .append('_')
+                .append(obj.getGridSetId())
+                .append('_')
+                .append(xyz[0])
+                .append('_')
+                .append(xyz[1])
+                .append('_')
+                .append(xyz[2])
+                .append('_')
+                .append(obj.getParametersId())
+                .append('_')
+                .append(obj.getBlobFormat())
+                .toString();
+    }
+
+    /** A cache segment, made of an admission window and a main area, both in LRU order */
+    final class Segment {
+
+        final LinkedHashMap<String, CachedTile> window = new LinkedHashMap<>(16, 0.75f, true);
+
+        final LinkedHashMap<String, CachedTile> main = new LinkedHashMap<>(16, 0.75f, true);
+
+        final FrequencySketch sketch;
+
+        final long maxWindowSize;
+
+        final long maxMainSize;
+
+        long windowSize;
+
+        long mainSize;
+
+        Segment(long maxSize) {
+            this.maxWindowSize = (long) (maxSize * WINDOW_RATIO);
+            this.maxMainSize = maxSize - maxWindowSize;
+            this.sketch = new FrequencySketch(maxSize / AVERAGE_TILE_SIZE);
+        }
+
+        synchronized CachedTile get(String key, long now) {
+            sketch.increment(key.hashCode());
+            CachedTile tile = window.get(key);
+            if (tile == null) {
+                tile = main.get(key);
+            }
+            if (tile != null && isExpired(tile, now)) {
+                remove(key);
+                evictions.increment();
+                return null;
+            }
+            if (tile != null) {
+                tile.accessed = now;
+            }
+            return tile;
+        }
+
+        synchronized void put(String key, CachedTile tile) {
+            remove(key);
+            if (tile.size > maxMainSize) {
+                // would never fit
+                return;
+            }
+            window.put(key, tile);
+            windowSize += tile.size;
+            Iterator<Map.Entry<String, CachedTile>> it = window.entrySet().iterator();
+            while (windowSize > maxWindowSize && it.hasNext()) {
+                Map.Entry<String, CachedTile> candidate = it.next();
+                it.remove();
+                windowSize -= candidate.getValue().size;
+                admit(candidate.getKey(), candidate.getValue());
+            }
+        }
+
+        /**
+         * Moves a tile evicted from the window to the main area, if all the least recently used
+         * tiles that have to be evicted to make room for it are less frequently used than the
+         * candidate. Otherwise the candidate is dropped, and the main area is left untouched.
+         */
+        private void admit(String key, CachedTile candidate) {
+            final int candidateFrequency = sketch.frequency(key.hashCode());
+            // first check whether the candidate is worth all the victims, iterating does not
+            // change the access order, unlike main.get()
+            long freed = 0;
+            int victims = 0;
+            Iterator<Map.Entry<String, CachedTile>> it = main.entrySet().iterator();
+            while (mainSize - freed + candidate.size > maxMainSize && it.hasNext()) {
+                Map.Entry<String, CachedTile> victim = it.next();
+                if (sketch.frequency(victim.getKey().hashCode()) >= candidateFrequency) {
+                    // the candidate is not worth the eviction
+                    evictions.increment();
+                    return;
+                }
+                freed += victim.getValue().size;
+                victims++;
+            }
+            // then evict them
+            it = main.entrySet().iterator();
+            for (int i = 0; i < victims; i++) {
+                Map.Entry<String, CachedTile> victim = it.next();
+                it.remove();
+                mainSize -= victim.getValue().size;
+                evictions.increment();
+            }
+            main.put(key, candidate);
+            mainSize += candidate.size;
+        }
+
+        synchronized void remove(String key) {
+            CachedTile tile = window.remove(key);
+            if (tile != null) {
+                windowSize -= tile.size;
+            }
+            tile = main.remove(key);
+            if (tile != null) {
+                mainSize -= tile.size;
+            }
+        }
+
+        synchronized void removeLayer(String layerName) {
+            windowSize -= removeLayer(window, layerName);
+            mainSize -= removeLayer(main, layerName);
+        }
+
+        private long removeLayer(Map<String, CachedTile> tiles, String layerName) {
+            long removed = 0;
+            for (Iterator<CachedTile> it = tiles.values().iterator(); it.hasNext(); ) {
+                CachedTile tile = it.next();
+                if (tile.layerName.equals(layerName)) {
+                    it.remove();
+                    removed += tile.size;
+                }
+            }
+            return removed;
+        }
+
+        synchronized void clear() {
+            window.clear();
+            main.clear();
+            windowSize = 0;
+            mainSize = 0;
+        }
+
+        synchronized long getSize() {
+            return windowSize + mainSize;
+        }
+
+        private boolean isExpired(CachedTile tile, long now) {
+            switch (policy) {
+                case EXPIRE_AFTER_WRITE:
+                    return now - tile.created > expirationMillis;
+                case EXPIRE_AFTER_ACCESS:
+                    return now - tile.accessed > expirationMillis;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /** A cached tile, with contents stored either on the heap or in a direct buffer */
+    static final class CachedTile {
+
+        final String layerName;
+
+        final byte[] heap;
+
+        final ByteBuffer direct;
+
+        final long size;
+
+        final long created;
+
+        volatile long accessed;
+
+        CachedTile(String layerName, String key, byte[] contents, boolean offHeap, long created) {
+            this.layerName = layerName;
+            if (offHeap) {
+                this.heap = null;
+                this.direct = ByteBuffer.allocateDirect(contents.length);
+                this.direct.put(contents);
+                this.direct.flip();
+            } else {
+                this.heap = contents;
+                this.direct = null;
+            }
+            this.size = contents.length + 2L * key.length() + TILE_OVERHEAD;
+            this.created = created > 0 ? created : System.currentTimeMillis();
+            this.accessed = this.created;
+        }
+
+        /** Returns a copy of the tile contents, that callers are free to modify */
+        byte[] getContents() {
+            if (heap != null) {
+                return heap.clone();
+            }
+            byte[] contents = new byte[direct.remaining()];
+            direct.duplicate().get(contents);
+            return contents;
+        }
+    }
+
+    /** Hit and miss counters */
+    static final class Counters {
+
+        final LongAdder hits = new LongAdder();
+
+        final LongAdder misses = new LongAdder();
+
+        void reset() {
+            hits.reset();
+            misses.reset();
+        }
+
+        CacheStatistics toStatistics() {
+            long hitCount = hits.sum();
+            long missCount = misses.sum();
+            long total = hitCount + missCount;
+            CacheStatistics statistics = new CacheStatistics();
+            statistics.setHitCount(hitCount);
+            statistics.setMissCount(missCount);
+            statistics.setTotalCount(total);
+            statistics.setHitRate(total > 0 ? Math.round(hitCount * 10000d / total) / 100d : 0);
+            statistics.setMissRate(total > 0 ? Math.round(missCount * 10000d / total) / 100d : 0);
+            return statistics;
+        }
+    }
+
+    /**
+     * Count-min sketch estimating how often keys have been requested, using four bit counters that
+     * get halved periodically so that the estimates follow the changes in popularity. Not thread
+     * safe, each segment has its own and uses it while holding its lock.
+     */
+    static final class FrequencySketch {
+
+        static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+
+        static final long RESET_MASK = 0x7777777777777777L;
+
+        final long[] table;
+
+        final int tableMask;
+
+        final int sampleSize;
+
+        int additions;
+
+        FrequencySketch(long expectedEntries) {
+            int entries = (int) Math.min(Math.max(expectedEntries, 16), 1 << 22);
+            int length = Integer.highestOneBit(entries);
+            if (length < entries) {
+                length <<= 1;
+            }
+            this.table = new long[length];
+            this.tableMask = length - 1;
+            this.sampleSize = 10 * entries;
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                long count = (table[indexOf(hash, i)] >>> offsetOf(hash, i)) & 0xfL;
+                frequency = Math.min(frequency, (int) count);
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = offsetOf(hash, i);
+                long mask = 0xfL << offset;
+                if ((table[index] & mask) != mask) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                // aging, halve all the counters
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+
+        /** Each long holds 16 counters, each row picks one among four of them */
+        private int offsetOf(int hash, int row) {
+            int selector = (hash >>> (row << 3)) & 3;
+            return ((selector << 2) + row) << 2;
+        }
+    }
+}
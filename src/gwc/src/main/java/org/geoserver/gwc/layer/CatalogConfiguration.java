@@ -597,16 +597,17 @@ public class CatalogConfiguration implements TileLayerConfiguration {
                 }
             }
 
+            // save all the pending modifications as a single batch
+            Map<String, GeoServerTileLayerInfo> saved = Collections.emptyMap();
+            try {
+                saved = tileLayerCatalog.saveAll(pendingModications.values());
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Error saving tile layers", e);
+            }
             for (GeoServerTileLayerInfo modified : pendingModications.values()) {
-                final GeoServerTileLayerInfo old;
-                try {
-                    old = tileLayerCatalog.save(modified);
+                if (saved.containsKey(modified.getId())) {
+                    final GeoServerTileLayerInfo old = saved.get(modified.getId());
                     modifications.add(new GeoServerTileLayerInfo[] {old, modified});
-                } catch (RuntimeException e) {
-                    LOGGER.log(
-                            Level.SEVERE,
-                            "Error saving tile layer '" + modified.getName() + "'",
-                            e);
                 }
             }
             this.pendingModications.clear();
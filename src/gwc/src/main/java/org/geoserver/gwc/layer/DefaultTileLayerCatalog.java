@@ -13,21 +13,28 @@ import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableSet;
 import com.thoughtworks.xstream.XStream;
 import java.io.ByteArrayInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.config.util.SecureXStream;
 import org.geoserver.ows.LocalWorkspace;
@@ -49,7 +56,18 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
 
     private static final String LAYERINFO_DIRECTORY = "gwc-layers";
 
-    private ConcurrentMap<String, GeoServerTileLayerInfo> layersById;
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Index of layers by id. The full layer infos are lazily loaded on first access, only the layer
+     * id and name are parsed at startup
+     */
+    private ConcurrentMap<String, LayerEntry> layersById;
 
     /** View of layer ids by name */
     private Map<String, String> layersByName;
@@ -117,9 +135,9 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
             }
             Preconditions.checkState(layerIdName.endsWith(".xml"));
             final String layerId = layerIdName.substring(0, layerIdName.lastIndexOf(".xml"));
-            GeoServerTileLayerInfo removed = this.layersById.remove(layerId);
+            LayerEntry removed = this.layersById.remove(layerId);
             if (removed != null) {
-                this.layersByName.remove(removed.getName());
+                this.layersByName.remove(removed.name);
             }
             listeners.forEach(l -> l.onEvent(layerId, TileLayerCatalogListener.Type.DELETE));
             return;
@@ -139,7 +157,7 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
             return;
         }
         final String layerId = layerInfo.getId();
-        final GeoServerTileLayerInfo currentInfo = this.layersById.get(layerId);
+        final LayerEntry currentEntry = this.layersById.get(layerId);
 
         final TileLayerCatalogListener.Type tileEventType =
                 event.getKind() == Kind.ENTRY_CREATE
@@ -147,9 +165,9 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
                         : TileLayerCatalogListener.Type.MODIFY;
 
         if (event.getKind() == Kind.ENTRY_MODIFY
-                && currentInfo != null
-                && !currentInfo.getName().contentEquals(layerInfo.getName())) {
-            layersByName.remove(currentInfo.getName());
+                && currentEntry != null
+                && !currentEntry.name.contentEquals(layerInfo.getName())) {
+            layersByName.remove(currentEntry.name);
         }
         saveInternal(layerInfo);
         listeners.forEach(l -> l.onEvent(layerId, tileEventType));
@@ -172,21 +190,30 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
         LOGGER.info("Loading tile layers from " + baseDir.path());
         Stopwatch sw = Stopwatch.createStarted();
         ExtensionFilter xmlFilter = new Resources.ExtensionFilter("XML");
-        baseDir.list().parallelStream().filter(r -> xmlFilter.accept(r)).forEach(this::load);
-        LOGGER.info(String.format("Loaded %,d tile layers in %s", layersById.size(), sw.stop()));
+        baseDir.list().parallelStream().filter(r -> xmlFilter.accept(r)).forEach(this::index);
+        LOGGER.info(String.format("Indexed %,d tile layers in %s", layersById.size(), sw.stop()));
         this.initialized = true;
     }
 
     @Override
     public GeoServerTileLayerInfo getLayerById(final String id) {
         checkInitialized();
-        GeoServerTileLayerInfo layer = layersById.get(id);
+        LayerEntry entry = layersById.get(id);
+        if (entry == null) {
+            return null;
+        }
+        GeoServerTileLayerInfo layer = entry.get();
         return layer == null ? null : layer.clone();
     }
 
-    private synchronized void checkInitialized() {
+    private void checkInitialized() {
+        // initialized is volatile, avoid synchronizing on the hot path once loaded
         if (!initialized) {
-            initialize();
+            synchronized (this) {
+                if (!initialized) {
+                    initialize();
+                }
+            }
         }
     }
 
@@ -222,10 +249,11 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
     public GeoServerTileLayerInfo delete(final String tileLayerId) {
         checkInitialized();
         try {
-            GeoServerTileLayerInfo currValue = layersById.remove(tileLayerId);
-            if (currValue != null) {
+            LayerEntry currEntry = layersById.remove(tileLayerId);
+            if (currEntry != null) {
+                GeoServerTileLayerInfo currValue = currEntry.get();
                 Resource file = getFile(tileLayerId);
-                layersByName.remove(currValue.getName());
+                layersByName.remove(currEntry.name);
                 file.delete();
                 listeners.forEach(
                         l -> l.onEvent(tileLayerId, TileLayerCatalogListener.Type.DELETE));
@@ -246,44 +274,167 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
      */
     @Override
     public GeoServerTileLayerInfo save(final GeoServerTileLayerInfo newValue) {
-        checkInitialized();
-        GeoServerTileLayerInfoImpl oldValue = null;
+        Preconditions.checkNotNull(newValue.getId());
+        Map<String, GeoServerTileLayerInfo> saved = save(Collections.singletonList(newValue), true);
+        return saved.get(newValue.getId());
+    }
 
-        final String tileLayerId = newValue.getId();
-        Preconditions.checkNotNull(tileLayerId);
+    /**
+     * Saves a batch of new or modified tile layers as a group: the layers are validated first,
+     * then written out in parallel, and finally the in memory index is updated for the ones that
+     * were successfully persisted. Layers that cannot be saved are logged and left out of the
+     * result.
+     *
+     * @return a map from the id of each saved layer to its previous value, or {@code null} if the
+     *     tile layer didn't previously exist on this tile layer catalog
+     */
+    @Override
+    public Map<String, GeoServerTileLayerInfo> saveAll(
+            final Collection<? extends GeoServerTileLayerInfo> newValues) {
+        return save(newValues, false);
+    }
 
-        try {
+    private Map<String, GeoServerTileLayerInfo> save(
+            final Collection<? extends GeoServerTileLayerInfo> newValues, boolean failFast) {
+        checkInitialized();
+
+        // validate the whole batch, tracking the names it claims, and collect the old values
+        final Map<String, GeoServerTileLayerInfo> oldValues = new LinkedHashMap<>();
+        final Map<String, GeoServerTileLayerInfo> toPersist = new LinkedHashMap<>();
+        final Map<String, String> claimedNames = new HashMap<>();
+        for (GeoServerTileLayerInfo newValue : newValues) {
+            final String tileLayerId = newValue.getId();
             try {
-                oldValue = loadInternal(tileLayerId);
-            } catch (FileNotFoundException ignore) {
-                // ok
-            } catch (Exception other) {
-                throwIfUnchecked(other);
+                Preconditions.checkNotNull(tileLayerId);
+                final LayerEntry oldEntry = layersById.get(tileLayerId);
+                final GeoServerTileLayerInfo oldValue = oldEntry == null ? null : oldEntry.get();
+                if (oldEntry == null) {
+                    final String duplicateNameId =
+                            claimedNames.containsKey(newValue.getName())
+                                    ? claimedNames.get(newValue.getName())
+                                    : layersByName.get(newValue.getName());
+                    if (null != duplicateNameId) {
+                        throw new IllegalArgumentException(
+                                "TileLayer with same name already exists: "
+                                        + newValue.getName()
+                                        + ": <"
+                                        + duplicateNameId
+                                        + ">");
+                    }
+                } else {
+                    claimedNames.put(oldEntry.name, null);
+                }
+                claimedNames.put(newValue.getName(), tileLayerId);
+                oldValues.put(tileLayerId, oldValue == null ? null : oldValue.clone());
+                toPersist.put(tileLayerId, newValue);
+            } catch (RuntimeException e) {
+                if (failFast) {
+                    throw e;
+                }
+                LOGGER.log(Level.SEVERE, "Error saving tile layer '" + newValue.getName() + "'", e);
             }
+        }
 
-            if (oldValue == null) {
-                final String duplicateNameId = layersByName.get(newValue.getName());
-                if (null != duplicateNameId) {
-                    throw new IllegalArgumentException(
-                            "TileLayer with same name already exists: "
-                                    + newValue.getName()
-                                    + ": <"
-                                    + duplicateNameId
-                                    + ">");
+        // write all the layers in parallel, each one in its own file
+        final Map<String, Exception> failures = new ConcurrentHashMap<>();
+        toPersist.values().parallelStream().forEach(info -> persistQuietly(info, failures));
+
+        // update the in memory index with the ones that got persisted
+        final Map<String, GeoServerTileLayerInfo> result = new LinkedHashMap<>();
+        for (GeoServerTileLayerInfo newValue : toPersist.values()) {
+            final String tileLayerId = newValue.getId();
+            final Exception failure = failures.get(tileLayerId);
+            if (failure != null) {
+                if (failFast) {
+                    throwIfUnchecked(failure);
+                    throw new RuntimeException(failure);
                 }
-            } else {
-                layersByName.remove(oldValue.getName());
+                LOGGER.log(
+                        Level.SEVERE,
+                        "Error saving tile layer '" + newValue.getName() + "'",
+                        failure);
+                continue;
+            }
+            final LayerEntry oldEntry = layersById.get(tileLayerId);
+            if (oldEntry != null) {
+                layersByName.remove(oldEntry.name, tileLayerId);
             }
-            persist(newValue);
-            layersByName.put(newValue.getName(), newValue.getId());
-            layersById.put(newValue.getId(), newValue.clone());
+            layersByName.put(newValue.getName(), tileLayerId);
+            layersById.put(tileLayerId, new LayerEntry(newValue.clone()));
+            result.put(tileLayerId, oldValues.get(tileLayerId));
+        }
+        return result;
+    }
+
+    private void persistQuietly(GeoServerTileLayerInfo info, Map<String, Exception> failures) {
+        try {
+            persist(info);
         } catch (Exception e) {
-            if (e instanceof ExecutionException) {
-                throwIfUnchecked(((ExecutionException) e).getCause());
+            failures.put(info.getId(), e);
+        }
+    }
+
+    /**
+     * Adds the tile layer stored in the given resource to the index, parsing only its id and name.
+     * The full info will be loaded on first access
+     */
+    private void index(Resource res) {
+        String[] idAndName;
+        try {
+            idAndName = readIdAndName(res);
+        } catch (Exception e) {
+            LOGGER.log(
+                    Level.SEVERE,
+                    "Error reading tile layer information from file " + res.name(),
+                    e);
+            return;
+        }
+        if (idAndName == null) {
+            // not the expected structure, do a full load instead
+            load(res);
+            return;
+        }
+        layersByName.put(idAndName[1], idAndName[0]);
+        layersById.put(idAndName[0], new LayerEntry(idAndName[0], idAndName[1]));
+        if (LOGGER.isLoggable(Level.FINER)) {
+            LOGGER.finer("Indexed tile layer '" + idAndName[1] + "'");
+        }
+    }
+
+    /**
+     * Quickly scans the layer XML for the top level {@code id} and {@code name} elements, without
+     * building the full {@link GeoServerTileLayerInfo}.
+     *
+     * @return the id and name, or {@code null} if either of them could not be found
+     */
+    private String[] readIdAndName(Resource res) throws IOException, XMLStreamException {
+        String id = null;
+        String name = null;
+        XMLStreamReader reader = null;
+        try (InputStream in = res.in()) {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            int depth = 0;
+            while (reader.hasNext() && (id == null || name == null)) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (depth == 2 && "id".equals(reader.getLocalName())) {
+                        id = reader.getElementText();
+                        depth--;
+                    } else if (depth == 2 && "name".equals(reader.getLocalName())) {
+                        name = reader.getElementText();
+                        depth--;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+        } finally {
+            if (reader != null) {
+                reader.close();
             }
-            throwIfUnchecked(e);
         }
-        return oldValue;
+        return id == null || name == null ? null : new String[] {id, name};
     }
 
     private GeoServerTileLayerInfoImpl load(Resource res) {
@@ -306,7 +457,7 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
 
     private void saveInternal(GeoServerTileLayerInfoImpl info) {
         layersByName.put(info.getName(), info.getId());
-        layersById.put(info.getId(), info);
+        layersById.put(info.getId(), new LayerEntry(info));
     }
 
     private void persist(GeoServerTileLayerInfo real) throws IOException {
@@ -348,15 +499,6 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
         rename(tmp, file);
     }
 
-    private GeoServerTileLayerInfoImpl loadInternal(final String tileLayerId)
-            throws FileNotFoundException, IOException {
-        final Resource file = getFile(tileLayerId);
-        if (file.getType() == Type.UNDEFINED) {
-            throw new FileNotFoundException(tileLayerId);
-        }
-        return depersist(file);
-    }
-
     private Resource getFile(final String tileLayerId) throws IOException {
         final String fileName = layerIdToFileName(tileLayerId);
 
@@ -423,7 +565,7 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
     @Override
     public String getLayerName(String layerId) {
         checkInitialized();
-        return layersById.get(layerId).getName();
+        return layersById.get(layerId).name;
     }
 
     @Override
@@ -435,4 +577,57 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
     public void addListener(TileLayerCatalogListener listener) {
         listeners.add(listener);
     }
+
+    /**
+     * Index entry for a tile layer, keeps the id and name at hand and loads the full info on first
+     * access
+     */
+    private class LayerEntry {
+
+        final String id;
+
+        final String name;
+
+        private volatile GeoServerTileLayerInfo info;
+
+        LayerEntry(String id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        LayerEntry(GeoServerTileLayerInfo info) {
+            this(info.getId(), info.getName());
+            this.info = info;
+        }
+
+        /**
+         * @return the full layer info, or {@code null} if it could not be loaded, in which case the
+         *     layer is also dropped from the index, as it would have been by an eager load
+         */
+        GeoServerTileLayerInfo get() {
+            GeoServerTileLayerInfo result = info;
+            if (result == null) {
+                synchronized (this) {
+                    result = info;
+                    if (result == null) {
+                        try {
+                            result = depersist(getFile(id));
+                            info = result;
+                        } catch (Exception e) {
+                            LOGGER.log(
+                                    Level.SEVERE,
+                                    "Error depersisting tile layer information for "
+                                            + name
+                                            + ", removing it from the tile layer catalog",
+                                    e);
+                            if (layersById.remove(id, this)) {
+                                layersByName.remove(name, id);
+                            }
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+    }
 }
@@ -60,7 +60,7 @@ public class GeoServerMetaTile extends MetaTile {
     /**
      * Creates the {@link RenderedImage} corresponding to the tile at index {@code tileIdx} and uses
      * a {@link RenderedImageMapResponse} to encode it into the {@link #getResponseFormat() response
-     * format}.
+     * format}. Can be called concurrently for different tiles of the same meta tile.
      *
      * @see org.geowebcache.layer.MetaTile#writeTileToStream(int, org.geowebcache.io.Resource)
      * @see RenderedImageMapResponse#write
@@ -100,7 +100,10 @@ public class GeoServerMetaTile extends MetaTile {
         if (this.tiles.length > 1 || (this.tiles.length == 1 && metaHasGutter())) {
             final Rectangle tileDim = this.tiles[tileIdx];
             tile = createTile(tileDim.x, tileDim.y, tileDim.width, tileDim.height);
-            disposeLater(tile);
+            // tiles might be sliced and encoded in parallel
+            synchronized (this) {
+                disposeLater(tile);
+            }
             {
                 final WMSMapContent metaTileContext = metaTileMap.getMapContext();
                 // do not create tileContext with metaTileContext.getLayers() as the layer list.
@@ -186,7 +189,9 @@ public class GeoServerMetaTile extends MetaTile {
                         Float.valueOf(tileWidth),
                         Float.valueOf(tileHeight));
                 tile = w.getBufferedImage();
-                disposeLater(w.getRenderedImage());
+                synchronized (this) {
+                    disposeLater(w.getRenderedImage());
+                }
                 break;
             case 1:
                 final PlanarImage pImage = (PlanarImage) metaTileImage;
@@ -233,7 +238,7 @@ public class GeoServerMetaTile extends MetaTile {
     }
 
     @Override
-    public void dispose() {
+    public synchronized void dispose() {
         if (metaTileMap != null) {
             metaTileMap.dispose();
             metaTileMap = null;
@@ -28,6 +28,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.http.Cookie;
@@ -53,6 +60,7 @@ import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.rest.RequestInfo;
 import org.geoserver.wms.GetLegendGraphicRequest;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.RasterCleaner;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WebMap;
 import org.geoserver.wms.capabilities.CapabilityUtil;
@@ -75,6 +83,7 @@ import org.geowebcache.grid.GridSetBroker;
 import org.geowebcache.grid.GridSubset;
 import org.geowebcache.grid.OutsideCoverageException;
 import org.geowebcache.grid.SRS;
+import org.geowebcache.io.ByteArrayResource;
 import org.geowebcache.io.Resource;
 import org.geowebcache.layer.ExpirationRule;
 import org.geowebcache.layer.LayerListenerList;
@@ -90,6 +99,8 @@ import org.geowebcache.locks.LockProvider.Lock;
 import org.geowebcache.mime.FormatModifier;
 import org.geowebcache.mime.MimeException;
 import org.geowebcache.mime.MimeType;
+import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.TileObject;
 import org.geowebcache.util.GWCVars;
 import org.geowebcache.util.ServletUtils;
 import org.locationtech.jts.geom.Envelope;
@@ -113,6 +124,30 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
 
     public static final ThreadLocal<WebMap> WEB_MAP = new ThreadLocal<WebMap>();
 
+    /** Number of threads used to encode the tiles sliced out of a meta tile */
+    static final int METATILE_ENCODER_THREADS =
+            Math.max(
+                    1,
+                    Integer.getInteger(
+                            "gwc.metatile.encoder.threads",
+                            Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Work stealing pool encoding and storing the tiles sliced out of meta tiles, created on demand
+     * and shut down along with the {@link GWC} bean
+     */
+    private static volatile ForkJoinPool METATILE_ENCODER_POOL;
+
+    /**
+     * Meta tiles whose tiles are still being encoded and stored after the requested tile has been
+     * returned, keyed by meta tile lock key
+     */
+    private static final ConcurrentMap<String, CompletableFuture<Void>> PENDING_METATILE_WRITES =
+            new ConcurrentHashMap<>();
+
+    /** Disposes the images scheduled for cleanup by the encoders running in the pool threads */
+    private static final RasterCleaner RASTER_CLEANER = new RasterCleaner();
+
     private String configErrorMessage;
 
     private Map<String, GridSubset> subSets;
@@ -544,7 +579,7 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
             metaX = metaY = 1;
         }
 
-        returnTile = getMetatilingReponse(tile, true, metaX, metaY);
+        returnTile = getMetatilingReponse(tile, true, true, metaX, metaY);
 
         sendTileRequestedEvent(returnTile);
 
@@ -568,8 +603,19 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         }
     }
 
+    /**
+     * Renders the meta tile containing the requested tile, unless the tile is found in the cache,
+     * and stores its tiles.
+     *
+     * @param asyncStore if {@code true} the requested tile is returned as soon as it's encoded,
+     *     while the other tiles of the meta tile are encoded and stored in background
+     */
     private ConveyorTile getMetatilingReponse(
-            ConveyorTile tile, final boolean tryCache, final int metaX, final int metaY)
+            ConveyorTile tile,
+            final boolean tryCache,
+            final boolean asyncStore,
+            final int metaX,
+            final int metaY)
             throws GeoWebCacheException, IOException {
 
         final GridSubset gridSubset = getGridSubset(tile.getGridSetId());
@@ -581,10 +627,14 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         }
 
         final GeoServerMetaTile metaTile = createMetaTile(tile, metaX, metaY);
+        final String lockKey = buildLockKey(tile, metaTile);
+        boolean disposeMetaTile = true;
         Lock lock = null;
         try {
             /* ****************** Acquire lock ******************* */
-            lock = GWC.get().getLockProvider().getLock(buildLockKey(tile, metaTile));
+            lock = GWC.get().getLockProvider().getLock(lockKey);
+            // a previous request might still be storing the tiles of this meta tile
+            awaitPendingWrites(lockKey);
             // got the lock on the meta tile, try again
             if (tryCache && tryCacheFetch(tile)) {
                 LOGGER.finest(
@@ -606,7 +656,19 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
                     map = dispatchGetMap(tile, metaTile);
                     checkNotNull(map, "Did not obtain a WebMap from GeoServer's Dispatcher");
                     metaTile.setWebMap(map);
-                    saveTiles(metaTile, tile, requestTime);
+                    CompletableFuture<Void> pending = encodeTiles(metaTile, tile, requestTime);
+                    if (asyncStore && !pending.isDone()) {
+                        // dispose the meta tile only once all its tiles have been stored
+                        disposeMetaTile = false;
+                        PENDING_METATILE_WRITES.put(lockKey, pending);
+                        pending.whenComplete(
+                                (result, error) -> {
+                                    PENDING_METATILE_WRITES.remove(lockKey, pending);
+                                    metaTile.dispose();
+                                });
+                    } else {
+                        pending.join();
+                    }
                 } catch (Exception e) {
                     Throwables.throwIfInstanceOf(e, GeoWebCacheException.class);
                     throw new GeoWebCacheException("Problem communicating with GeoServer", e);
@@ -617,12 +679,177 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
             if (lock != null) {
                 lock.release();
             }
-            metaTile.dispose();
+            if (disposeMetaTile) {
+                metaTile.dispose();
+            }
         }
 
         return finalizeTile(tile);
     }
 
+    /** Returns the pool encoding the tiles of the meta tiles, creating it if needed */
+    private static ForkJoinPool getMetatileEncoderPool() {
+        if (METATILE_ENCODER_POOL == null) {
+            synchronized (GeoServerTileLayer.class) {
+                if (METATILE_ENCODER_POOL == null) {
+                    METATILE_ENCODER_POOL = new ForkJoinPool(METATILE_ENCODER_THREADS);
+                }
+            }
+        }
+        return METATILE_ENCODER_POOL;
+    }
+
+    /**
+     * Shuts down the meta tile encoding pool, giving the pending tile writes a chance to complete.
+     * Called when the {@link GWC} bean is destroyed.
+     */
+    public static void shutdownMetatileEncoderPool() throws InterruptedException {
+        synchronized (GeoServerTileLayer.class) {
+            if (METATILE_ENCODER_POOL != null) {
+                METATILE_ENCODER_POOL.shutdown();
+                METATILE_ENCODER_POOL.awaitTermination(10, TimeUnit.SECONDS);
+                METATILE_ENCODER_POOL = null;
+            }
+        }
+    }
+
+    /** Waits for the tiles of the given meta tile to be stored, if a write is in progress */
+    private void awaitPendingWrites(String lockKey) throws GeoWebCacheException {
+        CompletableFuture<Void> pending = PENDING_METATILE_WRITES.get(lockKey);
+        if (pending != null) {
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GeoWebCacheException("Interrupted while waiting for " + lockKey);
+            } catch (ExecutionException e) {
+                // the failures are logged by the writers, the meta tile will be rendered again
+                LOGGER.log(Level.FINE, "Pending write of " + lockKey + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Encodes the tiles of the meta tile and stores them. The requested tile is encoded first, on
+     * the calling thread, and set as the blob of {@code tileProto}. The other tiles are encoded in
+     * parallel on the meta tile encoding pool and stored in the blob store.
+     *
+     * @return a future that completes once all the other tiles have been stored
+     */
+    private CompletableFuture<Void> encodeTiles(
+            final GeoServerMetaTile metaTile, final ConveyorTile tileProto, final long requestTime)
+            throws GeoWebCacheException {
+        final long[][] gridPositions = metaTile.getTilesGridPositions();
+        final long[] gridLoc = tileProto.getTileIndex();
+        final GridSubset gridSubset = getGridSubset(tileProto.getGridSetId());
+        final int zoomLevel = (int) gridLoc[2];
+        final boolean store = this.getExpireCache(zoomLevel) != GWCVars.CACHE_DISABLE_CACHE;
+
+        int requestedIdx = -1;
+        List<CompletableFuture<Void>> others = new ArrayList<>();
+        for (int i = 0; i < gridPositions.length; i++) {
+            final long[] gridPos = gridPositions[i];
+            if (Arrays.equals(gridLoc, gridPos)) {
+                requestedIdx = i;
+            } else if (store && gridSubset.covers(gridPos)) {
+                // edge tiles outside of the coverage are not stored
+                final int tileIdx = i;
+                others.add(
+                        CompletableFuture.runAsync(
+                                () -> {
+                                    try {
+                                        encodeTile(
+                                                metaTile,
+                                                tileIdx,
+                                                tileProto,
+                                                requestTime,
+                                                new ByteArrayResource());
+                                    } catch (GeoWebCacheException e) {
+                                        LOGGER.log(
+                                                Level.SEVERE,
+                                                "Failed to encode and store tile "
+                                                        + Arrays.toString(gridPos),
+                                                e);
+                                        throw new CompletionException(e);
+                                    } finally {
+                                        // not running in a request thread, clean up right away
+                                        RASTER_CLEANER.finished(null);
+                                    }
+                                },
+                                getMetatileEncoderPool()));
+            }
+        }
+
+        final CompletableFuture<Void> all =
+                CompletableFuture.allOf(others.toArray(new CompletableFuture[others.size()]));
+        if (requestedIdx >= 0) {
+            ByteArrayResource resource = new ByteArrayResource();
+            tileProto.setBlob(resource);
+            try {
+                TileObject stored =
+                        encodeTile(metaTile, requestedIdx, tileProto, requestTime, resource);
+                if (stored != null) {
+                    tileProto.getStorageObject().setCreated(stored.getCreated());
+                }
+            } catch (GeoWebCacheException | RuntimeException e) {
+                // the caller is going to dispose the meta tile, let the other tiles finish first
+                all.handle((result, error) -> null).join();
+                throw e;
+            }
+        }
+
+        return all;
+    }
+
+    /**
+     * Encodes a single tile of the meta tile into the target resource and stores it, if caching
+     * is enabled at the tile zoom level
+     *
+     * @return the stored tile, or {@code null} if the tile was not stored
+     */
+    private TileObject encodeTile(
+            GeoServerMetaTile metaTile,
+            int tileIdx,
+            ConveyorTile tileProto,
+            long requestTime,
+            Resource target)
+            throws GeoWebCacheException {
+        final long[] gridPos = metaTile.getTilesGridPositions()[tileIdx];
+        try {
+            boolean completed = metaTile.writeTileToStream(tileIdx, target);
+            if (!completed) {
+                LOGGER.severe("metaTile.writeTileToStream returned false, no tiles saved");
+            }
+        } catch (IOException e) {
+            throw new GeoWebCacheException(
+                    "Unable to write image tile " + Arrays.toString(gridPos), e);
+        }
+
+        if (this.getExpireCache((int) gridPos[2]) == GWCVars.CACHE_DISABLE_CACHE) {
+            return null;
+        }
+        long[] idx = {gridPos[0], gridPos[1], gridPos[2]};
+        TileObject tile =
+                TileObject.createCompleteTileObject(
+                        this.getName(),
+                        idx,
+                        tileProto.getGridSetId(),
+                        tileProto.getMimeType().getFormat(),
+                        tileProto.getParameters(),
+                        target);
+        tile.setCreated(requestTime);
+        try {
+            if (tileProto.isMetaTileCacheOnly()) {
+                tileProto.getStorageBroker().putTransient(tile);
+            } else {
+                tileProto.getStorageBroker().put(tile);
+            }
+        } catch (StorageException e) {
+            throw new GeoWebCacheException(e);
+        }
+        return tile;
+    }
+
     private String buildLockKey(ConveyorTile tile, GeoServerMetaTile metaTile) {
         StringBuilder metaKey = new StringBuilder();
 
@@ -767,7 +994,7 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
     @Override
     public ConveyorTile getNoncachedTile(ConveyorTile tile) throws GeoWebCacheException {
         try {
-            return getMetatilingReponse(tile, false, 1, 1);
+            return getMetatilingReponse(tile, false, false, 1, 1);
         } catch (IOException e) {
             throw new GeoWebCacheException(e);
         }
@@ -776,7 +1003,7 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
     @Override
     public ConveyorTile doNonMetatilingRequest(ConveyorTile tile) throws GeoWebCacheException {
         try {
-            return getMetatilingReponse(tile, true, 1, 1);
+            return getMetatilingReponse(tile, true, false, 1, 1);
         } catch (IOException e) {
             throw new GeoWebCacheException(e);
         }
@@ -804,7 +1031,8 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         if (!tile.getMimeType().supportsTiling()) {
             metaX = metaY = 1;
         }
-        getMetatilingReponse(tile, tryCache, metaX, metaY);
+        // seeding stores the whole meta tile before moving on
+        getMetatilingReponse(tile, tryCache, false, metaX, metaY);
     }
 
     /** @see org.geowebcache.layer.TileLayer#getGridSubsets() */
@@ -5,7 +5,12 @@
  */
 package org.geoserver.gwc.layer;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.logging.Level;
+import org.geotools.util.logging.Logging;
 
 public interface TileLayerCatalog {
 
@@ -27,6 +32,30 @@ public interface TileLayerCatalog {
 
     public GeoServerTileLayerInfo save(GeoServerTileLayerInfo newValue);
 
+    /**
+     * Saves a batch of new or modified tile layers. Implementations are free to persist the batch
+     * as a group, layers that cannot be saved are left out of the result.
+     *
+     * @return a map from the id of each saved layer to its previous value, or {@code null} if the
+     *     layer is new
+     */
+    public default Map<String, GeoServerTileLayerInfo> saveAll(
+            Collection<? extends GeoServerTileLayerInfo> newValues) {
+        Map<String, GeoServerTileLayerInfo> result = new LinkedHashMap<>();
+        for (GeoServerTileLayerInfo newValue : newValues) {
+            try {
+                result.put(newValue.getId(), save(newValue));
+            } catch (RuntimeException e) {
+                Logging.getLogger(TileLayerCatalog.class)
+                        .log(
+                                Level.SEVERE,
+                                "Error saving tile layer '" + newValue.getName() + "'",
+                                e);
+            }
+        }
+        return result;
+    }
+
     public boolean exists(String layerId);
 
     public void initialize();
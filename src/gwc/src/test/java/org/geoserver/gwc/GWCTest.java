@@ -87,6 +87,7 @@ import org.geoserver.security.WrapperPolicy;
 import org.geoserver.security.decorators.SecuredLayerInfo;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.kvp.PaletteManager;
+import org.geotools.data.util.DefaultProgressListener;
 import org.geotools.filter.identity.FeatureIdImpl;
 import org.geotools.filter.text.cql2.CQL;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -555,6 +556,182 @@ public class GWCTest {
                 .deleteByGridSetId(eq(tileLayerGroup.getName()), eq(oldName));
     }
 
+    @Test
+    public void testModifyGridsetReportsProgress() throws Exception {
+        final String oldName = "TEST";
+        final String newName = "TEST_CHANGED";
+
+        final GridSet oldGridset = gridSetBroker.get(oldName);
+        final GridSet newGridset = namedGridsetCopy(newName, oldGridset);
+
+        when(xmlConfig.getGridSet(eq(newName))).thenReturn(Optional.empty());
+        when(xmlConfig.canSave(eq(newGridset))).thenReturn(true);
+        when(tld.getConfiguration(same(tileLayer))).thenReturn(config);
+        when(tld.getConfiguration(same(tileLayerGroup))).thenReturn(config);
+
+        DefaultProgressListener listener = new DefaultProgressListener();
+        mediator.modifyGridSet(oldName, newGridset, listener);
+
+        assertTrue(listener.isStarted());
+        assertTrue(listener.isCompleted());
+        assertEquals(100f, listener.getProgress(), 0f);
+        assertNotNull(tileLayer.getGridSubset(newName));
+        assertNotNull(tileLayerGroup.getGridSubset(newName));
+    }
+
+    @Test
+    public void testModifyGridsetCancelled() throws Exception {
+        final String oldName = "TEST";
+        final String newName = "TEST_CHANGED";
+
+        final GridSet oldGridset = gridSetBroker.get(oldName);
+        final GridSet newGridset;
+        {
+            XMLGridSet xmlGridSet = new XMLGridSet(oldGridset);
+            xmlGridSet.setName(newName);
+            // make it so the gridset forces truncation
+            xmlGridSet.setAlignTopLeft(!xmlGridSet.getAlignTopLeft());
+            newGridset = xmlGridSet.makeGridSet();
+        }
+
+        DefaultProgressListener listener = new DefaultProgressListener();
+        listener.setCanceled(true);
+        try {
+            mediator.modifyGridSet(oldName, newGridset, listener);
+            fail("Expected a GeoWebCacheException");
+        } catch (GeoWebCacheException e) {
+            assertTrue(e.getMessage().contains("cancelled"));
+        }
+
+        // nothing has been touched
+        verify(storageBroker, never()).deleteByGridSetId(anyString(), anyString());
+        assertNotNull(tileLayer.getGridSubset(oldName));
+        assertNotNull(tileLayerGroup.getGridSubset(oldName));
+        assertNotNull(gridSetBroker.get(oldName));
+    }
+
+    @Test
+    public void testModifyGridsetCancelledMidRun() throws Exception {
+        final String oldName = "TEST";
+        final String newName = "TEST_CHANGED";
+
+        final GridSet oldGridset = gridSetBroker.get(oldName);
+        final GridSet newGridset;
+        {
+            XMLGridSet xmlGridSet = new XMLGridSet(oldGridset);
+            xmlGridSet.setName(newName);
+            // make it so the gridset forces truncation
+            xmlGridSet.setAlignTopLeft(!xmlGridSet.getAlignTopLeft());
+            newGridset = xmlGridSet.makeGridSet();
+        }
+
+        // cancels as soon as the first layer has been processed
+        DefaultProgressListener listener =
+                new DefaultProgressListener() {
+                    @Override
+                    public void progress(float percent) {
+                        super.progress(percent);
+                        if (percent > 0) {
+                            setCanceled(true);
+                        }
+                    }
+                };
+        try {
+            mediator.modifyGridSet(oldName, newGridset, listener);
+            fail("Expected a GeoWebCacheException");
+        } catch (GeoWebCacheException e) {
+            assertTrue(e.getMessage().contains("cancelled"));
+        }
+
+        // the layers got their gridsubset back, and the broker has not been touched
+        assertEquals(oldGridset, tileLayer.getGridSubset(oldName).getGridSet());
+        assertEquals(oldGridset, tileLayerGroup.getGridSubset(oldName).getGridSet());
+        assertNull(tileLayer.getGridSubset(newName));
+        assertNull(tileLayerGroup.getGridSubset(newName));
+        verify(xmlConfig, never()).removeGridSet(anyString());
+        verify(xmlConfig, never()).addGridSet(any(GridSet.class));
+    }
+
+    @Test
+    public void testModifyGridsetFailureRollsBack() throws Exception {
+        final String oldName = "TEST";
+        final String newName = "TEST_CHANGED";
+
+        final GridSet oldGridset = gridSetBroker.get(oldName);
+        final GridSet newGridset = namedGridsetCopy(newName, oldGridset);
+
+        // keep track of the gridsets added and removed from the broker
+        when(xmlConfig.getGridSet(eq(newName))).thenReturn(Optional.empty());
+        when(xmlConfig.canSave(any(GridSet.class))).thenReturn(true);
+        doAnswer(
+                        invocation -> {
+                            String name = invocation.getArgument(0);
+                            when(xmlConfig.getGridSet(eq(name))).thenReturn(Optional.empty());
+                            return null;
+                        })
+                .when(xmlConfig)
+                .removeGridSet(anyString());
+        doAnswer(
+                        invocation -> {
+                            GridSet gridSet = invocation.getArgument(0);
+                            when(xmlConfig.getGridSet(eq(gridSet.getName())))
+                                    .thenReturn(Optional.of(gridSet));
+                            return null;
+                        })
+                .when(xmlConfig)
+                .addGridSet(any(GridSet.class));
+
+        // saving the layer group fails, after the broker has been updated
+        when(tld.getConfiguration(same(tileLayer))).thenReturn(config);
+        when(tld.getConfiguration(same(tileLayerGroup))).thenReturn(config);
+        doThrow(new IllegalStateException("Failed to save"))
+                .when(config)
+                .modifyLayer(same(tileLayerGroup));
+
+        DefaultProgressListener listener = new DefaultProgressListener();
+        try {
+            mediator.modifyGridSet(oldName, newGridset, listener);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("Failed to save", e.getMessage());
+        }
+        assertFalse(listener.isCompleted());
+
+        // both layers are back on the old gridset, and so is the broker
+        assertEquals(oldGridset, tileLayer.getGridSubset(oldName).getGridSet());
+        assertEquals(oldGridset, tileLayerGroup.getGridSubset(oldName).getGridSet());
+        assertNull(tileLayer.getGridSubset(newName));
+        assertNull(tileLayerGroup.getGridSubset(newName));
+        verify(xmlConfig).removeGridSet(eq(newName));
+        verify(xmlConfig).addGridSet(same(oldGridset));
+        assertEquals(oldGridset, gridSetBroker.get(oldName));
+        assertNull(gridSetBroker.get(newName));
+    }
+
+    @Test
+    public void testRemoveGridsetsFailureRollsBack() throws Exception {
+        when(tld.getConfiguration(same(tileLayer))).thenReturn(config);
+        when(tld.getConfiguration(same(tileLayerGroup))).thenReturn(config);
+        doNothing().when(tld).modify(same(tileLayer));
+        doThrow(new IllegalStateException("Failed to save"))
+                .when(tld)
+                .modify(same(tileLayerGroup));
+
+        try {
+            mediator.removeGridSets(ImmutableSet.of("TEST"), new DefaultProgressListener());
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("Failed to save", e.getMessage());
+        }
+
+        // the layers still reference the gridset, which is still there
+        assertNotNull(tileLayer.getGridSubset("TEST"));
+        assertNotNull(tileLayerGroup.getGridSubset("TEST"));
+        assertTrue(tileLayer.isEnabled());
+        assertTrue(tileLayerGroup.isEnabled());
+        verify(xmlConfig, never()).removeGridSet(eq("TEST"));
+    }
+
     @Test
     public void testRemoveGridsets() throws Exception {
         try {
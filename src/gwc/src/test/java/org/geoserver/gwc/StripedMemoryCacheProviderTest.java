@@ -0,0 +1,188 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.blobstore.memory.CacheConfiguration;
+import org.geowebcache.storage.blobstore.memory.CacheConfiguration.EvictionPolicy;
+import org.geowebcache.storage.blobstore.memory.CacheStatistics;
+import org.junit.Test;
+
+public class StripedMemoryCacheProviderTest {
+
+    private static final int TILE_SIZE = 16 * 1024;
+
+    private CacheConfiguration configuration(long megabytes) {
+        CacheConfiguration configuration = new CacheConfiguration();
+        configuration.setHardMemoryLimit(megabytes);
+        configuration.setConcurrencyLevel(4);
+        configuration.setPolicy(EvictionPolicy.NULL);
+        return configuration;
+    }
+
+    private TileObject tile(String layer, long x, long y, long z, byte[] contents) {
+        return TileObject.createCompleteTileObject(
+                layer,
+                new long[] {x, y, z},
+                "EPSG:4326",
+                "image/png",
+                Collections.emptyMap(),
+                contents == null ? null : new ByteArrayResource(contents));
+    }
+
+    private byte[] contents(int seed) {
+        byte[] contents = new byte[TILE_SIZE];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = (byte) (seed + i);
+        }
+        return contents;
+    }
+
+    @Test
+    public void testPutGet() throws Exception {
+        testPutGet(false);
+    }
+
+    @Test
+    public void testPutGetOffHeap() throws Exception {
+        testPutGet(true);
+    }
+
+    private void testPutGet(boolean offHeap) throws Exception {
+        StripedMemoryCacheProvider cache =
+                new StripedMemoryCacheProvider(configuration(16), offHeap);
+        byte[] contents = contents(1);
+        cache.putTileObj(tile("layer", 0, 0, 0, contents));
+
+        TileObject cached = cache.getTileObj(tile("layer", 0, 0, 0, null));
+        assertNotNull(cached);
+        assertArrayEquals(contents, ((ByteArrayResource) cached.getBlob()).getContents());
+        assertNull(cache.getTileObj(tile("layer", 1, 0, 0, null)));
+
+        CacheStatistics statistics = cache.getStatistics();
+        assertEquals(1, statistics.getHitCount());
+        assertEquals(1, statistics.getMissCount());
+        assertTrue(statistics.getActualSize() > TILE_SIZE);
+    }
+
+    @Test
+    public void testSizeBound() throws Exception {
+        StripedMemoryCacheProvider cache = new StripedMemoryCacheProvider(configuration(1), false);
+        for (int i = 0; i < 1000; i++) {
+            cache.putTileObj(tile("layer", i, 0, 10, contents(i)));
+        }
+        CacheStatistics statistics = cache.getStatistics();
+        assertTrue(statistics.getActualSize() <= 1024 * 1024);
+        assertTrue(statistics.getEvictionCount() > 0);
+    }
+
+    @Test
+    public void testFrequentTilesAreRetained() throws Exception {
+        StripedMemoryCacheProvider cache = new StripedMemoryCacheProvider(configuration(1), false);
+        // a hot tile, requested many times
+        TileObject hot = tile("layer", 0, 0, 5, contents(0));
+        for (int i = 0; i < 10; i++) {
+            cache.getTileObj(tile("layer", 0, 0, 5, null));
+        }
+        cache.putTileObj(hot);
+        // a scan through many tiles requested only once
+        for (int i = 1; i < 200; i++) {
+            cache.getTileObj(tile("layer", i, 0, 10, null));
+            cache.putTileObj(tile("layer", i, 0, 10, contents(i)));
+        }
+        assertNotNull(cache.getTileObj(tile("layer", 0, 0, 5, null)));
+    }
+
+    @Test
+    public void testRejectedCandidateDoesNotEvict() throws Exception {
+        // a single segment, with a window smaller than a tile
+        CacheConfiguration configuration = configuration(1);
+        configuration.setConcurrencyLevel(1);
+        StripedMemoryCacheProvider cache = new StripedMemoryCacheProvider(configuration, false);
+
+        // a cold tile and a hot one are the first two eviction victims
+        cache.putTileObj(tile("layer", 0, 0, 10, contents(0)));
+        for (int i = 0; i < 5; i++) {
+            cache.getTileObj(tile("layer", 1, 0, 10, null));
+        }
+        cache.putTileObj(tile("layer", 1, 0, 10, contents(1)));
+        // fill the main area
+        for (int i = 2; i < 62; i++) {
+            cache.putTileObj(tile("layer", i, 0, 10, contents(i)));
+        }
+        long evictions = cache.getStatistics().getEvictionCount();
+
+        // a warm candidate, needing both victims to fit, is not worth evicting the hot one
+        for (int i = 0; i < 2; i++) {
+            cache.getTileObj(tile("layer", 0, 0, 5, null));
+        }
+        byte[] large = new byte[2 * TILE_SIZE];
+        cache.putTileObj(tile("layer", 0, 0, 5, large));
+
+        // the candidate has been rejected, without evicting the cold tile first
+        assertEquals(evictions + 1, cache.getStatistics().getEvictionCount());
+        assertNull(cache.getTileObj(tile("layer", 0, 0, 5, null)));
+        assertNotNull(cache.getTileObj(tile("layer", 0, 0, 10, null)));
+        assertNotNull(cache.getTileObj(tile("layer", 1, 0, 10, null)));
+    }
+
+    @Test
+    public void testUncachedAndRemovedLayers() throws Exception {
+        StripedMemoryCacheProvider cache = new StripedMemoryCacheProvider(configuration(16), false);
+        cache.putTileObj(tile("layer1", 0, 0, 0, contents(1)));
+        cache.putTileObj(tile("layer2", 0, 0, 0, contents(2)));
+
+        cache.addUncachedLayer("layer1");
+        assertTrue(cache.containsUncachedLayer("layer1"));
+        assertNull(cache.getTileObj(tile("layer1", 0, 0, 0, null)));
+        cache.putTileObj(tile("layer1", 0, 0, 0, contents(1)));
+        cache.removeUncachedLayer("layer1");
+        assertNull(cache.getTileObj(tile("layer1", 0, 0, 0, null)));
+
+        assertNotNull(cache.getTileObj(tile("layer2", 0, 0, 0, null)));
+        cache.removeLayer("layer2");
+        assertNull(cache.getTileObj(tile("layer2", 0, 0, 0, null)));
+    }
+
+    @Test
+    public void testLayerStatistics() throws Exception {
+        StripedMemoryCacheProvider cache = new StripedMemoryCacheProvider(configuration(16), false);
+        cache.putTileObj(tile("layer1", 0, 0, 0, contents(1)));
+        cache.getTileObj(tile("layer1", 0, 0, 0, null));
+        cache.getTileObj(tile("layer1", 0, 0, 0, null));
+        cache.getTileObj(tile("layer1", 1, 0, 0, null));
+        cache.getTileObj(tile("layer2", 0, 0, 0, null));
+
+        Map<String, CacheStatistics> statistics = cache.getLayerStatistics();
+        assertEquals(2, statistics.get("layer1").getHitCount());
+        assertEquals(1, statistics.get("layer1").getMissCount());
+        assertEquals(0, statistics.get("layer2").getHitCount());
+        assertEquals(1, statistics.get("layer2").getMissCount());
+
+        cache.reset();
+        assertTrue(cache.getLayerStatistics().isEmpty());
+    }
+
+    @Test
+    public void testExpireAfterWrite() throws Exception {
+        CacheConfiguration configuration = configuration(16);
+        configuration.setPolicy(EvictionPolicy.EXPIRE_AFTER_WRITE);
+        configuration.setEvictionTime(1);
+        StripedMemoryCacheProvider cache = new StripedMemoryCacheProvider(configuration, false);
+        TileObject tile = tile("layer", 0, 0, 0, contents(1));
+        tile.setCreated(System.currentTimeMillis() - 2000);
+        cache.putTileObj(tile);
+        assertNull(cache.getTileObj(tile("layer", 0, 0, 0, null)));
+    }
+}
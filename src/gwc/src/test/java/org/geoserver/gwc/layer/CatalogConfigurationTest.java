@@ -17,6 +17,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.same;
@@ -139,6 +140,8 @@ public class CatalogConfigurationTest {
                         tileLayerName(group2));
 
         tileLayerCatalog = mock(TileLayerCatalog.class);
+        // batches are saved through the default implementation, one layer at a time
+        when(tileLayerCatalog.saveAll(anyCollection())).thenCallRealMethod();
         when(tileLayerCatalog.getLayerIds())
                 .thenReturn(
                         ImmutableSet.of(
@@ -443,6 +446,20 @@ public class CatalogConfigurationTest {
         verify(mockMediator, times(1)).layerAdded(eq(addedState2.getName()));
     }
 
+    @Test
+    public void testSaveAllSkipsFailures() {
+        // a failure does not prevent the other layers of the batch from being saved
+        doThrow(new IllegalArgumentException("failedSave"))
+                .when(tileLayerCatalog)
+                .save(same(layerInfo1));
+        when(tileLayerCatalog.save(same(layerInfo2))).thenReturn(null);
+
+        Map<String, GeoServerTileLayerInfo> saved =
+                tileLayerCatalog.saveAll(Arrays.asList(layerInfo1, layerInfo2));
+        assertEquals(Collections.singleton(layerInfo2.getId()), saved.keySet());
+        verify(tileLayerCatalog, times(1)).save(same(layerInfo2));
+    }
+
     @Test
     public void testCanSave() {
         // Create mock layer not transient and ensure that the Layer cannot be saved
@@ -6,6 +6,7 @@
 package org.geoserver.gwc.layer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -14,7 +15,9 @@ import com.google.common.collect.ImmutableSet;
 import com.thoughtworks.xstream.XStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.io.FileUtils;
@@ -163,6 +166,85 @@ public class DefaultTileLayerCatalogTest {
         assertEquals(ImmutableSet.of("image/gif"), modified.getMimeFormats());
     }
 
+    @Test
+    public void testSaveAll() {
+        GeoServerTileLayerInfo info1 = new GeoServerTileLayerInfoImpl();
+        info1.setId("id1");
+        info1.setName("name1");
+        GeoServerTileLayerInfo info2 = new GeoServerTileLayerInfoImpl();
+        info2.setId("id2");
+        info2.setName("name2");
+        // same name as info1, won't be saved
+        GeoServerTileLayerInfo duplicate = new GeoServerTileLayerInfoImpl();
+        duplicate.setId("id3");
+        duplicate.setName("name1");
+
+        Map<String, GeoServerTileLayerInfo> saved =
+                catalog.saveAll(Arrays.asList(info1, info2, duplicate));
+        assertEquals(ImmutableSet.of("id1", "id2"), saved.keySet());
+        assertNull(saved.get("id1"));
+        assertNull(saved.get("id2"));
+        assertEquals(ImmutableSet.of("id1", "id2"), catalog.getLayerIds());
+        assertTrue(new File(baseDirectory, "gwc-layers/id1.xml").exists());
+        assertTrue(new File(baseDirectory, "gwc-layers/id2.xml").exists());
+        assertFalse(new File(baseDirectory, "gwc-layers/id3.xml").exists());
+
+        // modify both, the old values are returned
+        GeoServerTileLayerInfo modified1 = catalog.getLayerById("id1");
+        modified1.setName("name1b");
+        GeoServerTileLayerInfo modified2 = catalog.getLayerById("id2");
+        modified2.setEnabled(!modified2.isEnabled());
+        saved = catalog.saveAll(Arrays.asList(modified1, modified2));
+        assertEquals("name1", saved.get("id1").getName());
+        assertEquals(info2.isEnabled(), saved.get("id2").isEnabled());
+        assertEquals(ImmutableSet.of("name1b", "name2"), catalog.getLayerNames());
+    }
+
+    @Test
+    public void testLazyLoading() throws Exception {
+        File file = new File(baseDirectory, "gwc-layers/id1.xml");
+        FileUtils.writeStringToFile(
+                file,
+                "<org.geoserver.gwc.layer.GeoServerTileLayerInfoImpl><id>id1</id>"
+                        + "<enabled>true</enabled><name>lazy</name><gutter>10</gutter>"
+                        + "</org.geoserver.gwc.layer.GeoServerTileLayerInfoImpl>",
+                "UTF-8");
+        catalog.initialize();
+
+        // the index is available without loading the full info
+        assertEquals(ImmutableSet.of("id1"), catalog.getLayerIds());
+        assertEquals("lazy", catalog.getLayerName("id1"));
+        assertEquals("id1", catalog.getLayerId("lazy"));
+
+        // and the full info is loaded on demand
+        GeoServerTileLayerInfo info = catalog.getLayerByName("lazy");
+        assertNotNull(info);
+        assertTrue(info.isEnabled());
+        assertEquals(10, info.getGutter());
+    }
+
+    @Test
+    public void testLazyLoadingFailure() throws Exception {
+        File file = new File(baseDirectory, "gwc-layers/id1.xml");
+        FileUtils.writeStringToFile(
+                file,
+                "<org.geoserver.gwc.layer.GeoServerTileLayerInfoImpl><id>id1</id>"
+                        + "<name>broken</name><gutter>not a number</gutter>"
+                        + "</org.geoserver.gwc.layer.GeoServerTileLayerInfoImpl>",
+                "UTF-8");
+        catalog.initialize();
+
+        // the quick scan indexes the layer
+        assertEquals(ImmutableSet.of("id1"), catalog.getLayerIds());
+
+        // loading it fails, and the layer is no longer listed
+        assertNull(catalog.getLayerByName("broken"));
+        assertFalse(catalog.exists("id1"));
+        assertTrue(catalog.getLayerIds().isEmpty());
+        assertTrue(catalog.getLayerNames().isEmpty());
+        assertNull(catalog.getLayerId("broken"));
+    }
+
     @Test
     public void testEvents() throws IOException, InterruptedException {
 
@@ -11,6 +11,8 @@ import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -24,6 +26,7 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -31,6 +34,8 @@ import static org.mockito.Mockito.when;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -42,6 +47,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -676,6 +688,156 @@ public class GeoServerTileLayerTest {
         verify(mockGWC, times(1)).getResponseEncoder(eq(mimeType), isA(RenderedImageMap.class));
     }
 
+    @Test
+    public void testGetTileReturnsBeforeStoringMetaTile() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<DisposalTrackingMap> maps = setupMetaTileRendering(release, false);
+        StorageBroker storageBroker = mock(StorageBroker.class);
+        when(storageBroker.get((TileObject) any())).thenReturn(false);
+
+        // the requested tile is returned while the other one is still being encoded
+        ConveyorTile returned = layerInfoTileLayer.getTile(metaTileRequest(storageBroker));
+        assertNotNull(returned.getBlob());
+        assertEquals(CacheResult.MISS, returned.getCacheResult());
+        ArgumentCaptor<TileObject> stored = ArgumentCaptor.forClass(TileObject.class);
+        verify(storageBroker, times(1)).put(stored.capture());
+        assertArrayEquals(new long[] {0, 0, 0}, stored.getValue().getXYZ());
+        assertEquals(1, maps.size());
+        assertEquals(1, maps.get(0).disposed.getCount());
+
+        // once the write completes the other tile is stored and the meta tile disposed
+        release.countDown();
+        assertTrue(maps.get(0).disposed.await(10, TimeUnit.SECONDS));
+        verify(storageBroker, times(2)).put(stored.capture());
+        assertArrayEquals(new long[] {1, 0, 0}, stored.getValue().getXYZ());
+    }
+
+    @Test
+    public void testGetTileWaitsForPendingWrites() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<DisposalTrackingMap> maps = setupMetaTileRendering(release, false);
+        StorageBroker storageBroker = mock(StorageBroker.class);
+        when(storageBroker.get((TileObject) any())).thenReturn(false);
+
+        layerInfoTileLayer.getTile(metaTileRequest(storageBroker));
+
+        // a second request for the same meta tile waits for the pending write
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ConveyorTile request = metaTileRequest(storageBroker);
+            Future<ConveyorTile> second = executor.submit(() -> layerInfoTileLayer.getTile(request));
+            try {
+                second.get(500, TimeUnit.MILLISECONDS);
+                fail("The second request should be waiting for the pending write");
+            } catch (TimeoutException e) {
+                // expected
+            }
+            verify(mockGWC, times(1)).dispatchOwsRequest(any(), any());
+
+            release.countDown();
+            assertNotNull(second.get(10, TimeUnit.SECONDS).getBlob());
+            assertTrue(maps.get(0).disposed.await(10, TimeUnit.SECONDS));
+            verify(mockGWC, times(2)).dispatchOwsRequest(any(), any());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedPendingWriteDisposesMetaTile() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<DisposalTrackingMap> maps = setupMetaTileRendering(release, true);
+        StorageBroker storageBroker = mock(StorageBroker.class);
+        when(storageBroker.get((TileObject) any())).thenReturn(false);
+
+        ConveyorTile returned = layerInfoTileLayer.getTile(metaTileRequest(storageBroker));
+        assertNotNull(returned.getBlob());
+
+        // the failure of the background write still disposes the meta tile
+        release.countDown();
+        assertTrue(maps.get(0).disposed.await(10, TimeUnit.SECONDS));
+        verify(storageBroker, times(1)).put((TileObject) any());
+
+        // and does not block the next request for the same meta tile
+        assertNotNull(layerInfoTileLayer.getTile(metaTileRequest(storageBroker)).getBlob());
+        assertEquals(2, maps.size());
+    }
+
+    /**
+     * Sets up a world wide layer whose 2x1 meta tile at zoom level 0 is rendered by the mocked
+     * dispatcher. The encoding of the tile on the east side blocks until {@code release} is
+     * counted down, and then fails if {@code failEastTile} is set.
+     *
+     * @return the maps rendered by the dispatcher
+     */
+    private List<DisposalTrackingMap> setupMetaTileRendering(
+            CountDownLatch release, boolean failEastTile) throws Exception {
+        ReferencedEnvelope world = new ReferencedEnvelope(-180, 180, -90, 90, WGS84);
+        resource.setLatLonBoundingBox(world);
+        resource.setNativeBoundingBox(world);
+        layerInfoTileLayer = new GeoServerTileLayer(layerInfo, defaults, gridSetBroker);
+
+        List<DisposalTrackingMap> maps = new CopyOnWriteArrayList<>();
+        when(mockGWC.dispatchOwsRequest(any(), any()))
+                .thenAnswer(
+                        invocation -> {
+                            BufferedImage image =
+                                    new BufferedImage(512, 256, BufferedImage.TYPE_INT_ARGB);
+                            WMSMapContent content = new WMSMapContent();
+                            content.getViewport().setBounds(world);
+                            DisposalTrackingMap map = new DisposalTrackingMap(content, image);
+                            maps.add(map);
+                            GeoServerTileLayer.WEB_MAP.set(map);
+                            return mock(Resource.class);
+                        });
+
+        RenderedImageMapResponse encoder = mock(RenderedImageMapResponse.class);
+        doAnswer(
+                        invocation -> {
+                            WMSMapContent tileContent = invocation.getArgument(2);
+                            if (tileContent.getViewport().getBounds().getMinX() >= 0) {
+                                assertTrue(release.await(10, TimeUnit.SECONDS));
+                                if (failEastTile) {
+                                    throw new IOException("Failed to encode the tile");
+                                }
+                            }
+                            return null;
+                        })
+                .when(encoder)
+                .formatImageOutputStream(any(), any(), any());
+        when(mockGWC.getResponseEncoder(any(), any())).thenReturn(encoder);
+
+        return maps;
+    }
+
+    private ConveyorTile metaTileRequest(StorageBroker storageBroker) {
+        return new ConveyorTile(
+                storageBroker,
+                layerInfoTileLayer.getName(),
+                "EPSG:4326",
+                new long[] {0, 0, 0},
+                MimeType.createFromFormat("image/png"),
+                null,
+                new MockHttpServletRequest(),
+                new MockHttpServletResponse());
+    }
+
+    /** A rendered map tracking its disposal */
+    private static class DisposalTrackingMap extends RenderedImageMap {
+
+        final CountDownLatch disposed = new CountDownLatch(1);
+
+        DisposalTrackingMap(WMSMapContent content, RenderedImage image) {
+            super(content, image, "image/png");
+        }
+
+        @Override
+        protected void disposeInternal() {
+            super.disposeInternal();
+            disposed.countDown();
+        }
+    }
+
     @Test
     public void testGetMimeTypes() throws Exception {
 
@@ -36,11 +36,13 @@ import javax.media.jai.RegistryElementDescriptor;
 import javax.media.jai.RegistryMode;
 import javax.media.jai.remote.SerializableRenderedImage;
 import javax.media.jai.util.ImagingListener;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.LogManager;
 import org.geoserver.config.impl.CoverageAccessInfoImpl;
+import org.geoserver.jai.AccountingTileCache;
 import org.geoserver.logging.LoggingUtils;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geotools.coverage.CoverageFactoryFinder;
@@ -129,8 +131,20 @@ public class GeoserverInitStartupListener implements ServletContextListener {
             jaiDef.setOperationRegistry(ConcurrentOperationRegistry.initializeRegistry());
         }
 
-        // setup the concurrent tile cache (has proper memory limit handling also for small tiles)
-        if (!(jaiDef.getTileCache() instanceof ConcurrentTileCacheMultiMap)) {
+        // setup the concurrent tile cache (has proper memory limit handling also for small tiles),
+        // or the accounting one, if requested
+        ServletContext context = sce.getServletContext();
+        String tileCache =
+                GeoServerExtensions.getProperty(AccountingTileCache.TILE_CACHE_KEY, context);
+        if ("accounting".equalsIgnoreCase(tileCache)) {
+            if (!(jaiDef.getTileCache() instanceof AccountingTileCache)) {
+                AccountingTileCache cache = new AccountingTileCache();
+                cache.configure(
+                        GeoServerExtensions.getProperty(AccountingTileCache.QUOTAS_KEY, context),
+                        GeoServerExtensions.getProperty(AccountingTileCache.OFF_HEAP_KEY, context));
+                jaiDef.setTileCache(cache);
+            }
+        } else if (!(jaiDef.getTileCache() instanceof ConcurrentTileCacheMultiMap)) {
             jaiDef.setTileCache(new ConcurrentTileCacheMultiMap());
         }
 
@@ -56,6 +56,7 @@ import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.catalog.impl.StoreInfoImpl;
 import org.geoserver.config.GeoServerDataDirectory;
+import org.geoserver.coverage.CoverageReadCache;
 import org.geoserver.data.util.CoverageStoreUtils;
 import org.geoserver.data.util.CoverageUtils;
 import org.geoserver.feature.retype.RetypingFeatureSource;
@@ -207,6 +208,7 @@ public class ResourcePool {
     Map<StyleInfo, Style> styleCache;
     List<Listener> listeners;
     ThreadPoolExecutor coverageExecutor;
+    CoverageReadCache coverageReadCache = new CoverageReadCache();
     CatalogRepository repository;
     EntityResolverProvider entityResolverProvider;
 
@@ -420,6 +422,19 @@ public class ResourcePool {
         }
     }
 
+    /** Returns the cache shared by the coverage readers, disabled by default. */
+    public CoverageReadCache getCoverageReadCache() {
+        return coverageReadCache;
+    }
+
+    /** Sets the cache shared by the coverage readers. */
+    public void setCoverageReadCache(CoverageReadCache coverageReadCache) {
+        synchronized (this) {
+            this.coverageReadCache.clear();
+            this.coverageReadCache = coverageReadCache;
+        }
+    }
+
     /** Adds a pool listener. */
     public void addListener(Listener l) {
         listeners.add(l);
@@ -1570,6 +1585,11 @@ public class ResourcePool {
             coverageInfo = getCoverageInfo(coverageName, info);
         }
 
+        // share the reads and their footprint masks among concurrent and repeated requests
+        if (coverageReadCache.isWrappingNeeded() && reader instanceof GridCoverage2DReader) {
+            reader = coverageReadCache.wrap((GridCoverage2DReader) reader);
+        }
+
         if (coverageInfo != null) {
             MetadataMap metadata = coverageInfo.getMetadata();
             if (metadata != null && metadata.containsKey(CoverageView.COVERAGE_VIEW)) {
@@ -2233,6 +2253,7 @@ public class ResourcePool {
         featureTypeCache.clear();
         featureTypeAttributeCache.clear();
         hintCoverageReaderCache.clear();
+        coverageReadCache.clear();
         wmsCache.clear();
         wmtsCache.clear();
         styleCache.clear();
@@ -2382,6 +2403,9 @@ public class ResourcePool {
 
                 fireDisposed(info, reader);
             }
+            if (reader instanceof GridCoverage2DReader) {
+                coverageReadCache.invalidate((GridCoverage2DReader) reader);
+            }
             try {
                 reader.dispose();
             } catch (Exception e) {
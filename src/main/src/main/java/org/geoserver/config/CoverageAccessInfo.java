@@ -53,5 +53,10 @@ public interface CoverageAccessInfo extends Cloneable, Serializable {
 
     long getImageIOCacheThreshold();
 
+    /** Maximum memory used to cache coverage reads, in megabytes. Zero disables the cache. */
+    void setReadCacheSize(long readCacheSize);
+
+    long getReadCacheSize();
+
     public CoverageAccessInfo clone();
 }
@@ -30,6 +30,9 @@ public class CoverageAccessInfoImpl implements Serializable, CoverageAccessInfo
     public static final long DEFAULT_ImageIOCacheThreshold = 10 * 1024;
     long imageIOCacheThreshold = DEFAULT_ImageIOCacheThreshold;
 
+    public static final long DEFAULT_ReadCacheSize = 0;
+    long readCacheSize = DEFAULT_ReadCacheSize;
+
     public CoverageAccessInfoImpl() {
         threadPoolExecutor = null;
     }
@@ -82,6 +85,14 @@ public class CoverageAccessInfoImpl implements Serializable, CoverageAccessInfo
         return imageIOCacheThreshold;
     }
 
+    public long getReadCacheSize() {
+        return readCacheSize;
+    }
+
+    public void setReadCacheSize(long readCacheSize) {
+        this.readCacheSize = readCacheSize;
+    }
+
     public void dispose() {}
 
     @Override
@@ -93,6 +104,7 @@ public class CoverageAccessInfoImpl implements Serializable, CoverageAccessInfo
         result = prime * result + keepAliveTime;
         result = prime * result + maxPoolSize;
         result = prime * result + ((queueType == null) ? 0 : queueType.hashCode());
+        result = prime * result + (int) (readCacheSize ^ (readCacheSize >>> 32));
         return result;
     }
 
@@ -106,6 +118,7 @@ public class CoverageAccessInfoImpl implements Serializable, CoverageAccessInfo
         if (imageIOCacheThreshold != other.imageIOCacheThreshold) return false;
         if (keepAliveTime != other.keepAliveTime) return false;
         if (maxPoolSize != other.maxPoolSize) return false;
+        if (readCacheSize != other.readCacheSize) return false;
         if (queueType == null) {
             if (other.queueType != null) return false;
         } else if (!queueType.equals(other.queueType)) return false;
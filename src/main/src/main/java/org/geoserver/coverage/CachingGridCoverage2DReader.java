@@ -0,0 +1,48 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.coverage;
+
+import java.io.IOException;
+import org.geoserver.security.decorators.DecoratingGridCoverage2DReader;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.opengis.parameter.GeneralParameterValue;
+
+/**
+ * Routes the reads of the delegate reader through a {@link CoverageReadCache}
+ *
+ * @see CoverageReadCache#wrap(GridCoverage2DReader)
+ */
+class CachingGridCoverage2DReader extends DecoratingGridCoverage2DReader {
+
+    GridCoverage2DReader reader;
+
+    CoverageReadCache cache;
+
+    public CachingGridCoverage2DReader(GridCoverage2DReader delegate, CoverageReadCache cache) {
+        super(delegate);
+        this.reader = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public GridCoverage2D read(GeneralParameterValue[] parameters)
+            throws IllegalArgumentException, IOException {
+        return cache.read(reader, null, parameters, () -> reader.read(parameters));
+    }
+
+    @Override
+    public GridCoverage2D read(String coverageName, GeneralParameterValue[] parameters)
+            throws IllegalArgumentException, IOException {
+        return cache.read(
+                reader, coverageName, parameters, () -> reader.read(coverageName, parameters));
+    }
+
+    @Override
+    public void dispose() throws IOException {
+        cache.invalidate(reader);
+        super.dispose();
+    }
+}
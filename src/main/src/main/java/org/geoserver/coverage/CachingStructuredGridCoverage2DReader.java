@@ -0,0 +1,101 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.coverage;
+
+import java.io.IOException;
+import java.util.List;
+import org.geoserver.security.decorators.DecoratingStructuredGridCoverage2DReader;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.GranuleSource;
+import org.geotools.coverage.grid.io.HarvestedSource;
+import org.geotools.coverage.grid.io.StructuredGridCoverage2DReader;
+import org.geotools.util.factory.Hints;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.parameter.GeneralParameterValue;
+
+/**
+ * Routes the reads of the delegate structured reader through a {@link CoverageReadCache}, removing
+ * the cached reads every time the reader contents are modified
+ *
+ * @see CoverageReadCache#wrap(org.geotools.coverage.grid.io.GridCoverage2DReader)
+ */
+class CachingStructuredGridCoverage2DReader extends DecoratingStructuredGridCoverage2DReader {
+
+    StructuredGridCoverage2DReader reader;
+
+    CoverageReadCache cache;
+
+    public CachingStructuredGridCoverage2DReader(
+            StructuredGridCoverage2DReader delegate, CoverageReadCache cache) {
+        super(delegate);
+        this.reader = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public GridCoverage2D read(GeneralParameterValue[] parameters)
+            throws IllegalArgumentException, IOException {
+        return cache.read(reader, null, parameters, () -> reader.read(parameters));
+    }
+
+    @Override
+    public GridCoverage2D read(String coverageName, GeneralParameterValue[] parameters)
+            throws IllegalArgumentException, IOException {
+        return cache.read(
+                reader, coverageName, parameters, () -> reader.read(coverageName, parameters));
+    }
+
+    @Override
+    public GranuleSource getGranules(String coverageName, boolean readOnly)
+            throws IOException, UnsupportedOperationException {
+        if (!readOnly) {
+            // the granules can be modified from now on
+            cache.invalidate(reader);
+        }
+        return super.getGranules(coverageName, readOnly);
+    }
+
+    @Override
+    public void createCoverage(String coverageName, SimpleFeatureType schema)
+            throws IOException, UnsupportedOperationException {
+        cache.invalidate(reader);
+        super.createCoverage(coverageName, schema);
+    }
+
+    @Override
+    public boolean removeCoverage(String coverageName, boolean delete)
+            throws IOException, UnsupportedOperationException {
+        try {
+            return super.removeCoverage(coverageName, delete);
+        } finally {
+            cache.invalidate(reader);
+        }
+    }
+
+    @Override
+    public void delete(boolean deleteData) throws IOException {
+        try {
+            super.delete(deleteData);
+        } finally {
+            cache.invalidate(reader);
+        }
+    }
+
+    @Override
+    public List<HarvestedSource> harvest(String defaultTargetCoverage, Object source, Hints hints)
+            throws IOException, UnsupportedOperationException {
+        try {
+            return super.harvest(defaultTargetCoverage, source, hints);
+        } finally {
+            cache.invalidate(reader);
+        }
+    }
+
+    @Override
+    public void dispose() throws IOException {
+        cache.invalidate(reader);
+        super.dispose();
+    }
+}
@@ -134,6 +134,12 @@ public class CoverageAccessInitializer implements GeoServerInitializer, Extensio
 
             // setup the memory/file system cache usage threshold
             ImageIOExt.setFilesystemThreshold(coverageAccess.getImageIOCacheThreshold() * 1024);
+
+            // setup the coverage read cache
+            gs.getCatalog()
+                    .getResourcePool()
+                    .getCoverageReadCache()
+                    .setMaxSize(coverageAccess.getReadCacheSize() * 1024 * 1024);
         }
     }
 
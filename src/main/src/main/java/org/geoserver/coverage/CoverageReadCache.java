@@ -0,0 +1,732 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.coverage;
+
+import it.geosolutions.jaiext.vectorbin.ROIGeometry;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.media.jai.ImageLayout;
+import javax.media.jai.Interpolation;
+import javax.media.jai.InterpolationTable;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.ROI;
+import javax.media.jai.ROIShape;
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.grid.io.StructuredGridCoverage2DReader;
+import org.geotools.util.logging.Logging;
+import org.opengis.filter.Filter;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+/**
+ * Caches the results of {@link GridCoverage2DReader} reads, so that concurrent and repeated
+ * requests for the same area of a coverage (e.g., the same map tile requested by many clients, or
+ * by a map and a tile cache at the same time) hit the underlying storage only once.
+ *
+ * <p>Reads are keyed by reader, coverage name and read parameters, which include the requested
+ * window and resolution (and thus the overview level the reader is going to pick), the overview
+ * policy and the band selection. Identical reads that are in progress at the same time are
+ * performed only once, the other requests wait for the result. Completed reads are copied in
+ * memory and kept in a least recently used cache bounded by the memory they use. Reads larger than
+ * a quarter of the cache are never cached.
+ *
+ * <p>The cache is disabled when its maximum size is zero. The footprint masks of the reads are
+ * shared via a {@link FootprintMaskCache}, which is enabled independently.
+ */
+public class CoverageReadCache {
+
+    static final Logger LOGGER = Logging.getLogger(CoverageReadCache.class);
+
+    /** A read, wrapped so that the cache can call it */
+    public interface ReadOperation {
+        GridCoverage2D read() throws IOException;
+    }
+
+    private static final GridCoverageFactory COVERAGE_FACTORY =
+            CoverageFactoryFinder.getGridCoverageFactory(null);
+
+    private volatile long maxSize;
+
+    private long size;
+
+    private final LinkedHashMap<ReadKey, CachedRead> entries =
+            new LinkedHashMap<ReadKey, CachedRead>(16, 0.75f, true);
+
+    private final Map<ReadKey, FutureTask<CachedRead>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final FootprintMaskCache footprintMasks;
+
+    /** Builds a disabled cache */
+    public CoverageReadCache() {
+        this(0);
+    }
+
+    /**
+     * Builds a new cache
+     *
+     * @param maxSize The maximum memory used by the cache, in bytes
+     */
+    public CoverageReadCache(long maxSize) {
+        this(maxSize, new FootprintMaskCache());
+    }
+
+    /**
+     * Builds a new cache
+     *
+     * @param maxSize The maximum memory used by the cache, in bytes
+     * @param footprintMasks The cache sharing the footprint masks of the reads
+     */
+    public CoverageReadCache(long maxSize, FootprintMaskCache footprintMasks) {
+        this.maxSize = maxSize;
+        this.footprintMasks = footprintMasks;
+    }
+
+    /** Returns true if reads are going to be cached */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /** Returns true if either the reads or their footprint masks are going to be cached */
+    public boolean isWrappingNeeded() {
+        return isEnabled() || footprintMasks.isEnabled();
+    }
+
+    /** The cache sharing the footprint masks of the reads */
+    public FootprintMaskCache getFootprintMaskCache() {
+        return footprintMasks;
+    }
+
+    /** The maximum memory used by the cache, in bytes */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /** Sets the maximum memory used by the cache, in bytes, evicting reads as needed */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        synchronized (entries) {
+            evict();
+        }
+    }
+
+    /**
+     * Wraps the reader so that its reads go through this cache. Structured readers are invalidated
+     * when their contents are modified.
+     */
+    public GridCoverage2DReader wrap(GridCoverage2DReader reader) {
+        if (reader == null
+                || reader instanceof CachingGridCoverage2DReader
+                || reader instanceof CachingStructuredGridCoverage2DReader) {
+            return reader;
+        }
+        if (reader instanceof StructuredGridCoverage2DReader) {
+            return new CachingStructuredGridCoverage2DReader(
+                    (StructuredGridCoverage2DReader) reader, this);
+        }
+        return new CachingGridCoverage2DReader(reader, this);
+    }
+
+    /**
+     * Performs the read, or returns the result of a previous or in progress identical one
+     *
+     * @param reader The reader being used
+     * @param coverageName The coverage being read, may be null
+     * @param parameters The read parameters
+     * @param operation The actual read
+     */
+    public GridCoverage2D read(
+            GridCoverage2DReader reader,
+            String coverageName,
+            GeneralParameterValue[] parameters,
+            ReadOperation operation)
+            throws IOException {
+        GridCoverage2D coverage = readCoverage(reader, coverageName, parameters, operation);
+        return footprintMasks.apply(reader, coverage);
+    }
+
+    private GridCoverage2D readCoverage(
+            GridCoverage2DReader reader,
+            String coverageName,
+            GeneralParameterValue[] parameters,
+            ReadOperation operation)
+            throws IOException {
+        ReadKey key = maxSize > 0 ? ReadKey.build(reader, coverageName, parameters) : null;
+        if (key == null) {
+            return operation.read();
+        }
+
+        CachedRead cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.toCoverage();
+        }
+
+        FutureTask<CachedRead> task = new FutureTask<>(new Load(key, operation));
+        FutureTask<CachedRead> running = inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            misses.incrementAndGet();
+            try {
+                task.run();
+                CachedRead read = get(task);
+                return read.coverage != null ? read.coverage : read.toCoverage();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        } else {
+            coalesced.incrementAndGet();
+            CachedRead read = get(running);
+            if (read.coverage != null) {
+                // the result could not be shared, read again
+                return operation.read();
+            }
+            return read.toCoverage();
+        }
+    }
+
+    private CachedRead get(FutureTask<CachedRead> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the coverage read", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /** Removes all the cached reads performed by the given reader, and their footprint masks */
+    public void invalidate(GridCoverage2DReader reader) {
+        footprintMasks.invalidate(reader);
+        synchronized (entries) {
+            for (Iterator<Map.Entry<ReadKey, CachedRead>> it = entries.entrySet().iterator();
+                    it.hasNext(); ) {
+                Map.Entry<ReadKey, CachedRead> entry = it.next();
+                if (entry.getKey().reader == reader) {
+                    size -= entry.getValue().size;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /** Removes all the cached reads and footprint masks */
+    public void clear() {
+        footprintMasks.clear();
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    private void evict() {
+        for (Iterator<CachedRead> it = entries.values().iterator();
+                it.hasNext() && size > maxSize; ) {
+            size -= it.next().size;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /** The memory currently used by the cache, in bytes */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    /** The number of reads currently cached */
+    public int getCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /** Reads served from the cache */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** Reads that had to be performed against the reader */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** Reads that waited for an identical one in progress, instead of reading again */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /** Reads removed from the cache to make room for new ones */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /** The ratio of reads that did not hit the reader, including the coalesced ones */
+    public double getHitRate() {
+        long saved = hits.get() + coalesced.get();
+        long total = saved + misses.get();
+        return total == 0 ? 0 : (double) saved / total;
+    }
+
+    /** Resets the statistics */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        coalesced.set(0);
+        evictions.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "CoverageReadCache [maxSize="
+                + maxSize
+                + ", size="
+                + getSize()
+                + ", count="
+                + getCount()
+                + ", hits="
+                + hits
+                + ", misses="
+                + misses
+                + ", coalesced="
+                + coalesced
+                + ", evictions="
+                + evictions
+                + "]";
+    }
+
+    /** Performs the read and caches its result, if possible */
+    private class Load implements Callable<CachedRead> {
+
+        ReadKey key;
+
+        ReadOperation operation;
+
+        Load(ReadKey key, ReadOperation operation) {
+            this.key = key;
+            this.operation = operation;
+        }
+
+        @Override
+        public CachedRead call() throws Exception {
+            GridCoverage2D coverage = operation.read();
+            if (coverage == null) {
+                return CachedRead.EMPTY;
+            }
+            CachedRead read = CachedRead.copy(coverage, maxSize / 4);
+            if (read == null) {
+                return new CachedRead(coverage);
+            }
+            coverage.dispose(true);
+            synchronized (entries) {
+                CachedRead previous = entries.put(key, read);
+                if (previous != null) {
+                    size -= previous.size;
+                }
+                size += read.size;
+                evict();
+            }
+            return read;
+        }
+    }
+
+    /** The key of a read, made of the reader identity and the read parameter values */
+    static class ReadKey {
+
+        /** The JAI-EXT interpolation properties, on top of the JAI ones */
+        static final List<String> INTERPOLATION_PROPERTIES =
+                Arrays.asList("getNoDataRange", "getDestinationNoData", "isUseROIAccessor");
+
+        /** Whether the class compares its instances by value, rather than by identity */
+        static final ClassValue<Boolean> HAS_VALUE_EQUALS =
+                new ClassValue<Boolean>() {
+                    @Override
+                    protected Boolean computeValue(Class<?> type) {
+                        try {
+                            return type.getMethod("equals", Object.class).getDeclaringClass()
+                                    != Object.class;
+                        } catch (NoSuchMethodException e) {
+                            return false;
+                        }
+                    }
+                };
+
+        final GridCoverage2DReader reader;
+
+        final String coverageName;
+
+        final Map<String, Object> parameters;
+
+        final int hashCode;
+
+        private ReadKey(
+                GridCoverage2DReader reader, String coverageName, Map<String, Object> parameters) {
+            this.reader = reader;
+            this.coverageName = coverageName;
+            this.parameters = parameters;
+            this.hashCode =
+                    Objects.hash(System.identityHashCode(reader), coverageName, parameters);
+        }
+
+        /** Builds the key, or returns null if the parameters cannot be used as a key */
+        static ReadKey build(
+                GridCoverage2DReader reader,
+                String coverageName,
+                GeneralParameterValue[] parameters) {
+            Map<String, Object> values = new TreeMap<>();
+            if (parameters != null) {
+                for (GeneralParameterValue parameter : parameters) {
+                    if (parameter == null) {
+                        continue;
+                    } else if (!(parameter instanceof ParameterValue)) {
+                        return null;
+                    }
+                    Object value = ((ParameterValue<?>) parameter).getValue();
+                    if (value != null) {
+                        Object normalized = normalize(value);
+                        if (normalized == null) {
+                            return null;
+                        }
+                        values.put(parameter.getDescriptor().getName().getCode(), normalized);
+                    }
+                }
+            }
+            return new ReadKey(reader, coverageName, values);
+        }
+
+        /**
+         * Turns the value into one that can be compared by value: arrays and collections become
+         * lists, interpolations their class and parameters. Returns null if the value can only be
+         * compared by identity, as it would never match the one of another request, and would just
+         * fill the cache.
+         */
+        private static Object normalize(Object value) {
+            if (value.getClass().isArray()) {
+                return normalize(value, Array.getLength(value), i -> Array.get(value, i));
+            } else if (value instanceof Collection) {
+                Object[] items = ((Collection<?>) value).toArray();
+                return normalize(value, items.length, i -> items[i]);
+            } else if (value instanceof Interpolation) {
+                return normalize((Interpolation) value);
+            } else if (value == Filter.INCLUDE || value == Filter.EXCLUDE) {
+                // singletons
+                return value;
+            } else if (!HAS_VALUE_EQUALS.get(value.getClass())) {
+                return null;
+            }
+            return value;
+        }
+
+        private static List<Object> normalize(
+                Object value, int length, IntFunction<Object> itemGetter) {
+            List<Object> list = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) {
+                Object item = itemGetter.apply(i);
+                Object normalized = item == null ? null : normalize(item);
+                if (item != null && normalized == null) {
+                    return null;
+                }
+                list.add(normalized);
+            }
+            return list;
+        }
+
+        /** Interpolations do not implement equals, they are described by their parameters */
+        private static List<Object> normalize(Interpolation interpolation) {
+            List<Object> result = new ArrayList<>();
+            result.add(interpolation.getClass().getName());
+            result.add(interpolation.getSubsampleBitsH());
+            result.add(interpolation.getSubsampleBitsV());
+            result.add(interpolation.getLeftPadding());
+            result.add(interpolation.getRightPadding());
+            result.add(interpolation.getTopPadding());
+            result.add(interpolation.getBottomPadding());
+            if (interpolation instanceof InterpolationTable) {
+                InterpolationTable table = (InterpolationTable) interpolation;
+                result.add(table.getPrecisionBits());
+                result.add(normalize(table.getHorizontalTableDataDouble()));
+                result.add(normalize(table.getVerticalTableDataDouble()));
+            }
+            // the JAI-EXT interpolations carry no data and background values
+            for (String property : INTERPOLATION_PROPERTIES) {
+                try {
+                    Object propertyValue =
+                            interpolation.getClass().getMethod(property).invoke(interpolation);
+                    Object normalized = propertyValue == null ? null : normalize(propertyValue);
+                    if (propertyValue != null && normalized == null) {
+                        return null;
+                    }
+                    result.add(normalized);
+                } catch (NoSuchMethodException e) {
+                    // not a JAI-EXT interpolation
+                } catch (ReflectiveOperationException e) {
+                    return null;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof ReadKey)) return false;
+            ReadKey other = (ReadKey) obj;
+            return reader == other.reader
+                    && hashCode == other.hashCode
+                    && Objects.equals(coverageName, other.coverageName)
+                    && Objects.equals(parameters, other.parameters);
+        }
+    }
+
+    /**
+     * A read result copied in memory, from which new coverages are built for each request. The
+     * coverage field is set only when the result could not be copied, and is handed back to the
+     * request that performed the read.
+     */
+    static class CachedRead {
+
+        static final CachedRead EMPTY = new CachedRead(null, null, null, null, null, null, null, 0);
+
+        final String name;
+
+        final Raster raster;
+
+        final ColorModel colorModel;
+
+        final Map<String, Object> imageProperties;
+
+        final GridGeometry2D gridGeometry;
+
+        final GridSampleDimension[] sampleDimensions;
+
+        final Map<?, ?> properties;
+
+        final long size;
+
+        final GridCoverage2D coverage;
+
+        CachedRead(
+                String name,
+                Raster raster,
+                ColorModel colorModel,
+                Map<String, Object> imageProperties,
+                GridGeometry2D gridGeometry,
+                GridSampleDimension[] sampleDimensions,
+                Map<?, ?> properties,
+                long size) {
+            this.name = name;
+            this.raster = raster;
+            this.colorModel = colorModel;
+            this.imageProperties = imageProperties;
+            this.gridGeometry = gridGeometry;
+            this.sampleDimensions = sampleDimensions;
+            this.properties = properties;
+            this.size = size;
+            this.coverage = null;
+        }
+
+        CachedRead(GridCoverage2D coverage) {
+            this.name = null;
+            this.raster = null;
+            this.colorModel = null;
+            this.imageProperties = null;
+            this.gridGeometry = null;
+            this.sampleDimensions = null;
+            this.properties = null;
+            this.size = 0;
+            this.coverage = coverage;
+        }
+
+        /**
+         * Copies the coverage in memory, returns null if it's larger than the given size, or
+         * references data that cannot be copied
+         */
+        static CachedRead copy(GridCoverage2D coverage, long maxSize) {
+            RenderedImage image = coverage.getRenderedImage();
+            long size = estimateSize(image);
+            if (size > maxSize
+                    || !isCopyable(coverage.getProperties())
+                    || !isCopyable(getProperties(image))) {
+                return null;
+            }
+            GridSampleDimension[] sampleDimensions =
+                    new GridSampleDimension[coverage.getNumSampleDimensions()];
+            for (int i = 0; i < sampleDimensions.length; i++) {
+                sampleDimensions[i] = coverage.getSampleDimension(i);
+            }
+            try {
+                Raster raster = image.getData();
+                return new CachedRead(
+                        coverage.getName().toString(),
+                        raster,
+                        image.getColorModel(),
+                        getProperties(image),
+                        coverage.getGridGeometry(),
+                        sampleDimensions,
+                        coverage.getProperties(),
+                        size);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Could not copy the coverage read in memory", e);
+                return null;
+            }
+        }
+
+        private static long estimateSize(RenderedImage image) {
+            int bytes = DataBuffer.getDataTypeSize(image.getSampleModel().getDataType()) / 8;
+            return (long) image.getWidth()
+                    * image.getHeight()
+                    * image.getSampleModel().getNumBands()
+                    * Math.max(bytes, 1);
+        }
+
+        private static Map<String, Object> getProperties(RenderedImage image) {
+            Map<String, Object> properties = new HashMap<>();
+            String[] names = image.getPropertyNames();
+            if (names != null) {
+                for (String name : names) {
+                    Object value = image.getProperty(name);
+                    if (value != null && value != java.awt.Image.UndefinedProperty) {
+                        properties.put(name, value);
+                    }
+                }
+            }
+            return properties;
+        }
+
+        /** Image backed properties (such as raster ROIs) are still tied to the original read */
+        private static boolean isCopyable(Map<?, ?> properties) {
+            if (properties != null) {
+                for (Object value : properties.values()) {
+                    if (value instanceof RenderedImage
+                            || (value instanceof ROI && !isGeometric((ROI) value))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private static boolean isGeometric(ROI roi) {
+            return roi instanceof ROIShape || roi instanceof ROIGeometry;
+        }
+
+        /** Builds a new coverage for this read, with its own copy of the cached raster */
+        GridCoverage2D toCoverage() {
+            if (raster == null) {
+                return null;
+            }
+            RasterImage image = new RasterImage(raster, colorModel);
+            for (Map.Entry<String, Object> property : imageProperties.entrySet()) {
+                image.setProperty(property.getKey(), property.getValue());
+            }
+            return COVERAGE_FACTORY.create(
+                    name,
+                    image,
+                    gridGeometry,
+                    sampleDimensions.clone(),
+                    null,
+                    properties == null ? null : new HashMap<>(properties));
+        }
+    }
+
+    /**
+     * A single tile image exposing a cached raster. Consumers may write into the tiles they get, so
+     * the cached raster is copied on first access and never handed out.
+     */
+    static class RasterImage extends PlanarImage {
+
+        private final Raster cached;
+
+        private Raster raster;
+
+        RasterImage(Raster raster, ColorModel colorModel) {
+            super(
+                    new ImageLayout(
+                            raster.getMinX(),
+                            raster.getMinY(),
+                            raster.getWidth(),
+                            raster.getHeight(),
+                            raster.getMinX(),
+                            raster.getMinY(),
+                            raster.getWidth(),
+                            raster.getHeight(),
+                            raster.getSampleModel(),
+                            colorModel),
+                    null,
+                    null);
+            this.cached = raster;
+        }
+
+        @Override
+        public synchronized Raster getTile(int tileX, int tileY) {
+            if (tileX != 0 || tileY != 0) {
+                return null;
+            }
+            if (raster == null) {
+                WritableRaster copy =
+                        cached.createCompatibleWritableRaster(
+                                cached.getMinX(),
+                                cached.getMinY(),
+                                cached.getWidth(),
+                                cached.getHeight());
+                copy.setRect(cached);
+                raster = copy;
+            }
+            return raster;
+        }
+    }
+}
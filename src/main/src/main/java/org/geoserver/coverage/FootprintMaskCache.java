@@ -0,0 +1,430 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.coverage;
+
+import it.geosolutions.jaiext.vectorbin.ROIGeometry;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Point2D;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.TiledImage;
+import javax.media.jai.WritablePropertySource;
+import javax.media.jai.operator.TranslateDescriptor;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.util.logging.Logging;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.util.AffineTransformation;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.referencing.operation.MathTransform2D;
+
+/**
+ * Caches the rasterized footprint masks of coverage reads, so that the masks of mosaics with many
+ * granules having complex footprints are not rebuilt at every request.
+ *
+ * <p>Footprint aware readers attach the footprint of the read, in raster space, as a geometric
+ * {@link ROIGeometry} "ROI" image property. The first time the ROI is turned into a mask, the
+ * rasterization walks the whole footprint geometry, this cache keeps the mask and hands it over to
+ * all the reads sharing the same footprint, regardless of the other read parameters (e.g. the
+ * window, the band selection, or the service performing the read).
+ *
+ * <p>The raster space of a read depends on the requested window, so masks are not keyed by the
+ * footprint as found in the read, but by the footprint in the native grid of the overview level
+ * being read: the pixel size and orientation of the read, the position of the footprint in the
+ * native grid, and the footprint geometry moved to the origin of the raster space. Masks are kept
+ * in the latter space, and moved back to the raster space of each read sharing them. Reads whose
+ * raster space is not aligned with the native grid (e.g. resampled ones) only share masks with
+ * identical reads.
+ *
+ * <p>Masks are kept in a least recently used cache bounded by the memory they use, masks larger
+ * than a quarter of the cache are never cached. The cache is disabled when its maximum size is
+ * zero, which is the default unless the {@link #MAX_SIZE_KEY} system variable provides a size in
+ * megabytes.
+ */
+public class FootprintMaskCache {
+
+    static final Logger LOGGER = Logging.getLogger(FootprintMaskCache.class);
+
+    /** System variable setting the maximum size of the cache, in megabytes */
+    public static final String MAX_SIZE_KEY = "org.geoserver.coverage.footprintMaskCacheSize";
+
+    static final String ROI_PROPERTY = "ROI";
+
+    private volatile long maxSize;
+
+    private long size;
+
+    private final LinkedHashMap<MaskKey, CachedMask> entries =
+            new LinkedHashMap<MaskKey, CachedMask>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** Builds a cache sized after the {@link #MAX_SIZE_KEY} system variable */
+    public FootprintMaskCache() {
+        this(Long.getLong(MAX_SIZE_KEY, 0) * 1024 * 1024);
+    }
+
+    /**
+     * Builds a new cache
+     *
+     * @param maxSize The maximum memory used by the cache, in bytes
+     */
+    public FootprintMaskCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /** Returns true if masks are going to be cached */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /** The maximum memory used by the cache, in bytes */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /** Sets the maximum memory used by the cache, in bytes, evicting masks as needed */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        synchronized (entries) {
+            evict();
+        }
+    }
+
+    /**
+     * Replaces the footprint ROI of the coverage with one sharing the mask cached for the same
+     * reader and footprint. Returns the coverage unchanged if it has no geometric ROI, or its
+     * image properties cannot be modified.
+     *
+     * @param reader The reader that performed the read
+     * @param coverage The read result, may be null
+     */
+    public GridCoverage2D apply(GridCoverage2DReader reader, GridCoverage2D coverage) {
+        if (maxSize <= 0 || coverage == null) {
+            return coverage;
+        }
+        RenderedImage image = coverage.getRenderedImage();
+        Object roi = image.getProperty(ROI_PROPERTY);
+        if (!(roi instanceof ROIGeometry)
+                || roi instanceof CachedMaskROI
+                || !(image instanceof WritablePropertySource)) {
+            return coverage;
+        }
+        MathTransform2D gridToWorld =
+                coverage.getGridGeometry().getGridToCRS2D(PixelOrientation.UPPER_LEFT);
+        if (!(gridToWorld instanceof AffineTransform)) {
+            return coverage;
+        }
+        try {
+            ROIGeometry cached = getROI(reader, (ROIGeometry) roi, (AffineTransform) gridToWorld);
+            if (cached == null) {
+                return coverage;
+            }
+            ((WritablePropertySource) image).setProperty(ROI_PROPERTY, cached);
+            replaceCoverageROI(coverage, roi, cached);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Could not share the footprint mask, using the original", e);
+        }
+        return coverage;
+    }
+
+    /** Coverage properties are usually a mutable map, the ROI is replaced when found there too */
+    @SuppressWarnings("unchecked")
+    private void replaceCoverageROI(GridCoverage2D coverage, Object roi, ROIGeometry cached) {
+        Map<Object, Object> properties = coverage.getProperties();
+        if (properties == null) {
+            return;
+        }
+        for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+            if (entry.getValue() == roi) {
+                try {
+                    entry.setValue(cached);
+                } catch (UnsupportedOperationException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a ROI equivalent to the given one, backed by the cached mask, or null if the native
+     * position of the footprint cannot be computed
+     */
+    ROIGeometry getROI(GridCoverage2DReader reader, ROIGeometry roi, AffineTransform gridToWorld) {
+        Geometry footprint = roi.getAsGeometry();
+        Envelope bounds = footprint.getEnvelopeInternal();
+        int offsetX = (int) Math.floor(bounds.getMinX());
+        int offsetY = (int) Math.floor(bounds.getMinY());
+        MaskKey key;
+        try {
+            key = new MaskKey(reader, footprint, offsetX, offsetY, gridToWorld);
+        } catch (NoninvertibleTransformException e) {
+            LOGGER.log(Level.FINE, "Cannot locate the footprint in the native grid", e);
+            return null;
+        }
+        CachedMask mask;
+        synchronized (entries) {
+            mask = entries.get(key);
+        }
+        if (mask != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            mask = new CachedMask(new ROIGeometry(key.footprint).getAsImage());
+            if (mask.size <= maxSize / 4) {
+                synchronized (entries) {
+                    CachedMask previous = entries.put(key, mask);
+                    if (previous != null) {
+                        size -= previous.size;
+                    }
+                    size += mask.size;
+                    evict();
+                }
+            }
+        }
+        return new CachedMaskROI(footprint, mask.image, offsetX, offsetY);
+    }
+
+    /** Removes all the masks of the given reader, e.g., when its index changes */
+    public void invalidate(GridCoverage2DReader reader) {
+        synchronized (entries) {
+            for (Iterator<Map.Entry<MaskKey, CachedMask>> it = entries.entrySet().iterator();
+                    it.hasNext(); ) {
+                Map.Entry<MaskKey, CachedMask> entry = it.next();
+                if (entry.getKey().reader == reader) {
+                    size -= entry.getValue().size;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /** Removes all the cached masks */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    private void evict() {
+        for (Iterator<CachedMask> it = entries.values().iterator();
+                it.hasNext() && size > maxSize; ) {
+            size -= it.next().size;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /** The memory currently used by the cache, in bytes */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    /** The number of masks currently cached */
+    public int getCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /** Footprints whose mask was found in the cache */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** Footprints whose mask had to be built */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** Masks removed from the cache to make room for new ones */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /** Resets the statistics */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "FootprintMaskCache [maxSize="
+                + maxSize
+                + ", size="
+                + getSize()
+                + ", count="
+                + getCount()
+                + ", hits="
+                + hits
+                + ", misses="
+                + misses
+                + ", evictions="
+                + evictions
+                + "]";
+    }
+
+    /**
+     * The key of a mask, made of the reader identity, the native grid of the read, the position
+     * of the footprint in the native grid and the footprint geometry, moved to the origin of the
+     * raster space. The native grid position is computed from the read window, and is compared
+     * with a tolerance, so the hash code only uses the exact parts of the key.
+     */
+    static class MaskKey {
+
+        /** Tolerance in pixels, and relative one for the pixel size */
+        static final double TOLERANCE = 1e-6;
+
+        final GridCoverage2DReader reader;
+
+        final double[] pixelSize;
+
+        final double nativeX;
+
+        final double nativeY;
+
+        final Geometry footprint;
+
+        final int hashCode;
+
+        MaskKey(
+                GridCoverage2DReader reader,
+                Geometry footprint,
+                int offsetX,
+                int offsetY,
+                AffineTransform gridToWorld)
+                throws NoninvertibleTransformException {
+            this.reader = reader;
+            this.footprint =
+                    AffineTransformation.translationInstance(-offsetX, -offsetY)
+                            .transform(footprint);
+            // the pixel size and orientation, which identify the overview level being read
+            this.pixelSize =
+                    new double[] {
+                        gridToWorld.getScaleX(),
+                        gridToWorld.getShearY(),
+                        gridToWorld.getShearX(),
+                        gridToWorld.getScaleY()
+                    };
+            // the origin of the footprint in a grid of the same pixel size, anchored at the
+            // origin of the native CRS, no matter where the read window starts
+            AffineTransform pixels = new AffineTransform(pixelSize);
+            Point2D origin = gridToWorld.transform(new Point2D.Double(offsetX, offsetY), null);
+            pixels.inverseTransform(origin, origin);
+            this.nativeX = origin.getX();
+            this.nativeY = origin.getY();
+            this.hashCode =
+                    Objects.hash(System.identityHashCode(reader), this.footprint.getNumPoints());
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof MaskKey)) return false;
+            MaskKey other = (MaskKey) obj;
+            return reader == other.reader
+                    && hashCode == other.hashCode
+                    && Math.abs(nativeX - other.nativeX) < TOLERANCE
+                    && Math.abs(nativeY - other.nativeY) < TOLERANCE
+                    && samePixelSize(other.pixelSize)
+                    && footprint.equalsExact(other.footprint, TOLERANCE);
+        }
+
+        private boolean samePixelSize(double[] other) {
+            double scale = Math.max(Math.abs(pixelSize[0]), Math.abs(pixelSize[3]));
+            for (int i = 0; i < pixelSize.length; i++) {
+                if (Math.abs(pixelSize[i] - other[i]) > scale * TOLERANCE) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A mask, in the raster space of the footprint moved to the origin, copied in memory tile by
+     * tile the first time each tile is used, so that the footprint is rasterized only once
+     */
+    static class CachedMask {
+
+        final PlanarImage image;
+
+        final long size;
+
+        CachedMask(RenderedImage mask) {
+            this.image = new TiledImage(mask, false);
+            SampleModel sm = mask.getSampleModel();
+            this.size = (long) mask.getWidth() * mask.getHeight() * sm.getSampleSize(0) / 8;
+        }
+    }
+
+    /**
+     * A footprint ROI whose mask is shared with all the reads having the same footprint, moved to
+     * the raster space of the read the first time it's needed
+     */
+    static class CachedMaskROI extends ROIGeometry {
+
+        private static final long serialVersionUID = -4315296432880412186L;
+
+        private final transient PlanarImage sharedMask;
+
+        private final int offsetX;
+
+        private final int offsetY;
+
+        private transient PlanarImage mask;
+
+        CachedMaskROI(Geometry footprint, PlanarImage sharedMask, int offsetX, int offsetY) {
+            super(footprint);
+            this.sharedMask = sharedMask;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+        }
+
+        /** The cached mask, in the raster space of the footprint moved to the origin */
+        PlanarImage getSharedMask() {
+            return sharedMask;
+        }
+
+        @Override
+        public synchronized PlanarImage getAsImage() {
+            if (mask == null) {
+                if (offsetX == 0 && offsetY == 0) {
+                    mask = sharedMask;
+                } else {
+                    // an integer translation, sharing the tiles of the cached mask
+                    mask =
+                            TranslateDescriptor.create(
+                                    sharedMask, (float) offsetX, (float) offsetY, null, null);
+                }
+            }
+            return mask;
+        }
+    }
+}
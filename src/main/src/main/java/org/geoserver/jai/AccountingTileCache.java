@@ -0,0 +1,821 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.sun.media.jai.util.CacheDiagnostics;
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.media.jai.TileCache;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A JAI {@link TileCache} that keeps track of who is using the cached tiles, and can limit the
+ * memory used by each service.
+ *
+ * <p>Tiles are attributed to the owner set in the {@link #OWNER} thread local when the tile image
+ * is first cached, usually the service and layers of the current OWS request, e.g. {@code
+ * WMS:topp:states,topp:roads}. The statistics are kept for each layer, e.g. {@code
+ * WMS:topp:states}, the memory used by the tiles of a request involving more layers being split
+ * evenly among them. Owners are grouped by service, the part of their name before the first colon,
+ * and each service can be given a quota, as a fraction of the cache memory capacity: once over
+ * quota, the service least recently used tiles are evicted, leaving the ones of the other services
+ * alone.
+ *
+ * <p>Optionally, tiles evicted from the heap can be moved to an off-heap store, from which they are
+ * moved back to the heap on the next access.
+ *
+ * <p>Hits, misses, evictions and memory used are tracked both globally and by layer.
+ *
+ * <p>Evictions only look at the tiles of the service being evicted, or at all of them when the
+ * whole cache is over its threshold, and run one at a time for each service: threads finding an
+ * eviction already in progress carry on without waiting for it.
+ */
+public class AccountingTileCache implements TileCache, CacheDiagnostics {
+
+    static final Logger LOGGER = Logging.getLogger(AccountingTileCache.class);
+
+    /** The owner of the tiles cached by the current thread */
+    public static final ThreadLocal<String> OWNER = new ThreadLocal<>();
+
+    /** The owner used when the thread local is not set */
+    public static final String UNKNOWN_OWNER = "unknown";
+
+    /** Maximum number of layers tracked, past it new layers are grouped by service */
+    static final int MAX_OWNERS = 1000;
+
+    /** The default memory capacity, same as the JAI one */
+    static final long DEFAULT_MEMORY_CAPACITY = 64 * 1024 * 1024;
+
+    /** The default memory threshold, same as the JAI one */
+    static final float DEFAULT_MEMORY_THRESHOLD = 0.75f;
+
+    /** The variable enabling this tile cache, when set to {@code accounting} */
+    public static final String TILE_CACHE_KEY = "org.geoserver.jai.tileCache";
+
+    /** The variable setting the service quotas, e.g., {@code WCS:0.25,WPS:0.25} */
+    public static final String QUOTAS_KEY = "org.geoserver.jai.tileCache.quotas";
+
+    /** The variable setting the off-heap store capacity, in megabytes */
+    public static final String OFF_HEAP_KEY = "org.geoserver.jai.tileCache.offHeap";
+
+    /** Usage statistics of a layer */
+    public static class OwnerStatistics {
+        final String name;
+
+        final String service;
+
+        final AtomicLong memory = new AtomicLong();
+
+        final AtomicLong tiles = new AtomicLong();
+
+        final AtomicLong hits = new AtomicLong();
+
+        final AtomicLong misses = new AtomicLong();
+
+        final AtomicLong evictions = new AtomicLong();
+
+        OwnerStatistics(String name) {
+            this.name = name;
+            int idx = name.indexOf(':');
+            this.service = idx > 0 ? name.substring(0, idx) : name;
+        }
+
+        /** The layer name, prefixed by the service, e.g. {@code WMS:topp:states} */
+        public String getName() {
+            return name;
+        }
+
+        /** The service of the layer */
+        public String getService() {
+            return service;
+        }
+
+        /** The memory used by the tiles currently in the heap, shared tiles counting pro-rata */
+        public long getMemoryUsed() {
+            return memory.get();
+        }
+
+        /** The number of tiles currently in the heap */
+        public long getTileCount() {
+            return tiles.get();
+        }
+
+        public long getHitCount() {
+            return hits.get();
+        }
+
+        public long getMissCount() {
+            return misses.get();
+        }
+
+        /** Number of tiles removed from the heap to make room for new ones */
+        public long getEvictionCount() {
+            return evictions.get();
+        }
+    }
+
+    /** The layers the tiles of an image are computed for, and their service */
+    static class Owner {
+        final String name;
+
+        final String service;
+
+        final OwnerStatistics[] layers;
+
+        Owner(String name, String service, OwnerStatistics[] layers) {
+            this.name = name;
+            this.service = service;
+            this.layers = layers;
+        }
+    }
+
+    /** The tiles of a service, and the lock serializing their eviction */
+    static class ServiceTiles {
+        final Set<Tile> tiles = ConcurrentHashMap.newKeySet();
+
+        final AtomicLong memory = new AtomicLong();
+
+        final ReentrantLock evictionLock = new ReentrantLock();
+    }
+
+    /** The tiles of a single image */
+    static class ImageTiles {
+        final WeakReference<RenderedImage> image;
+
+        final Map<Long, Tile> tiles = new ConcurrentHashMap<>();
+
+        volatile Owner owner;
+
+        ImageTiles(RenderedImage image, Owner owner) {
+            this.image = new WeakReference<>(image);
+            this.owner = owner;
+        }
+    }
+
+    /** A cached tile */
+    static class Tile implements javax.media.jai.CachedTile {
+        final ImageTiles image;
+
+        final Owner owner;
+
+        final long key;
+
+        final Raster raster;
+
+        final Object metric;
+
+        final long size;
+
+        final long timeStamp;
+
+        volatile long lastAccess;
+
+        Tile(ImageTiles image, long key, Raster raster, Object metric, long timeStamp) {
+            this.image = image;
+            this.owner = image.owner;
+            this.key = key;
+            this.raster = raster;
+            this.metric = metric;
+            this.size = sizeOf(raster);
+            this.timeStamp = timeStamp;
+            this.lastAccess = timeStamp;
+        }
+
+        @Override
+        public RenderedImage getOwner() {
+            return image.image.get();
+        }
+
+        @Override
+        public Raster getTile() {
+            return raster;
+        }
+
+        @Override
+        public Object getTileCacheMetric() {
+            return metric;
+        }
+
+        @Override
+        public long getTileTimeStamp() {
+            return lastAccess;
+        }
+
+        @Override
+        public long getTileSize() {
+            return size;
+        }
+
+        @Override
+        public int getAction() {
+            return 0;
+        }
+    }
+
+    private final Cache<RenderedImage, ImageTiles> images =
+            CacheBuilder.newBuilder()
+                    .weakKeys()
+                    .removalListener(
+                            (RemovalNotification<RenderedImage, ImageTiles> n) ->
+                                    release(n.getValue()))
+                    .build();
+
+    /** The statistics of each layer */
+    private final Map<String, OwnerStatistics> owners = new ConcurrentHashMap<>();
+
+    /** The owners, by thread local value */
+    private final Map<String, Owner> ownerGroups = new ConcurrentHashMap<>();
+
+    private final Map<String, ServiceTiles> services = new ConcurrentHashMap<>();
+
+    private final Map<String, Double> quotas = new ConcurrentHashMap<>();
+
+    private final AtomicLong memoryUsed = new AtomicLong();
+
+    private final AtomicLong tileCount = new AtomicLong();
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong offHeapHits = new AtomicLong();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private volatile long memoryCapacity = DEFAULT_MEMORY_CAPACITY;
+
+    private volatile float memoryThreshold = DEFAULT_MEMORY_THRESHOLD;
+
+    /** Least recently used first */
+    private static final Comparator<Tile> LRU = Comparator.comparingLong(t -> t.lastAccess);
+
+    private volatile Comparator comparator;
+
+    private volatile OffHeapTileStore offHeap;
+
+    private int tileCapacity = 1000;
+
+    public AccountingTileCache() {}
+
+    /**
+     * Builds a cache that moves tiles evicted from the heap to an off-heap store
+     *
+     * @param offHeapCapacity The off-heap store capacity, in bytes, zero to disable it
+     */
+    public AccountingTileCache(long offHeapCapacity) {
+        setOffHeapCapacity(offHeapCapacity);
+    }
+
+    /**
+     * Configures the cache from the values of the {@link #QUOTAS_KEY} and {@link #OFF_HEAP_KEY}
+     * variables, any of which can be null
+     */
+    public void configure(String quotas, String offHeapMegabytes) {
+        if (quotas != null) {
+            for (String quota : quotas.split("\\s*,\\s*")) {
+                String[] kv = quota.split("\\s*:\\s*");
+                try {
+                    if (kv.length != 2) {
+                        throw new IllegalArgumentException("Expected service:fraction");
+                    }
+                    setQuota(kv[0].trim(), Double.parseDouble(kv[1]));
+                } catch (IllegalArgumentException e) {
+                    LOGGER.log(Level.WARNING, "Ignoring invalid tile cache quota " + quota, e);
+                }
+            }
+        }
+        if (offHeapMegabytes != null) {
+            try {
+                setOffHeapCapacity(Long.parseLong(offHeapMegabytes.trim()) * 1024 * 1024);
+            } catch (NumberFormatException e) {
+                LOGGER.log(
+                        Level.WARNING,
+                        "Ignoring invalid off-heap tile cache size " + offHeapMegabytes,
+                        e);
+            }
+        }
+    }
+
+    /** Sets the off-heap store capacity, in bytes, zero disables it */
+    public void setOffHeapCapacity(long offHeapCapacity) {
+        OffHeapTileStore previous = offHeap;
+        offHeap = offHeapCapacity > 0 ? new OffHeapTileStore(offHeapCapacity) : null;
+        if (previous != null) {
+            previous.clear();
+        }
+    }
+
+    /** The off-heap store capacity, in bytes, zero if disabled */
+    public long getOffHeapCapacity() {
+        OffHeapTileStore store = offHeap;
+        return store == null ? 0 : store.getCapacity();
+    }
+
+    /** The memory used by the off-heap store, in bytes */
+    public long getOffHeapMemoryUsed() {
+        OffHeapTileStore store = offHeap;
+        return store == null ? 0 : store.getMemoryUsed();
+    }
+
+    /** The number of tiles in the off-heap store */
+    public long getOffHeapTileCount() {
+        OffHeapTileStore store = offHeap;
+        return store == null ? 0 : store.getTileCount();
+    }
+
+    /** The number of hits served by the off-heap store */
+    public long getOffHeapHitCount() {
+        return offHeapHits.get();
+    }
+
+    /**
+     * Limits the memory used by the tiles of a service
+     *
+     * @param service The service name, e.g., WCS
+     * @param quota The fraction of the memory capacity the service can use, between 0 and 1, or a
+     *     negative value to remove the quota
+     */
+    public void setQuota(String service, double quota) {
+        if (quota < 0) {
+            quotas.remove(service.toUpperCase());
+        } else {
+            quotas.put(service.toUpperCase(), Math.min(quota, 1));
+        }
+    }
+
+    /** Returns the service quotas, as fractions of the memory capacity */
+    public Map<String, Double> getQuotas() {
+        return Collections.unmodifiableMap(quotas);
+    }
+
+    /** Returns the statistics of the layers owning tiles */
+    public List<OwnerStatistics> getOwnerStatistics() {
+        return new ArrayList<>(owners.values());
+    }
+
+    /** Returns the memory currently used by each service */
+    public Map<String, Long> getServiceMemoryUsed() {
+        Map<String, Long> result = new HashMap<>();
+        for (Map.Entry<String, ServiceTiles> entry : services.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().memory.get());
+        }
+        return result;
+    }
+
+    /** Number of tiles removed from the heap to make room for new ones */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private Owner currentOwner() {
+        String name = OWNER.get();
+        if (name == null) {
+            name = UNKNOWN_OWNER;
+        }
+        Owner owner = ownerGroups.get(name);
+        if (owner == null) {
+            owner = buildOwner(name);
+            if (ownerGroups.size() < MAX_OWNERS) {
+                // avoid tracking an unbounded number of layer combinations
+                Owner previous = ownerGroups.putIfAbsent(name, owner);
+                if (previous != null) {
+                    owner = previous;
+                }
+            }
+        }
+        return owner;
+    }
+
+    /** Splits an owner name, e.g. {@code WMS:topp:states,topp:roads}, in its layers */
+    private Owner buildOwner(String name) {
+        int idx = name.indexOf(':');
+        String service = idx > 0 ? name.substring(0, idx) : name;
+        Set<String> layerNames = new LinkedHashSet<>();
+        if (idx > 0) {
+            for (String layer : name.substring(idx + 1).split(",")) {
+                if (!layer.trim().isEmpty()) {
+                    layerNames.add(service + ":" + layer.trim());
+                }
+            }
+        }
+        if (layerNames.isEmpty()) {
+            layerNames.add(name);
+        }
+        List<OwnerStatistics> layers = new ArrayList<>();
+        for (String layerName : layerNames) {
+            layers.add(layerStatistics(layerName));
+        }
+        return new Owner(name, service, layers.toArray(new OwnerStatistics[layers.size()]));
+    }
+
+    private OwnerStatistics layerStatistics(String name) {
+        OwnerStatistics statistics = owners.get(name);
+        if (statistics == null) {
+            if (owners.size() >= MAX_OWNERS) {
+                // avoid tracking an unbounded number of layers
+                name = new OwnerStatistics(name).getService() + ":other";
+            }
+            statistics = owners.computeIfAbsent(name, OwnerStatistics::new);
+        }
+        return statistics;
+    }
+
+    private static long tileKey(int tileX, int tileY) {
+        return ((long) tileX << 32) | (tileY & 0xFFFFFFFFL);
+    }
+
+    static long sizeOf(Raster raster) {
+        return (long) raster.getDataBuffer().getSize()
+                * raster.getDataBuffer().getNumBanks()
+                * Math.max(1, DataBuffer.getDataTypeSize(raster.getTransferType()) / 8);
+    }
+
+    @Override
+    public void add(RenderedImage owner, int tileX, int tileY, Raster data) {
+        add(owner, tileX, tileY, data, null);
+    }
+
+    @Override
+    public void add(
+            RenderedImage owner, int tileX, int tileY, Raster data, Object tileCacheMetric) {
+        if (owner == null || data == null || memoryCapacity == 0) {
+            return;
+        }
+        ImageTiles imageTiles = images.asMap().get(owner);
+        if (imageTiles == null) {
+            imageTiles = new ImageTiles(owner, currentOwner());
+            ImageTiles previous = images.asMap().putIfAbsent(owner, imageTiles);
+            if (previous != null) {
+                imageTiles = previous;
+            }
+        } else if (UNKNOWN_OWNER.equals(imageTiles.owner.name) && OWNER.get() != null) {
+            // the image was first used by a thread without an owner, e.g., a JAI prefetch one
+            imageTiles.owner = currentOwner();
+        }
+        Tile tile =
+                new Tile(
+                        imageTiles,
+                        tileKey(tileX, tileY),
+                        data,
+                        tileCacheMetric,
+                        clock.incrementAndGet());
+        if (tile.size > memoryCapacity) {
+            return;
+        }
+        Tile previous = imageTiles.tiles.put(tile.key, tile);
+        if (previous != null) {
+            removed(previous);
+        }
+        added(tile);
+
+        checkQuota(tile.owner.service);
+        if (memoryUsed.get() > memoryCapacity) {
+            memoryControl();
+        }
+    }
+
+    @Override
+    public void addTiles(
+            RenderedImage owner, Point[] tileIndices, Raster[] tiles, Object tileCacheMetric) {
+        for (int i = 0; i < tileIndices.length; i++) {
+            add(owner, tileIndices[i].x, tileIndices[i].y, tiles[i], tileCacheMetric);
+        }
+    }
+
+    @Override
+    public Raster getTile(RenderedImage owner, int tileX, int tileY) {
+        ImageTiles imageTiles = images.getIfPresent(owner);
+        if (imageTiles == null) {
+            misses.incrementAndGet();
+            count(currentOwner(), s -> s.misses);
+            return null;
+        }
+        long key = tileKey(tileX, tileY);
+        Tile tile = imageTiles.tiles.get(key);
+        if (tile != null) {
+            tile.lastAccess = clock.incrementAndGet();
+            hits.incrementAndGet();
+            count(tile.owner, s -> s.hits);
+            return tile.raster;
+        }
+        OffHeapTileStore store = offHeap;
+        if (store != null) {
+            Raster raster = store.remove(imageTiles, key);
+            if (raster != null) {
+                hits.incrementAndGet();
+                offHeapHits.incrementAndGet();
+                count(imageTiles.owner, s -> s.hits);
+                add(owner, tileX, tileY, raster);
+                return raster;
+            }
+        }
+        misses.incrementAndGet();
+        count(imageTiles.owner, s -> s.misses);
+        return null;
+    }
+
+    @Override
+    public Raster[] getTiles(RenderedImage owner) {
+        ImageTiles imageTiles = images.getIfPresent(owner);
+        if (imageTiles == null) {
+            return null;
+        }
+        List<Raster> rasters = new ArrayList<>();
+        for (Tile tile : imageTiles.tiles.values()) {
+            rasters.add(tile.raster);
+        }
+        return rasters.isEmpty() ? null : rasters.toArray(new Raster[rasters.size()]);
+    }
+
+    @Override
+    public Raster[] getTiles(RenderedImage owner, Point[] tileIndices) {
+        Raster[] result = new Raster[tileIndices.length];
+        for (int i = 0; i < tileIndices.length; i++) {
+            result[i] = getTile(owner, tileIndices[i].x, tileIndices[i].y);
+        }
+        return result;
+    }
+
+    @Override
+    public void remove(RenderedImage owner, int tileX, int tileY) {
+        ImageTiles imageTiles = images.getIfPresent(owner);
+        if (imageTiles != null) {
+            long key = tileKey(tileX, tileY);
+            Tile tile = imageTiles.tiles.remove(key);
+            if (tile != null) {
+                removed(tile);
+            }
+            OffHeapTileStore store = offHeap;
+            if (store != null) {
+                store.remove(imageTiles, key);
+            }
+        }
+    }
+
+    @Override
+    public void removeTiles(RenderedImage owner) {
+        // the removal listener takes care of the accounting
+        images.invalidate(owner);
+    }
+
+    @Override
+    public void flush() {
+        images.invalidateAll();
+        OffHeapTileStore store = offHeap;
+        if (store != null) {
+            store.clear();
+        }
+    }
+
+    /** Releases all the tiles of an image that is not going to be used anymore */
+    private void release(ImageTiles imageTiles) {
+        for (Tile tile : imageTiles.tiles.values()) {
+            if (imageTiles.tiles.remove(tile.key, tile)) {
+                removed(tile);
+            }
+        }
+        OffHeapTileStore store = offHeap;
+        if (store != null) {
+            store.removeAll(imageTiles);
+        }
+    }
+
+    private void added(Tile tile) {
+        account(tile.owner, tile.size, 1);
+        services.computeIfAbsent(tile.owner.service, s -> new ServiceTiles()).tiles.add(tile);
+    }
+
+    private void removed(Tile tile) {
+        account(tile.owner, -tile.size, -1);
+        services.get(tile.owner.service).tiles.remove(tile);
+    }
+
+    private void account(Owner owner, long size, int tiles) {
+        memoryUsed.addAndGet(size);
+        tileCount.addAndGet(tiles);
+        // split the memory among the layers, the first one takes the remainder
+        OwnerStatistics[] layers = owner.layers;
+        long share = size / layers.length;
+        for (int i = 0; i < layers.length; i++) {
+            layers[i].memory.addAndGet(i == 0 ? size - share * (layers.length - 1) : share);
+            layers[i].tiles.addAndGet(tiles);
+        }
+        services.computeIfAbsent(owner.service, s -> new ServiceTiles()).memory.addAndGet(size);
+    }
+
+    private static void count(Owner owner, Function<OwnerStatistics, AtomicLong> counter) {
+        for (OwnerStatistics layer : owner.layers) {
+            counter.apply(layer).incrementAndGet();
+        }
+    }
+
+    private void checkQuota(String service) {
+        Double quota = quotas.get(service);
+        if (quota == null) {
+            return;
+        }
+        long limit = (long) (quota * memoryCapacity);
+        ServiceTiles serviceTiles = services.get(service);
+        if (serviceTiles != null && serviceTiles.memory.get() > limit) {
+            evict(
+                    Collections.singletonList(serviceTiles),
+                    serviceTiles.memory,
+                    (long) (limit * memoryThreshold),
+                    serviceTiles.evictionLock);
+        }
+    }
+
+    @Override
+    public void memoryControl() {
+        evict(
+                services.values(),
+                memoryUsed,
+                (long) (memoryCapacity * memoryThreshold),
+                evictionLock);
+    }
+
+    /**
+     * Evicts the least recently used tiles among the given ones, until the memory used goes below
+     * the target. Returns immediately if another thread is already evicting the same tiles.
+     */
+    private void evict(
+            Collection<ServiceTiles> sources, AtomicLong used, long target, ReentrantLock lock) {
+        if (used.get() <= target || !lock.tryLock()) {
+            return;
+        }
+        try {
+            long excess = used.get() - target;
+            if (excess <= 0) {
+                return;
+            }
+            Collection<Tile> victims;
+            Comparator<Tile> order = comparator;
+            try {
+                victims = selectVictims(sources, excess, order != null ? order : LRU);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Failed to sort tiles with the custom comparator", e);
+                victims = selectVictims(sources, excess, LRU);
+            }
+            OffHeapTileStore store = offHeap;
+            for (Tile tile : victims) {
+                if (used.get() <= target) {
+                    break;
+                }
+                if (tile.image.tiles.remove(tile.key, tile)) {
+                    removed(tile);
+                    evictions.incrementAndGet();
+                    count(tile.owner, s -> s.evictions);
+                    if (store != null) {
+                        store.put(tile.image, tile.key, tile.raster);
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Picks the first tiles in eviction order whose size adds up to the excess, keeping only them
+     * in a heap instead of sorting all the tiles
+     */
+    private static Collection<Tile> selectVictims(
+            Collection<ServiceTiles> sources, long excess, Comparator<Tile> order) {
+        PriorityQueue<Tile> victims = new PriorityQueue<>(order.reversed());
+        long selected = 0;
+        for (ServiceTiles serviceTiles : sources) {
+            for (Tile tile : serviceTiles.tiles) {
+                victims.add(tile);
+                selected += tile.size;
+                // drop the last tiles in eviction order that are not needed to reach the excess
+                while (selected - victims.peek().size >= excess) {
+                    selected -= victims.poll().size;
+                }
+            }
+        }
+        return victims;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setTileCapacity(int tileCapacity) {
+        this.tileCapacity = tileCapacity;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public int getTileCapacity() {
+        return tileCapacity;
+    }
+
+    @Override
+    public void setMemoryCapacity(long memoryCapacity) {
+        if (memoryCapacity < 0) {
+            throw new IllegalArgumentException("Memory capacity must be non negative");
+        }
+        this.memoryCapacity = memoryCapacity;
+        if (memoryCapacity == 0) {
+            flush();
+        } else if (memoryUsed.get() > memoryCapacity) {
+            memoryControl();
+        }
+    }
+
+    @Override
+    public long getMemoryCapacity() {
+        return memoryCapacity;
+    }
+
+    @Override
+    public void setMemoryThreshold(float memoryThreshold) {
+        if (memoryThreshold < 0 || memoryThreshold > 1) {
+            throw new IllegalArgumentException("Memory threshold must be between 0 and 1");
+        }
+        this.memoryThreshold = memoryThreshold;
+        memoryControl();
+    }
+
+    @Override
+    public float getMemoryThreshold() {
+        return memoryThreshold;
+    }
+
+    @Override
+    public void setTileComparator(Comparator comparator) {
+        this.comparator = comparator;
+    }
+
+    @Override
+    public Comparator getTileComparator() {
+        return comparator;
+    }
+
+    // CacheDiagnostics, statistics are always collected
+
+    @Override
+    public void enableDiagnostics() {}
+
+    @Override
+    public void disableDiagnostics() {}
+
+    @Override
+    public long getCacheTileCount() {
+        return tileCount.get();
+    }
+
+    @Override
+    public long getCacheMemoryUsed() {
+        return memoryUsed.get();
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public void resetCounts() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        offHeapHits.set(0);
+        for (OwnerStatistics owner : owners.values()) {
+            owner.hits.set(0);
+            owner.misses.set(0);
+            owner.evictions.set(0);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Second level storage for the {@link AccountingTileCache}, keeps the tiles evicted from the heap
+ * in direct byte buffers, in least recently used order, up to a maximum size.
+ *
+ * <p>Only rasters backed by one of the standard {@link DataBuffer} classes, and not sharing it with
+ * a parent raster, are stored.
+ */
+class OffHeapTileStore {
+
+    static final Logger LOGGER = Logging.getLogger(OffHeapTileStore.class);
+
+    private final long capacity;
+
+    private long used;
+
+    private final LinkedHashMap<Key, StoredTile> tiles =
+            new LinkedHashMap<Key, StoredTile>(16, 0.75f, true);
+
+    OffHeapTileStore(long capacity) {
+        this.capacity = capacity;
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    synchronized long getMemoryUsed() {
+        return used;
+    }
+
+    synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    /** Stores the tile, returns false if it cannot be stored */
+    boolean put(Object image, long tileKey, Raster raster) {
+        StoredTile stored;
+        try {
+            stored = StoredTile.encode(raster);
+        } catch (OutOfMemoryError e) {
+            // direct memory exhausted, the tile is just dropped instead of being moved off-heap
+            LOGGER.log(Level.FINE, "Could not allocate the off-heap tile copy", e);
+            return false;
+        }
+        if (stored == null || stored.size() > capacity) {
+            return false;
+        }
+        synchronized (this) {
+            StoredTile previous = tiles.put(new Key(image, tileKey), stored);
+            if (previous != null) {
+                used -= previous.size();
+            }
+            used += stored.size();
+            for (Iterator<StoredTile> it = tiles.values().iterator();
+                    it.hasNext() && used > capacity; ) {
+                used -= it.next().size();
+                it.remove();
+            }
+        }
+        return true;
+    }
+
+    /** Removes the tile from the store and returns it, or returns null if not found */
+    Raster remove(Object image, long tileKey) {
+        StoredTile stored;
+        synchronized (this) {
+            stored = tiles.remove(new Key(image, tileKey));
+            if (stored == null) {
+                return null;
+            }
+            used -= stored.size();
+        }
+        return stored.decode();
+    }
+
+    /** Removes all the tiles of the given image */
+    synchronized void removeAll(Object image) {
+        for (Iterator<Map.Entry<Key, StoredTile>> it = tiles.entrySet().iterator();
+                it.hasNext(); ) {
+            Map.Entry<Key, StoredTile> entry = it.next();
+            if (entry.getKey().image == image) {
+                used -= entry.getValue().size();
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        tiles.clear();
+        used = 0;
+    }
+
+    private static class Key {
+        final Object image;
+
+        final long tileKey;
+
+        Key(Object image, long tileKey) {
+            this.image = image;
+            this.tileKey = tileKey;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(image), tileKey);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return image == other.image && tileKey == other.tileKey;
+        }
+    }
+
+    /** The raster contents, copied in a direct buffer, and what's needed to rebuild it */
+    private static class StoredTile {
+
+        final SampleModel sampleModel;
+
+        final int minX;
+
+        final int minY;
+
+        final int dataType;
+
+        final int size;
+
+        final int[] offsets;
+
+        final int[] lengths;
+
+        final ByteBuffer buffer;
+
+        StoredTile(Raster raster, int[] lengths, ByteBuffer buffer) {
+            this.sampleModel = raster.getSampleModel();
+            this.minX = raster.getMinX();
+            this.minY = raster.getMinY();
+            this.dataType = raster.getDataBuffer().getDataType();
+            this.size = raster.getDataBuffer().getSize();
+            this.offsets = raster.getDataBuffer().getOffsets();
+            this.lengths = lengths;
+            this.buffer = buffer;
+        }
+
+        long size() {
+            return buffer.capacity();
+        }
+
+        static StoredTile encode(Raster raster) {
+            if (raster.getParent() != null
+                    || raster.getSampleModelTranslateX() != raster.getMinX()
+                    || raster.getSampleModelTranslateY() != raster.getMinY()) {
+                return null;
+            }
+            DataBuffer db = raster.getDataBuffer();
+            int banks = db.getNumBanks();
+            int[] lengths = new int[banks];
+            long bytes = 0;
+            for (int b = 0; b < banks; b++) {
+                lengths[b] = length(db, b);
+                if (lengths[b] < 0) {
+                    return null;
+                }
+                bytes += (long) lengths[b] * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+            }
+            if (bytes > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) bytes);
+            for (int b = 0; b < banks; b++) {
+                ByteBuffer target = buffer.slice();
+                if (db instanceof DataBufferByte) {
+                    target.put(((DataBufferByte) db).getData(b));
+                } else if (db instanceof DataBufferUShort) {
+                    target.asShortBuffer().put(((DataBufferUShort) db).getData(b));
+                } else if (db instanceof DataBufferShort) {
+                    target.asShortBuffer().put(((DataBufferShort) db).getData(b));
+                } else if (db instanceof DataBufferInt) {
+                    target.asIntBuffer().put(((DataBufferInt) db).getData(b));
+                } else if (db instanceof DataBufferFloat) {
+                    target.asFloatBuffer().put(((DataBufferFloat) db).getData(b));
+                } else {
+                    target.asDoubleBuffer().put(((DataBufferDouble) db).getData(b));
+                }
+                buffer.position(
+                        buffer.position()
+                                + lengths[b] * DataBuffer.getDataTypeSize(db.getDataType()) / 8);
+            }
+            return new StoredTile(raster, lengths, buffer);
+        }
+
+        private static int length(DataBuffer db, int bank) {
+            if (db instanceof DataBufferByte) {
+                return ((DataBufferByte) db).getData(bank).length;
+            } else if (db instanceof DataBufferUShort) {
+                return ((DataBufferUShort) db).getData(bank).length;
+            } else if (db instanceof DataBufferShort) {
+                return ((DataBufferShort) db).getData(bank).length;
+            } else if (db instanceof DataBufferInt) {
+                return ((DataBufferInt) db).getData(bank).length;
+            } else if (db instanceof DataBufferFloat) {
+                return ((DataBufferFloat) db).getData(bank).length;
+            } else if (db instanceof DataBufferDouble) {
+                return ((DataBufferDouble) db).getData(bank).length;
+            }
+            return -1;
+        }
+
+        Raster decode() {
+            int banks = lengths.length;
+            ByteBuffer source = buffer.duplicate();
+            source.clear();
+            DataBuffer db;
+            switch (dataType) {
+                case DataBuffer.TYPE_BYTE:
+                    {
+                        byte[][] data = new byte[banks][];
+                        for (int b = 0; b < banks; b++) {
+                            data[b] = new byte[lengths[b]];
+                            source.get(data[b]);
+                        }
+                        db = new DataBufferByte(data, size, offsets);
+                        break;
+                    }
+                case DataBuffer.TYPE_USHORT:
+                case DataBuffer.TYPE_SHORT:
+                    {
+                        short[][] data = new short[banks][];
+                        for (int b = 0; b < banks; b++) {
+                            data[b] = new short[lengths[b]];
+                            source.slice().asShortBuffer().get(data[b]);
+                            source.position(source.position() + lengths[b] * 2);
+                        }
+                        db =
+                                dataType == DataBuffer.TYPE_USHORT
+                                        ? new DataBufferUShort(data, size, offsets)
+                                        : new DataBufferShort(data, size, offsets);
+                        break;
+                    }
+                case DataBuffer.TYPE_INT:
+                    {
+                        int[][] data = new int[banks][];
+                        for (int b = 0; b < banks; b++) {
+                            data[b] = new int[lengths[b]];
+                            source.slice().asIntBuffer().get(data[b]);
+                            source.position(source.position() + lengths[b] * 4);
+                        }
+                        db = new DataBufferInt(data, size, offsets);
+                        break;
+                    }
+                case DataBuffer.TYPE_FLOAT:
+                    {
+                        float[][] data = new float[banks][];
+                        for (int b = 0; b < banks; b++) {
+                            data[b] = new float[lengths[b]];
+                            source.slice().asFloatBuffer().get(data[b]);
+                            source.position(source.position() + lengths[b] * 4);
+                        }
+                        db = new DataBufferFloat(data, size, offsets);
+                        break;
+                    }
+                default:
+                    {
+                        double[][] data = new double[banks][];
+                        for (int b = 0; b < banks; b++) {
+                            data[b] = new double[lengths[b]];
+                            source.slice().asDoubleBuffer().get(data[b]);
+                            source.position(source.position() + lengths[b] * 8);
+                        }
+                        db = new DataBufferDouble(data, size, offsets);
+                    }
+            }
+            return Raster.createWritableRaster(sampleModel, db, new Point(minX, minY));
+        }
+    }
+}
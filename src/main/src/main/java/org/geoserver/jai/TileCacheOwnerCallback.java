@@ -0,0 +1,58 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import java.util.Map;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.Service;
+import org.geoserver.platform.ServiceException;
+
+/**
+ * Sets the {@link AccountingTileCache#OWNER} of the tiles cached during an OWS request, using the
+ * service and the layers requested, e.g. {@code WMS:topp:states,topp:roads}. The cache splits the
+ * owner in its single layers.
+ */
+public class TileCacheOwnerCallback extends AbstractDispatcherCallback {
+
+    /** The request parameters holding the layers, or coverages, in the various services */
+    static final String[] LAYER_PARAMETERS = {
+        "LAYERS", "LAYER", "COVERAGEID", "COVERAGE", "IDENTIFIER", "TYPENAMES", "TYPENAME"
+    };
+
+    /** Long owner names are truncated, to keep the statistics readable */
+    static final int MAX_OWNER_LENGTH = 256;
+
+    @Override
+    public Service serviceDispatched(Request request, Service service) throws ServiceException {
+        AccountingTileCache.OWNER.set(getOwner(request, service));
+        return service;
+    }
+
+    static String getOwner(Request request, Service service) {
+        String owner = service.getId().toUpperCase();
+        Map rawKvp = request.getRawKvp();
+        if (rawKvp != null) {
+            for (String parameter : LAYER_PARAMETERS) {
+                Object layers = rawKvp.get(parameter);
+                if (layers instanceof String && !((String) layers).isEmpty()) {
+                    owner = owner + ":" + layers;
+                    break;
+                }
+            }
+        }
+        if (owner.length() > MAX_OWNER_LENGTH) {
+            // keep whole layer names, the statistics are tracked by layer
+            int lastComma = owner.lastIndexOf(',', MAX_OWNER_LENGTH);
+            owner = owner.substring(0, lastComma > 0 ? lastComma : MAX_OWNER_LENGTH);
+        }
+        return owner;
+    }
+
+    @Override
+    public void finished(Request request) {
+        AccountingTileCache.OWNER.remove();
+    }
+}
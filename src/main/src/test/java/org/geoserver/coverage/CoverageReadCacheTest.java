@@ -0,0 +1,280 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.coverage;
+
+import static org.geotools.coverage.grid.io.OverviewPolicy.QUALITY;
+import static org.geotools.coverage.grid.io.OverviewPolicy.SPEED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.media.jai.Interpolation;
+import javax.media.jai.InterpolationBilinear;
+import javax.media.jai.InterpolationNearest;
+import org.easymock.EasyMock;
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.grid.io.OverviewPolicy;
+import org.geotools.gce.imagemosaic.ImageMosaicFormat;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.parameter.DefaultParameterDescriptor;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+public class CoverageReadCacheTest {
+
+    GridCoverage2DReader reader;
+
+    AtomicInteger reads;
+
+    @Before
+    public void setup() {
+        reader = EasyMock.createNiceMock(GridCoverage2DReader.class);
+        EasyMock.replay(reader);
+        reads = new AtomicInteger();
+    }
+
+    private GridCoverage2D read(int size) {
+        reads.incrementAndGet();
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_BYTE_GRAY);
+        image.getRaster().setSample(1, 1, 0, 100);
+        return CoverageFactoryFinder.getGridCoverageFactory(null)
+                .create(
+                        "test",
+                        image,
+                        new ReferencedEnvelope(0, 10, 0, 10, DefaultGeographicCRS.WGS84));
+    }
+
+    private GeneralParameterValue[] parameters(OverviewPolicy overviewPolicy, int... bands) {
+        ParameterValue<OverviewPolicy> policy = AbstractGridFormat.OVERVIEW_POLICY.createValue();
+        policy.setValue(overviewPolicy);
+        ParameterValue<int[]> selection = AbstractGridFormat.BANDS.createValue();
+        selection.setValue(bands);
+        return new GeneralParameterValue[] {policy, selection};
+    }
+
+    @Test
+    public void testRepeatedReads() throws Exception {
+        CoverageReadCache cache = new CoverageReadCache(1024 * 1024);
+        GridCoverage2D first =
+                cache.read(reader, "test", parameters(QUALITY, 0), () -> read(64));
+        GridCoverage2D second =
+                cache.read(reader, "test", parameters(QUALITY, 0), () -> read(64));
+
+        assertEquals(1, reads.get());
+        assertNotSame(first, second);
+        Raster raster = second.getRenderedImage().getData();
+        assertEquals(64, raster.getWidth());
+        assertEquals(100, raster.getSample(1, 1, 0));
+        assertEquals(first.getEnvelope(), second.getEnvelope());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0d);
+        assertEquals(1, cache.getCount());
+        assertEquals(64 * 64, cache.getSize());
+    }
+
+    @Test
+    public void testHitsDoNotShareRasters() throws Exception {
+        CoverageReadCache cache = new CoverageReadCache(1024 * 1024);
+        cache.read(reader, "test", parameters(QUALITY, 0), () -> read(64));
+        GridCoverage2D first =
+                cache.read(reader, "test", parameters(QUALITY, 0), () -> read(64));
+
+        // a consumer writing into the tile it got
+        WritableRaster tile = (WritableRaster) first.getRenderedImage().getTile(0, 0);
+        tile.setSample(1, 1, 0, 200);
+        assertEquals(200, first.getRenderedImage().getTile(0, 0).getSample(1, 1, 0));
+
+        // does not alter the cached read
+        GridCoverage2D second =
+                cache.read(reader, "test", parameters(QUALITY, 0), () -> read(64));
+        assertEquals(1, reads.get());
+        Raster raster = second.getRenderedImage().getTile(0, 0);
+        assertNotSame(tile, raster);
+        assertEquals(100, raster.getSample(1, 1, 0));
+    }
+
+    @Test
+    public void testDifferentReads() throws Exception {
+        CoverageReadCache cache = new CoverageReadCache(1024 * 1024);
+        cache.read(reader, "test", parameters(QUALITY, 0), () -> read(64));
+        cache.read(reader, "test", parameters(SPEED, 0), () -> read(64));
+        cache.read(reader, "test", parameters(QUALITY, 1), () -> read(64));
+        cache.read(reader, "other", parameters(QUALITY, 0), () -> read(64));
+        GridCoverage2DReader otherReader = EasyMock.createNiceMock(GridCoverage2DReader.class);
+        cache.read(otherReader, "test", parameters(QUALITY, 0), () -> read(64));
+
+        assertEquals(5, reads.get());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(5, cache.getCount());
+    }
+
+    @Test
+    public void testInterpolationParameters() throws Exception {
+        // interpolations do not implement equals, distinct but equivalent ones must hit
+        CoverageReadCache cache = new CoverageReadCache(1024 * 1024);
+        cache.read(reader, "test", parameters(new InterpolationBilinear()), () -> read(64));
+        cache.read(reader, "test", parameters(new InterpolationBilinear()), () -> read(64));
+        assertEquals(1, reads.get());
+        assertEquals(1, cache.getHitCount());
+
+        cache.read(reader, "test", parameters(new InterpolationNearest()), () -> read(64));
+        cache.read(reader, "test", parameters(new InterpolationBilinear(4)), () -> read(64));
+        assertEquals(3, reads.get());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testIdentityParametersNotCached() throws Exception {
+        ParameterValue<Object> parameter =
+                DefaultParameterDescriptor.create("Test", "", Object.class, null, false)
+                        .createValue();
+        parameter.setValue(new Object());
+        GeneralParameterValue[] parameters = {parameter};
+
+        CoverageReadCache cache = new CoverageReadCache(1024 * 1024);
+        cache.read(reader, "test", parameters, () -> read(64));
+        cache.read(reader, "test", parameters, () -> read(64));
+        assertEquals(2, reads.get());
+        assertEquals(0, cache.getCount());
+    }
+
+    private GeneralParameterValue[] parameters(Interpolation interpolation) {
+        ParameterValue<Interpolation> value = ImageMosaicFormat.INTERPOLATION.createValue();
+        value.setValue(interpolation);
+        return new GeneralParameterValue[] {value};
+    }
+
+    @Test
+    public void testConcurrentReadsAreCoalesced() throws Exception {
+        CoverageReadCache cache = new CoverageReadCache(1024 * 1024);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CoverageReadCache.ReadOperation slowRead =
+                () -> {
+                    started.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return read(64);
+                };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<GridCoverage2D> first =
+                    executor.submit(
+                            () -> cache.read(reader, "test", parameters(QUALITY, 0), slowRead));
+            started.await(10, TimeUnit.SECONDS);
+            Future<GridCoverage2D> second =
+                    executor.submit(
+                            () -> cache.read(reader, "test", parameters(QUALITY, 0), slowRead));
+            // give the second read time to find the first one in progress
+            while (cache.getCoalescedCount() == 0) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            assertEquals(100, first.get().getRenderedImage().getData().getSample(1, 1, 0));
+            assertEquals(100, second.get().getRenderedImage().getData().getSample(1, 1, 0));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, reads.get());
+        assertEquals(1, cache.getCoalescedCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testSizeBound() throws Exception {
+        CoverageReadCache cache = new CoverageReadCache(64 * 64 * 4);
+        for (int i = 0; i < 10; i++) {
+            cache.read(reader, "test", parameters(QUALITY, i), () -> read(64));
+        }
+        assertEquals(4, cache.getCount());
+        assertEquals(6, cache.getEvictionCount());
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+
+        // the most recent reads are retained
+        cache.read(reader, "test", parameters(QUALITY, 9), () -> read(64));
+        assertEquals(10, reads.get());
+        cache.read(reader, "test", parameters(QUALITY, 0), () -> read(64));
+        assertEquals(11, reads.get());
+    }
+
+    @Test
+    public void testLargeReadsNotCached() throws Exception {
+        CoverageReadCache cache = new CoverageReadCache(64 * 64 * 4);
+        GridCoverage2D coverage = read(128);
+        reads.set(0);
+        GridCoverage2D result =
+                cache.read(reader, "test", parameters(QUALITY, 0), () -> coverage);
+        assertSame(coverage, result);
+        assertEquals(0, cache.getCount());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        CoverageReadCache cache = new CoverageReadCache(1024 * 1024);
+        cache.read(reader, "test", parameters(QUALITY, 0), () -> read(64));
+        cache.invalidate(reader);
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getSize());
+        cache.read(reader, "test", parameters(QUALITY, 0), () -> read(64));
+        assertEquals(2, reads.get());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        CoverageReadCache cache = new CoverageReadCache();
+        cache.read(reader, "test", parameters(QUALITY, 0), () -> read(64));
+        cache.read(reader, "test", parameters(QUALITY, 0), () -> read(64));
+        assertEquals(2, reads.get());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void testWrap() throws Exception {
+        CoverageReadCache cache = new CoverageReadCache(1024 * 1024);
+        GeneralParameterValue[] parameters = parameters(QUALITY, 0);
+        GridCoverage2DReader delegate = EasyMock.createMock(GridCoverage2DReader.class);
+        EasyMock.expect(delegate.read("test", parameters)).andReturn(read(64)).once();
+        EasyMock.replay(delegate);
+
+        GridCoverage2DReader wrapped = cache.wrap(delegate);
+        assertTrue(wrapped instanceof CachingGridCoverage2DReader);
+        assertSame(wrapped, cache.wrap(wrapped));
+        wrapped.read("test", parameters);
+        wrapped.read("test", parameters(QUALITY, 0));
+        EasyMock.verify(delegate);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testNullRead() throws Exception {
+        CoverageReadCache cache = new CoverageReadCache(1024 * 1024);
+        assertNull(cache.read(reader, "test", parameters(QUALITY, 0), () -> null));
+        assertEquals(0, cache.getCount());
+    }
+}
@@ -0,0 +1,211 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.coverage;
+
+import static org.geotools.coverage.grid.io.OverviewPolicy.QUALITY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import it.geosolutions.jaiext.vectorbin.ROIGeometry;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.ROI;
+import org.easymock.EasyMock;
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.grid.io.OverviewPolicy;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+public class FootprintMaskCacheTest {
+
+    GridCoverage2DReader reader;
+
+    @Before
+    public void setup() {
+        reader = EasyMock.createNiceMock(GridCoverage2DReader.class);
+        EasyMock.replay(reader);
+    }
+
+    private Geometry footprint(int minX, int maxX) {
+        return JTS.toGeometry(new Envelope(minX, maxX, 0, 32));
+    }
+
+    private GridCoverage2D read(Geometry footprint) {
+        return read(footprint, 0);
+    }
+
+    /** A 64x64 read of a 10x10 degrees window starting at the given longitude */
+    private GridCoverage2D read(Geometry footprint, double minX) {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_GRAY);
+        PlanarImage planar = PlanarImage.wrapRenderedImage(image);
+        planar.setProperty("ROI", new ROIGeometry(footprint));
+        return CoverageFactoryFinder.getGridCoverageFactory(null)
+                .create(
+                        "test",
+                        planar,
+                        new ReferencedEnvelope(
+                                minX, minX + 10, 0, 10, DefaultGeographicCRS.WGS84));
+    }
+
+    private ROI roi(GridCoverage2D coverage) {
+        return (ROI) coverage.getRenderedImage().getProperty("ROI");
+    }
+
+    private PlanarImage sharedMask(ROI roi) {
+        return ((FootprintMaskCache.CachedMaskROI) roi).getSharedMask();
+    }
+
+    private GeneralParameterValue[] bands(int... bands) {
+        ParameterValue<OverviewPolicy> policy = AbstractGridFormat.OVERVIEW_POLICY.createValue();
+        policy.setValue(QUALITY);
+        ParameterValue<int[]> selection = AbstractGridFormat.BANDS.createValue();
+        selection.setValue(bands);
+        return new GeneralParameterValue[] {policy, selection};
+    }
+
+    @Test
+    public void testSharedMask() throws Exception {
+        FootprintMaskCache cache = new FootprintMaskCache(1024 * 1024);
+        GridCoverage2D first = cache.apply(reader, read(footprint(0, 16)));
+        GridCoverage2D second = cache.apply(reader, read(footprint(0, 16)));
+
+        ROI firstROI = roi(first);
+        ROI secondROI = roi(second);
+        assertTrue(firstROI instanceof FootprintMaskCache.CachedMaskROI);
+        assertNotSame(firstROI, secondROI);
+        assertSame(sharedMask(firstROI), sharedMask(secondROI));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getCount());
+
+        // the mask is the rasterized footprint
+        Raster mask = firstROI.getAsImage().getData();
+        assertEquals(1, mask.getSample(8, 8, 0));
+        assertFalse(firstROI.contains(20, 8));
+    }
+
+    @Test
+    public void testDifferentFootprints() throws Exception {
+        FootprintMaskCache cache = new FootprintMaskCache(1024 * 1024);
+        ROI first = roi(cache.apply(reader, read(footprint(0, 16))));
+        ROI second = roi(cache.apply(reader, read(footprint(0, 24))));
+        GridCoverage2DReader otherReader = EasyMock.createNiceMock(GridCoverage2DReader.class);
+        ROI third = roi(cache.apply(otherReader, read(footprint(0, 16))));
+
+        assertNotSame(sharedMask(first), sharedMask(second));
+        assertNotSame(sharedMask(first), sharedMask(third));
+        assertEquals(3, cache.getMissCount());
+        assertEquals(3, cache.getCount());
+    }
+
+    @Test
+    public void testMovedWindow() throws Exception {
+        FootprintMaskCache cache = new FootprintMaskCache(1024 * 1024);
+        ROI first = roi(cache.apply(reader, read(footprint(0, 16), 0)));
+        // the window starts 16 pixels earlier, the same footprint is now at 16-32
+        ROI second = roi(cache.apply(reader, read(footprint(16, 32), -2.5)));
+        assertSame(sharedMask(first), sharedMask(second));
+        assertEquals(1, cache.getHitCount());
+
+        // the shared mask is moved in the raster space of the read
+        PlanarImage mask = second.getAsImage();
+        assertEquals(16, mask.getMinX());
+        assertEquals(1, mask.getData().getSample(20, 8, 0));
+        assertTrue(second.contains(20, 8));
+        assertFalse(second.contains(8, 8));
+
+        // same raster footprint, but a different place in the native grid
+        ROI third = roi(cache.apply(reader, read(footprint(0, 16), -2.5)));
+        assertNotSame(sharedMask(first), sharedMask(third));
+        assertEquals(2, cache.getMissCount());
+
+        // a different resolution, hence a different overview level
+        GridCoverage2D coarser =
+                CoverageFactoryFinder.getGridCoverageFactory(null)
+                        .create(
+                                "test",
+                                read(footprint(0, 16)).getRenderedImage(),
+                                new ReferencedEnvelope(0, 20, 0, 20, DefaultGeographicCRS.WGS84));
+        ROI fourth = roi(cache.apply(reader, coarser));
+        assertNotSame(sharedMask(first), sharedMask(fourth));
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testSizeBound() throws Exception {
+        FootprintMaskCache sizing = new FootprintMaskCache(1024 * 1024);
+        sizing.apply(reader, read(footprint(0, 16)));
+        long maskSize = sizing.getSize();
+        assertTrue(maskSize > 0);
+
+        FootprintMaskCache cache = new FootprintMaskCache(maskSize * 4);
+        for (int i = 0; i < 10; i++) {
+            cache.apply(reader, read(footprint(i, i + 16)));
+        }
+        assertEquals(4, cache.getCount());
+        assertEquals(6, cache.getEvictionCount());
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+
+        // the most recent masks are retained
+        cache.apply(reader, read(footprint(9, 25)));
+        assertEquals(1, cache.getHitCount());
+        cache.apply(reader, read(footprint(0, 16)));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        FootprintMaskCache cache = new FootprintMaskCache(1024 * 1024);
+        cache.apply(reader, read(footprint(0, 16)));
+        cache.invalidate(reader);
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getSize());
+        cache.apply(reader, read(footprint(0, 16)));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        FootprintMaskCache cache = new FootprintMaskCache(0);
+        GridCoverage2D coverage = read(footprint(0, 16));
+        ROI roi = roi(coverage);
+        assertSame(coverage, cache.apply(reader, coverage));
+        assertSame(roi, roi(coverage));
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void testReadCacheIntegration() throws Exception {
+        FootprintMaskCache masks = new FootprintMaskCache(1024 * 1024);
+        CoverageReadCache cache = new CoverageReadCache(0, masks);
+        assertTrue(cache.isWrappingNeeded());
+
+        // reads with different parameters share the same footprint mask
+        RenderedImage first =
+                sharedMask(roi(cache.read(reader, "test", bands(0), () -> read(footprint(0, 16)))));
+        RenderedImage second =
+                sharedMask(roi(cache.read(reader, "test", bands(1), () -> read(footprint(0, 16)))));
+        assertSame(first, second);
+
+        // invalidating the reads drops the masks too
+        cache.invalidate(reader);
+        assertEquals(0, masks.getCount());
+    }
+}
@@ -0,0 +1,217 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.HashMap;
+import java.util.Map;
+import javax.media.jai.RasterFactory;
+import org.geoserver.jai.AccountingTileCache.OwnerStatistics;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.util.KvpMap;
+import org.geoserver.platform.Service;
+import org.junit.After;
+import org.junit.Test;
+
+public class AccountingTileCacheTest {
+
+    /** Size of a 64x64 byte tile */
+    static final int TILE_SIZE = 64 * 64;
+
+    @After
+    public void clearOwner() {
+        AccountingTileCache.OWNER.remove();
+    }
+
+    private Raster tile(int value) {
+        WritableRaster raster =
+                RasterFactory.createBandedRaster(DataBuffer.TYPE_BYTE, 64, 64, 1, null);
+        raster.setSample(0, 0, 0, value);
+        return raster;
+    }
+
+    private Map<String, OwnerStatistics> owners(AccountingTileCache cache) {
+        Map<String, OwnerStatistics> result = new HashMap<>();
+        for (OwnerStatistics statistics : cache.getOwnerStatistics()) {
+            result.put(statistics.getName(), statistics);
+        }
+        return result;
+    }
+
+    @Test
+    public void testAddGetRemove() {
+        AccountingTileCache cache = new AccountingTileCache();
+        BufferedImage image = new BufferedImage(128, 128, BufferedImage.TYPE_BYTE_GRAY);
+        Raster tile = tile(1);
+        cache.add(image, 0, 0, tile);
+
+        assertSame(tile, cache.getTile(image, 0, 0));
+        assertNull(cache.getTile(image, 1, 0));
+        assertEquals(1, cache.getCacheTileCount());
+        assertEquals(TILE_SIZE, cache.getCacheMemoryUsed());
+        assertEquals(1, cache.getCacheHitCount());
+        assertEquals(1, cache.getCacheMissCount());
+
+        cache.remove(image, 0, 0);
+        assertNull(cache.getTile(image, 0, 0));
+        assertEquals(0, cache.getCacheTileCount());
+        assertEquals(0, cache.getCacheMemoryUsed());
+
+        cache.add(image, 0, 0, tile);
+        cache.add(image, 1, 0, tile);
+        cache.removeTiles(image);
+        assertNull(cache.getTiles(image));
+        assertEquals(0, cache.getCacheMemoryUsed());
+    }
+
+    @Test
+    public void testOwnerAccounting() {
+        AccountingTileCache cache = new AccountingTileCache();
+        BufferedImage wmsImage = new BufferedImage(128, 128, BufferedImage.TYPE_BYTE_GRAY);
+        BufferedImage wcsImage = new BufferedImage(128, 128, BufferedImage.TYPE_BYTE_GRAY);
+
+        AccountingTileCache.OWNER.set("WMS:topp:states");
+        cache.add(wmsImage, 0, 0, tile(1));
+        cache.getTile(wmsImage, 0, 0);
+        AccountingTileCache.OWNER.set("WCS:nurc:mosaic");
+        cache.add(wcsImage, 0, 0, tile(2));
+        cache.add(wcsImage, 1, 0, tile(3));
+        // tiles computed on behalf of another owner are still attributed to the image one
+        cache.add(wmsImage, 1, 0, tile(4));
+
+        Map<String, OwnerStatistics> owners = owners(cache);
+        assertEquals(2, owners.get("WMS:topp:states").getTileCount());
+        assertEquals(2 * TILE_SIZE, owners.get("WMS:topp:states").getMemoryUsed());
+        assertEquals(1, owners.get("WMS:topp:states").getHitCount());
+        assertEquals(2, owners.get("WCS:nurc:mosaic").getTileCount());
+        assertEquals(2 * TILE_SIZE, (long) cache.getServiceMemoryUsed().get("WCS"));
+        assertEquals(2 * TILE_SIZE, (long) cache.getServiceMemoryUsed().get("WMS"));
+    }
+
+    @Test
+    public void testLayerAccounting() {
+        AccountingTileCache cache = new AccountingTileCache();
+        BufferedImage mapImage = new BufferedImage(128, 128, BufferedImage.TYPE_BYTE_GRAY);
+        BufferedImage statesImage = new BufferedImage(128, 128, BufferedImage.TYPE_BYTE_GRAY);
+
+        // a map with two layers, its tiles are shared among them
+        AccountingTileCache.OWNER.set("WMS:topp:states,topp:roads");
+        cache.add(mapImage, 0, 0, tile(1));
+        cache.add(mapImage, 1, 0, tile(2));
+        cache.getTile(mapImage, 0, 0);
+        // and one with a single layer, accounted with the previous one
+        AccountingTileCache.OWNER.set("WMS:topp:states");
+        cache.add(statesImage, 0, 0, tile(3));
+
+        Map<String, OwnerStatistics> owners = owners(cache);
+        assertEquals(2, owners.size());
+        assertEquals(3, owners.get("WMS:topp:states").getTileCount());
+        assertEquals(2 * TILE_SIZE, owners.get("WMS:topp:states").getMemoryUsed());
+        assertEquals(1, owners.get("WMS:topp:states").getHitCount());
+        assertEquals(2, owners.get("WMS:topp:roads").getTileCount());
+        assertEquals(TILE_SIZE, owners.get("WMS:topp:roads").getMemoryUsed());
+        assertEquals(1, owners.get("WMS:topp:roads").getHitCount());
+        assertEquals(3 * TILE_SIZE, (long) cache.getServiceMemoryUsed().get("WMS"));
+
+        // the shared memory is released in the same proportions
+        cache.removeTiles(mapImage);
+        owners = owners(cache);
+        assertEquals(TILE_SIZE, owners.get("WMS:topp:states").getMemoryUsed());
+        assertEquals(0, owners.get("WMS:topp:roads").getMemoryUsed());
+        assertEquals(0, owners.get("WMS:topp:roads").getTileCount());
+    }
+
+    @Test
+    public void testMemoryControl() {
+        AccountingTileCache cache = new AccountingTileCache();
+        cache.setMemoryCapacity(10 * TILE_SIZE);
+        cache.setMemoryThreshold(0.5f);
+        BufferedImage image = new BufferedImage(1024, 1024, BufferedImage.TYPE_BYTE_GRAY);
+        for (int i = 0; i < 11; i++) {
+            cache.add(image, i, 0, tile(i));
+            // keep the first tile alive
+            cache.getTile(image, 0, 0);
+        }
+
+        assertTrue(cache.getCacheMemoryUsed() <= 5 * TILE_SIZE);
+        assertEquals(6, cache.getEvictionCount());
+        assertNotNull(cache.getTile(image, 0, 0));
+        assertNotNull(cache.getTile(image, 10, 0));
+        assertNull(cache.getTile(image, 1, 0));
+    }
+
+    @Test
+    public void testServiceQuota() {
+        AccountingTileCache cache = new AccountingTileCache();
+        cache.setMemoryCapacity(10 * TILE_SIZE);
+        cache.setMemoryThreshold(0.5f);
+        cache.configure("WCS:0.4", null);
+        assertEquals(0.4, cache.getQuotas().get("WCS"), 0d);
+
+        BufferedImage wmsImage = new BufferedImage(1024, 1024, BufferedImage.TYPE_BYTE_GRAY);
+        AccountingTileCache.OWNER.set("WMS:topp:states");
+        for (int i = 0; i < 4; i++) {
+            cache.add(wmsImage, i, 0, tile(i));
+        }
+        BufferedImage wcsImage = new BufferedImage(1024, 1024, BufferedImage.TYPE_BYTE_GRAY);
+        AccountingTileCache.OWNER.set("WCS:nurc:mosaic");
+        for (int i = 0; i < 10; i++) {
+            cache.add(wcsImage, i, 0, tile(i));
+        }
+
+        // the WCS tiles did not push out the WMS ones
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(cache.getTile(wmsImage, i, 0));
+        }
+        assertTrue(cache.getServiceMemoryUsed().get("WCS") <= 4 * TILE_SIZE);
+        assertEquals(0, owners(cache).get("WMS:topp:states").getEvictionCount());
+        assertTrue(owners(cache).get("WCS:nurc:mosaic").getEvictionCount() > 0);
+    }
+
+    @Test
+    public void testOffHeap() {
+        AccountingTileCache cache = new AccountingTileCache(1024 * 1024);
+        cache.setMemoryCapacity(2 * TILE_SIZE);
+        cache.setMemoryThreshold(0.5f);
+        BufferedImage image = new BufferedImage(1024, 1024, BufferedImage.TYPE_BYTE_GRAY);
+        for (int i = 0; i < 3; i++) {
+            cache.add(image, i, 0, tile(i + 10));
+        }
+        assertTrue(cache.getOffHeapTileCount() > 0);
+        assertTrue(cache.getOffHeapMemoryUsed() >= TILE_SIZE);
+
+        // the evicted tile is rebuilt from the off-heap copy
+        Raster raster = cache.getTile(image, 0, 0);
+        assertNotNull(raster);
+        assertEquals(10, raster.getSample(0, 0, 0));
+        assertEquals(64, raster.getWidth());
+        assertEquals(1, cache.getOffHeapHitCount());
+
+        cache.flush();
+        assertEquals(0, cache.getOffHeapTileCount());
+        assertEquals(0, cache.getCacheMemoryUsed());
+    }
+
+    @Test
+    public void testOwnerFromRequest() {
+        Request request = new Request();
+        KvpMap kvp = new KvpMap();
+        kvp.put("layers", "topp:states,topp:roads");
+        request.setRawKvp(kvp);
+        Service service = new Service("wms", null, null, null);
+
+        assertEquals(
+                "WMS:topp:states,topp:roads", TileCacheOwnerCallback.getOwner(request, service));
+    }
+}
@@ -0,0 +1,80 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import com.sun.media.jai.util.CacheDiagnostics;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.media.jai.TileCache;
+import org.geoserver.config.GeoServer;
+import org.geoserver.jai.AccountingTileCache;
+import org.geoserver.jai.AccountingTileCache.OwnerStatistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/** Reports the JAI tile cache usage, by owner when the {@link AccountingTileCache} is in use */
+@RestController
+@RequestMapping(
+    path = RestBaseController.ROOT_PATH + "/about/tilecache",
+    produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE}
+)
+public class TileCacheController extends RestBaseController {
+
+    GeoServer geoServer;
+
+    @Autowired
+    public TileCacheController(@Qualifier("geoServer") GeoServer geoServer) {
+        this.geoServer = geoServer;
+    }
+
+    @GetMapping
+    public Map<String, Object> tileCacheGet() {
+        TileCache cache = geoServer.getGlobal().getJAI().getTileCache();
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("implementation", cache.getClass().getName());
+        result.put("memoryCapacity", cache.getMemoryCapacity());
+        result.put("memoryThreshold", cache.getMemoryThreshold());
+        if (cache instanceof CacheDiagnostics) {
+            CacheDiagnostics diagnostics = (CacheDiagnostics) cache;
+            result.put("memoryUsed", diagnostics.getCacheMemoryUsed());
+            result.put("tileCount", diagnostics.getCacheTileCount());
+            result.put("hitCount", diagnostics.getCacheHitCount());
+            result.put("missCount", diagnostics.getCacheMissCount());
+        }
+        if (cache instanceof AccountingTileCache) {
+            AccountingTileCache accounting = (AccountingTileCache) cache;
+            result.put("evictionCount", accounting.getEvictionCount());
+            result.put("offHeapCapacity", accounting.getOffHeapCapacity());
+            result.put("offHeapMemoryUsed", accounting.getOffHeapMemoryUsed());
+            result.put("offHeapTileCount", accounting.getOffHeapTileCount());
+            result.put("offHeapHitCount", accounting.getOffHeapHitCount());
+            result.put("quotas", new LinkedHashMap<>(accounting.getQuotas()));
+            result.put("serviceMemoryUsed", accounting.getServiceMemoryUsed());
+            List<Map<String, Object>> owners = new ArrayList<>();
+            for (OwnerStatistics statistics : accounting.getOwnerStatistics()) {
+                Map<String, Object> owner = new LinkedHashMap<>();
+                owner.put("name", statistics.getName());
+                owner.put("memoryUsed", statistics.getMemoryUsed());
+                owner.put("tileCount", statistics.getTileCount());
+                owner.put("hitCount", statistics.getHitCount());
+                owner.put("missCount", statistics.getMissCount());
+                owner.put("evictionCount", statistics.getEvictionCount());
+                owners.add(owner);
+            }
+            result.put("owners", owners);
+        }
+
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("tileCache", result);
+        return root;
+    }
+}
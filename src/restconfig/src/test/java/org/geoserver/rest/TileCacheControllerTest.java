@@ -0,0 +1,64 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import javax.media.jai.JAI;
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TileCache;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.geoserver.jai.AccountingTileCache;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.junit.Test;
+
+public class TileCacheControllerTest extends GeoServerSystemTestSupport {
+
+    @Test
+    public void testGetAsJSON() throws Exception {
+        JSONObject json =
+                (JSONObject) getAsJSON(RestBaseController.ROOT_PATH + "/about/tilecache.json");
+        JSONObject cache = json.getJSONObject("tileCache");
+        assertTrue(cache.getLong("memoryCapacity") > 0);
+        assertTrue(cache.has("implementation"));
+    }
+
+    @Test
+    public void testOwners() throws Exception {
+        JAI jai = JAI.getDefaultInstance();
+        TileCache original = jai.getTileCache();
+        AccountingTileCache cache = new AccountingTileCache();
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_GRAY);
+        try {
+            jai.setTileCache(cache);
+            AccountingTileCache.OWNER.set("WMS:topp:states");
+            cache.add(
+                    image,
+                    0,
+                    0,
+                    RasterFactory.createBandedRaster(DataBuffer.TYPE_BYTE, 64, 64, 1, null));
+            AccountingTileCache.OWNER.remove();
+
+            JSONObject json =
+                    (JSONObject) getAsJSON(RestBaseController.ROOT_PATH + "/about/tilecache.json");
+            JSONObject tileCache = json.getJSONObject("tileCache");
+            assertEquals(64 * 64, tileCache.getLong("memoryUsed"));
+            assertEquals(64 * 64, tileCache.getJSONObject("serviceMemoryUsed").getLong("WMS"));
+            JSONArray owners = tileCache.getJSONArray("owners");
+            assertEquals(1, owners.size());
+            assertEquals("WMS:topp:states", owners.getJSONObject(0).getString("name"));
+            assertEquals(1, owners.getJSONObject(0).getLong("tileCount"));
+            // keeps the image, and its tiles, alive up to here
+            assertNotNull(cache.getTile(image, 0, 0));
+        } finally {
+            jai.setTileCache(original);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs.responses;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.geoserver.config.GeoServer;
+import org.geoserver.platform.OWS20Exception;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.imageio.GeoToolsWriteParams;
+import org.geotools.gce.geotiff.GeoTiffWriteParams;
+import org.geotools.util.Utilities;
+import org.vfny.geoserver.wcs.WcsException;
+import org.vfny.geoserver.wcs.WcsException.WcsExceptionCode;
+
+/**
+ * Encodes coverages as Cloud Optimized GeoTIFF, that is, a tiled GeoTIFF with internal overviews
+ * and all the IFDs at the start of the file, that clients can access with range reads, without
+ * post-processing. Requests disabling tiling are refused.
+ *
+ * <p>Defaults to 512x512 tiles and deflate compression, both can be changed using the same
+ * encoding parameters as the GeoTIFF output.
+ */
+public class COGCoverageResponseDelegate extends GeoTIFFCoverageResponseDelegate {
+
+    public static final String COG_CONTENT_TYPE =
+            "image/tiff;application=geotiff;profile=cloud-optimized";
+
+    static final int DEFAULT_TILE_SIZE = 512;
+
+    @SuppressWarnings("serial")
+    public COGCoverageResponseDelegate(GeoServer geoserver) {
+        super(
+                geoserver,
+                Arrays.asList("cog", "COG", COG_CONTENT_TYPE), // output formats
+                new HashMap<String, String>() { // file extensions
+                    {
+                        put("cog", "tif");
+                        put("COG", "tif");
+                        put(COG_CONTENT_TYPE, "tif");
+                    }
+                },
+                new HashMap<String, String>() { // mime types
+                    {
+                        put("cog", COG_CONTENT_TYPE);
+                        put("COG", COG_CONTENT_TYPE);
+                    }
+                });
+    }
+
+    @Override
+    public void encode(
+            GridCoverage2D sourceCoverage,
+            String outputFormat,
+            Map<String, String> econdingParameters,
+            OutputStream output)
+            throws IOException {
+        Utilities.ensureNonNull("sourceCoverage", sourceCoverage);
+        Utilities.ensureNonNull("econdingParameters", econdingParameters);
+
+        GeoTiffWriterHelper writerHelper = new GeoTiffWriterHelper(sourceCoverage);
+        writerHelper.setOverviews(true);
+
+        // cloud optimized defaults, the encoding parameters can override them
+        GeoTiffWriteParams wp = writerHelper.getImageIoWriteParams();
+        if (econdingParameters.get("compression") == null) {
+            wp.setCompressionMode(GeoToolsWriteParams.MODE_EXPLICIT);
+            wp.setCompressionType("Deflate");
+        }
+
+        encode(sourceCoverage, econdingParameters, output, writerHelper);
+    }
+
+    /**
+     * The output is always tiled, with the requested tile size, or the default one. Unlike the
+     * GeoTIFF output, the source tiling is never used, as it might be striped.
+     */
+    @Override
+    protected void handleTiling(
+            Map<String, String> encodingParameters,
+            GridCoverage2D sourceCoverage,
+            GeoTiffWriterHelper helper)
+            throws WcsException {
+        String tilingS = encodingParameters.get("tiling");
+        if (tilingS != null && !Boolean.valueOf(tilingS)) {
+            throw new OWS20Exception(
+                    "Cloud optimized GeoTIFF outputs are always tiled",
+                    ows20Code(WcsExceptionCode.TilingInvalid),
+                    tilingS);
+        }
+        // validates the tile sizes, if any
+        super.handleTiling(encodingParameters, sourceCoverage, helper);
+
+        GeoTiffWriteParams wp = helper.getImageIoWriteParams();
+        boolean tiling = Boolean.valueOf(tilingS);
+        int tileWidth =
+                tiling && encodingParameters.get("tilewidth") != null
+                        ? wp.getTileWidth()
+                        : DEFAULT_TILE_SIZE;
+        int tileHeight =
+                tiling && encodingParameters.get("tileheight") != null
+                        ? wp.getTileHeight()
+                        : DEFAULT_TILE_SIZE;
+        wp.setTilingMode(GeoToolsWriteParams.MODE_EXPLICIT);
+        wp.setTiling(tileWidth, tileHeight);
+    }
+}
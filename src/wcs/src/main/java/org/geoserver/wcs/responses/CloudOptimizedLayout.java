@@ -0,0 +1,388 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs.responses;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rewrites a tiled TIFF file with the cloud optimized layout: the header, followed by all the
+ * IFDs and their values, followed by the tiles of the reduced resolution images, from the
+ * smallest to the largest, and finally by the tiles of the full resolution image. Clients can then
+ * read the structure of the whole file with a single range request at its start, and each
+ * resolution level with requests that do not cross the larger ones.
+ *
+ * <p>The tags and the tile contents are copied unchanged, only the tile offsets are updated.
+ * Classic and BigTIFF files are supported, in both byte orders, as long as they do not contain
+ * IFDs referenced by tags (SubIFDs, EXIF and GPS directories).
+ */
+final class CloudOptimizedLayout {
+
+    static final int TAG_STRIP_OFFSETS = 273;
+
+    static final int TAG_STRIP_BYTE_COUNTS = 279;
+
+    static final int TAG_TILE_OFFSETS = 324;
+
+    static final int TAG_TILE_BYTE_COUNTS = 325;
+
+    static final int TYPE_LONG = 4;
+
+    static final int TYPE_LONG8 = 16;
+
+    /** Tags pointing to IFDs outside of the main chain, which are not relocated */
+    static final List<Integer> IFD_TAGS = Arrays.asList(330, 400, 34665, 34853, 40965);
+
+    /** Size in bytes of the TIFF field types, indexed by type, zero for unknown types */
+    static final int[] TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8, 4, 0, 0, 8, 8, 8};
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    static class Entry {
+        int tag;
+
+        int type;
+
+        long count;
+
+        /** The value bytes, in the file byte order */
+        byte[] value;
+    }
+
+    static class Directory {
+        List<Entry> entries = new ArrayList<>();
+
+        long[] offsets;
+
+        long[] byteCounts;
+
+        /** Where the directory is going to be written */
+        long position;
+
+        /** Where the tiles of the directory are going to be written */
+        long[] newOffsets;
+    }
+
+    private final RandomAccessFile file;
+
+    private ByteOrder order;
+
+    private boolean bigTiff;
+
+    private CloudOptimizedLayout(RandomAccessFile file) {
+        this.file = file;
+    }
+
+    /** Copies the TIFF file to the stream, with the cloud optimized layout */
+    static void write(File source, OutputStream output) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(source, "r")) {
+            new CloudOptimizedLayout(file).write(output);
+        }
+    }
+
+    private void write(OutputStream output) throws IOException {
+        long ifdOffset = readHeader();
+        List<Directory> directories = new ArrayList<>();
+        while (ifdOffset != 0) {
+            if (directories.size() > 0xFFFF) {
+                throw new IOException("Too many IFDs, the TIFF file might be corrupt");
+            }
+            Directory directory = new Directory();
+            ifdOffset = readDirectory(ifdOffset, directory);
+            directories.add(directory);
+        }
+        if (directories.isEmpty()) {
+            throw new IOException("TIFF file without images");
+        }
+
+        // the directories go first, then the image data, smallest overview first
+        long position = headerSize();
+        for (Directory directory : directories) {
+            directory.position = position;
+            position += directorySize(directory);
+        }
+        for (int i = directories.size() - 1; i >= 0; i--) {
+            Directory directory = directories.get(i);
+            directory.newOffsets = new long[directory.offsets.length];
+            for (int j = 0; j < directory.offsets.length; j++) {
+                if (directory.byteCounts[j] > 0) {
+                    directory.newOffsets[j] = position;
+                    position += directory.byteCounts[j];
+                }
+            }
+        }
+        if (!bigTiff && position > 0xFFFFFFFFL) {
+            throw new IOException("The TIFF file is too large to be rewritten as a classic TIFF");
+        }
+
+        writeHeader(output, directories.get(0).position);
+        for (int i = 0; i < directories.size(); i++) {
+            long next = i < directories.size() - 1 ? directories.get(i + 1).position : 0;
+            writeDirectory(output, directories.get(i), next);
+        }
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        for (int i = directories.size() - 1; i >= 0; i--) {
+            Directory directory = directories.get(i);
+            for (int j = 0; j < directory.offsets.length; j++) {
+                copy(directory.offsets[j], directory.byteCounts[j], output, buffer);
+            }
+        }
+    }
+
+    /** Reads the header, returning the offset of the first IFD */
+    private long readHeader() throws IOException {
+        ByteBuffer header = read(0, 16);
+        short byteOrder = header.getShort();
+        if (byteOrder == 0x4949) {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (byteOrder == 0x4D4D) {
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            throw new IOException("Not a TIFF file");
+        }
+        header.order(order);
+        int version = header.getShort();
+        if (version == 42) {
+            bigTiff = false;
+            return header.getInt() & 0xFFFFFFFFL;
+        } else if (version == 43) {
+            bigTiff = true;
+            header.getInt(); // offset size and padding
+            return header.getLong();
+        } else {
+            throw new IOException("Unsupported TIFF version " + version);
+        }
+    }
+
+    /** Reads the directory at the given offset, returning the offset of the next one */
+    private long readDirectory(long offset, Directory directory) throws IOException {
+        ByteBuffer countBuffer = read(offset, bigTiff ? 8 : 2);
+        long count = bigTiff ? countBuffer.getLong() : countBuffer.getShort() & 0xFFFF;
+        int entrySize = entrySize();
+        ByteBuffer ifd = read(offset + countBuffer.capacity(), count * entrySize + offsetSize());
+        for (int i = 0; i < count; i++) {
+            Entry entry = new Entry();
+            entry.tag = ifd.getShort() & 0xFFFF;
+            entry.type = ifd.getShort() & 0xFFFF;
+            entry.count = bigTiff ? ifd.getLong() : ifd.getInt() & 0xFFFFFFFFL;
+            if (IFD_TAGS.contains(entry.tag)) {
+                throw new IOException("Unsupported TIFF tag " + entry.tag + " referencing IFDs");
+            }
+            long length = valueLength(entry.type, entry.count);
+            if (length <= offsetSize()) {
+                entry.value = new byte[(int) length];
+                int valuePosition = ifd.position();
+                ifd.get(entry.value);
+                ifd.position(valuePosition + offsetSize());
+            } else {
+                long valueOffset = bigTiff ? ifd.getLong() : ifd.getInt() & 0xFFFFFFFFL;
+                entry.value = new byte[(int) length];
+                read(valueOffset, length).get(entry.value);
+            }
+            directory.entries.add(entry);
+        }
+        long next = bigTiff ? ifd.getLong() : ifd.getInt() & 0xFFFFFFFFL;
+
+        Entry offsets = find(directory, TAG_TILE_OFFSETS, TAG_STRIP_OFFSETS);
+        Entry byteCounts = find(directory, TAG_TILE_BYTE_COUNTS, TAG_STRIP_BYTE_COUNTS);
+        if (offsets == null || byteCounts == null || offsets.count != byteCounts.count) {
+            throw new IOException("TIFF image without a valid tile or strip structure");
+        }
+        directory.offsets = toLongs(offsets);
+        directory.byteCounts = toLongs(byteCounts);
+        // offsets are written back as longs, which might make them larger than the original
+        offsets.type = bigTiff ? TYPE_LONG8 : TYPE_LONG;
+        offsets.value = null;
+
+        return next;
+    }
+
+    private Entry find(Directory directory, int tag, int alternativeTag) {
+        for (Entry entry : directory.entries) {
+            if (entry.tag == tag || entry.tag == alternativeTag) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private long[] toLongs(Entry entry) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(entry.value).order(order);
+        long[] result = new long[(int) entry.count];
+        for (int i = 0; i < result.length; i++) {
+            switch (entry.type) {
+                case 3: // SHORT
+                    result[i] = bb.getShort() & 0xFFFF;
+                    break;
+                case 4: // LONG
+                case 13: // IFD
+                    result[i] = bb.getInt() & 0xFFFFFFFFL;
+                    break;
+                case 16: // LONG8
+                case 18: // IFD8
+                    result[i] = bb.getLong();
+                    break;
+                default:
+                    throw new IOException("Unexpected type for tag " + entry.tag);
+            }
+        }
+        return result;
+    }
+
+    private long valueLength(int type, long count) throws IOException {
+        int size = type < TYPE_SIZES.length ? TYPE_SIZES[type] : 0;
+        if (size == 0) {
+            throw new IOException("Unsupported TIFF field type " + type);
+        }
+        long length = size * count;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("TIFF field too large, the TIFF file might be corrupt");
+        }
+        return length;
+    }
+
+    private int headerSize() {
+        return bigTiff ? 16 : 8;
+    }
+
+    private int offsetSize() {
+        return bigTiff ? 8 : 4;
+    }
+
+    private int entrySize() {
+        return bigTiff ? 20 : 12;
+    }
+
+    private long entryLength(Entry entry, Directory directory) throws IOException {
+        if (entry.value == null) {
+            return (long) offsetSize() * directory.offsets.length;
+        }
+        return valueLength(entry.type, entry.count);
+    }
+
+    /** The size of the directory, including the values not fitting in the entries */
+    private long directorySize(Directory directory) throws IOException {
+        long size = (bigTiff ? 8 : 2) + directory.entries.size() * entrySize() + offsetSize();
+        for (Entry entry : directory.entries) {
+            long length = entryLength(entry, directory);
+            if (length > offsetSize()) {
+                // values start on a word boundary
+                size += length + (length & 1);
+            }
+        }
+        return size;
+    }
+
+    private void writeHeader(OutputStream output, long firstDirectory) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(headerSize()).order(order);
+        header.putShort(order == ByteOrder.LITTLE_ENDIAN ? (short) 0x4949 : (short) 0x4D4D);
+        if (bigTiff) {
+            header.putShort((short) 43);
+            header.putShort((short) 8);
+            header.putShort((short) 0);
+            header.putLong(firstDirectory);
+        } else {
+            header.putShort((short) 42);
+            header.putInt((int) firstDirectory);
+        }
+        output.write(header.array());
+    }
+
+    private void writeDirectory(OutputStream output, Directory directory, long next)
+            throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate((int) directorySize(directory)).order(order);
+        int entriesLength = (bigTiff ? 8 : 2) + directory.entries.size() * entrySize();
+        long valuePosition = directory.position + entriesLength + offsetSize();
+        List<byte[]> values = new ArrayList<>();
+        if (bigTiff) {
+            bb.putLong(directory.entries.size());
+        } else {
+            bb.putShort((short) directory.entries.size());
+        }
+        for (Entry entry : directory.entries) {
+            byte[] value = entry.value != null ? entry.value : encodeOffsets(directory.newOffsets);
+            long count = entry.value != null ? entry.count : directory.newOffsets.length;
+            bb.putShort((short) entry.tag);
+            bb.putShort((short) entry.type);
+            if (bigTiff) {
+                bb.putLong(count);
+            } else {
+                bb.putInt((int) count);
+            }
+            if (value.length <= offsetSize()) {
+                bb.put(value);
+                bb.put(new byte[offsetSize() - value.length]);
+            } else {
+                if (bigTiff) {
+                    bb.putLong(valuePosition);
+                } else {
+                    bb.putInt((int) valuePosition);
+                }
+                values.add(value);
+                valuePosition += value.length + (value.length & 1);
+            }
+        }
+        if (bigTiff) {
+            bb.putLong(next);
+        } else {
+            bb.putInt((int) next);
+        }
+        for (byte[] value : values) {
+            bb.put(value);
+            if ((value.length & 1) != 0) {
+                bb.put((byte) 0);
+            }
+        }
+        output.write(bb.array());
+    }
+
+    private byte[] encodeOffsets(long[] offsets) {
+        ByteBuffer bb = ByteBuffer.allocate(offsets.length * offsetSize()).order(order);
+        for (long offset : offsets) {
+            if (bigTiff) {
+                bb.putLong(offset);
+            } else {
+                bb.putInt((int) offset);
+            }
+        }
+        return bb.array();
+    }
+
+    private ByteBuffer read(long offset, long length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > file.length()) {
+            throw new IOException("Offset out of the TIFF file bounds, the file might be corrupt");
+        }
+        byte[] bytes = new byte[(int) length];
+        file.seek(offset);
+        file.readFully(bytes);
+        return ByteBuffer.wrap(bytes).order(order != null ? order : ByteOrder.BIG_ENDIAN);
+    }
+
+    private void copy(long offset, long length, OutputStream output, byte[] buffer)
+            throws IOException {
+        if (length <= 0) {
+            return;
+        }
+        if (offset < 0 || offset + length > file.length()) {
+            throw new IOException("Tile out of the TIFF file bounds, the file might be corrupt");
+        }
+        file.seek(offset);
+        while (length > 0) {
+            int read = file.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read < 0) {
+                throw new IOException("Unexpected end of the TIFF file");
+            }
+            output.write(buffer, 0, read);
+            length -= read;
+        }
+    }
+}
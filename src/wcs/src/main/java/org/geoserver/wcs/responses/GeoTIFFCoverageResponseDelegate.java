@@ -14,6 +14,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 import org.geoserver.config.GeoServer;
@@ -84,6 +85,22 @@ public class GeoTIFFCoverageResponseDelegate extends BaseCoverageResponseDelegat
                 });
     }
 
+    /**
+     * Constructor for subclasses encoding GeoTIFF variants
+     *
+     * @param geoserver the {@link GeoServer} instance to get options from
+     * @param outputFormats Output formats for this {@link CoverageResponseDelegate}
+     * @param fileExtensions File extensions for this {@link CoverageResponseDelegate}
+     * @param mimeTypes MIME Types for this {@link CoverageResponseDelegate}
+     */
+    protected GeoTIFFCoverageResponseDelegate(
+            GeoServer geoserver,
+            List<String> outputFormats,
+            Map<String, String> fileExtensions,
+            Map<String, String> mimeTypes) {
+        super(geoserver, outputFormats, fileExtensions, mimeTypes);
+    }
+
     public void encode(
             GridCoverage2D sourceCoverage,
             String outputFormat,
@@ -94,6 +111,16 @@ public class GeoTIFFCoverageResponseDelegate extends BaseCoverageResponseDelegat
         Utilities.ensureNonNull("econdingParameters", econdingParameters);
 
         GeoTiffWriterHelper writerHelper = new GeoTiffWriterHelper(sourceCoverage);
+        encode(sourceCoverage, econdingParameters, output, writerHelper);
+    }
+
+    /** Configures the writer helper based on the encoding parameters, and writes the coverage */
+    protected void encode(
+            GridCoverage2D sourceCoverage,
+            Map<String, String> econdingParameters,
+            OutputStream output,
+            GeoTiffWriterHelper writerHelper)
+            throws IOException {
         // compression
         handleCompression(econdingParameters, writerHelper);
 
@@ -126,7 +153,7 @@ public class GeoTIFFCoverageResponseDelegate extends BaseCoverageResponseDelegat
      *     provided encoding parameters.
      * @throws WcsException in case there are invalid or unsupported options.
      */
-    private void handleInterleaving(
+    protected void handleInterleaving(
             Map<String, String> encondingParameters,
             GridCoverage2D sourceCoverage,
             GeoTiffWriterHelper writerHelper)
@@ -156,7 +183,7 @@ public class GeoTIFFCoverageResponseDelegate extends BaseCoverageResponseDelegat
      *
      * @param code
      */
-    private OWS20Exception.OWSExceptionCode ows20Code(WcsExceptionCode code) {
+    protected OWS20Exception.OWSExceptionCode ows20Code(WcsExceptionCode code) {
         return new OWS20Exception.OWSExceptionCode(code.toString(), 404);
     }
 
@@ -170,7 +197,7 @@ public class GeoTIFFCoverageResponseDelegate extends BaseCoverageResponseDelegat
      * @param sourceCoverage the source {@link GridCoverage2D} to encode.
      * @throws WcsException in case there are invalid or unsupported options.
      */
-    private void handleTiling(
+    protected void handleTiling(
             Map<String, String> encodingParameters,
             GridCoverage2D sourceCoverage,
             GeoTiffWriterHelper helper)
@@ -276,7 +303,7 @@ public class GeoTIFFCoverageResponseDelegate extends BaseCoverageResponseDelegat
      *     hold the encoding parameters.
      * @throws WcsException in case there are invalid or unsupported options.
      */
-    private void handleCompression(
+    protected void handleCompression(
             Map<String, String> encodingParameters, GeoTiffWriterHelper helper)
             throws WcsException {
         // compression
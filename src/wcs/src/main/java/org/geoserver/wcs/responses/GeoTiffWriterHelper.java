@@ -4,15 +4,44 @@
  */
 package org.geoserver.wcs.responses;
 
+import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
+import it.geosolutions.imageio.plugins.tiff.TIFFField;
+import it.geosolutions.imageio.plugins.tiff.TIFFImageWriteParam;
+import it.geosolutions.imageio.plugins.tiff.TIFFTag;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageMetadata;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReaderSpi;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageWriter;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageWriterSpi;
+import java.awt.RenderingHints;
+import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Locale;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.media.jai.ImageLayout;
+import javax.media.jai.Interpolation;
+import javax.media.jai.JAI;
 import javax.media.jai.OpImage;
 import javax.media.jai.RenderedOp;
+import javax.media.jai.operator.ScaleDescriptor;
+import javax.media.jai.operator.SubsampleAverageDescriptor;
 import org.apache.commons.io.FileUtils;
 import org.geoserver.platform.ServiceException;
+import org.geotools.coverage.CoverageFactoryFinder;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.coverage.grid.io.AbstractGridCoverageWriter;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
@@ -23,6 +52,7 @@ import org.geotools.gce.geotiff.GeoTiffWriteParams;
 import org.geotools.geometry.GeneralEnvelope;
 import org.geotools.image.ImageWorker;
 import org.geotools.image.util.ImageUtilities;
+import org.opengis.coverage.grid.GridCoverage;
 import org.opengis.coverage.grid.GridEnvelope;
 import org.opengis.geometry.Envelope;
 import org.opengis.parameter.GeneralParameterValue;
@@ -42,6 +72,13 @@ public class GeoTiffWriterHelper {
 
     private static final GeoTiffFormat TIFF_FORMAT = new GeoTiffFormat();
 
+    private static final GridCoverageFactory COVERAGE_FACTORY =
+            CoverageFactoryFinder.getGridCoverageFactory(null);
+
+    private static final TIFFImageWriterSpi TIFF_WRITER_SPI = new TIFFImageWriterSpi();
+
+    private static final TIFFImageReaderSpi TIFF_READER_SPI = new TIFFImageReaderSpi();
+
     private GridCoverage2D coverage;
 
     private File sourceFile;
@@ -50,6 +87,8 @@ public class GeoTiffWriterHelper {
 
     private ParameterValueGroup geotoolsWriteParams;
 
+    private boolean overviews;
+
     public GeoTiffWriterHelper(GridCoverage2D coverage) throws IOException {
         this.coverage = coverage;
 
@@ -147,59 +186,228 @@ public class GeoTiffWriterHelper {
         this.sourceFile = null;
     }
 
+    /**
+     * Enables the generation of internal overviews, each one half the size of the previous, until
+     * the overview fits in a single tile. Overviews are computed averaging pixels, or by nearest
+     * neighbor for images with a color palette. The output is laid out as a cloud optimized
+     * GeoTIFF, with all the IFDs at the start of the file, followed by the overviews data, from the
+     * smallest, and by the full resolution data. Overviews can only be added to tiled outputs,
+     * enabling them turns off the source copy optimization
+     */
+    public void setOverviews(boolean overviews) {
+        this.overviews = overviews;
+        if (overviews) {
+            disableSourceCopyOptimization();
+        }
+    }
+
     public void write(OutputStream stream) throws IOException {
         if (sourceFile != null) {
             FileUtils.copyFile(sourceFile, stream);
-        } else {
-            CoordinateReferenceSystem crs = coverage.getCoordinateReferenceSystem();
-            boolean unreferenced = crs == null || crs instanceof EngineeringCRS;
-
-            if (unreferenced) {
-                RenderedImage ri = coverage.getRenderedImage();
-                int tileWidth, tileHeight;
-                if (imageIoWriteParams.getTilingMode() == GeoToolsWriteParams.MODE_EXPLICIT) {
-                    tileWidth = imageIoWriteParams.getTileWidth();
-                    tileHeight = imageIoWriteParams.getTileHeight();
-                } else {
-                    tileWidth = ri.getTileWidth();
-                    tileHeight = ri.getTileHeight();
-                }
-                float quality = DEFAULT_QUALITY;
-                String compression = null;
-                if (imageIoWriteParams.getCompressionMode() == GeoToolsWriteParams.MODE_EXPLICIT) {
-                    compression = imageIoWriteParams.getCompressionType();
-                    quality = imageIoWriteParams.getCompressionQuality();
+        } else if (overviews) {
+            if (imageIoWriteParams.getTilingMode() != GeoToolsWriteParams.MODE_EXPLICIT) {
+                throw new ServiceException("Overviews can only be added to tiled GeoTIFF outputs");
+            }
+            // overviews are appended to the full resolution image, which requires random access,
+            // then the file is rewritten moving all the IFDs before the image data
+            File file = File.createTempFile("overviews", ".tif");
+            try {
+                try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+                    writeFullResolution(os);
                 }
+                writeOverviews(file);
+                CloudOptimizedLayout.write(file, stream);
+            } finally {
+                file.delete();
+            }
+        } else {
+            writeFullResolution(stream);
+        }
+    }
+
+    private void writeFullResolution(OutputStream stream) throws IOException {
+        RenderedImage ri = coverage.getRenderedImage();
+        int tileWidth, tileHeight;
+        if (imageIoWriteParams.getTilingMode() == GeoToolsWriteParams.MODE_EXPLICIT) {
+            tileWidth = imageIoWriteParams.getTileWidth();
+            tileHeight = imageIoWriteParams.getTileHeight();
+        } else {
+            tileWidth = ri.getTileWidth();
+            tileHeight = ri.getTileHeight();
+        }
+
+        // compute the output tiles in parallel while the writer encodes them, the writer
+        // pulls tiles in raster order, only the ones being encoded are kept in memory
+        TilePrefetchingImage prefetching = null;
+        GridCoverage2D target = coverage;
+        if (isMultiTile(ri, tileWidth, tileHeight)) {
+            prefetching = new TilePrefetchingImage(ri, tileWidth, tileHeight);
+            ri = prefetching;
+            target = wrap(coverage, prefetching);
+        }
+
+        try {
+            write(stream, target, ri, tileWidth, tileHeight);
+        } finally {
+            if (prefetching != null) {
+                prefetching.dispose();
+            }
+        }
+    }
+
+    private void write(
+            OutputStream stream,
+            GridCoverage2D coverage,
+            RenderedImage ri,
+            int tileWidth,
+            int tileHeight)
+            throws IOException {
+        CoordinateReferenceSystem crs = coverage.getCoordinateReferenceSystem();
+        boolean unreferenced = crs == null || crs instanceof EngineeringCRS;
+
+        if (unreferenced) {
+            float quality = DEFAULT_QUALITY;
+            String compression = null;
+            if (imageIoWriteParams.getCompressionMode() == GeoToolsWriteParams.MODE_EXPLICIT) {
+                compression = imageIoWriteParams.getCompressionType();
+                quality = imageIoWriteParams.getCompressionQuality();
+            }
+
+            new ImageWorker(ri).writeTIFF(stream, compression, quality, tileWidth, tileHeight);
+        } else {
+            final GeneralParameterValue[] wps =
+                    (GeneralParameterValue[])
+                            geotoolsWriteParams
+                                    .values()
+                                    .toArray(
+                                            new GeneralParameterValue
+                                                    [geotoolsWriteParams.values().size()]);
 
-                new ImageWorker(ri).writeTIFF(stream, compression, quality, tileWidth, tileHeight);
-            } else {
-                final GeneralParameterValue[] wps =
-                        (GeneralParameterValue[])
-                                geotoolsWriteParams
-                                        .values()
-                                        .toArray(
-                                                new GeneralParameterValue
-                                                        [geotoolsWriteParams.values().size()]);
-
-                // write out the coverage
-                AbstractGridCoverageWriter writer =
-                        (AbstractGridCoverageWriter) TIFF_FORMAT.getWriter(stream);
-                if (writer == null)
-                    throw new ServiceException(
-                            "Could not find the GeoTIFF writer, please check it's in the classpath");
+            // write out the coverage
+            AbstractGridCoverageWriter writer =
+                    (AbstractGridCoverageWriter) TIFF_FORMAT.getWriter(stream);
+            if (writer == null)
+                throw new ServiceException(
+                        "Could not find the GeoTIFF writer, please check it's in the classpath");
+            try {
+                writer.write(coverage, wps);
+            } finally {
                 try {
-                    writer.write(coverage, wps);
-                } finally {
-                    try {
-                        writer.dispose();
-                    } catch (Exception e) {
-                        // swallow, silent close
+                    writer.dispose();
+                } catch (Exception e) {
+                    // swallow, silent close
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the overviews to the file. Each level is computed from the previous one, read back
+     * tile by tile from the file, so that memory usage stays bounded regardless of the size
+     */
+    private void writeOverviews(File file) throws IOException {
+        final int tileWidth = imageIoWriteParams.getTileWidth();
+        final int tileHeight = imageIoWriteParams.getTileHeight();
+        ImageWriteParam param = buildOverviewWriteParams(tileWidth, tileHeight);
+        TIFFImageWriter writer = (TIFFImageWriter) TIFF_WRITER_SPI.createWriterInstance();
+        try {
+            for (int level = 0; ; level++) {
+                ImageReader reader = TIFF_READER_SPI.createReaderInstance();
+                try (ImageInputStream iis = new FileImageInputStream(file)) {
+                    reader.setInput(iis);
+                    RenderedImage previous = reader.readAsRenderedImage(level, null);
+                    if (previous.getWidth() <= tileWidth && previous.getHeight() <= tileHeight) {
+                        return;
+                    }
+                    RenderedImage overview = downsample(previous, tileWidth, tileHeight);
+                    try (ImageOutputStream ios = new FileImageOutputStream(file)) {
+                        writer.setOutput(ios);
+                        IIOImage image =
+                                new IIOImage(
+                                        overview, null, buildOverviewMetadata(writer, overview));
+                        writer.writeInsert(-1, image, param);
+                    } finally {
+                        ImageUtilities.disposeImage(overview);
                     }
+                } finally {
+                    reader.dispose();
                 }
             }
+        } finally {
+            writer.dispose();
         }
     }
 
+    private ImageWriteParam buildOverviewWriteParams(int tileWidth, int tileHeight) {
+        ImageWriteParam param = new TIFFImageWriteParam(Locale.getDefault());
+        param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setTiling(tileWidth, tileHeight, 0, 0);
+        if (imageIoWriteParams.getCompressionMode() == GeoToolsWriteParams.MODE_EXPLICIT
+                && imageIoWriteParams.getCompressionType() != null) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType(imageIoWriteParams.getCompressionType());
+            if ("JPEG".equals(imageIoWriteParams.getCompressionType())) {
+                param.setCompressionQuality(imageIoWriteParams.getCompressionQuality());
+            }
+        }
+        return param;
+    }
+
+    /** Marks the image as a reduced resolution version of the first one in the file */
+    private IIOMetadata buildOverviewMetadata(TIFFImageWriter writer, RenderedImage overview) {
+        TIFFImageMetadata metadata =
+                (TIFFImageMetadata)
+                        writer.getDefaultImageMetadata(new ImageTypeSpecifier(overview), null);
+        BaselineTIFFTagSet tags = BaselineTIFFTagSet.getInstance();
+        metadata.getRootIFD()
+                .addTIFFField(
+                        new TIFFField(
+                                tags.getTag(BaselineTIFFTagSet.TAG_NEW_SUBFILE_TYPE),
+                                TIFFTag.TIFF_LONG,
+                                1,
+                                new long[] {
+                                    BaselineTIFFTagSet.NEW_SUBFILE_TYPE_REDUCED_RESOLUTION
+                                }));
+        return metadata;
+    }
+
+    private RenderedImage downsample(RenderedImage image, int tileWidth, int tileHeight) {
+        ImageLayout layout = new ImageLayout();
+        layout.setTileWidth(tileWidth);
+        layout.setTileHeight(tileHeight);
+        RenderingHints hints = new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout);
+        if (!(image.getColorModel() instanceof IndexColorModel)) {
+            return SubsampleAverageDescriptor.create(image, 0.5, 0.5, hints);
+        } else {
+            return ScaleDescriptor.create(
+                    image,
+                    0.5f,
+                    0.5f,
+                    0f,
+                    0f,
+                    Interpolation.getInstance(Interpolation.INTERP_NEAREST),
+                    hints);
+        }
+    }
+
+    /** Returns true if the image is going to be written out as more than one tile */
+    private boolean isMultiTile(RenderedImage ri, int tileWidth, int tileHeight) {
+        return tileWidth > 0
+                && tileHeight > 0
+                && (ri.getWidth() > tileWidth || ri.getHeight() > tileHeight);
+    }
+
+    /** Builds a coverage equivalent to the given one, but backed by the specified image */
+    private GridCoverage2D wrap(GridCoverage2D coverage, RenderedImage image) {
+        return COVERAGE_FACTORY.create(
+                coverage.getName(),
+                image,
+                coverage.getGridGeometry(),
+                coverage.getSampleDimensions(),
+                new GridCoverage[] {coverage},
+                coverage.getProperties());
+    }
+
     /**
      * Returns true if the coverage has not been processed in any way since it has been read
      *
@@ -0,0 +1,181 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs.responses;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.ServiceException;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Re-tiles a source image with the tile size used for writing it out, computing the tiles in
+ * parallel ahead of the consumer. Image writers fetch tiles in raster order, so while the writer is
+ * encoding one tile the next ones are already being computed by a shared thread pool.
+ *
+ * <p>At most {@link #getLookAhead()} tiles are computed in advance, so the memory used is bounded
+ * by a handful of tiles regardless of the overall image size. Tiles requested out of order are
+ * simply computed on the calling thread.
+ *
+ * <p>The number of threads computing tiles can be set with the {@code
+ * org.geoserver.wcs.tileComputationThreads} variable, and defaults to the number of available
+ * processors.
+ */
+public class TilePrefetchingImage extends PlanarImage {
+
+    static final Logger LOGGER = Logging.getLogger(TilePrefetchingImage.class);
+
+    static final String THREADS_KEY = "org.geoserver.wcs.tileComputationThreads";
+
+    static final int THREADS = getThreads(Runtime.getRuntime().availableProcessors());
+
+    static final ExecutorService EXECUTOR =
+            Executors.newFixedThreadPool(
+                    THREADS,
+                    new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("GeoServer-WCS-Tiles-%d")
+                            .build());
+
+    private final RenderedImage source;
+
+    /** True if the source tiles match the ones of this image, and can be returned as is */
+    private final boolean aligned;
+
+    private final int lookAhead;
+
+    private final int tileCount;
+
+    /** Tiles being computed, by raster order index */
+    private final Map<Integer, Future<Raster>> pending = new HashMap<>();
+
+    /** The highest tile index scheduled for computation so far */
+    private int scheduled = -1;
+
+    /**
+     * Builds a new prefetching image
+     *
+     * @param source The image to be re-tiled
+     * @param tileWidth The target tile width
+     * @param tileHeight The target tile height
+     */
+    public TilePrefetchingImage(RenderedImage source, int tileWidth, int tileHeight) {
+        super(buildLayout(source, tileWidth, tileHeight), null, null);
+        this.source = source;
+        this.aligned =
+                source.getTileWidth() == tileWidth
+                        && source.getTileHeight() == tileHeight
+                        && source.getTileGridXOffset() == source.getMinX()
+                        && source.getTileGridYOffset() == source.getMinY();
+        this.lookAhead = THREADS * 2;
+        this.tileCount = getNumXTiles() * getNumYTiles();
+    }
+
+    /** Reads the number of tile computation threads, falling back on the default if invalid */
+    static int getThreads(int defaultValue) {
+        String value = GeoServerExtensions.getProperty(THREADS_KEY);
+        if (value != null) {
+            try {
+                int threads = Integer.parseInt(value.trim());
+                if (threads >= 1) {
+                    return threads;
+                }
+            } catch (NumberFormatException e) {
+                // warned below
+            }
+            LOGGER.warning("Invalid value for " + THREADS_KEY + ": " + value);
+        }
+        return defaultValue;
+    }
+
+    private static ImageLayout buildLayout(RenderedImage source, int tileWidth, int tileHeight) {
+        ImageLayout layout = new ImageLayout(source);
+        layout.setTileGridXOffset(source.getMinX());
+        layout.setTileGridYOffset(source.getMinY());
+        layout.setTileWidth(tileWidth);
+        layout.setTileHeight(tileHeight);
+        layout.setSampleModel(
+                source.getSampleModel().createCompatibleSampleModel(tileWidth, tileHeight));
+        return layout;
+    }
+
+    /** Returns the maximum number of tiles computed ahead of the consumer */
+    public int getLookAhead() {
+        return lookAhead;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        final int index = (tileY - getMinTileY()) * getNumXTiles() + (tileX - getMinTileX());
+        Future<Raster> future;
+        synchronized (pending) {
+            // keep the look ahead window full
+            int last = Math.min(index + lookAhead, tileCount - 1);
+            for (int i = Math.max(scheduled + 1, index); i <= last; i++) {
+                final int tx = getMinTileX() + i % getNumXTiles();
+                final int ty = getMinTileY() + i / getNumXTiles();
+                pending.put(i, EXECUTOR.submit(() -> computeTile(tx, ty)));
+            }
+            scheduled = Math.max(scheduled, last);
+            future = pending.remove(index);
+            // tiles skipped by the consumer are not going to be requested anymore
+            for (Iterator<Map.Entry<Integer, Future<Raster>>> it = pending.entrySet().iterator();
+                    it.hasNext(); ) {
+                Map.Entry<Integer, Future<Raster>> entry = it.next();
+                if (entry.getKey() < index) {
+                    entry.getValue().cancel(false);
+                    it.remove();
+                }
+            }
+        }
+
+        if (future == null) {
+            return computeTile(tileX, tileY);
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while computing the output tiles", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ServiceException("Failed to compute the output tiles", e.getCause());
+        }
+    }
+
+    private Raster computeTile(int tileX, int tileY) {
+        if (aligned) {
+            return source.getTile(tileX, tileY);
+        }
+        Rectangle bounds = getTileRect(tileX, tileY);
+        return source.getData(bounds);
+    }
+
+    /** Cancels the computation of the tiles not yet consumed */
+    @Override
+    public void dispose() {
+        synchronized (pending) {
+            for (Future<Raster> future : pending.values()) {
+                future.cancel(false);
+            }
+            pending.clear();
+        }
+        super.dispose();
+    }
+}
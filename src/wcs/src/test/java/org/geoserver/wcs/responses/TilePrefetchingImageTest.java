@@ -0,0 +1,146 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs.responses;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TiledImage;
+import org.junit.Test;
+
+public class TilePrefetchingImageTest {
+
+    @Test
+    public void testAlignedTiles() {
+        SampleModel sm = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_BYTE, 32, 32, 1);
+        TiledImage source =
+                new TiledImage(0, 0, 128, 96, 0, 0, sm, PlanarImage.createColorModel(sm));
+        fill(source);
+
+        TilePrefetchingImage image = new TilePrefetchingImage(source, 32, 32);
+        try {
+            assertEquals(4, image.getNumXTiles());
+            assertEquals(3, image.getNumYTiles());
+            // the source tiles are returned as is
+            for (int ty = 0; ty < 3; ty++) {
+                for (int tx = 0; tx < 4; tx++) {
+                    assertSame(source.getTile(tx, ty), image.getTile(tx, ty));
+                }
+            }
+        } finally {
+            image.dispose();
+        }
+    }
+
+    @Test
+    public void testUnalignedTiles() {
+        BufferedImage source = new BufferedImage(100, 70, BufferedImage.TYPE_BYTE_GRAY);
+        fill(source);
+
+        TilePrefetchingImage image = new TilePrefetchingImage(source, 32, 16);
+        try {
+            assertEquals(4, image.getNumXTiles());
+            assertEquals(5, image.getNumYTiles());
+            assertEquals(new Rectangle(0, 0, 32, 16), image.getTile(0, 0).getBounds());
+            // the tiles on the edges are clipped to the image bounds
+            assertEquals(new Rectangle(96, 64, 4, 6), image.getTile(3, 4).getBounds());
+            // same pixels as the source, tiles read in raster order
+            Raster expected = source.getData();
+            Raster actual = image.getData();
+            assertEquals(expected.getBounds(), actual.getBounds());
+            assertArrayEquals(
+                    expected.getPixels(0, 0, 100, 70, (int[]) null),
+                    actual.getPixels(0, 0, 100, 70, (int[]) null));
+        } finally {
+            image.dispose();
+        }
+    }
+
+    @Test
+    public void testDisposeCancelsPendingTiles() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger computed = new AtomicInteger();
+        BufferedImage source =
+                new BufferedImage(1024, 1024, BufferedImage.TYPE_BYTE_GRAY) {
+                    @Override
+                    public Raster getData(Rectangle rect) {
+                        computed.incrementAndGet();
+                        // all tiles but the first one wait to be released
+                        if (rect.x > 0 || rect.y > 0) {
+                            try {
+                                release.await(10, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        return super.getData(rect);
+                    }
+                };
+
+        TilePrefetchingImage image = new TilePrefetchingImage(source, 32, 32);
+        assertTrue(image.getLookAhead() > TilePrefetchingImage.THREADS);
+        image.getTile(0, 0);
+        image.dispose();
+        release.countDown();
+
+        // once these are running, all the tiles queued before them have been started or skipped
+        List<Future<?>> markers = new ArrayList<>();
+        for (int i = 0; i < TilePrefetchingImage.THREADS; i++) {
+            markers.add(TilePrefetchingImage.EXECUTOR.submit(() -> {}));
+        }
+        for (Future<?> marker : markers) {
+            marker.get(10, TimeUnit.SECONDS);
+        }
+
+        // only the tiles already being computed at dispose time have been computed
+        assertTrue(computed.get() <= TilePrefetchingImage.THREADS + 1);
+    }
+
+    @Test
+    public void testInvalidThreads() {
+        String key = TilePrefetchingImage.THREADS_KEY;
+        try {
+            System.setProperty(key, "abc");
+            assertEquals(3, TilePrefetchingImage.getThreads(3));
+            System.setProperty(key, "0");
+            assertEquals(3, TilePrefetchingImage.getThreads(3));
+            System.setProperty(key, " 5 ");
+            assertEquals(5, TilePrefetchingImage.getThreads(3));
+        } finally {
+            System.clearProperty(key);
+        }
+    }
+
+    private void fill(BufferedImage image) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.getRaster().setSample(x, y, 0, (x + y) % 256);
+            }
+        }
+    }
+
+    private void fill(TiledImage image) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setSample(x, y, 0, (x + y) % 256);
+            }
+        }
+    }
+}
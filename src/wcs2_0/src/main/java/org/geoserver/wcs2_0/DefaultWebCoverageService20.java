@@ -7,10 +7,13 @@ package org.geoserver.wcs2_0;
 
 import static org.geoserver.wcs2_0.util.RequestUtils.*;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import net.opengis.wcs20.DescribeCoverageType;
 import net.opengis.wcs20.DescribeEOCoverageSetType;
 import net.opengis.wcs20.GetCapabilitiesType;
@@ -23,6 +26,11 @@ import org.geoserver.platform.OWS20Exception;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wcs.WCSInfo;
 import org.geoserver.wcs.responses.CoverageResponseDelegateFinder;
+import org.geoserver.wcs2_0.async.AsyncCoverageManager;
+import org.geoserver.wcs2_0.async.CoverageJob;
+import org.geoserver.wcs2_0.async.CoverageJobRequest;
+import org.geoserver.wcs2_0.async.GetCoverageResult;
+import org.geoserver.wcs2_0.async.GetCoverageStatus;
 import org.geoserver.wcs2_0.exception.WCS20Exception;
 import org.geoserver.wcs2_0.response.MIMETypeMapper;
 import org.geoserver.wcs2_0.response.WCS20DescribeCoverageTransformer;
@@ -64,6 +72,9 @@ public class DefaultWebCoverageService20 implements WebCoverageService20 {
      */
     private boolean availableDescribeCovExtensions;
 
+    /** Runs the asynchronous GetCoverage requests */
+    private AsyncCoverageManager asyncCoverageManager;
+
     public DefaultWebCoverageService20(
             GeoServer geoServer,
             CoverageResponseDelegateFinder responseFactory,
@@ -80,6 +91,10 @@ public class DefaultWebCoverageService20 implements WebCoverageService20 {
                 wcsDescribeCoverageExtensions != null && !wcsDescribeCoverageExtensions.isEmpty();
     }
 
+    public void setAsyncCoverageManager(AsyncCoverageManager asyncCoverageManager) {
+        this.asyncCoverageManager = asyncCoverageManager;
+    }
+
     @Override
     public WCSInfo getServiceInfo() {
         return geoServer.getService(WCSInfo.class);
@@ -153,6 +168,37 @@ public class DefaultWebCoverageService20 implements WebCoverageService20 {
                 .run(request);
     }
 
+    @Override
+    public CoverageJob getCoverageStatus(CoverageJobRequest request) {
+        checkService(request.getService());
+        checkVersion(request.getVersion());
+
+        return new GetCoverageStatus(getAsyncCoverageManager()).run(request);
+    }
+
+    @Override
+    public void getCoverageResult(
+            CoverageJobRequest request,
+            HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse) {
+        checkService(request.getService());
+        checkVersion(request.getVersion());
+
+        try {
+            new GetCoverageResult(getAsyncCoverageManager())
+                    .run(request, httpRequest, httpResponse);
+        } catch (IOException e) {
+            throw new ServiceException("Failed to send the GetCoverage result", e);
+        }
+    }
+
+    private AsyncCoverageManager getAsyncCoverageManager() {
+        if (asyncCoverageManager == null) {
+            throw new ServiceException("Asynchronous GetCoverage execution is not available");
+        }
+        return asyncCoverageManager;
+    }
+
     @Override
     public TransformerBase describeEOCoverageSet(DescribeEOCoverageSetType request) {
         throw new ServiceException(
@@ -5,6 +5,7 @@
  */
 package org.geoserver.wcs2_0;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.image.SampleModel;
@@ -20,6 +21,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -48,7 +54,9 @@ import org.geoserver.catalog.DimensionPresentation;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.util.ReaderDimensionsAccessor;
 import org.geoserver.data.util.CoverageUtils;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
 import org.geoserver.wcs.CoverageCleanerCallback;
 import org.geoserver.wcs.WCSInfo;
 import org.geoserver.wcs2_0.exception.WCS20Exception;
@@ -143,6 +151,60 @@ public class GetCoverage {
     /** Logger. */
     private static Logger LOGGER = Logging.getLogger(GetCoverage.class);
 
+    /**
+     * Number of threads reading the slices of a multidimensional request, can be set with the
+     * {@code org.geoserver.wcs.sliceReadThreads} variable and defaults to the number of available
+     * processors. A value of 1 reads the slices sequentially
+     */
+    static final int SLICE_READ_THREADS;
+
+    /**
+     * Memory, in bytes, that the slices read ahead of the stack assembly can use, can be set in MB
+     * with the {@code org.geoserver.wcs.sliceReadMemory} variable and defaults to a quarter of the
+     * maximum heap size
+     */
+    static final long SLICE_READ_MEMORY;
+
+    static {
+        Long threads = getPositiveProperty("org.geoserver.wcs.sliceReadThreads");
+        if (threads != null) {
+            SLICE_READ_THREADS = threads.intValue();
+        } else {
+            SLICE_READ_THREADS = Runtime.getRuntime().availableProcessors();
+        }
+        Long memory = getPositiveProperty("org.geoserver.wcs.sliceReadMemory");
+        if (memory != null) {
+            SLICE_READ_MEMORY = memory * 1024 * 1024;
+        } else {
+            SLICE_READ_MEMORY = Runtime.getRuntime().maxMemory() / 4;
+        }
+    }
+
+    /** Returns the positive value of the variable, or null if not set or invalid */
+    private static Long getPositiveProperty(String key) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value != null) {
+            try {
+                long result = Long.parseLong(value.trim());
+                if (result > 0 && result <= Integer.MAX_VALUE) {
+                    return result;
+                }
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+            LOGGER.warning("Invalid value for " + key + ": " + value + ", using the default");
+        }
+        return null;
+    }
+
+    static final ExecutorService SLICE_READ_EXECUTOR =
+            Executors.newFixedThreadPool(
+                    SLICE_READ_THREADS,
+                    new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("GeoServer-WCS-Slices-%d")
+                            .build());
+
     private WCSInfo wcs;
 
     private Catalog catalog;
@@ -292,13 +354,14 @@ public class GetCoverage {
                 final int numRequests = requests.size();
                 final Iterator<GridCoverageRequest> requestsIterator = requests.iterator();
                 GridCoverageRequest firstRequest = requestsIterator.next();
+                // each slice gets its own copy of the hints, as scaling modifies them
                 GridCoverage2D firstCoverage =
                         setupCoverage(
                                 helper,
                                 firstRequest,
                                 request,
                                 reader,
-                                hints,
+                                hints.clone(),
                                 extensions,
                                 dimensions,
                                 incrementalOutputSize,
@@ -324,22 +387,21 @@ public class GetCoverage {
                 stack.addCoverage(firstCoverage);
 
                 // Get a coverage for each subrequest
-                while (requestsIterator.hasNext()) {
-                    GridCoverageRequest subRequest = requestsIterator.next();
-                    GridCoverage2D singleCoverage =
-                            setupCoverage(
-                                    helper,
-                                    subRequest,
-                                    request,
-                                    reader,
-                                    hints,
-                                    extensions,
-                                    dimensions,
-                                    incrementalOutputSize,
-                                    incrementalInputSize,
-                                    coverageFactory);
-                    stack.addCoverage(singleCoverage);
-                }
+                List<GridCoverageRequest> subRequests = new ArrayList<>(numRequests - 1);
+                requestsIterator.forEachRemaining(subRequests::add);
+                readSlices(
+                        stack,
+                        subRequests,
+                        actual,
+                        helper,
+                        request,
+                        reader,
+                        hints,
+                        extensions,
+                        dimensions,
+                        incrementalOutputSize,
+                        incrementalInputSize,
+                        coverageFactory);
                 coverage = stack;
             } else {
                 // IncrementalSize not used
@@ -370,6 +432,142 @@ public class GetCoverage {
         return coverage;
     }
 
+    /**
+     * Reads the slices of a multidimensional request and adds them to the stack, in request order.
+     *
+     * <p>The slices are read concurrently on a shared, bounded pool. Only a limited window of
+     * slices is read ahead of the stack assembly, sized so that the window fits in {@link
+     * #SLICE_READ_MEMORY} based on the size of the first slice read, while the overall input and
+     * output limits keep being enforced by the shared {@link ImageSizeRecorder} instances.
+     *
+     * @param stack the stack receiving the coverages
+     * @param subRequests the requests for the slices still to be read
+     * @param sliceSize the estimated size of a single slice, in bytes
+     */
+    private void readSlices(
+            final GranuleStackImpl stack,
+            final List<GridCoverageRequest> subRequests,
+            final long sliceSize,
+            final WCSDimensionsSubsetHelper helper,
+            final GetCoverageType coverageType,
+            final GridCoverage2DReader reader,
+            final Hints hints,
+            final Map<String, ExtensionItemType> extensions,
+            final List<DimensionBean> dimensions,
+            final ImageSizeRecorder incrementalOutputSize,
+            final ImageSizeRecorder incrementalInputSize,
+            final GridCoverageFactory coverageFactory)
+            throws Exception {
+        final int numSlices = subRequests.size();
+        int window = (int) Math.min(SLICE_READ_THREADS, numSlices);
+        if (sliceSize > 0) {
+            window = (int) Math.max(1, Math.min(window, SLICE_READ_MEMORY / sliceSize));
+        }
+
+        // sequential read, no need to involve the pool
+        if (window <= 1) {
+            for (int i = 0; i < numSlices; i++) {
+                stack.addCoverage(
+                        setupCoverage(
+                                helper,
+                                subRequests.get(i),
+                                coverageType,
+                                reader,
+                                hints.clone(),
+                                extensions,
+                                dimensions,
+                                incrementalOutputSize,
+                                incrementalInputSize,
+                                coverageFactory));
+                logSliceProgress(i + 2, numSlices + 1);
+            }
+            return;
+        }
+
+        // keep a window of slices being read, and consume them in order. The slices read are
+        // tracked, so that they can be cleaned up if the request fails, while the ones completing
+        // after the failure are disposed right away by their task
+        List<Future<GridCoverage2D>> futures = new ArrayList<>(numSlices);
+        final GridCoverage2D[] slices = new GridCoverage2D[numSlices];
+        final AtomicBoolean failed = new AtomicBoolean();
+        try {
+            for (int i = 0; i < numSlices; i++) {
+                while (futures.size() < numSlices && futures.size() < i + window) {
+                    final int index = futures.size();
+                    final GridCoverageRequest subRequest = subRequests.get(index);
+                    final ThreadLocalsTransfer threadLocalsTransfer = new ThreadLocalsTransfer();
+                    futures.add(
+                            SLICE_READ_EXECUTOR.submit(
+                                    () -> {
+                                        if (failed.get()) {
+                                            return null;
+                                        }
+                                        GridCoverage2D slice;
+                                        threadLocalsTransfer.apply();
+                                        try {
+                                            slice =
+                                                    setupCoverage(
+                                                            helper,
+                                                            subRequest,
+                                                            coverageType,
+                                                            reader,
+                                                            hints.clone(),
+                                                            extensions,
+                                                            dimensions,
+                                                            incrementalOutputSize,
+                                                            incrementalInputSize,
+                                                            coverageFactory);
+                                        } finally {
+                                            threadLocalsTransfer.cleanup();
+                                        }
+                                        synchronized (slices) {
+                                            if (!failed.get()) {
+                                                slices[index] = slice;
+                                                return slice;
+                                            }
+                                        }
+                                        slice.dispose(true);
+                                        return null;
+                                    }));
+                }
+                try {
+                    stack.addCoverage(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw e;
+                }
+                logSliceProgress(i + 2, numSlices + 1);
+            }
+        } catch (Exception e) {
+            // no point in reading further slices, the request is failing. The reads in progress
+            // are not interrupted, as that would close the channels of the shared reader
+            synchronized (slices) {
+                failed.set(true);
+            }
+            for (Future<GridCoverage2D> future : futures) {
+                future.cancel(false);
+            }
+            // make sure the slices already read get cleaned up at the end of the request
+            synchronized (slices) {
+                for (GridCoverage2D slice : slices) {
+                    if (slice != null) {
+                        CoverageCleanerCallback.addCoverages(slice);
+                    }
+                }
+            }
+            throw e;
+        }
+    }
+
+    private void logSliceProgress(int read, int total) {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Read slice " + read + " of " + total);
+        }
+    }
+
     /**
      * Setup a coverage on top of the specified gridCoverageRequest
      *
@@ -2010,7 +2208,7 @@ public class GetCoverage {
          *
          * @param GridCoverage2D
          */
-        public void addSize(GridCoverage2D coverage) {
+        public synchronized void addSize(GridCoverage2D coverage) {
             incrementalSize +=
                     getCoverageSize(
                             coverage.getGridGeometry().getGridRange2D(),
@@ -2019,7 +2217,7 @@ public class GetCoverage {
         }
 
         /** Return the total size accumulated */
-        public long finalSize() {
+        public synchronized long finalSize() {
             return incrementalSize;
         }
 
@@ -2038,7 +2236,7 @@ public class GetCoverage {
         }
 
         /** Reset the total size stored to 0 */
-        public void reset() {
+        public synchronized void reset() {
             incrementalSize = 0;
         }
 
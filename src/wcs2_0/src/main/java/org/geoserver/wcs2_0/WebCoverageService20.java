@@ -5,11 +5,15 @@
  */
 package org.geoserver.wcs2_0;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import net.opengis.wcs20.DescribeCoverageType;
 import net.opengis.wcs20.DescribeEOCoverageSetType;
 import net.opengis.wcs20.GetCapabilitiesType;
 import net.opengis.wcs20.GetCoverageType;
 import org.geoserver.wcs.WCSInfo;
+import org.geoserver.wcs2_0.async.CoverageJob;
+import org.geoserver.wcs2_0.async.CoverageJobRequest;
 import org.geoserver.wcs2_0.response.WCS20DescribeCoverageTransformer;
 import org.geotools.xml.transform.TransformerBase;
 import org.opengis.coverage.grid.GridCoverage;
@@ -48,4 +52,13 @@ public interface WebCoverageService20 {
 
     /** GetCoverage operation. */
     GridCoverage getCoverage(GetCoverageType request);
+
+    /** Status of an asynchronous GetCoverage, started with the ASYNC=true parameter */
+    CoverageJob getCoverageStatus(CoverageJobRequest request);
+
+    /** Downloads the result of an asynchronous GetCoverage, supports HTTP range requests */
+    void getCoverageResult(
+            CoverageJobRequest request,
+            HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse);
 }
@@ -0,0 +1,262 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.async;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.opengis.wcs20.GetCoverageType;
+import org.geoserver.ows.Response;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geoserver.wcs.CoverageCleanerCallback;
+import org.geotools.util.logging.Logging;
+import org.opengis.coverage.grid.GridCoverage;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Runs the asynchronous GetCoverage requests on a dedicated, bounded thread pool, separate from the
+ * one serving the interactive requests, stores their results in the {@link
+ * CoverageArtifactsStore}, and removes them once expired.
+ *
+ * <p>The pool size, queue size and result expiration (in seconds) can be configured using the
+ * org.geoserver.wcs.asyncThreads, org.geoserver.wcs.asyncQueueSize and
+ * org.geoserver.wcs.asyncResultExpiration variables.
+ */
+public class AsyncCoverageManager implements DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(AsyncCoverageManager.class);
+
+    public static final String THREADS_KEY = "org.geoserver.wcs.asyncThreads";
+
+    public static final String QUEUE_SIZE_KEY = "org.geoserver.wcs.asyncQueueSize";
+
+    public static final String EXPIRATION_KEY = "org.geoserver.wcs.asyncResultExpiration";
+
+    static final int DEFAULT_THREADS = 2;
+
+    static final int DEFAULT_QUEUE_SIZE = 100;
+
+    static final long DEFAULT_EXPIRATION = 3600;
+
+    CoverageJobStatusStore statusStore;
+
+    CoverageArtifactsStore artifactsStore;
+
+    ThreadPoolExecutor executor;
+
+    ScheduledExecutorService cleaner;
+
+    long expirationMillis;
+
+    public AsyncCoverageManager(
+            CoverageJobStatusStore statusStore, CoverageArtifactsStore artifactsStore) {
+        this(
+                statusStore,
+                artifactsStore,
+                getProperty(THREADS_KEY, DEFAULT_THREADS),
+                getProperty(QUEUE_SIZE_KEY, DEFAULT_QUEUE_SIZE),
+                getProperty(EXPIRATION_KEY, DEFAULT_EXPIRATION) * 1000);
+    }
+
+    AsyncCoverageManager(
+            CoverageJobStatusStore statusStore,
+            CoverageArtifactsStore artifactsStore,
+            int threads,
+            int queueSize,
+            long expirationMillis) {
+        this.statusStore = statusStore;
+        this.artifactsStore = artifactsStore;
+        this.expirationMillis = expirationMillis;
+        this.executor =
+                new ThreadPoolExecutor(
+                        threads,
+                        threads,
+                        0L,
+                        TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(queueSize),
+                        new ThreadFactoryBuilder()
+                                .setDaemon(true)
+                                .setNameFormat("GeoServer-WCS-Async-%d")
+                                .build());
+        this.cleaner =
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder()
+                                .setDaemon(true)
+                                .setNameFormat("GeoServer-WCS-Async-Cleaner")
+                                .build());
+        long period = Math.max(1000, Math.min(expirationMillis / 2, 60 * 1000));
+        this.cleaner.scheduleWithFixedDelay(
+                this::cleanExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static int getProperty(String key, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + key + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    private static long getProperty(String key, long defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + key + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Queues the GetCoverage operation for execution and returns the job tracking it. Throws a
+     * {@link ServiceException} if the queue is full.
+     */
+    public CoverageJob submit(Operation operation, String baseUrl) {
+        GetCoverageType request = (GetCoverageType) operation.getParameters()[0];
+        CoverageJob job =
+                new CoverageJob(UUID.randomUUID().toString(), request.getCoverageId(), baseUrl);
+        statusStore.save(job);
+
+        ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+        try {
+            executor.execute(
+                    () -> {
+                        transfer.apply();
+                        try {
+                            run(job, operation);
+                        } finally {
+                            transfer.cleanup();
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            statusStore.remove(job.getId());
+            throw new ServiceException(
+                    "Too many asynchronous GetCoverage requests are queued, please retry later");
+        }
+
+        return job;
+    }
+
+    void run(CoverageJob job, Operation operation) {
+        job.started();
+        statusStore.save(job);
+        Object result = null;
+        try {
+            result =
+                    operation
+                            .getMethod()
+                            .invoke(operation.getService().getService(), operation.getParameters());
+            Response response = findResponse(result, operation);
+            String mimeType = response.getMimeType(result, operation);
+            String fileName = response.getAttachmentFileName(result, operation);
+            Resource artifact = artifactsStore.getArtifact(job.getId());
+            try (OutputStream os = artifact.out()) {
+                response.write(result, os, operation);
+            }
+            job.succeeded(mimeType, fileName, artifact.file().length());
+        } catch (Throwable t) {
+            if (t instanceof InvocationTargetException && t.getCause() != null) {
+                t = t.getCause();
+            }
+            LOGGER.log(Level.WARNING, "Asynchronous GetCoverage " + job.getId() + " failed", t);
+            job.failed(t.getMessage() != null ? t.getMessage() : t.getClass().getName());
+            clearArtifacts(job.getId());
+        } finally {
+            if (result instanceof GridCoverage) {
+                CoverageCleanerCallback.addCoverages((GridCoverage) result);
+            }
+            new CoverageCleanerCallback().clean();
+            statusStore.save(job);
+        }
+    }
+
+    /** Looks up the response for the result, the same way the Dispatcher does */
+    static Response findResponse(Object result, Operation operation) {
+        Response best = null;
+        if (result != null) {
+            for (Response response : GeoServerExtensions.extensions(Response.class)) {
+                if (response.getBinding().isAssignableFrom(result.getClass())
+                        && response.canHandle(operation)
+                        && (best == null
+                                || best.getBinding().isAssignableFrom(response.getBinding()))) {
+                    best = response;
+                }
+            }
+        }
+        if (best == null) {
+            throw new ServiceException(
+                    "Could not find a response to encode the GetCoverage result");
+        }
+        return best;
+    }
+
+    /** Returns the job with the given id, or null if not found */
+    public CoverageJob getJob(String jobId) {
+        return statusStore.get(jobId);
+    }
+
+    /** Returns the resource holding the result of the given job */
+    public Resource getResult(String jobId) {
+        return artifactsStore.getArtifact(jobId);
+    }
+
+    /** Removes the jobs completed before the expiration time, and their results */
+    void cleanExpired() {
+        try {
+            long limit = System.currentTimeMillis() - expirationMillis;
+            for (CoverageJob job : statusStore.list()) {
+                if (job.isCompleted() && job.getCompletionTime().getTime() < limit) {
+                    statusStore.remove(job.getId());
+                    clearArtifacts(job.getId());
+                }
+            }
+            // results left behind by a restart or a failed cleanup
+            List<String> jobIds = artifactsStore.listJobIds();
+            for (String jobId : jobIds) {
+                if (statusStore.get(jobId) == null
+                        && artifactsStore.getArtifact(jobId).lastmodified() < limit) {
+                    clearArtifacts(jobId);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to clean up the asynchronous GetCoverage jobs", e);
+        }
+    }
+
+    private void clearArtifacts(String jobId) {
+        try {
+            artifactsStore.clearArtifacts(jobId);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to remove the results of job " + jobId, e);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        executor.shutdownNow();
+        cleaner.shutdownNow();
+    }
+}
@@ -0,0 +1,64 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.async;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import net.opengis.wcs20.GetCoverageType;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.DispatcherCallback;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.util.OwsUtils;
+import org.geoserver.ows.util.ResponseUtils;
+import org.geoserver.platform.Operation;
+
+/**
+ * A {@link DispatcherCallback} turning a WCS 2.0 GetCoverage carrying the ASYNC=true parameter into
+ * an asynchronous execution: the request is handed to the {@link AsyncCoverageManager} and the
+ * client receives a status document instead, pointing to the GetCoverageStatus and
+ * GetCoverageResult operations.
+ */
+public class AsyncGetCoverageCallback extends AbstractDispatcherCallback {
+
+    static final String ASYNC = "ASYNC";
+
+    static final String GET_COVERAGE_STATUS = "GetCoverageStatus";
+
+    AsyncCoverageManager manager;
+
+    public AsyncGetCoverageCallback(AsyncCoverageManager manager) {
+        this.manager = manager;
+    }
+
+    @Override
+    public Operation operationDispatched(Request request, Operation operation) {
+        if (!"GetCoverage".equalsIgnoreCase(operation.getId())
+                || operation.getParameters() == null
+                || operation.getParameters().length == 0
+                || !(operation.getParameters()[0] instanceof GetCoverageType)
+                || !isAsync(request)) {
+            return operation;
+        }
+
+        String baseUrl = ResponseUtils.baseURL(request.getHttpRequest());
+        CoverageJob job = manager.submit(operation, baseUrl);
+
+        // replace the operation with a status request for the newly created job
+        CoverageJobRequest statusRequest = new CoverageJobRequest();
+        statusRequest.setService("WCS");
+        statusRequest.setVersion(((GetCoverageType) operation.getParameters()[0]).getVersion());
+        statusRequest.setJobId(job.getId());
+        statusRequest.setBaseUrl(baseUrl);
+        Object service = operation.getService().getService();
+        Method method = OwsUtils.method(service.getClass(), GET_COVERAGE_STATUS);
+        return new Operation(
+                GET_COVERAGE_STATUS, operation.getService(), method, new Object[] {statusRequest});
+    }
+
+    private boolean isAsync(Request request) {
+        Map rawKvp = request.getRawKvp();
+        return rawKvp != null && Boolean.parseBoolean(String.valueOf(rawKvp.get(ASYNC)));
+    }
+}
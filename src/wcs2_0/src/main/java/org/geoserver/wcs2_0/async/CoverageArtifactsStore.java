@@ -0,0 +1,25 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.async;
+
+import java.io.IOException;
+import java.util.List;
+import org.geoserver.platform.resource.Resource;
+
+/** Stores the results of the asynchronous GetCoverage jobs */
+public interface CoverageArtifactsStore {
+
+    /**
+     * Retrieves the Resource holding the result of a job. The resource will be UNDEFINED if the
+     * result is missing, and will be created on demand at the first access
+     */
+    Resource getArtifact(String jobId);
+
+    /** Lists the ids of all the jobs having artifacts in the store */
+    List<String> listJobIds();
+
+    /** Immediately removes all artifacts associated to the given job id */
+    void clearArtifacts(String jobId) throws IOException;
+}
@@ -0,0 +1,152 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.async;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.geoserver.ows.URLMangler.URLType;
+import org.geoserver.ows.util.ResponseUtils;
+
+/** Tracks the execution of an asynchronous GetCoverage request */
+public class CoverageJob {
+
+    public enum Status {
+        ACCEPTED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED
+    }
+
+    final String id;
+
+    final String coverageId;
+
+    final String baseUrl;
+
+    final Date creationTime;
+
+    volatile Status status = Status.ACCEPTED;
+
+    volatile Date startTime;
+
+    volatile Date completionTime;
+
+    volatile String mimeType;
+
+    volatile String fileName;
+
+    volatile long size;
+
+    volatile String message;
+
+    public CoverageJob(String id, String coverageId, String baseUrl) {
+        this.id = id;
+        this.coverageId = coverageId;
+        this.baseUrl = baseUrl;
+        this.creationTime = new Date();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getCoverageId() {
+        return coverageId;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public Date getCreationTime() {
+        return creationTime;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Date getStartTime() {
+        return startTime;
+    }
+
+    public Date getCompletionTime() {
+        return completionTime;
+    }
+
+    /** The mime type of the result, available once the job succeeded */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /** The suggested file name for the result, available once the job succeeded */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /** The size in bytes of the result, available once the job succeeded */
+    public long getSize() {
+        return size;
+    }
+
+    /** The error message, if the job failed */
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isCompleted() {
+        return status == Status.SUCCEEDED || status == Status.FAILED;
+    }
+
+    void started() {
+        this.startTime = new Date();
+        this.status = Status.RUNNING;
+    }
+
+    void succeeded(String mimeType, String fileName, long size) {
+        this.mimeType = mimeType;
+        this.fileName = fileName;
+        this.size = size;
+        this.completionTime = new Date();
+        this.status = Status.SUCCEEDED;
+    }
+
+    void failed(String message) {
+        this.message = message;
+        this.completionTime = new Date();
+        this.status = Status.FAILED;
+    }
+
+    /** The URL clients can poll to check the job status */
+    public String getStatusLocation() {
+        return buildURL("GetCoverageStatus");
+    }
+
+    /** The URL the result can be downloaded from, once the job succeeded */
+    public String getResultLocation() {
+        return buildURL("GetCoverageResult");
+    }
+
+    private String buildURL(String request) {
+        Map<String, String> kvp = new LinkedHashMap<>();
+        kvp.put("service", "WCS");
+        kvp.put("version", "2.0.1");
+        kvp.put("request", request);
+        kvp.put("jobId", id);
+        return ResponseUtils.buildURL(baseUrl, "ows", kvp, URLType.SERVICE);
+    }
+
+    @Override
+    public String toString() {
+        return "CoverageJob [id="
+                + id
+                + ", coverageId="
+                + coverageId
+                + ", status="
+                + status
+                + "]";
+    }
+}
@@ -0,0 +1,60 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.async;
+
+/** The GetCoverageStatus and GetCoverageResult requests */
+public class CoverageJobRequest {
+
+    String service;
+
+    String version;
+
+    String jobId;
+
+    String baseUrl;
+
+    public String getService() {
+        return service;
+    }
+
+    public void setService(String service) {
+        this.service = service;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public void setBaseUrl(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    @Override
+    public String toString() {
+        return "CoverageJobRequest [service="
+                + service
+                + ", version="
+                + version
+                + ", jobId="
+                + jobId
+                + "]";
+    }
+}
@@ -0,0 +1,92 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.async;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.geoserver.ows.Response;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+
+/**
+ * Encodes the status of an asynchronous GetCoverage job as a small XML document, for example:
+ *
+ * <pre>{@code
+ * <CoverageJob id="..." status="SUCCEEDED">
+ *   <CoverageId>nurc__Pk50095</CoverageId>
+ *   <CreationTime>2019-05-14T10:20:30.000Z</CreationTime>
+ *   <CompletionTime>2019-05-14T10:21:10.000Z</CompletionTime>
+ *   <StatusLocation>http://.../ows?...request=GetCoverageStatus...</StatusLocation>
+ *   <ResultLocation mimeType="image/tiff" size="123456">http://...</ResultLocation>
+ * </CoverageJob>
+ * }</pre>
+ */
+public class CoverageJobStatusResponse extends Response {
+
+    public CoverageJobStatusResponse() {
+        super(CoverageJob.class);
+    }
+
+    @Override
+    public String getMimeType(Object value, Operation operation) throws ServiceException {
+        return "text/xml";
+    }
+
+    @Override
+    public void write(Object value, OutputStream output, Operation operation)
+            throws IOException, ServiceException {
+        CoverageJob job = (CoverageJob) value;
+        try {
+            XMLStreamWriter w =
+                    XMLOutputFactory.newInstance().createXMLStreamWriter(output, "UTF-8");
+            w.writeStartDocument("UTF-8", "1.0");
+            w.writeStartElement("CoverageJob");
+            w.writeAttribute("id", job.getId());
+            w.writeAttribute("status", job.getStatus().name());
+            writeElement(w, "CoverageId", job.getCoverageId());
+            writeElement(w, "CreationTime", format(job.getCreationTime()));
+            writeElement(w, "StartTime", format(job.getStartTime()));
+            writeElement(w, "CompletionTime", format(job.getCompletionTime()));
+            writeElement(w, "StatusLocation", job.getStatusLocation());
+            if (job.getStatus() == CoverageJob.Status.SUCCEEDED) {
+                w.writeStartElement("ResultLocation");
+                w.writeAttribute("mimeType", job.getMimeType());
+                w.writeAttribute("size", String.valueOf(job.getSize()));
+                w.writeCharacters(job.getResultLocation());
+                w.writeEndElement();
+            }
+            writeElement(w, "Message", job.getMessage());
+            w.writeEndElement();
+            w.writeEndDocument();
+            w.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to encode the coverage job status", e);
+        }
+    }
+
+    private void writeElement(XMLStreamWriter w, String name, String value)
+            throws XMLStreamException {
+        if (value != null) {
+            w.writeStartElement(name);
+            w.writeCharacters(value);
+            w.writeEndElement();
+        }
+    }
+
+    private String format(Date date) {
+        if (date == null) {
+            return null;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(date);
+    }
+}
@@ -0,0 +1,24 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.async;
+
+import java.util.List;
+
+/**
+ * Stores and allows retrieval of the asynchronous GetCoverage jobs, running and recently completed
+ */
+public interface CoverageJobStatusStore {
+    /** Saves or updates a given job */
+    void save(CoverageJob job);
+
+    /** Retrieves a specific job by id */
+    CoverageJob get(String jobId);
+
+    /** Removes a specific job by id */
+    CoverageJob remove(String jobId);
+
+    /** Lists all the known jobs */
+    List<CoverageJob> list();
+}
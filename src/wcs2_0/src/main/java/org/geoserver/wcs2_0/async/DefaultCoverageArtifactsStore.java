@@ -0,0 +1,59 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.async;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.platform.resource.Files;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.platform.resource.Resource.Type;
+
+/**
+ * Default implementation that will store the results on the file system inside
+ * $GEOSERVER_DATA_DIR/temp/wcs, or if otherwise configured, in the folder set in the
+ * org.geoserver.wcs.asyncArtifactsDirectory variable
+ */
+public class DefaultCoverageArtifactsStore implements CoverageArtifactsStore {
+
+    public static final String ARTIFACTS_DIRECTORY_KEY =
+            "org.geoserver.wcs.asyncArtifactsDirectory";
+
+    Resource base;
+
+    public DefaultCoverageArtifactsStore(GeoServerResourceLoader loader) {
+        String directory = GeoServerExtensions.getProperty(ARTIFACTS_DIRECTORY_KEY);
+        if (directory != null) {
+            this.base = Files.asResource(new File(directory));
+        } else {
+            this.base = loader.get("temp/wcs");
+        }
+    }
+
+    @Override
+    public Resource getArtifact(String jobId) {
+        return base.get(jobId).get("result.dat");
+    }
+
+    @Override
+    public List<String> listJobIds() {
+        List<String> result = new ArrayList<>();
+        for (Resource r : base.list()) {
+            if (r.getType() == Type.DIRECTORY) {
+                result.add(r.name());
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public void clearArtifacts(String jobId) throws IOException {
+        base.get(jobId).delete();
+    }
+}
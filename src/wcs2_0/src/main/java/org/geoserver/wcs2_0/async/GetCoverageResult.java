@@ -0,0 +1,95 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.async;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.IOUtils;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.platform.resource.Resource;
+
+/**
+ * Streams back the result of an asynchronous GetCoverage job, honoring single range HTTP requests
+ * so that large downloads can be resumed or split
+ */
+public class GetCoverageResult {
+
+    /** Single byte range, either "first-last", "first-" or "-suffixLength" */
+    static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    AsyncCoverageManager manager;
+
+    public GetCoverageResult(AsyncCoverageManager manager) {
+        this.manager = manager;
+    }
+
+    public void run(
+            CoverageJobRequest request,
+            HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse)
+            throws IOException {
+        CoverageJob job = GetCoverageStatus.getJob(manager, request);
+        if (job.getStatus() != CoverageJob.Status.SUCCEEDED) {
+            throw new ServiceException(
+                    "The result of job "
+                            + job.getId()
+                            + " is not available, the job status is "
+                            + job.getStatus(),
+                    ServiceException.INVALID_PARAMETER_VALUE,
+                    "jobId");
+        }
+        Resource result = manager.getResult(job.getId());
+        if (result.getType() != Resource.Type.RESOURCE) {
+            throw new ServiceException(
+                    "The result of job " + job.getId() + " is no longer available",
+                    ServiceException.INVALID_PARAMETER_VALUE,
+                    "jobId");
+        }
+
+        long length = result.file().length();
+        long first = 0;
+        long last = length - 1;
+        httpResponse.setHeader("Accept-Ranges", "bytes");
+        String range = httpRequest.getHeader("Range");
+        Matcher matcher = range != null ? RANGE.matcher(range.trim()) : null;
+        // multiple ranges are not supported, the whole content is returned in that case
+        if (matcher != null
+                && matcher.matches()
+                && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+            if (matcher.group(1).isEmpty()) {
+                first = Math.max(0, length - Long.parseLong(matcher.group(2)));
+            } else {
+                first = Long.parseLong(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) {
+                    last = Math.min(last, Long.parseLong(matcher.group(2)));
+                }
+            }
+            if (first > last) {
+                httpResponse.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                httpResponse.setHeader("Content-Range", "bytes */" + length);
+                return;
+            }
+            httpResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            httpResponse.setHeader("Content-Range", "bytes " + first + "-" + last + "/" + length);
+        }
+
+        httpResponse.setContentType(job.getMimeType());
+        httpResponse.setHeader("Content-Length", String.valueOf(last - first + 1));
+        if (job.getFileName() != null) {
+            httpResponse.setHeader(
+                    "Content-Disposition", "attachment; filename=" + job.getFileName());
+        }
+        try (InputStream in = result.in()) {
+            OutputStream out = httpResponse.getOutputStream();
+            IOUtils.copyLarge(in, out, first, last - first + 1);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.async;
+
+import org.geoserver.platform.ServiceException;
+
+/** Returns the status of an asynchronous GetCoverage job */
+public class GetCoverageStatus {
+
+    AsyncCoverageManager manager;
+
+    public GetCoverageStatus(AsyncCoverageManager manager) {
+        this.manager = manager;
+    }
+
+    public CoverageJob run(CoverageJobRequest request) {
+        return getJob(manager, request);
+    }
+
+    static CoverageJob getJob(AsyncCoverageManager manager, CoverageJobRequest request) {
+        if (request.getJobId() == null) {
+            throw new ServiceException(
+                    "Required parameter jobId missing",
+                    ServiceException.MISSING_PARAMETER_VALUE,
+                    "jobId");
+        }
+        CoverageJob job = manager.getJob(request.getJobId());
+        if (job == null) {
+            throw new ServiceException(
+                    "Unknown job " + request.getJobId() + ", it might have expired",
+                    ServiceException.INVALID_PARAMETER_VALUE,
+                    "jobId");
+        }
+        return job;
+    }
+}
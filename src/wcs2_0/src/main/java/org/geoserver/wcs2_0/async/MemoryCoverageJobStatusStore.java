@@ -0,0 +1,36 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** In memory implementation of the {@link CoverageJobStatusStore} */
+public class MemoryCoverageJobStatusStore implements CoverageJobStatusStore {
+
+    Map<String, CoverageJob> jobs = new ConcurrentHashMap<>();
+
+    @Override
+    public void save(CoverageJob job) {
+        jobs.put(job.getId(), job);
+    }
+
+    @Override
+    public CoverageJob get(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    @Override
+    public CoverageJob remove(String jobId) {
+        return jobs.remove(jobId);
+    }
+
+    @Override
+    public List<CoverageJob> list() {
+        return new ArrayList<>(jobs.values());
+    }
+}
@@ -0,0 +1,107 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.kvp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.w3c.dom.Document;
+
+public class AsyncGetCoverageTest extends WCSKVPTestSupport {
+
+    static final String GET_COVERAGE =
+            "wcs?request=GetCoverage&service=WCS&version=2.0.1"
+                    + "&coverageId=wcs__BlueMarble&Format=image/tiff";
+
+    @Test
+    public void testAsyncGetCoverage() throws Exception {
+        Document dom = getAsDOM(GET_COVERAGE + "&async=true");
+        String jobId = xpath.evaluate("/CoverageJob/@id", dom);
+        assertNotEquals("", jobId);
+        assertTrue(
+                xpath.evaluate("/CoverageJob/StatusLocation", dom)
+                        .contains("request=GetCoverageStatus"));
+
+        // wait for the job to complete
+        String status = waitForCompletion(jobId);
+        assertEquals("SUCCEEDED", status);
+
+        // the full result is the same as the synchronous one
+        byte[] expected = getBinary(getAsServletResponse(GET_COVERAGE));
+        MockHttpServletResponse response = getAsServletResponse(resultPath(jobId));
+        assertEquals(200, response.getStatus());
+        assertEquals("image/tiff", response.getContentType());
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        assertArrayEquals(expected, getBinary(response));
+
+        // range download
+        MockHttpServletRequest request = createRequest(resultPath(jobId));
+        request.addHeader("Range", "bytes=10-19");
+        response = dispatch(request);
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-19/" + expected.length, response.getHeader("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(expected, 10, 20), getBinary(response));
+
+        // suffix range
+        request = createRequest(resultPath(jobId));
+        request.addHeader("Range", "bytes=-5");
+        response = dispatch(request);
+        assertEquals(206, response.getStatus());
+        assertArrayEquals(
+                Arrays.copyOfRange(expected, expected.length - 5, expected.length),
+                getBinary(response));
+
+        // unsatisfiable range
+        request = createRequest(resultPath(jobId));
+        request.addHeader("Range", "bytes=" + expected.length + "-");
+        response = dispatch(request);
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */" + expected.length, response.getHeader("Content-Range"));
+    }
+
+    @Test
+    public void testAsyncGetCoverageFailure() throws Exception {
+        Document dom =
+                getAsDOM(
+                        "wcs?request=GetCoverage&service=WCS&version=2.0.1"
+                                + "&coverageId=wcs__BlueMarble&Format=image/tiff"
+                                + "&subset=Long(1000,2000)&async=true");
+        String jobId = xpath.evaluate("/CoverageJob/@id", dom);
+        assertEquals("FAILED", waitForCompletion(jobId));
+
+        MockHttpServletResponse response = getAsServletResponse(resultPath(jobId));
+        checkOws20Exception(response, 400, "InvalidParameterValue", "jobId");
+    }
+
+    @Test
+    public void testUnknownJob() throws Exception {
+        MockHttpServletResponse response =
+                getAsServletResponse(
+                        "wcs?request=GetCoverageStatus&service=WCS&version=2.0.1&jobId=abcd");
+        checkOws20Exception(response, 400, "InvalidParameterValue", "jobId");
+    }
+
+    private String resultPath(String jobId) {
+        return "wcs?request=GetCoverageResult&service=WCS&version=2.0.1&jobId=" + jobId;
+    }
+
+    private String waitForCompletion(String jobId) throws Exception {
+        String statusPath = "wcs?request=GetCoverageStatus&service=WCS&version=2.0.1&jobId=";
+        long timeout = System.currentTimeMillis() + 30000;
+        String status;
+        do {
+            Thread.sleep(50);
+            status = xpath.evaluate("/CoverageJob/@status", getAsDOM(statusPath + jobId));
+        } while (("ACCEPTED".equals(status) || "RUNNING".equals(status))
+                && System.currentTimeMillis() < timeout);
+        return status;
+    }
+}
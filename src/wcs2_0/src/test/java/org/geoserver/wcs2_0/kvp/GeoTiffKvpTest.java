@@ -18,6 +18,10 @@ import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import javax.imageio.IIOException;
 import javax.imageio.metadata.IIOMetadataNode;
@@ -222,6 +226,120 @@ public class GeoTiffKvpTest extends WCSKVPTestSupport {
         checkTiff(tiffContents, JPEG_TAG);
     }
 
+    @Test
+    public void cloudOptimized() throws Exception {
+        MockHttpServletResponse response =
+                getAsServletResponse(
+                        "wcs?request=GetCoverage&service=WCS&version=2.0.1"
+                                + "&coverageId=wcs__BlueMarble"
+                                + "&format=image%2Ftiff%3Bapplication%3Dgeotiff%3Bprofile%3Dcloud-optimized"
+                                + "&tiling=true&tileheight=64&tilewidth=64");
+
+        assertEquals(
+                "image/tiff;application=geotiff;profile=cloud-optimized",
+                response.getContentType());
+        byte[] tiffContents = getBinary(response);
+        File file = File.createTempFile("bm_cog", "bm_cog.tiff", new File("./target"));
+        FileUtils.writeByteArrayToFile(file, tiffContents);
+
+        final TIFFImageReader reader =
+                (TIFFImageReader) new TIFFImageReaderSpi().createReaderInstance();
+        try (FileImageInputStream is = new FileImageInputStream(file)) {
+            reader.setInput(is);
+            // tiled, with overviews down to a single tile
+            int images = reader.getNumImages(true);
+            assertTrue(images > 1);
+            assertEquals(64, reader.getTileWidth(0));
+            assertEquals(64, reader.getTileHeight(0));
+            for (int i = 1; i < images; i++) {
+                assertEquals(reader.getWidth(i - 1) / 2d, reader.getWidth(i), 1);
+                assertEquals(reader.getHeight(i - 1) / 2d, reader.getHeight(i), 1);
+            }
+            int last = images - 1;
+            assertTrue(reader.getWidth(last) <= 64 && reader.getHeight(last) <= 64);
+
+            // deflate compressed by default
+            IIOMetadataNode root =
+                    (IIOMetadataNode)
+                            reader.getImageMetadata(0)
+                                    .getAsTree(TIFFImageMetadata.nativeMetadataFormatName);
+            IIOMetadataNode field = getTiffField(root, BaselineTIFFTagSet.TAG_COMPRESSION);
+            assertEquals(
+                    DEFLATE_TAG.tagValue,
+                    field.getFirstChild().getFirstChild().getAttributes().item(0).getNodeValue());
+        } finally {
+            reader.dispose();
+            FileUtils.deleteQuietly(file);
+        }
+
+        checkCloudOptimizedLayout(tiffContents);
+    }
+
+    @Test
+    public void cloudOptimizedNotTiled() throws Exception {
+        MockHttpServletResponse response =
+                getAsServletResponse(
+                        "wcs?request=GetCoverage&service=WCS&version=2.0.1"
+                                + "&coverageId=wcs__BlueMarble"
+                                + "&format=image%2Ftiff%3Bapplication%3Dgeotiff%3Bprofile%3Dcloud-optimized"
+                                + "&tiling=false");
+
+        assertEquals("application/xml", response.getContentType());
+        checkOws20Exception(response, 404, WcsExceptionCode.TilingInvalid.toString(), "false");
+    }
+
+    /**
+     * Walks the IFDs of a classic TIFF, checking they are all at the start of the file, before the
+     * tiles, and that the tiles of each overview come before the ones of the larger images
+     */
+    private void checkCloudOptimizedLayout(byte[] tiff) {
+        ByteBuffer bb = ByteBuffer.wrap(tiff);
+        bb.order(bb.getShort(0) == 0x4949 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        assertEquals(42, bb.getShort(2));
+        long ifdOffset = bb.getInt(4) & 0xFFFFFFFFL;
+        assertEquals(8, ifdOffset);
+
+        long lastIfdEnd = 0;
+        List<long[]> levels = new ArrayList<>();
+        while (ifdOffset != 0) {
+            assertTrue("IFDs must follow each other", ifdOffset >= lastIfdEnd);
+            int entries = bb.getShort((int) ifdOffset) & 0xFFFF;
+            long[] range = null;
+            for (int i = 0; i < entries; i++) {
+                int entry = (int) ifdOffset + 2 + i * 12;
+                int tag = bb.getShort(entry) & 0xFFFF;
+                if (tag == BaselineTIFFTagSet.TAG_TILE_OFFSETS) {
+                    assertEquals(4, bb.getShort(entry + 2)); // LONG
+                    int count = bb.getInt(entry + 4);
+                    int values = count == 1 ? entry + 8 : bb.getInt(entry + 8);
+                    range = new long[] {Long.MAX_VALUE, 0};
+                    for (int j = 0; j < count; j++) {
+                        long offset = bb.getInt(values + j * 4) & 0xFFFFFFFFL;
+                        range[0] = Math.min(range[0], offset);
+                        range[1] = Math.max(range[1], offset);
+                    }
+                }
+            }
+            assertNotNull("Missing tile offsets", range);
+            levels.add(range);
+            lastIfdEnd = ifdOffset + 2 + entries * 12 + 4;
+            ifdOffset = bb.getInt((int) lastIfdEnd - 4) & 0xFFFFFFFFL;
+        }
+
+        assertTrue(levels.size() > 1);
+        // the smallest overview tiles come right after the IFDs, the full resolution ones last
+        long[] smallest = levels.get(levels.size() - 1);
+        for (long[] level : levels) {
+            assertTrue("Tiles must follow the IFDs", level[0] >= lastIfdEnd);
+            assertTrue("Tiles must follow the IFDs", level[0] >= smallest[0]);
+        }
+        for (int i = 1; i < levels.size(); i++) {
+            assertTrue(
+                    "Overview " + i + " tiles must precede the larger image tiles",
+                    levels.get(i)[1] < levels.get(i - 1)[0]);
+        }
+    }
+
     private void checkTiff(byte[] tiffContents, TiffTagTest tiffTagTest)
             throws IOException, FileNotFoundException, IIOException {
         File file = File.createTempFile("bm_gtiff", "bm_gtiff.tiff", new File("./target"));
@@ -118,6 +118,10 @@ public class CoverageAccessPage extends ServerAdminPage {
         imageIOCacheThreshold.add(RangeValidator.minimum(0l));
         form.add(imageIOCacheThreshold);
 
+        NumberTextField<Long> readCacheSize = new NumberTextField<Long>("readCacheSize", Long.class);
+        readCacheSize.setMinimum(0l);
+        form.add(readCacheSize);
+
         Button submit =
                 new Button("submit") {
                     private static final long serialVersionUID = 4149741045073254811L;
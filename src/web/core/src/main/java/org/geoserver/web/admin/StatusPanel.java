@@ -10,6 +10,7 @@ import java.awt.*;
 import java.text.NumberFormat;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.media.jai.JAI;
@@ -28,6 +29,7 @@ import org.geoserver.config.CoverageAccessInfo;
 import org.geoserver.config.GeoServerDataDirectory;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.JAIInfo;
+import org.geoserver.jai.AccountingTileCache;
 import org.geoserver.web.util.MapModel;
 import org.geoserver.web.wicket.ParamResourceModel;
 import org.geotools.util.logging.Logging;
@@ -59,6 +61,10 @@ public class StatusPanel extends Panel {
 
     private static final String KEY_JAI_MEM_THRESHOLD = "jai_mem_threshold";
 
+    private static final String KEY_JAI_CACHE_HITS = "jai_cache_hits";
+
+    private static final String KEY_JAI_SERVICE_MEM_USAGE = "jai_service_mem_usage";
+
     private static final String KEY_JAI_TILE_THREADS = "jai_tile_threads";
 
     private static final String KEY_JAI_TILE_THREAD_PRIORITY = "jai_tile_thread_priority";
@@ -100,6 +106,8 @@ public class StatusPanel extends Panel {
         add(new Label("jai.memory.available", new MapModel(values, KEY_JAI_MAX_MEM)));
         add(new Label("jai.memory.used", new MapModel(values, KEY_JAI_MEM_USAGE)));
         add(new Label("jai.memory.threshold", new MapModel(values, KEY_JAI_MEM_THRESHOLD)));
+        add(new Label("jai.cache.hits", new MapModel(values, KEY_JAI_CACHE_HITS)));
+        add(new Label("jai.memory.services", new MapModel(values, KEY_JAI_SERVICE_MEM_USAGE)));
         add(new Label("jai.tile.threads", new MapModel(values, KEY_JAI_TILE_THREADS)));
         add(new Label("jai.tile.priority", new MapModel(values, KEY_JAI_TILE_THREAD_PRIORITY)));
         add(
@@ -230,11 +238,28 @@ public class StatusPanel extends Panel {
 
         values.put(KEY_JAI_MAX_MEM, formatMemory(jaiCache.getMemoryCapacity()));
         if (jaiCache instanceof CacheDiagnostics) {
+            CacheDiagnostics diagnostics = (CacheDiagnostics) jaiCache;
+            values.put(KEY_JAI_MEM_USAGE, formatMemory(diagnostics.getCacheMemoryUsed()));
             values.put(
-                    KEY_JAI_MEM_USAGE,
-                    formatMemory(((CacheDiagnostics) jaiCache).getCacheMemoryUsed()));
+                    KEY_JAI_CACHE_HITS,
+                    diagnostics.getCacheHitCount() + " / " + diagnostics.getCacheMissCount());
         } else {
             values.put(KEY_JAI_MEM_USAGE, "-");
+            values.put(KEY_JAI_CACHE_HITS, "-");
+        }
+        if (jaiCache instanceof AccountingTileCache) {
+            StringBuilder sb = new StringBuilder();
+            Map<String, Long> serviceMemory =
+                    new TreeMap<>(((AccountingTileCache) jaiCache).getServiceMemoryUsed());
+            for (Map.Entry<String, Long> entry : serviceMemory.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(entry.getKey()).append(": ").append(formatMemory(entry.getValue()));
+            }
+            values.put(KEY_JAI_SERVICE_MEM_USAGE, sb.length() > 0 ? sb.toString() : "-");
+        } else {
+            values.put(KEY_JAI_SERVICE_MEM_USAGE, "-");
         }
         values.put(
                 KEY_JAI_MEM_THRESHOLD,
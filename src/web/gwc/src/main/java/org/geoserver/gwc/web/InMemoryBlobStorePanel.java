@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.ajax.form.AjaxFormComponentUpdatingBehavior;
 import org.apache.wicket.ajax.markup.html.form.AjaxButton;
@@ -70,6 +71,9 @@ public class InMemoryBlobStorePanel extends Panel {
     /** Key for the cache current/total size */
     public static final String KEY_SIZE = "cacheSize";
 
+    /** Key for the hit rates of the single layers */
+    public static final String KEY_LAYER_HIT_RATES = "layerHitRates";
+
     /** HashMap containing the values for all the statistics values */
     private HashMap<String, String> values;
 
@@ -214,6 +218,8 @@ public class InMemoryBlobStorePanel extends Panel {
         final Label currentMemoryLabel =
                 new Label("currentMemory", new MapModel(values, KEY_CURRENT_MEM));
         final Label cacheSizeLabel = new Label("cacheSize", new MapModel(values, KEY_SIZE));
+        final Label layerHitRatesLabel =
+                new Label("layerHitRates", new MapModel(values, KEY_LAYER_HIT_RATES));
 
         statsContainer.add(totalCountLabel);
         statsContainer.add(hitCountLabel);
@@ -223,6 +229,7 @@ public class InMemoryBlobStorePanel extends Panel {
         statsContainer.add(evictedLabel);
         statsContainer.add(currentMemoryLabel);
         statsContainer.add(cacheSizeLabel);
+        statsContainer.add(layerHitRatesLabel);
 
         AjaxButton statistics =
                 new AjaxButton("statistics") {
@@ -275,6 +282,9 @@ public class InMemoryBlobStorePanel extends Panel {
                                         currentMem >= 0 && actualSize >= 0
                                                 ? actualSize + " / " + totalSize + " Mb"
                                                 : "Unavailable");
+                                values.put(
+                                        KEY_LAYER_HIT_RATES,
+                                        formatLayerHitRates(store.getLayerCacheStatistics()));
                             }
                         } catch (Throwable t) {
                             error(t);
@@ -287,6 +297,27 @@ public class InMemoryBlobStorePanel extends Panel {
         container.add(statistics);
     }
 
+    /** Lists the hit rate and request count of each layer, sorted by layer name */
+    static String formatLayerHitRates(Map<String, CacheStatistics> layerStats) {
+        if (layerStats.isEmpty()) {
+            return "Unavailable";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, CacheStatistics> entry : new TreeMap<>(layerStats).entrySet()) {
+            CacheStatistics stats = entry.getValue();
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(entry.getKey())
+                    .append(": ")
+                    .append(stats.getHitRate())
+                    .append(" % (")
+                    .append(stats.getRequestCount())
+                    .append(")");
+        }
+        return sb.toString();
+    }
+
     /**
      * {@link IValidator} implementation for checking if the value is null, or less or equal to 0
      *
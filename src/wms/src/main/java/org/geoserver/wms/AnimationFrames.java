@@ -0,0 +1,243 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.awt.image.RenderedImage;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.media.jai.RenderedImageList;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+
+/**
+ * The frames of an animation, rendered concurrently on the WMS animator executor and delivered in
+ * order as they are requested. An encoder walking the list can write each frame as soon as it's
+ * ready, while the following ones are still being rendered.
+ *
+ * <p>At most {@link #PARALLELISM_KEY} frames are rendered ahead of the one being requested. The
+ * rendering is stopped when the max animation rendering time, or the max animation rendering size,
+ * are exceeded.
+ */
+public class AnimationFrames extends RenderedImageList {
+
+    /** System variable setting how many frames can be rendered ahead of the encoder */
+    public static final String PARALLELISM_KEY = "org.geoserver.wms.animationParallelism";
+
+    static final int PARALLELISM =
+            Integer.getInteger(PARALLELISM_KEY, Runtime.getRuntime().availableProcessors());
+
+    private final List<FutureTask<RenderedImage>> tasks;
+
+    private final boolean[] accounted;
+
+    private final ExecutorService executor;
+
+    private final int parallelism;
+
+    private final MaxAnimationTimeHelper timeHelper;
+
+    private final Long maxSize;
+
+    private final Thread owner;
+
+    private int submitted;
+
+    private long size;
+
+    private volatile boolean cancelled;
+
+    /**
+     * Builds the frames list, starting the rendering of the first frames
+     *
+     * @param frames The frames renderers, in animation order
+     * @param wms The WMS configuration, providing the executor and the resource limits
+     * @param request The animation request
+     * @param concurrent When false the frames are rendered one at a time in the requesting thread
+     */
+    public AnimationFrames(
+            List<Callable<RenderedImage>> frames,
+            WMS wms,
+            GetMapRequest request,
+            boolean concurrent) {
+        this(frames, wms, new MaxAnimationTimeHelper(wms, request), concurrent);
+    }
+
+    AnimationFrames(
+            List<Callable<RenderedImage>> frames,
+            WMS wms,
+            MaxAnimationTimeHelper timeHelper,
+            boolean concurrent) {
+        this(
+                frames,
+                concurrent ? wms.getAnimatorExecutorService() : null,
+                concurrent ? PARALLELISM : 0,
+                timeHelper,
+                wms.getMaxRenderingSize());
+    }
+
+    AnimationFrames(
+            List<Callable<RenderedImage>> frames,
+            ExecutorService executor,
+            int parallelism,
+            MaxAnimationTimeHelper timeHelper,
+            Long maxSize) {
+        if (frames.isEmpty()) {
+            throw new IllegalArgumentException("Empty list of frames");
+        }
+        this.executor = executor;
+        this.parallelism = executor == null ? 0 : parallelism;
+        this.timeHelper = timeHelper;
+        this.maxSize = maxSize;
+        this.owner = Thread.currentThread();
+        this.accounted = new boolean[frames.size()];
+        this.tasks = new ArrayList<>(frames.size());
+        ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+        for (Callable<RenderedImage> frame : frames) {
+            tasks.add(new FutureTask<>(() -> render(frame, transfer)));
+        }
+        this.imageCollection = new FrameList();
+        schedule(0);
+    }
+
+    private RenderedImage render(Callable<RenderedImage> frame, ThreadLocalsTransfer transfer)
+            throws Exception {
+        timeHelper.checkTimeout();
+        if (Thread.currentThread() == owner) {
+            return frame.call();
+        }
+        transfer.apply();
+        try {
+            return frame.call();
+        } finally {
+            transfer.cleanup();
+        }
+    }
+
+    /** Submits the frames up to the parallelism window following the requested one */
+    private synchronized void schedule(int index) {
+        int last = Math.min(tasks.size(), index + parallelism);
+        while (submitted < last && !cancelled) {
+            try {
+                executor.execute(tasks.get(submitted));
+            } catch (RejectedExecutionException e) {
+                // the frame will be rendered by the requesting thread instead
+            }
+            submitted++;
+        }
+    }
+
+    /**
+     * Returns the frame at the given index, waiting for its rendering to complete. The frame is
+     * null if its rendering produced no image, consumers are expected to skip it.
+     *
+     * @throws ServiceException if the frame rendering failed, or the animation exceeded the
+     *     configured limits
+     */
+    public RenderedImage getFrame(int index) throws ServiceException {
+        if (cancelled) {
+            throw new ServiceException("The animation rendering has been stopped");
+        }
+        schedule(index);
+
+        // renders the frame in this thread if no executor thread picked it up yet
+        FutureTask<RenderedImage> task = tasks.get(index);
+        task.run();
+
+        RenderedImage image;
+        try {
+            long remaining = timeHelper.getRemainingTime();
+            if (remaining == Long.MAX_VALUE) {
+                image = task.get();
+            } else {
+                image = task.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+            }
+            timeHelper.checkTimeout();
+        } catch (TimeoutException e) {
+            cancel();
+            timeHelper.checkTimeout();
+            throw new ServiceException("Timed out waiting for animation frame " + index, e);
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while rendering the animation", e);
+        } catch (ExecutionException e) {
+            cancel();
+            if (e.getCause() instanceof ServiceException) {
+                throw (ServiceException) e.getCause();
+            }
+            throw new ServiceException("Failed to render animation frame " + index, e.getCause());
+        } catch (CancellationException | ServiceException e) {
+            cancel();
+            throw e;
+        }
+
+        // frames that produced no image are skipped by the encoders
+        if (image != null) {
+            accountSize(index, image);
+        }
+
+        return image;
+    }
+
+    private synchronized void accountSize(int index, RenderedImage image) {
+        if (maxSize == null || accounted[index]) {
+            return;
+        }
+        accounted[index] = true;
+        size += getImageSizeInBytes(image);
+        if (size >= maxSize) {
+            cancel();
+            throw new ServiceException("Max rendering size exceed!");
+        }
+    }
+
+    private long getImageSizeInBytes(RenderedImage image) {
+        int tileWidth = image.getTileWidth();
+        int tileLength = image.getNumXTiles();
+        int numBands = image.getSampleModel().getNumBands();
+        int[] sampleSize = image.getSampleModel().getSampleSize();
+
+        return (long) Math.ceil(2 * tileWidth * tileLength * numBands * (sampleSize[0] / 8.0));
+    }
+
+    /**
+     * Stops the rendering of the frames not yet started. Frames being rendered are left to
+     * complete, as interrupting them could close the channels of the underlying stores.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (FutureTask<RenderedImage> task : tasks) {
+            task.cancel(false);
+        }
+    }
+
+    /** The number of frames in the animation */
+    public int getFrameCount() {
+        return tasks.size();
+    }
+
+    /** Read only view of the frames, used as the image collection backing this list */
+    private class FrameList extends AbstractList<RenderedImage> {
+
+        @Override
+        public RenderedImage get(int index) {
+            return getFrame(index);
+        }
+
+        @Override
+        public int size() {
+            return tasks.size();
+        }
+    }
+}
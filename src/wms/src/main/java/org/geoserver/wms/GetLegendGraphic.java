@@ -8,6 +8,7 @@ package org.geoserver.wms;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.legendgraphic.BufferedImageLegendGraphic;
+import org.geoserver.wms.legendgraphic.LegendCache;
 
 /**
  * WMS GetLegendGraphic operation default implementation.
@@ -18,8 +19,15 @@ public class GetLegendGraphic {
 
     private final WMS wms;
 
+    private final LegendCache legendCache;
+
     public GetLegendGraphic(final WMS wms) {
+        this(wms, null);
+    }
+
+    public GetLegendGraphic(final WMS wms, final LegendCache legendCache) {
         this.wms = wms;
+        this.legendCache = legendCache;
     }
 
     /**
@@ -45,7 +53,18 @@ public class GetLegendGraphic {
                     "There is no support for creating legends in " + outputFormat + " format",
                     "InvalidFormat");
         }
+        request.setLegendCache(legendCache);
+        String key = legendCache != null ? legendCache.getLegendKey(request) : null;
+        if (key != null) {
+            Object cached = legendCache.getLegend(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
         Object legend = format.produceLegendGraphic(request);
+        if (key != null) {
+            legendCache.putLegend(key, legend);
+        }
         return legend;
     }
 }
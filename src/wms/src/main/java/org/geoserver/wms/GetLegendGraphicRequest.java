@@ -15,6 +15,7 @@ import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.LegendInfo;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.legendgraphic.LegendCache;
 import org.geotools.feature.NameImpl;
 import org.geotools.styling.Style;
 import org.geotools.util.Converters;
@@ -343,6 +344,8 @@ public class GetLegendGraphicRequest extends WMSRequest {
 
     private WMS wms;
 
+    private LegendCache legendCache;
+
     public GetLegendGraphicRequest() {
         super("GetLegendGraphic");
         this.wms = WMS.get();
@@ -655,4 +658,13 @@ public class GetLegendGraphicRequest extends WMSRequest {
     public void setWms(WMS wms) {
         this.wms = wms;
     }
+
+    /** The cache of the legends and their feature counts, may be null */
+    public LegendCache getLegendCache() {
+        return legendCache;
+    }
+
+    public void setLegendCache(LegendCache legendCache) {
+        this.legendCache = legendCache;
+    }
 }
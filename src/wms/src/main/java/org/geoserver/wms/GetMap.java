@@ -10,9 +10,10 @@ import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.media.jai.RenderedImageList;
 import org.geoserver.catalog.*;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.platform.GeoServerExtensions;
@@ -216,8 +217,6 @@ public class GetMap {
         MaxAnimationTimeHelper maxAnimationTimeHelper = new MaxAnimationTimeHelper(wms, request);
         int maxAllowedFrames = wms.getMaxAllowedFrames();
         if ((numTimes > 1 || singleTimeRange) && isMultivaluedSupported) {
-            WebMap map = null;
-            List<RenderedImage> images = new ArrayList<RenderedImage>();
             if (singleTimeRange) {
                 List<Object> expandTimeList =
                         expandTimeList((DateRange) times.get(0), request, maxAllowedFrames);
@@ -228,66 +227,102 @@ public class GetMap {
                     times = expandTimeList;
                 }
             }
+            List<List<Object>> frameTimes = new ArrayList<>();
+            List<List<Object>> frameElevations = new ArrayList<>();
             for (Object currentTime : times) {
-                maxAnimationTimeHelper.checkTimeout();
-                map =
-                        executeInternal(
-                                mapContent,
-                                request,
-                                delegate,
-                                Arrays.asList(currentTime),
-                                elevations);
-
-                // remove layers to start over again
-                mapContent.layers().clear();
-
-                // collect the layer
-                images.add(((RenderedImageMap) map).getImage());
+                frameTimes.add(Arrays.asList(currentTime));
+                frameElevations.add(elevations);
             }
-            RenderedImageList imageList = new RenderedImageList(images);
-            return new RenderedImageMap(mapContent, imageList, map.getMimeType());
+            return executeAnimation(
+                    mapContent,
+                    request,
+                    delegate,
+                    frameTimes,
+                    frameElevations,
+                    maxAnimationTimeHelper);
         } else if ((numElevations > 1 || singleElevationRange) && isMultivaluedSupported) {
-            WebMap map = null;
-            List<RenderedImage> images = new ArrayList<RenderedImage>();
             if (singleElevationRange) {
                 List<Object> expandElevationList =
                         expandElevationList(
                                 (NumberRange) elevations.get(0), request, maxAllowedFrames);
                 if (expandElevationList.size() == 0) {
-                    map =
-                            executeInternal(
-                                    mapContent,
-                                    request,
-                                    delegate,
-                                    times,
-                                    Arrays.asList(elevations.get(0)));
+                    return executeInternal(
+                            mapContent, request, delegate, times, Arrays.asList(elevations.get(0)));
                 } else {
                     elevations = expandElevationList;
                 }
             }
+            List<List<Object>> frameTimes = new ArrayList<>();
+            List<List<Object>> frameElevations = new ArrayList<>();
             for (Object currentElevation : elevations) {
-                maxAnimationTimeHelper.checkTimeout();
-                map =
-                        executeInternal(
-                                mapContent,
-                                request,
-                                delegate,
-                                times,
-                                Arrays.asList(currentElevation));
-
-                // remove layers to start over again
-                mapContent.layers().clear();
-
-                // collect the layer
-                images.add(((RenderedImageMap) map).getImage());
+                frameTimes.add(times);
+                frameElevations.add(Arrays.asList(currentElevation));
             }
-            RenderedImageList imageList = new RenderedImageList(images);
-            return new RenderedImageMap(mapContent, imageList, map.getMimeType());
+            return executeAnimation(
+                    mapContent,
+                    request,
+                    delegate,
+                    frameTimes,
+                    frameElevations,
+                    maxAnimationTimeHelper);
         } else {
             return executeInternal(mapContent, request, delegate, times, elevations);
         }
     }
 
+    /**
+     * Renders the frames of an animation concurrently, the first one on the request map content,
+     * the others on their own map content. The frames are returned as a list that the encoder can
+     * walk while the following frames are still being rendered.
+     */
+    private WebMap executeAnimation(
+            WMSMapContent mapContent,
+            GetMapRequest request,
+            GetMapOutputFormat delegate,
+            List<List<Object>> frameTimes,
+            List<List<Object>> frameElevations,
+            MaxAnimationTimeHelper maxAnimationTimeHelper) {
+        final AtomicReference<String> mimeType = new AtomicReference<>();
+        List<Callable<RenderedImage>> frames = new ArrayList<>();
+        for (int i = 0; i < frameTimes.size(); i++) {
+            final boolean first = i == 0;
+            final List<Object> times = frameTimes.get(i);
+            final List<Object> elevations = frameElevations.get(i);
+            frames.add(
+                    () -> {
+                        WMSMapContent frameContent = mapContent;
+                        if (!first) {
+                            frameContent = new WMSMapContent(request);
+                            frameContent.setGetMapCallbacks(callbacks);
+                        }
+                        try {
+                            WebMap map =
+                                    executeInternal(
+                                            frameContent, request, delegate, times, elevations);
+                            if (map == null) {
+                                return null;
+                            }
+                            mimeType.compareAndSet(null, map.getMimeType());
+                            return ((RenderedImageMap) map).getImage();
+                        } finally {
+                            // remove layers to start over again
+                            frameContent.layers().clear();
+                            if (!first) {
+                                frameContent.dispose();
+                            }
+                        }
+                    });
+        }
+
+        // the meta tiler is bound to the request, render its frames one at a time
+        boolean concurrent = !(delegate instanceof MetatileMapOutputFormat);
+        AnimationFrames images =
+                new AnimationFrames(frames, wms, maxAnimationTimeHelper, concurrent);
+        // waiting for the first frame sets up the map content, and reports errors before encoding
+        images.getFrame(0);
+        return new RenderedImageMap(mapContent, images, mimeType.get());
+    }
+
     private List<Object> expandTimeList(
             DateRange queryRange, GetMapRequest request, int maxAllowedFrames) {
         TreeSet<Date> result = new TreeSet<>();
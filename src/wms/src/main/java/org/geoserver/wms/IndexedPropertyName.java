@@ -0,0 +1,79 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import org.geotools.filter.AttributeExpressionImpl;
+import org.geotools.util.Converters;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * A property name reading {@link SimpleFeature} attributes by index. The index is looked up once
+ * per feature type and remembered, other kinds of objects, or values that cannot be converted to
+ * the target, are handled by the usual xpath based evaluation.
+ */
+class IndexedPropertyName extends AttributeExpressionImpl {
+
+    /** The last feature type seen, along with the attribute index in it */
+    static final class Binding {
+        final SimpleFeatureType featureType;
+
+        final int index;
+
+        Binding(SimpleFeatureType featureType, int index) {
+            this.featureType = featureType;
+            this.index = index;
+        }
+    }
+
+    volatile Binding binding;
+
+    public IndexedPropertyName(String name) {
+        super(name);
+    }
+
+    /** Returns true if the name is a plain attribute name, without prefixes, steps or predicates */
+    static boolean isSimple(String name) {
+        if (name == null || name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == ':' || c == '/' || c == '@' || c == '[' || c == '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T evaluate(Object object, Class<T> target) {
+        if (object instanceof SimpleFeature) {
+            SimpleFeature feature = (SimpleFeature) object;
+            int index = getIndex(feature.getFeatureType());
+            if (index >= 0) {
+                Object value = feature.getAttribute(index);
+                if (value == null || target == null || target.isInstance(value)) {
+                    return (T) value;
+                }
+                T converted = Converters.convert(value, target);
+                if (converted != null) {
+                    return converted;
+                }
+            }
+        }
+        return super.evaluate(object, target);
+    }
+
+    private int getIndex(SimpleFeatureType featureType) {
+        Binding current = binding;
+        if (current == null || current.featureType != featureType) {
+            current = new Binding(featureType, featureType.indexOf(getPropertyName()));
+            binding = current;
+        }
+        return current.index;
+    }
+}
@@ -177,7 +177,7 @@ public final class MapLayerInfo {
     public Style getDefaultStyle() {
         if (layerInfo != null) {
             try {
-                return layerInfo.getDefaultStyle().getStyle();
+                return StyleCompiler.getStyle(layerInfo.getDefaultStyle());
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
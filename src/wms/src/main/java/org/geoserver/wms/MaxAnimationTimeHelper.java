@@ -26,12 +26,7 @@ class MaxAnimationTimeHelper {
 
     /** If the timeout has been reached, a {@link ServiceException} will be returned instead */
     public void checkTimeout() throws ServiceException {
-        if (maxRenderingTime <= 0) {
-            return;
-        }
-        final int elapsed = (int) (System.currentTimeMillis() - requestStart);
-        int residual = maxRenderingTime - elapsed;
-        if (residual <= 0) {
+        if (getRemainingTime() <= 0) {
             throw new ServiceException(
                     "This animation request used more time than allowed and has been forcefully stopped. "
                             + "The max animation rendering time is "
@@ -39,4 +34,13 @@ class MaxAnimationTimeHelper {
                             + "s");
         }
     }
+
+    /** The milliseconds left before the timeout, or {@link Long#MAX_VALUE} if there is no limit */
+    public long getRemainingTime() {
+        if (maxRenderingTime <= 0) {
+            return Long.MAX_VALUE;
+        }
+        final long elapsed = System.currentTimeMillis() - requestStart;
+        return maxRenderingTime - elapsed;
+    }
 }
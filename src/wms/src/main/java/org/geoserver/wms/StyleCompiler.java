@@ -0,0 +1,202 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.catalog.StyleInfo;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.filter.visitor.SimplifyingFilterVisitor;
+import org.geotools.styling.Style;
+import org.geotools.styling.visitor.DuplicatingStyleVisitor;
+import org.geotools.util.logging.Logging;
+import org.opengis.filter.expression.Add;
+import org.opengis.filter.expression.BinaryExpression;
+import org.opengis.filter.expression.Divide;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Function;
+import org.opengis.filter.expression.InternalFunction;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.Multiply;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.expression.Subtract;
+
+/**
+ * Prepares the styles used by the WMS operations for rendering: filters are simplified, constant
+ * expressions are folded into literals and simple attribute references are turned into {@link
+ * IndexedPropertyName} instances, which read {@link org.opengis.feature.simple.SimpleFeature}
+ * attributes by index. Rules are kept in their original order, as it defines the painting order.
+ *
+ * <p>Compiled styles are shared by all requests, so only math expressions and the functions listed
+ * in {@link #PURE_FUNCTIONS} are folded, other functions with literal arguments might depend on
+ * the data or the request (e.g., the querylayer {@code querySingle} function) and are evaluated at
+ * rendering time, as usual.
+ *
+ * <p>The compiled styles are cached by identity on the style parsed by the {@link
+ * org.geoserver.catalog.ResourcePool}, so that they are dropped as soon as the resource pool
+ * releases the original. The compilation can be disabled with the {@code
+ * org.geoserver.wms.styleCompilation} system variable.
+ */
+public class StyleCompiler {
+
+    static final Logger LOGGER = Logging.getLogger(StyleCompiler.class);
+
+    /** Enables the style compilation, true by default */
+    public static boolean STYLE_COMPILATION_ENABLED =
+            Boolean.valueOf(System.getProperty("org.geoserver.wms.styleCompilation", "true"));
+
+    /**
+     * Functions whose result depends only on their arguments, which can be evaluated once when
+     * all of their arguments are literals
+     */
+    static final Set<String> PURE_FUNCTIONS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        PURE_FUNCTIONS.addAll(
+                Arrays.asList(
+                        // math
+                        "abs", "abs_2", "abs_3", "abs_4", "acos", "asin", "atan", "atan2", "ceil",
+                        "cos", "exp", "floor", "IEEEremainder", "log", "max", "max_2", "max_3",
+                        "max_4", "min", "min_2", "min_3", "min_4", "pow", "rint", "round",
+                        "round_2", "roundDouble", "sin", "sqrt", "tan", "toDegrees", "toRadians",
+                        // conversions
+                        "double2bool", "int2bbool", "int2ddouble", "parseBoolean", "parseDouble",
+                        "parseInt", "parseLong", "numberFormat", "numberFormat2",
+                        // strings
+                        "Concatenate", "strAbbreviate", "strCapitalize", "strConcat",
+                        "strDefaultIfBlank", "strEndsWith", "strEqualsIgnoreCase", "strIndexOf",
+                        "strLastIndexOf", "strLength", "strMatches", "strReplace",
+                        "strStartsWith", "strStripAccents", "strSubstring", "strSubstringStart",
+                        "strToLowerCase", "strToUpperCase", "strTrim", "strTrim2",
+                        // comparisons and logic
+                        "between", "equalTo", "greaterEqualThan", "greaterThan", "if_then_else",
+                        "in", "in2", "in3", "in4", "in5", "in6", "in7", "in8", "in9", "in10",
+                        "isNull", "lessEqualThan", "lessThan", "not", "notEqualTo",
+                        // styling
+                        "Categorize", "Interpolate", "Recode", "darken", "desaturate",
+                        "grayscale", "lighten", "mix", "saturate", "shade", "spin", "tint"));
+    }
+
+    static final Cache<Style, Style> COMPILED_STYLES =
+            CacheBuilder.newBuilder().weakKeys().recordStats().build();
+
+    /**
+     * Returns the compiled version of the style, or the original one if the compilation is
+     * disabled
+     */
+    public static Style getStyle(StyleInfo styleInfo) throws IOException {
+        Style style = styleInfo.getStyle();
+        if (style == null || !STYLE_COMPILATION_ENABLED) {
+            return style;
+        }
+        try {
+            return COMPILED_STYLES.get(style, () -> compile(style));
+        } catch (ExecutionException | RuntimeException e) {
+            LOGGER.log(
+                    Level.FINE,
+                    "Could not compile style " + styleInfo.getName() + ", using it as is",
+                    e);
+            return style;
+        }
+    }
+
+    /** Returns an optimized copy of the style */
+    public static Style compile(Style style) {
+        DuplicatingStyleVisitor compiler =
+                new DuplicatingStyleVisitor(
+                        CommonFactoryFinder.getStyleFactory(),
+                        CommonFactoryFinder.getFilterFactory2(),
+                        new CompilingFilterVisitor());
+        style.accept(compiler);
+        return (Style) compiler.getCopy();
+    }
+
+    /** Returns the statistics of the compiled styles cache */
+    public static CacheStats getStats() {
+        return COMPILED_STYLES.stats();
+    }
+
+    /** Drops all the compiled styles */
+    public static void clear() {
+        COMPILED_STYLES.invalidateAll();
+    }
+
+    /**
+     * Simplifies the filters and evaluates pure functions and math expressions with literal
+     * arguments, while replacing the simple property names with their indexed version
+     */
+    static class CompilingFilterVisitor extends SimplifyingFilterVisitor {
+
+        @Override
+        public Object visit(Function function, Object extraData) {
+            if (function.getName() != null && PURE_FUNCTIONS.contains(function.getName())) {
+                return super.visit(function, extraData);
+            }
+            // copied as is, compiling the arguments only
+            List<Expression> parameters = function.getParameters();
+            Expression[] args = new Expression[parameters.size()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = visit(parameters.get(i), extraData);
+            }
+            if (function instanceof InternalFunction) {
+                return ((InternalFunction) function).duplicate(args);
+            }
+            return getFactory(extraData).function(function.getName(), args);
+        }
+
+        @Override
+        public Object visit(PropertyName expression, Object extraData) {
+            if (expression.getNamespaceContext() == null
+                    && IndexedPropertyName.isSimple(expression.getPropertyName())) {
+                return new IndexedPropertyName(expression.getPropertyName());
+            }
+            return super.visit(expression, extraData);
+        }
+
+        @Override
+        public Object visit(Add expression, Object extraData) {
+            return fold(super.visit(expression, extraData));
+        }
+
+        @Override
+        public Object visit(Subtract expression, Object extraData) {
+            return fold(super.visit(expression, extraData));
+        }
+
+        @Override
+        public Object visit(Multiply expression, Object extraData) {
+            return fold(super.visit(expression, extraData));
+        }
+
+        @Override
+        public Object visit(Divide expression, Object extraData) {
+            return fold(super.visit(expression, extraData));
+        }
+
+        private Object fold(Object result) {
+            if (result instanceof BinaryExpression) {
+                BinaryExpression be = (BinaryExpression) result;
+                Expression e1 = be.getExpression1();
+                Expression e2 = be.getExpression2();
+                if (e1 instanceof Literal && e2 instanceof Literal) {
+                    Object value = be.evaluate(null);
+                    if (value != null) {
+                        return ff.literal(value);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -54,8 +54,11 @@ import org.geoserver.wms.WMSInfo.WMSInterpolation;
 import org.geoserver.wms.WatermarkInfo.Position;
 import org.geoserver.wms.dimension.DimensionDefaultValueSelectionStrategy;
 import org.geoserver.wms.dimension.DimensionDefaultValueSelectionStrategyFactory;
+import org.geoserver.wms.dimension.DimensionDomain;
+import org.geoserver.wms.dimension.DimensionDomainCache;
 import org.geoserver.wms.dimension.DimensionFilterBuilder;
 import org.geoserver.wms.featureinfo.GetFeatureInfoOutputFormat;
+import org.geoserver.wms.map.LabelRegionCache;
 import org.geoserver.wms.map.RenderedImageMapOutputFormat;
 import org.geoserver.wms.map.RenderedImageMapResponse;
 import org.geotools.coverage.grid.io.GridCoverage2DReader;
@@ -64,9 +67,6 @@ import org.geotools.data.Query;
 import org.geotools.data.ows.OperationType;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.FeatureCollection;
-import org.geotools.feature.visitor.CalcResult;
-import org.geotools.feature.visitor.MaxVisitor;
-import org.geotools.feature.visitor.MinVisitor;
 import org.geotools.feature.visitor.UniqueVisitor;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.ows.wms.Layer;
@@ -256,6 +256,10 @@ public class WMS implements ApplicationContextAware {
 
     private DimensionDefaultValueSelectionStrategyFactory defaultDimensionValueFactory;
 
+    private DimensionDomainCache dimensionDomainCache = new DimensionDomainCache();
+
+    private LabelRegionCache labelRegionCache = new LabelRegionCache();
+
     public WMS(GeoServer geoserver) {
         this.geoserver = geoserver;
     }
@@ -270,7 +274,7 @@ public class WMS implements ApplicationContextAware {
 
     public Style getStyleByName(String styleName) throws IOException {
         StyleInfo styleInfo = getCatalog().getStyleByName(styleName);
-        return styleInfo == null ? null : styleInfo.getStyle();
+        return styleInfo == null ? null : StyleCompiler.getStyle(styleInfo);
     }
 
     public LayerInfo getLayerByName(String layerName) {
@@ -842,6 +846,20 @@ public class WMS implements ApplicationContextAware {
                 GeoServerExtensions.extensions(DimensionDefaultValueSelectionStrategyFactory.class)
                         .get(0);
 
+        // get the vector dimension domain cache, if configured
+        DimensionDomainCache domainCache =
+                GeoServerExtensions.bean(DimensionDomainCache.class, applicationContext);
+        if (domainCache != null) {
+            dimensionDomainCache = domainCache;
+        }
+
+        // get the label region cache, if configured
+        LabelRegionCache regionCache =
+                GeoServerExtensions.bean(LabelRegionCache.class, applicationContext);
+        if (regionCache != null) {
+            labelRegionCache = regionCache;
+        }
+
         // enable/disable map wrapping
         if (ENABLE_MAP_WRAPPING == null) {
             String wrapping =
@@ -1295,34 +1313,21 @@ public class WMS implements ApplicationContextAware {
                     "Layer " + typeInfo.prefixedName() + " does not have time support enabled");
         }
 
-        FeatureCollection collection = getDimensionCollection(typeInfo, time);
+        boolean list = time.getPresentation() == DimensionPresentation.LIST;
+        DimensionDomain domain = dimensionDomainCache.getDomain(typeInfo, time, list);
 
         TreeSet<Date> result = new TreeSet<Date>();
-        if (time.getPresentation() == DimensionPresentation.LIST) {
-            final UniqueVisitor visitor = new UniqueVisitor(time.getAttribute());
-            collection.accepts(visitor, null);
-
-            @SuppressWarnings("unchecked")
-            Set<Date> values = visitor.getUnique();
-            if (values.size() <= 0) {
+        if (list) {
+            if (domain.isEmpty()) {
                 result = null;
             } else {
-                // we might get null values out of the visitor, strip them
-                values.remove(null);
-                result.addAll(values);
-            }
-        } else {
-            final MinVisitor min = new MinVisitor(time.getAttribute());
-            collection.accepts(min, null);
-            CalcResult minResult = min.getResult();
-            // check calcresult first to avoid potential IllegalStateException if no features are in
-            // collection
-            if (minResult != CalcResult.NULL_RESULT) {
-                result.add((Date) min.getMin());
-                final MaxVisitor max = new MaxVisitor(time.getAttribute());
-                collection.accepts(max, null);
-                result.add((Date) max.getMax());
+                for (Object value : domain.getValues()) {
+                    result.add((Date) value);
+                }
             }
+        } else if (!domain.isEmpty()) {
+            result.add((Date) domain.getMinimum());
+            result.add((Date) domain.getMaximum());
         }
 
         return result;
@@ -1379,36 +1384,24 @@ public class WMS implements ApplicationContextAware {
                             + " does not have elevation support enabled");
         }
 
-        FeatureCollection collection = getDimensionCollection(typeInfo, elevation);
+        boolean list =
+                elevation.getPresentation() == DimensionPresentation.LIST
+                        || (elevation.getPresentation() == DimensionPresentation.DISCRETE_INTERVAL
+                                && elevation.getResolution() == null);
+        DimensionDomain domain = dimensionDomainCache.getDomain(typeInfo, elevation, list);
 
         TreeSet<Double> result = new TreeSet<Double>();
-        if (elevation.getPresentation() == DimensionPresentation.LIST
-                || (elevation.getPresentation() == DimensionPresentation.DISCRETE_INTERVAL
-                        && elevation.getResolution() == null)) {
-            final UniqueVisitor visitor = new UniqueVisitor(elevation.getAttribute());
-            collection.accepts(visitor, null);
-
-            @SuppressWarnings("unchecked")
-            Set<Object> values = visitor.getUnique();
-            if (values.size() <= 0) {
+        if (list) {
+            if (domain.isEmpty()) {
                 result = null;
             } else {
-                for (Object value : values) {
+                for (Object value : domain.getValues()) {
                     result.add(((Number) value).doubleValue());
                 }
             }
-        } else {
-            final MinVisitor min = new MinVisitor(elevation.getAttribute());
-            collection.accepts(min, null);
-            // check calcresult first to avoid potential IllegalStateException if no features are in
-            // collection
-            CalcResult calcResult = min.getResult();
-            if (calcResult != CalcResult.NULL_RESULT) {
-                result.add(((Number) min.getMin()).doubleValue());
-                final MaxVisitor max = new MaxVisitor(elevation.getAttribute());
-                collection.accepts(max, null);
-                result.add(((Number) max.getMax()).doubleValue());
-            }
+        } else if (!domain.isEmpty()) {
+            result.add(((Number) domain.getMinimum()).doubleValue());
+            result.add(((Number) domain.getMaximum()).doubleValue());
         }
 
         return result;
@@ -1553,22 +1546,19 @@ public class WMS implements ApplicationContextAware {
         }
     }
 
-    /**
-     * Returns the collection of all values of the dimension attribute, eventually sorted if the
-     * native capabilities allow for it
-     *
-     * @param typeInfo
-     * @param dimension
-     * @throws IOException
-     */
-    FeatureCollection getDimensionCollection(FeatureTypeInfo typeInfo, DimensionInfo dimension)
-            throws IOException {
-        FeatureSource source = getFeatureSource(typeInfo);
+    /** Returns the cache of the vector dimension domains */
+    public DimensionDomainCache getDimensionDomainCache() {
+        return dimensionDomainCache;
+    }
+
+    /** Returns the cache of the labels of tiled maps */
+    public LabelRegionCache getLabelRegionCache() {
+        return labelRegionCache;
+    }
 
-        // build query to grab the dimension values
-        final Query dimQuery = new Query(source.getSchema().getName().getLocalPart());
-        dimQuery.setPropertyNames(Arrays.asList(dimension.getAttribute()));
-        return source.getFeatures(dimQuery);
+    /** Sets the cache of the labels of tiled maps */
+    public void setLabelRegionCache(LabelRegionCache labelRegionCache) {
+        this.labelRegionCache = labelRegionCache;
     }
 
     /** Returns the feature source for the given feature type */
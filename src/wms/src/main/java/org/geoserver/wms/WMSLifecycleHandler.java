@@ -5,6 +5,7 @@
  */
 package org.geoserver.wms;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.awt.*;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -37,6 +38,9 @@ public class WMSLifecycleHandler implements GeoServerLifecycleHandler, Applicati
 
     static final Logger LOGGER = Logging.getLogger(WMSLifecycleHandler.class);
 
+    /** System variable setting the number of threads rendering animation frames */
+    public static final String ANIMATOR_THREADS_KEY = "org.geoserver.wms.animatorThreads";
+
     GeoServerDataDirectory data;
     WMS wmsConfig;
 
@@ -77,21 +81,27 @@ public class WMSLifecycleHandler implements GeoServerLifecycleHandler, Applicati
         resetAnimatorExecutorService();
     }
 
-    /** Shutting down pending tasks and resetting the executor service timeout. */
+    /** Shutting down pending tasks and resetting the executor service. */
     private void resetAnimatorExecutorService() {
         shutdownAnimatorExecutorService();
 
-        Long framesTimeout =
-                this.wmsConfig.getMaxAnimatorRenderingTime() != null
-                        ? this.wmsConfig.getMaxAnimatorRenderingTime()
-                        : Long.MAX_VALUE;
-        ExecutorService animatorExecutorService =
+        // bounded pool, the frames rendering time is limited by the animation frames list
+        int threads =
+                Integer.getInteger(
+                        ANIMATOR_THREADS_KEY,
+                        Math.max(4, Runtime.getRuntime().availableProcessors()));
+        ThreadPoolExecutor animatorExecutorService =
                 new ThreadPoolExecutor(
-                        4,
-                        20,
-                        framesTimeout,
-                        TimeUnit.MILLISECONDS,
-                        new LinkedBlockingQueue<Runnable>());
+                        threads,
+                        threads,
+                        60,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new ThreadFactoryBuilder()
+                                .setDaemon(true)
+                                .setNameFormat("GeoServer animator %d")
+                                .build());
+        animatorExecutorService.allowCoreThreadTimeOut(true);
 
         this.wmsConfig.setAnimatorExecutorService(animatorExecutorService);
     }
@@ -11,18 +11,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
 import javax.media.jai.RenderedImageList;
 import org.apache.commons.beanutils.BeanUtils;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.util.CaseInsensitiveMap;
 import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.wms.AnimationFrames;
 import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapProducerCapabilities;
@@ -34,8 +31,8 @@ import org.geoserver.wms.map.RenderedImageMapResponse;
 
 /**
  * The Frame Visitor contains the logic to produce frame images.<br>
- * The "visit" method initializes the runnables and the animatorExecutor service, while the
- * "produce" method runs the tasks and generated the frames images.
+ * The "visit" method collects the frame loaders, while the "produce" method returns the list of
+ * frames, rendered concurrently on the animatorExecutor service and delivered in order.
  *
  * @author Alessio Fabiani, GeoSolutions S.A.S., alessio.fabiani@geo-solutions.it
  * @author Andrea Aime, GeoSolutions S.A.S., andrea.aime@geo-solutions.it
@@ -45,12 +42,14 @@ public class FrameCatalogVisitor {
     /** total number of available frames for this visitor */
     int framesNumber;
 
-    /** the list of runnables to be executed */
-    List<Future<RenderedImage>> tasks;
+    /** the list of frame loaders to be executed */
+    List<Callable<RenderedImage>> tasks;
+
+    /** the animation request */
+    GetMapRequest request;
 
     /**
-     * Adds a new visitor to the runnables list and initializes the animatorExecutor service is not
-     * yet initialied.
+     * Adds a new frame loader to the tasks list.
      *
      * @param request
      * @param wms
@@ -65,82 +64,36 @@ public class FrameCatalogVisitor {
             String aparam,
             String avalue) {
         if (this.tasks == null) {
-            this.tasks = new LinkedList<Future<RenderedImage>>();
+            this.tasks = new ArrayList<Callable<RenderedImage>>();
+            this.request = request;
         }
 
-        FrameLoader loader = new FrameLoader(request, wms, wmsConfiguration, aparam, avalue);
-
-        final FutureTask<RenderedImage> task = new FutureTask<RenderedImage>(loader);
-        this.tasks.add(task);
+        this.tasks.add(new FrameLoader(request, wms, wmsConfiguration, aparam, avalue));
         this.framesNumber++;
-
-        // run the loading in this thread
-        wmsConfiguration.getAnimatorExecutorService().execute(task);
     }
 
     /**
-     * Invokes the Executor service and produces the frames images.
+     * Returns the frames images, rendered concurrently while the caller consumes them in order.
      *
      * @param wmsConfiguration
      * @throws IOException
      */
     public RenderedImageList produce(WMS wmsConfiguration) throws IOException {
-        List<RenderedImage> images = new ArrayList<RenderedImage>();
-
-        long gifAnimatedSize = 0;
-
-        for (Future<RenderedImage> future : tasks) {
-            RenderedImage image = null;
-            try {
-                image = future.get();
-            } catch (InterruptedException e) {
-                dispose();
-                throw new IOException(e);
-            } catch (ExecutionException e) {
-                dispose();
-                throw new IOException(e);
-            }
-
-            if (image == null) {
-                continue;
-            }
-
-            // collect the images
-            gifAnimatedSize += getImageSizeInBytes(image);
-            if (wmsConfiguration.getMaxRenderingSize() != null
-                    && gifAnimatedSize >= wmsConfiguration.getMaxRenderingSize()) {
-                dispose();
-                throw new IOException("Max rendering size exceed!");
-            }
-
-            images.add(image);
-        }
-
-        if (images == null || images.size() == 0) {
+        if (tasks == null || tasks.size() == 0) {
             dispose();
             throw new IOException("Empty list of frames.");
         }
 
+        AnimationFrames frames = new AnimationFrames(tasks, wmsConfiguration, request, true);
         dispose();
-        return new RenderedImageList(images);
-    }
-
-    private long getImageSizeInBytes(RenderedImage image) {
-        int tileWidth = image.getTileWidth();
-        int tileLength = image.getNumXTiles();
-        int numBands = image.getSampleModel().getNumBands();
-        int[] sampleSize = image.getSampleModel().getSampleSize();
-
-        return (long) Math.ceil(2 * tileWidth * tileLength * numBands * (sampleSize[0] / 8.0));
+        return frames;
     }
 
-    /** Suddenly stops the Executor service and clear instantiated visitors. */
+    /** Clears the collected frame loaders. */
     private void dispose() {
         this.framesNumber = 0;
-
-        if (this.tasks != null) this.tasks.clear();
-
         this.tasks = null;
+        this.request = null;
     }
 }
 
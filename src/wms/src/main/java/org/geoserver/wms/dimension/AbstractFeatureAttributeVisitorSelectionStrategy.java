@@ -10,7 +10,9 @@ import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.geoserver.catalog.DimensionInfo;
+import org.geoserver.catalog.DimensionPresentation;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
@@ -59,6 +61,28 @@ public abstract class AbstractFeatureAttributeVisitorSelectionStrategy
         return retval;
     }
 
+    /**
+     * Returns the domain of the given dimension out of the {@link DimensionDomainCache}, or null if
+     * the cache is not enabled, in which case the default value should be computed with a {@link
+     * FeatureCalc}
+     *
+     * @param typeInfo
+     * @param dimension
+     */
+    protected DimensionDomain getCachedDomain(FeatureTypeInfo typeInfo, DimensionInfo dimension) {
+        DimensionDomainCache cache = GeoServerExtensions.bean(DimensionDomainCache.class);
+        if (cache == null || !cache.isEnabled()) {
+            return null;
+        }
+        try {
+            boolean values = dimension.getPresentation() == DimensionPresentation.LIST;
+            return cache.getDomain(typeInfo, dimension, values);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+            return null;
+        }
+    }
+
     private FeatureCollection<?, ?> getDimensionCollection(
             FeatureTypeInfo typeInfo, DimensionInfo dimension) throws IOException {
         // grab the feature source
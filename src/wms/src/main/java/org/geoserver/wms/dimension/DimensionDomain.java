@@ -0,0 +1,131 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.dimension;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The domain of a vector dimension, made of its minimum and maximum values and, optionally, of
+ * all its distinct values, kept as a sorted array.
+ */
+public class DimensionDomain {
+
+    /** The domain of a dimension without values */
+    public static final DimensionDomain EMPTY = new DimensionDomain(null, null, new Object[0]);
+
+    private final Object minimum;
+
+    private final Object maximum;
+
+    private final Object[] values;
+
+    private DimensionDomain(Object minimum, Object maximum, Object[] values) {
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.values = values;
+    }
+
+    /** Builds a domain knowing only its minimum and maximum values */
+    public static DimensionDomain range(Object minimum, Object maximum) {
+        if (minimum == null || maximum == null) {
+            return EMPTY;
+        }
+        return new DimensionDomain(minimum, maximum, null);
+    }
+
+    /** Builds a domain out of its distinct values, null values are ignored */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static DimensionDomain values(Collection<?> values) {
+        Object[] sorted = values.stream().filter(v -> v != null).toArray();
+        if (sorted.length == 0) {
+            return EMPTY;
+        }
+        Arrays.sort(sorted, (a, b) -> ((Comparable) a).compareTo(b));
+        return new DimensionDomain(sorted[0], sorted[sorted.length - 1], sorted);
+    }
+
+    /** Returns true if the dimension has no values */
+    public boolean isEmpty() {
+        return minimum == null;
+    }
+
+    /** The smallest value, or null if the domain is empty */
+    public Object getMinimum() {
+        return minimum;
+    }
+
+    /** The largest value, or null if the domain is empty */
+    public Object getMaximum() {
+        return maximum;
+    }
+
+    /** Returns true if the distinct values are known, not just the range */
+    public boolean hasValues() {
+        return values != null;
+    }
+
+    /** The sorted distinct values, or null if only the range is known */
+    public List<Object> getValues() {
+        return values == null ? null : Collections.unmodifiableList(Arrays.asList(values));
+    }
+
+    /**
+     * Returns the domain value nearest to the reference one, or null if it cannot be determined
+     * from the domain: it's empty, the reference is not a date or a number, or only the range is
+     * known and the reference falls inside it. Equally distant values resolve to the lower one.
+     */
+    public Object getNearest(Object reference) {
+        if (isEmpty() || distance(minimum, reference) == null) {
+            return null;
+        }
+        if (distance(reference, minimum) >= 0) {
+            return minimum;
+        } else if (distance(maximum, reference) >= 0) {
+            return maximum;
+        } else if (values == null) {
+            return null;
+        }
+
+        // binary search the first value above the reference
+        int low = 0;
+        int high = values.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (distance(reference, values[mid]) > 0) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        Object above = values[low];
+        Object below = values[low - 1];
+        return distance(below, reference) <= distance(reference, above) ? below : above;
+    }
+
+    /** The signed distance from the first value to the second, or null if not supported */
+    private static Double distance(Object from, Object to) {
+        if (from instanceof Date && to instanceof Date) {
+            return (double) (((Date) to).getTime() - ((Date) from).getTime());
+        } else if (from instanceof Number && to instanceof Number) {
+            return ((Number) to).doubleValue() - ((Number) from).doubleValue();
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "DimensionDomain [minimum="
+                + minimum
+                + ", maximum="
+                + maximum
+                + ", values="
+                + (values == null ? "unknown" : String.valueOf(values.length))
+                + "]";
+    }
+}
@@ -0,0 +1,468 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.dimension;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.DimensionInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.AccessLimits;
+import org.geoserver.security.DataAccessLimits;
+import org.geoserver.security.VectorAccessLimits;
+import org.geoserver.security.decorators.SecuredFeatureTypeInfo;
+import org.geotools.data.FeatureEvent;
+import org.geotools.data.FeatureListener;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.visitor.CalcResult;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.feature.visitor.UniqueVisitor;
+import org.geotools.util.factory.GeoTools;
+import org.geotools.util.logging.Logging;
+import org.opengis.filter.Filter;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Caches the domains of the dimensions of vector layers, so that capabilities documents and
+ * default value selections do not scan the whole feature type at every request.
+ *
+ * <p>Domains are kept for a configurable time, set in seconds by the {@link #TTL_KEY} variable,
+ * the cache is disabled when it's missing or zero. Domains are dropped when the feature type or
+ * its store are modified or removed in the catalog, and when the feature source notifies a change
+ * of its contents (e.g., a WFS transaction). Changes made behind the back of GeoServer are picked
+ * up when the domain expires. If the {@link #REFRESH_KEY} variable is true, expired domains are
+ * still returned, while a new one is computed in the background.
+ *
+ * <p>Layers whose data is filtered by the security subsystem are never cached, as their domains
+ * depend on the user.
+ */
+public class DimensionDomainCache implements CatalogListener, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(DimensionDomainCache.class);
+
+    /** Variable setting how long domains are cached, in seconds */
+    public static final String TTL_KEY = "org.geoserver.wms.dimensionDomainCacheTTL";
+
+    /** Variable enabling the background refresh of expired domains */
+    public static final String REFRESH_KEY = "org.geoserver.wms.dimensionDomainCacheRefresh";
+
+    private final long timeToLive;
+
+    private final boolean backgroundRefresh;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Map<String, FutureTask<DimensionDomain>> inFlight = new ConcurrentHashMap<>();
+
+    private final Map<String, ChangeListener> listeners = new ConcurrentHashMap<>();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong refreshes = new AtomicLong();
+
+    private ExecutorService refresher;
+
+    private Catalog catalog;
+
+    /** Builds a disabled cache, which computes the domains at every request */
+    public DimensionDomainCache() {
+        this(0, false);
+    }
+
+    /**
+     * Builds a cache configured by the {@link #TTL_KEY} and {@link #REFRESH_KEY} variables,
+     * listening to the catalog changes
+     */
+    public DimensionDomainCache(Catalog catalog) {
+        this(
+                getLong(GeoServerExtensions.getProperty(TTL_KEY)) * 1000,
+                Boolean.valueOf(GeoServerExtensions.getProperty(REFRESH_KEY)));
+        this.catalog = catalog;
+        catalog.addListener(this);
+    }
+
+    /**
+     * Builds a new cache
+     *
+     * @param timeToLive How long domains are cached, in milliseconds, zero disables the cache
+     * @param backgroundRefresh If true, expired domains are refreshed in the background
+     */
+    public DimensionDomainCache(long timeToLive, boolean backgroundRefresh) {
+        this.timeToLive = timeToLive;
+        this.backgroundRefresh = backgroundRefresh;
+        if (timeToLive > 0 && backgroundRefresh) {
+            refresher =
+                    Executors.newSingleThreadExecutor(
+                            new ThreadFactoryBuilder()
+                                    .setDaemon(true)
+                                    .setNameFormat("GeoServer dimension domain refresh %d")
+                                    .build());
+        }
+    }
+
+    private static long getLong(String value) {
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + TTL_KEY + ": " + value);
+            }
+        }
+        return 0;
+    }
+
+    /** Returns true if domains are going to be cached */
+    public boolean isEnabled() {
+        return timeToLive > 0;
+    }
+
+    /**
+     * Returns the domain of the dimension
+     *
+     * @param typeInfo The layer
+     * @param dimension The dimension configuration
+     * @param values If true, the domain will contain all the distinct values of the dimension,
+     *     otherwise it may contain just its range
+     */
+    public DimensionDomain getDomain(
+            FeatureTypeInfo typeInfo, DimensionInfo dimension, boolean values) throws IOException {
+        if (!isEnabled() || !isCacheable(typeInfo)) {
+            return load(typeInfo, dimension, values);
+        }
+
+        String key = typeInfo.getId() + "/" + dimension.getAttribute();
+        Entry entry = entries.get(key);
+        if (entry != null && (!values || entry.domain.hasValues())) {
+            if (System.currentTimeMillis() - entry.loaded < timeToLive) {
+                hits.incrementAndGet();
+                return entry.domain;
+            } else if (backgroundRefresh) {
+                hits.incrementAndGet();
+                refresh(key, entry, typeInfo, dimension);
+                return entry.domain;
+            }
+        }
+
+        misses.incrementAndGet();
+        return load(key, typeInfo, dimension, values);
+    }
+
+    /** Returns true if the domain of the layer does not depend on the user */
+    private boolean isCacheable(FeatureTypeInfo typeInfo) {
+        if (typeInfo.getId() == null) {
+            return false;
+        } else if (typeInfo instanceof SecuredFeatureTypeInfo) {
+            SecuredFeatureTypeInfo secured = (SecuredFeatureTypeInfo) typeInfo;
+            AccessLimits limits = secured.getWrapperPolicy().getLimits();
+            if (limits == null) {
+                return true;
+            } else if (!(limits instanceof DataAccessLimits)) {
+                return false;
+            }
+            Filter filter = ((DataAccessLimits) limits).getReadFilter();
+            return (filter == null || filter == Filter.INCLUDE)
+                    && !(limits instanceof VectorAccessLimits
+                            && ((VectorAccessLimits) limits).getReadAttributes() != null);
+        }
+        return true;
+    }
+
+    /** Loads the domain and caches it, sharing the load with concurrent identical requests */
+    private DimensionDomain load(
+            String key, FeatureTypeInfo typeInfo, DimensionInfo dimension, boolean values)
+            throws IOException {
+        String loadKey = key + (values ? "/values" : "/range");
+        FutureTask<DimensionDomain> task =
+                new FutureTask<>(() -> loadEntry(key, typeInfo, dimension, values));
+        FutureTask<DimensionDomain> running = inFlight.putIfAbsent(loadKey, task);
+        if (running != null) {
+            return get(running);
+        }
+        try {
+            task.run();
+            return get(task);
+        } finally {
+            inFlight.remove(loadKey, task);
+        }
+    }
+
+    private DimensionDomain loadEntry(
+            String key, FeatureTypeInfo typeInfo, DimensionInfo dimension, boolean values)
+            throws IOException {
+        long invalidationCount = invalidations.get();
+        FeatureSource<?, ?> source = getFeatureSource(typeInfo);
+        listeners.computeIfAbsent(typeInfo.getId(), id -> new ChangeListener(id, source));
+        DimensionDomain domain = load(source, dimension.getAttribute(), values);
+        // don't cache domains computed while the data was changing
+        if (invalidations.get() == invalidationCount) {
+            String storeId = typeInfo.getStore() != null ? typeInfo.getStore().getId() : null;
+            entries.put(key, new Entry(typeInfo.getId(), storeId, domain));
+        }
+        return domain;
+    }
+
+    private DimensionDomain get(FutureTask<DimensionDomain> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the dimension domain", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void refresh(
+            String key, Entry entry, FeatureTypeInfo typeInfo, DimensionInfo dimension) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        refresher.execute(
+                () -> {
+                    try {
+                        load(key, typeInfo, dimension, entry.domain.hasValues());
+                        refreshes.incrementAndGet();
+                    } catch (Exception e) {
+                        LOGGER.log(
+                                Level.WARNING,
+                                "Failed to refresh the domain of dimension "
+                                        + dimension.getAttribute()
+                                        + " of layer "
+                                        + typeInfo.prefixedName(),
+                                e);
+                    } finally {
+                        entry.refreshing.set(false);
+                    }
+                });
+    }
+
+    /** Computes the domain of the dimension, without caching it */
+    DimensionDomain load(FeatureTypeInfo typeInfo, DimensionInfo dimension, boolean values)
+            throws IOException {
+        return load(getFeatureSource(typeInfo), dimension.getAttribute(), values);
+    }
+
+    private FeatureSource<?, ?> getFeatureSource(FeatureTypeInfo typeInfo) throws IOException {
+        return typeInfo.getFeatureSource(null, GeoTools.getDefaultHints());
+    }
+
+    private DimensionDomain load(FeatureSource<?, ?> source, String attribute, boolean values)
+            throws IOException {
+        // build query to grab the dimension values
+        final Query query = new Query(source.getSchema().getName().getLocalPart());
+        query.setPropertyNames(Arrays.asList(attribute));
+        FeatureCollection<?, ?> collection = source.getFeatures(query);
+
+        if (values) {
+            UniqueVisitor unique = new UniqueVisitor(attribute);
+            collection.accepts(unique, null);
+            return DimensionDomain.values(unique.getUnique());
+        }
+        MinVisitor min = new MinVisitor(attribute);
+        collection.accepts(min, null);
+        // check calcresult first to avoid potential IllegalStateException if no features are in
+        // collection
+        if (min.getResult() == CalcResult.NULL_RESULT) {
+            return DimensionDomain.EMPTY;
+        }
+        MaxVisitor max = new MaxVisitor(attribute);
+        collection.accepts(max, null);
+        return DimensionDomain.range(min.getMin(), max.getMax());
+    }
+
+    /** Removes the domains of the given feature type */
+    public void invalidateFeatureType(String typeId) {
+        invalidations.incrementAndGet();
+        entries.values().removeIf(e -> typeId.equals(e.typeId));
+        ChangeListener listener = listeners.remove(typeId);
+        if (listener != null) {
+            listener.dispose();
+        }
+    }
+
+    /** Removes the domains of all the feature types in the given store */
+    public void invalidateStore(String storeId) {
+        invalidations.incrementAndGet();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (storeId.equals(entry.storeId)) {
+                it.remove();
+                ChangeListener listener = listeners.remove(entry.typeId);
+                if (listener != null) {
+                    listener.dispose();
+                }
+            }
+        }
+    }
+
+    /** Removes all the cached domains */
+    public void clear() {
+        invalidations.incrementAndGet();
+        entries.clear();
+        for (Iterator<ChangeListener> it = listeners.values().iterator(); it.hasNext(); ) {
+            it.next().dispose();
+            it.remove();
+        }
+    }
+
+    /** The number of domains currently cached */
+    public int getCount() {
+        return entries.size();
+    }
+
+    /** Domains found in the cache, including the expired ones being refreshed */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** Domains that had to be computed */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** Domains refreshed in the background */
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {}
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {}
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        invalidate(event.getSource());
+    }
+
+    private void invalidate(Object source) {
+        if (source instanceof FeatureTypeInfo) {
+            invalidateFeatureType(((FeatureTypeInfo) source).getId());
+        } else if (source instanceof DataStoreInfo) {
+            invalidateStore(((DataStoreInfo) source).getId());
+        }
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (catalog != null) {
+            catalog.removeListener(this);
+        }
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+        clear();
+    }
+
+    @Override
+    public String toString() {
+        return "DimensionDomainCache [timeToLive="
+                + timeToLive
+                + ", backgroundRefresh="
+                + backgroundRefresh
+                + ", count="
+                + getCount()
+                + ", hits="
+                + hits
+                + ", misses="
+                + misses
+                + ", refreshes="
+                + refreshes
+                + "]";
+    }
+
+    /** A cached domain */
+    static class Entry {
+
+        final String typeId;
+
+        final String storeId;
+
+        final DimensionDomain domain;
+
+        final long loaded = System.currentTimeMillis();
+
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(String typeId, String storeId, DimensionDomain domain) {
+            this.typeId = typeId;
+            this.storeId = storeId;
+            this.domain = domain;
+        }
+    }
+
+    /** Drops the domains of a feature type when its feature source notifies a change */
+    class ChangeListener implements FeatureListener {
+
+        final String typeId;
+
+        final FeatureSource<?, ?> source;
+
+        ChangeListener(String typeId, FeatureSource<?, ?> source) {
+            this.typeId = typeId;
+            this.source = source;
+            source.addFeatureListener(this);
+        }
+
+        @Override
+        public void changed(FeatureEvent featureEvent) {
+            invalidateFeatureType(typeId);
+        }
+
+        void dispose() {
+            try {
+                source.removeFeatureListener(this);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Failed to remove the feature listener", e);
+            }
+        }
+    }
+}
@@ -9,6 +9,7 @@ import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.wms.dimension.AbstractFeatureAttributeVisitorSelectionStrategy;
+import org.geoserver.wms.dimension.DimensionDomain;
 import org.geotools.feature.visitor.CalcResult;
 import org.geotools.feature.visitor.MaxVisitor;
 import org.geotools.util.Converters;
@@ -28,6 +29,11 @@ public class FeatureMaximumValueSelectionStrategyImpl
     @Override
     public Object getDefaultValue(
             ResourceInfo resource, String dimensionName, DimensionInfo dimension, Class clz) {
+        DimensionDomain domain = getCachedDomain((FeatureTypeInfo) resource, dimension);
+        if (domain != null) {
+            return domain.isEmpty() ? null : Converters.convert(domain.getMaximum(), clz);
+        }
+
         final MaxVisitor max = new MaxVisitor(dimension.getAttribute());
         CalcResult res = getCalculatedResult((FeatureTypeInfo) resource, dimension, max);
         if (res.equals(CalcResult.NULL_RESULT)) {
@@ -9,6 +9,7 @@ import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.wms.dimension.AbstractFeatureAttributeVisitorSelectionStrategy;
+import org.geoserver.wms.dimension.DimensionDomain;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.visitor.CalcResult;
 import org.geotools.feature.visitor.FeatureCalc;
@@ -42,6 +43,18 @@ public class FeatureNearestValueSelectionStrategyImpl
     @Override
     public Object getDefaultValue(
             ResourceInfo resource, String dimensionName, DimensionInfo dimension, Class clz) {
+        // the domain can resolve references outside of its range, or inside when it has values
+        DimensionDomain domain = getCachedDomain((FeatureTypeInfo) resource, dimension);
+        if (domain != null) {
+            if (domain.isEmpty()) {
+                return null;
+            }
+            Object value = domain.getNearest(this.toMatch);
+            if (value != null) {
+                return Converters.convert(value, clz);
+            }
+        }
+
         final FeatureCalc nearest =
                 new NearestVisitor(ff.property(dimension.getAttribute()), this.toMatch);
 
@@ -31,13 +31,26 @@ abstract class AbstractVectorLayerIdentifier implements LayerIdentifier {
         List<Rule> result = new ArrayList<Rule>();
 
         for (FeatureTypeStyle fts : style.featureTypeStyles()) {
-            for (Rule r : fts.rules()) {
-                if ((r.getMinScaleDenominator() - TOLERANCE <= scaleDenominator)
-                        && (r.getMaxScaleDenominator() + TOLERANCE > scaleDenominator)
-                        && r.symbolizers() != null
-                        && r.symbolizers().size() > 0) {
-                    result.add(r);
-                }
+            result.addAll(getActiveRules(fts, scaleDenominator));
+        }
+        return result;
+    }
+
+    /**
+     * Selects the rules of a single feature type style active at this zoom level
+     *
+     * @param fts
+     * @param scaleDenominator
+     */
+    protected List<Rule> getActiveRules(FeatureTypeStyle fts, double scaleDenominator) {
+        List<Rule> result = new ArrayList<Rule>();
+
+        for (Rule r : fts.rules()) {
+            if ((r.getMinScaleDenominator() - TOLERANCE <= scaleDenominator)
+                    && (r.getMaxScaleDenominator() + TOLERANCE > scaleDenominator)
+                    && r.symbolizers() != null
+                    && r.symbolizers().size() > 0) {
+                result.add(r);
             }
         }
         return result;
@@ -0,0 +1,352 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.featureinfo;
+
+import java.awt.geom.AffineTransform;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.operation.transform.AffineTransform2D;
+import org.geotools.referencing.operation.transform.ConcatenatedTransform;
+import org.geotools.renderer.style.SLDStyleFactory;
+import org.geotools.styling.AnchorPoint;
+import org.geotools.styling.Displacement;
+import org.geotools.styling.Graphic;
+import org.geotools.styling.LineSymbolizer;
+import org.geotools.styling.Mark;
+import org.geotools.styling.PointSymbolizer;
+import org.geotools.styling.PolygonSymbolizer;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Stroke;
+import org.geotools.styling.Symbolizer;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygonal;
+import org.locationtech.jts.geom.Puntal;
+import org.opengis.feature.Feature;
+import org.opengis.feature.GeometryAttribute;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.style.GraphicalSymbol;
+
+/**
+ * Decides if a feature is hit by a GetFeatureInfo click without painting it, approximating the
+ * area covered by each symbolizer with a distance from the feature geometry: half the stroke width
+ * for lines, the full polygon for fills, the symbol radius for points. Works in screen space, on
+ * rules already rescaled to pixels, and only on the symbolizers accepted by {@link
+ * #canEvaluate(List)}.
+ */
+class GeometricHitEvaluator {
+
+    static final GeometryFactory GF = new GeometryFactory();
+
+    /** The active rules of each feature type style */
+    List<List<Rule>> featureTypeStyles;
+
+    AffineTransform worldToScreen;
+
+    CoordinateReferenceSystem screenCRS;
+
+    Point click;
+
+    double buffer;
+
+    Map<CoordinateReferenceSystem, MathTransform> transforms = new HashMap<>();
+
+    /**
+     * @param featureTypeStyles The active, rescaled rules of each feature type style
+     * @param worldToScreen The transformation from the map CRS to the screen
+     * @param mapCRS The map CRS
+     * @param x The click position on screen
+     * @param y The click position on screen
+     * @param buffer The tolerance around the click, in pixels
+     */
+    public GeometricHitEvaluator(
+            List<List<Rule>> featureTypeStyles,
+            AffineTransform worldToScreen,
+            CoordinateReferenceSystem mapCRS,
+            int x,
+            int y,
+            double buffer) {
+        this.featureTypeStyles = featureTypeStyles;
+        this.worldToScreen = worldToScreen;
+        this.screenCRS = mapCRS;
+        // the center of the clicked pixel
+        this.click = GF.createPoint(new Coordinate(x + 0.5, y + 0.5));
+        // the painted hit area covers the whole pixels around the click
+        this.buffer = buffer + 0.5;
+    }
+
+    /**
+     * Returns true if all the symbolizers in the rules can be approximated geometrically: fills,
+     * strokes and marks, without offsets, displacements or geometry transformations
+     */
+    public static boolean canEvaluate(List<Rule> rules) {
+        for (Rule rule : rules) {
+            for (Symbolizer symbolizer : rule.symbolizers()) {
+                if (!canEvaluate(symbolizer)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean canEvaluate(Symbolizer symbolizer) {
+        if (symbolizer.getGeometry() != null
+                && !(symbolizer.getGeometry() instanceof PropertyName)) {
+            return false;
+        }
+        if (symbolizer instanceof PolygonSymbolizer) {
+            PolygonSymbolizer ps = (PolygonSymbolizer) symbolizer;
+            return isZero(ps.getPerpendicularOffset())
+                    && isZero(ps.getDisplacement())
+                    && canEvaluate(ps.getStroke());
+        } else if (symbolizer instanceof LineSymbolizer) {
+            LineSymbolizer ls = (LineSymbolizer) symbolizer;
+            return isZero(ls.getPerpendicularOffset()) && canEvaluate(ls.getStroke());
+        } else if (symbolizer instanceof PointSymbolizer) {
+            return canEvaluate(((PointSymbolizer) symbolizer).getGraphic());
+        }
+        // text symbolizers are turned into the other ones by the style preprocessor,
+        // rasters and custom symbolizers need to be painted
+        return false;
+    }
+
+    private static boolean canEvaluate(Stroke stroke) {
+        return stroke == null
+                || ((stroke.getGraphicStroke() == null || canEvaluate(stroke.getGraphicStroke()))
+                        && (stroke.getGraphicFill() == null
+                                || canEvaluate(stroke.getGraphicFill())));
+    }
+
+    private static boolean canEvaluate(Graphic graphic) {
+        if (graphic == null) {
+            return true;
+        }
+        if (!isZero(graphic.getDisplacement()) || !isCentered(graphic.getAnchorPoint())) {
+            return false;
+        }
+        // external graphics can have transparent areas, and use their own size by default
+        for (GraphicalSymbol symbol : graphic.graphicalSymbols()) {
+            if (!(symbol instanceof Mark)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isZero(Expression expression) {
+        if (expression == null) {
+            return true;
+        }
+        if (!(expression instanceof Literal)) {
+            return false;
+        }
+        Double value = expression.evaluate(null, Double.class);
+        return value == null || value == 0;
+    }
+
+    private static boolean isZero(Displacement displacement) {
+        return displacement == null
+                || (isZero(displacement.getDisplacementX())
+                        && isZero(displacement.getDisplacementY()));
+    }
+
+    private static boolean isCentered(AnchorPoint anchor) {
+        if (anchor == null) {
+            return true;
+        }
+        Expression ax = anchor.getAnchorPointX();
+        Expression ay = anchor.getAnchorPointY();
+        return (ax == null || (ax instanceof Literal && isHalf(ax)))
+                && (ay == null || (ay instanceof Literal && isHalf(ay)));
+    }
+
+    private static boolean isHalf(Expression expression) {
+        Double value = expression.evaluate(null, Double.class);
+        return value == null || value == 0.5;
+    }
+
+    /** Returns true if any of the symbolizers applying to the feature covers the clicked area */
+    public boolean isHit(Feature feature) throws Exception {
+        for (List<Rule> rules : featureTypeStyles) {
+            boolean matched = false;
+            for (Rule rule : rules) {
+                if (rule.isElseFilter()) {
+                    continue;
+                }
+                if (rule.getFilter() == null || rule.getFilter().evaluate(feature)) {
+                    matched = true;
+                    if (isHit(feature, rule)) {
+                        return true;
+                    }
+                }
+            }
+            if (!matched) {
+                for (Rule rule : rules) {
+                    if (rule.isElseFilter() && isHit(feature, rule)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isHit(Feature feature, Rule rule) throws Exception {
+        for (Symbolizer symbolizer : rule.symbolizers()) {
+            Geometry geometry = getScreenGeometry(feature, symbolizer.getGeometry());
+            if (geometry == null || geometry.isEmpty()) {
+                continue;
+            }
+            if (symbolizer instanceof PolygonSymbolizer) {
+                PolygonSymbolizer ps = (PolygonSymbolizer) symbolizer;
+                if (ps.getFill() == null) {
+                    // only the outline is painted, the interior is not a hit
+                    Geometry lines =
+                            geometry instanceof Polygonal ? geometry.getBoundary() : geometry;
+                    double radius = Math.max(getStrokeRadius(feature, ps.getStroke()), 0.5);
+                    if (lines.isWithinDistance(click, radius + buffer)) {
+                        return true;
+                    }
+                } else {
+                    double radius = getStrokeRadius(feature, ps.getStroke());
+                    if (geometry.isWithinDistance(click, radius + buffer)) {
+                        return true;
+                    }
+                }
+            } else if (symbolizer instanceof LineSymbolizer) {
+                LineSymbolizer ls = (LineSymbolizer) symbolizer;
+                Geometry lines = geometry instanceof Polygonal ? geometry.getBoundary() : geometry;
+                double radius = Math.max(getStrokeRadius(feature, ls.getStroke()), 0.5);
+                if (lines.isWithinDistance(click, radius + buffer)) {
+                    return true;
+                }
+            } else if (symbolizer instanceof PointSymbolizer) {
+                Graphic graphic = ((PointSymbolizer) symbolizer).getGraphic();
+                Geometry anchor = getAnchor(geometry);
+                if (anchor.isWithinDistance(click, getGraphicRadius(feature, graphic) + buffer)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Points are painted on the geometry centroid, or inside the polygon if it falls outside */
+    private Geometry getAnchor(Geometry geometry) {
+        if (geometry instanceof Puntal) {
+            return geometry;
+        }
+        Point centroid = geometry.getCentroid();
+        if (geometry instanceof Polygonal && !geometry.contains(centroid)) {
+            return geometry.getInteriorPoint();
+        }
+        return centroid;
+    }
+
+    private double getStrokeRadius(Feature feature, Stroke stroke) {
+        if (stroke == null) {
+            return 0;
+        }
+        double width = 1;
+        if (stroke.getWidth() != null) {
+            Double value = stroke.getWidth().evaluate(feature, Double.class);
+            if (value != null) {
+                width = value;
+            }
+        }
+        double radius = width / 2;
+        if (stroke.getGraphicStroke() != null) {
+            radius = Math.max(radius, getGraphicRadius(feature, stroke.getGraphicStroke()));
+        }
+        return radius;
+    }
+
+    /**
+     * The radius of the circle containing the graphic, marks other than circles extend to their
+     * half diagonal
+     */
+    private double getGraphicRadius(Feature feature, Graphic graphic) {
+        double size = SLDStyleFactory.DEFAULT_MARK_SIZE;
+        if (graphic != null && graphic.getSize() != null) {
+            Double value = graphic.getSize().evaluate(feature, Double.class);
+            if (value != null) {
+                size = value;
+            }
+        }
+        double radius = size / 2;
+        if (graphic == null || !isCircle(graphic)) {
+            radius *= Math.sqrt(2);
+        }
+        return radius;
+    }
+
+    private boolean isCircle(Graphic graphic) {
+        for (GraphicalSymbol symbol : graphic.graphicalSymbols()) {
+            if (!(symbol instanceof Mark)) {
+                return false;
+            }
+            Expression name = ((Mark) symbol).getWellKnownName();
+            if (name == null || !"circle".equalsIgnoreCase(name.evaluate(null, String.class))) {
+                return false;
+            }
+        }
+        return !graphic.graphicalSymbols().isEmpty();
+    }
+
+    /** Extracts the symbolizer geometry and transforms it to screen space */
+    private Geometry getScreenGeometry(Feature feature, Expression geometryExpression)
+            throws Exception {
+        Geometry geometry;
+        CoordinateReferenceSystem crs;
+        if (geometryExpression == null
+                || "".equals(((PropertyName) geometryExpression).getPropertyName())) {
+            GeometryAttribute attribute = feature.getDefaultGeometryProperty();
+            if (attribute == null) {
+                return null;
+            }
+            geometry = (Geometry) attribute.getValue();
+            crs = attribute.getDescriptor().getCoordinateReferenceSystem();
+        } else {
+            geometry = geometryExpression.evaluate(feature, Geometry.class);
+            String name = ((PropertyName) geometryExpression).getPropertyName();
+            crs = null;
+            if (feature.getType().getDescriptor(name) instanceof GeometryDescriptor) {
+                crs =
+                        ((GeometryDescriptor) feature.getType().getDescriptor(name))
+                                .getCoordinateReferenceSystem();
+            }
+        }
+        if (geometry == null) {
+            return null;
+        }
+        return JTS.transform(geometry, getTransform(crs));
+    }
+
+    private MathTransform getTransform(CoordinateReferenceSystem crs) throws Exception {
+        MathTransform transform = transforms.get(crs);
+        if (transform == null) {
+            MathTransform toScreen = new AffineTransform2D(worldToScreen);
+            if (crs == null || screenCRS == null || CRS.equalsIgnoreMetadata(crs, screenCRS)) {
+                transform = toScreen;
+            } else {
+                MathTransform toMap = CRS.findMathTransform(crs, screenCRS, true);
+                transform = ConcatenatedTransform.create(toMap, toScreen);
+            }
+            transforms.put(crs, transform);
+        }
+        return transform;
+    }
+}
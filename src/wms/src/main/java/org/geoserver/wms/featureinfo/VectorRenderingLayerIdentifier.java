@@ -49,6 +49,7 @@ import org.geotools.data.QueryCapabilities;
 import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.JTS;
@@ -61,8 +62,10 @@ import org.geotools.renderer.lite.MetaBufferEstimator;
 import org.geotools.renderer.lite.RendererUtilities;
 import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.renderer.style.StyleAttributeExtractor;
+import org.geotools.styling.FeatureTypeStyle;
 import org.geotools.styling.Rule;
 import org.geotools.styling.Style;
+import org.geotools.styling.StyleFactory;
 import org.geotools.styling.visitor.DpiRescaleStyleVisitor;
 import org.geotools.styling.visitor.UomRescaleStyleVisitor;
 import org.geotools.util.factory.Hints;
@@ -99,9 +102,19 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
             Integer.getInteger(VectorBasicLayerIdentifier.FEATUREINFO_DEFAULT_BUFFER, 3);
     public static boolean RENDERING_FEATUREINFO_ENABLED;
 
+    private static final String FEATURE_INFO_GEOMETRIC_ENABLED_KEY =
+            "org.geoserver.wms.featureinfo.geometric.enabled";
+    /**
+     * When enabled the hits are computed with a spatial query and the symbolizer sizes, painting
+     * only the feature type styles whose symbolizers cannot be approximated this way
+     */
+    public static boolean GEOMETRIC_FEATUREINFO_ENABLED =
+            Boolean.getBoolean(FEATURE_INFO_GEOMETRIC_ENABLED_KEY);
+
     private WMS wms;
     private VectorBasicLayerIdentifier fallback;
     private static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+    private static final StyleFactory SF = CommonFactoryFinder.getStyleFactory();
 
     static {
         String value = System.getProperty(FEATURE_INFO_RENDERING_ENABLED_KEY, "true");
@@ -151,16 +164,177 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
         if (rules.size() == 0) {
             return null;
         }
+
+        List<SimpleFeature> features;
+        if (GEOMETRIC_FEATUREINFO_ENABLED && params.getGetMapRequest().getAngle() == 0) {
+            features = identifyGeometrically(params, style, buffer, maxFeatures);
+        } else {
+            features = identifyByRendering(params, style, rules, buffer, maxFeatures);
+        }
+
+        return aggregateByFeatureType(features, params.getRequestedCRS());
+    }
+
+    /**
+     * Checks the feature type styles that can be approximated geometrically with a spatial query
+     * and the symbolizer sizes, and paints the remaining ones
+     */
+    private List<SimpleFeature> identifyGeometrically(
+            FeatureInfoRequestParameters params, Style style, int buffer, int maxFeatures)
+            throws Exception {
+        double scaleDenominator = params.getScaleDenominator();
+        List<List<Rule>> geometricStyles = new ArrayList<>();
+        List<Rule> geometricRules = new ArrayList<>();
+        Style paintedStyle = SF.createStyle();
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            List<Rule> ftsRules = getActiveRules(fts, scaleDenominator);
+            if (ftsRules.isEmpty()) {
+                continue;
+            }
+            if (fts.getTransformation() == null && GeometricHitEvaluator.canEvaluate(ftsRules)) {
+                rescaleRules(ftsRules, params);
+                geometricStyles.add(ftsRules);
+                geometricRules.addAll(ftsRules);
+            } else {
+                paintedStyle.featureTypeStyles().add(fts);
+            }
+        }
+
+        List<SimpleFeature> features = new ArrayList<>();
+        if (!geometricStyles.isEmpty()) {
+            features.addAll(
+                    getGeometricHits(
+                            params, style, geometricStyles, geometricRules, buffer, maxFeatures));
+        }
+        if (!paintedStyle.featureTypeStyles().isEmpty() && features.size() < maxFeatures) {
+            LOGGER.log(Level.FINER, "Painting the styles that cannot be evaluated geometrically");
+            List<Rule> paintedRules = getActiveRules(paintedStyle, scaleDenominator);
+            Set<String> ids = new HashSet<>();
+            for (SimpleFeature feature : features) {
+                ids.add(feature.getID());
+            }
+            for (SimpleFeature feature :
+                    identifyByRendering(params, paintedStyle, paintedRules, buffer, maxFeatures)) {
+                if (features.size() >= maxFeatures) {
+                    break;
+                }
+                if (ids.add(feature.getID())) {
+                    features.add(feature);
+                }
+            }
+        }
+
+        return features;
+    }
+
+    private List<SimpleFeature> getGeometricHits(
+            FeatureInfoRequestParameters params,
+            Style style,
+            List<List<Rule>> featureTypeStyles,
+            List<Rule> rules,
+            int buffer,
+            int maxFeatures)
+            throws Exception {
+        GetMapRequest getMap = params.getGetMapRequest();
+        WMSMapContent mc = createMapContent(params);
+        try {
+            // setup the env variables, the symbolizer sizes might depend on them
+            RenderingVariables.setupEnvironmentVariables(mc);
+
+            AffineTransform worldToScreen =
+                    RendererUtilities.worldToScreenTransform(
+                            params.getRequestedBounds(),
+                            new Rectangle(params.getWidth(), params.getHeight()));
+            AffineTransform screenToWorld = worldToScreen.createInverse();
+
+            // the search radius estimate alters the layer query, use a throwaway one
+            FeatureLayer estimationLayer = getLayer(params, style);
+            int radius = getSearchRadius(params, rules, estimationLayer, getMap, screenToWorld);
+            radius = Math.max(radius, buffer) + buffer;
+
+            // query only the features whose geometry is close enough to the click
+            FeatureLayer layer = getLayer(params, style);
+            FeatureSource<?, ?> fs = layer.getFeatureSource();
+            Envelope targetRasterSpace =
+                    new Envelope(
+                            params.getX() - radius,
+                            params.getX() + 1 + radius,
+                            params.getY() - radius,
+                            params.getY() + 1 + radius);
+            Envelope targetModelSpace =
+                    JTS.transform(targetRasterSpace, new AffineTransform2D(screenToWorld));
+            ReferencedEnvelope queryBBOX =
+                    new ReferencedEnvelope(targetModelSpace, getMap.getCrs())
+                            .transform(fs.getSchema().getCoordinateReferenceSystem(), true);
+            Query query = new Query(layer.getQuery());
+            BBOX bbox = FF.bbox(FF.property(""), queryBBOX);
+            if (query.getFilter() == null || query.getFilter() == Filter.INCLUDE) {
+                query.setFilter(bbox);
+            } else {
+                query.setFilter(FF.and(query.getFilter(), bbox));
+            }
+            query.setPropertyNames(getHitProperties(rules, fs.getSchema()));
+
+            GeometricHitEvaluator evaluator =
+                    new GeometricHitEvaluator(
+                            featureTypeStyles,
+                            worldToScreen,
+                            getMap.getCrs(),
+                            params.getX(),
+                            params.getY(),
+                            buffer);
+            List<SimpleFeature> features = new ArrayList<>();
+            try (FeatureIterator<?> iterator = fs.getFeatures(query).features()) {
+                while (iterator.hasNext() && features.size() < maxFeatures) {
+                    Feature feature = iterator.next();
+                    if (evaluator.isHit(feature)) {
+                        features.add((SimpleFeature) feature);
+                    }
+                }
+            }
+            return features;
+        } finally {
+            mc.dispose();
+        }
+    }
+
+    /** The attributes used by the rules, plus the default geometry */
+    private String[] getHitProperties(List<Rule> rules, FeatureType schema) {
+        StyleAttributeExtractor extractor = new StyleAttributeExtractor();
+        for (Rule rule : rules) {
+            rule.accept(extractor);
+        }
+        Set<String> names = new LinkedHashSet<>(Arrays.asList(extractor.getAttributeNames()));
+        if (schema.getGeometryDescriptor() != null) {
+            names.add(schema.getGeometryDescriptor().getLocalName());
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    private WMSMapContent createMapContent(FeatureInfoRequestParameters params) {
         GetMapRequest getMap = params.getGetMapRequest();
-        getMap.getFormatOptions().put("antialias", "NONE");
         WMSMapContent mc = new WMSMapContent(getMap);
+        mc.setTransparent(true);
+        mc.setBuffer(params.getBuffer());
+        mc.getViewport().setBounds(new ReferencedEnvelope(getMap.getBbox(), getMap.getCrs()));
+        mc.setMapWidth(getMap.getWidth());
+        mc.setMapHeight(getMap.getHeight());
+        return mc;
+    }
+
+    /** Paints the features around the click, and returns the ones hitting the clicked pixel */
+    private List<SimpleFeature> identifyByRendering(
+            FeatureInfoRequestParameters params,
+            Style style,
+            List<Rule> rules,
+            int buffer,
+            int maxFeatures)
+            throws Exception {
+        GetMapRequest getMap = params.getGetMapRequest();
+        getMap.getFormatOptions().put("antialias", "NONE");
+        // prepare the fake web map content
+        WMSMapContent mc = createMapContent(params);
         try {
-            // prepare the fake web map content
-            mc.setTransparent(true);
-            mc.setBuffer(params.getBuffer());
-            mc.getViewport().setBounds(new ReferencedEnvelope(getMap.getBbox(), getMap.getCrs()));
-            mc.setMapWidth(getMap.getWidth());
-            mc.setMapHeight(getMap.getHeight());
             FeatureLayer layer = getLayer(params, style);
             mc.addLayer(layer);
             // setup the env variables just like in the original GetMap
@@ -217,9 +391,7 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
             GetMapOutputFormat rim = createMapOutputFormat(image, featureInfoListener);
             rim.produceMap(mc);
 
-            List<SimpleFeature> features = featureInfoListener.getFeatures();
-
-            return aggregateByFeatureType(features, params.getRequestedCRS());
+            return featureInfoListener.getFeatures();
         } finally {
             mc.dispose();
         }
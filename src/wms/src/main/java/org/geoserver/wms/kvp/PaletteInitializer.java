@@ -0,0 +1,42 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.kvp;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInitializer;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Loads the palettes, and builds their inverse color maps, in the background at startup, so that
+ * the first paletted requests do not pay for it
+ */
+public class PaletteInitializer implements GeoServerInitializer {
+
+    static final Logger LOGGER = Logging.getLogger(PaletteInitializer.class);
+
+    /** System variable disabling the palettes preload */
+    public static final String DISABLE_KEY = "wms.palette.disablePreload";
+
+    @Override
+    public void initialize(GeoServer geoServer) throws Exception {
+        if (Boolean.getBoolean(DISABLE_KEY)) {
+            return;
+        }
+        Thread thread =
+                new Thread(
+                        () -> {
+                            try {
+                                PaletteManager.preload();
+                            } catch (Exception e) {
+                                LOGGER.log(Level.WARNING, "Failed to preload the palettes", e);
+                            }
+                        },
+                        "GeoServer palette preload");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
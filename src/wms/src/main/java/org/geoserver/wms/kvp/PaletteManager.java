@@ -5,6 +5,9 @@
  */
 package org.geoserver.wms.kvp;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import java.awt.image.ColorModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.IndexColorModel;
@@ -14,6 +17,8 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
@@ -22,13 +27,19 @@ import javax.imageio.stream.ImageInputStream;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.resource.Resource;
+import org.geoserver.platform.resource.ResourceListener;
+import org.geoserver.platform.resource.ResourceNotification;
 import org.geoserver.platform.resource.Resources;
 import org.geotools.image.palette.InverseColorMapOp;
-import org.geotools.util.SoftValueHashMap;
 
 /**
  * Allows access to palettes (implemented as {@link IndexColorModel} classes)
  *
+ * <p>Palettes and their inverse color maps are kept in concurrent caches, bounded by the {@link
+ * #CACHE_SIZE_KEY} system variable. Inverse color maps are keyed by the palette colors, so that
+ * equal palettes built by different requests share the same lookup tables. The palettes directory
+ * is watched for changes, and its palettes are loaded at startup by {@link #preload()}.
+ *
  * @author Andrea Aime - TOPP
  * @author Simone Giannecchini - GeoSolutions
  */
@@ -46,10 +57,21 @@ public class PaletteManager {
     public static final String SAFE = "SAFE";
 
     public static final IndexColorModel safePalette = buildDefaultPalette();
-    static SoftValueHashMap<String, PaletteCacheEntry> paletteCache =
-            new SoftValueHashMap<String, PaletteCacheEntry>();
-    static SoftValueHashMap<IndexColorModelKey, InverseColorMapOp> opCache =
-            new SoftValueHashMap<IndexColorModelKey, InverseColorMapOp>();
+
+    /** System variable setting how many palettes, and inverse color maps, are cached */
+    public static final String CACHE_SIZE_KEY = "wms.palette.cacheSize";
+
+    static final int CACHE_SIZE = Integer.getInteger(CACHE_SIZE_KEY, 100);
+
+    static final String PALETTES_DIR = "palettes";
+
+    static final Cache<String, PaletteCacheEntry> paletteCache =
+            CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).recordStats().build();
+
+    static final Cache<IndexColorModelKey, InverseColorMapOp> opCache =
+            CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).recordStats().build();
+
+    private static Resource watchedDirectory;
 
     /** TODO: we should probably provide the data directory as a constructor parameter here */
     private PaletteManager() {}
@@ -66,10 +88,10 @@ public class PaletteManager {
         }
 
         // check for cached one, making sure it's not stale
-        final PaletteCacheEntry entry = (PaletteCacheEntry) paletteCache.get(name);
+        final PaletteCacheEntry entry = paletteCache.getIfPresent(name);
         if (entry != null) {
             if (entry.isStale()) {
-                paletteCache.remove(name);
+                invalidate(name);
             } else {
                 return entry.icm;
             }
@@ -84,9 +106,7 @@ public class PaletteManager {
         // users
         // adds the paletteInverter dir with a running Geoserver, we won't find it
         // anymore...
-        GeoServerResourceLoader loader = GeoServerExtensions.bean(GeoServerResourceLoader.class);
-
-        Resource palettes = loader.get("palettes");
+        Resource palettes = getPalettesDirectory();
 
         Set<String> names = new HashSet<String>();
         names.addAll(
@@ -136,16 +156,90 @@ public class PaletteManager {
     }
 
     public static InverseColorMapOp getInverseColorMapOp(IndexColorModel icm) {
-        // check for cached one, making sure it's not stale
-        IndexColorModelKey key = new IndexColorModelKey(icm);
-        InverseColorMapOp op = (InverseColorMapOp) opCache.get(key);
-        if (op != null) {
-            return op;
-        } else {
-            op = new InverseColorMapOp(icm);
-            opCache.put(key, op);
-            return op;
+        // concurrent requests for the same palette wait for a single build
+        try {
+            return opCache.get(new IndexColorModelKey(icm), () -> buildInverseColorMapOp(icm));
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to build the inverse color map", e.getCause());
+        }
+    }
+
+    private static InverseColorMapOp buildInverseColorMapOp(IndexColorModel icm) {
+        long start = System.currentTimeMillis();
+        InverseColorMapOp op = new InverseColorMapOp(icm);
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine(
+                    "Built inverse color map for a "
+                            + icm.getMapSize()
+                            + " colors palette in "
+                            + (System.currentTimeMillis() - start)
+                            + "ms");
+        }
+        return op;
+    }
+
+    /** Statistics of the palette cache, misses are palette loads */
+    public static CacheStats getPaletteCacheStats() {
+        return paletteCache.stats();
+    }
+
+    /** Statistics of the inverse color map cache, misses are inverse color map builds */
+    public static CacheStats getInverseColorMapCacheStats() {
+        return opCache.stats();
+    }
+
+    /** Removes the palette with the given name, and its inverse color map, from the caches */
+    static void invalidate(String name) {
+        PaletteCacheEntry entry = paletteCache.getIfPresent(name);
+        if (entry != null) {
+            paletteCache.invalidate(name);
+            opCache.invalidate(new IndexColorModelKey(entry.icm));
+        }
+    }
+
+    /**
+     * Loads all the palettes found in the palettes directory, along with their inverse color maps,
+     * and starts watching the directory for changes
+     */
+    public static void preload() {
+        Resource palettes = getPalettesDirectory();
+        getInverseColorMapOp(safePalette);
+        for (String name : getPaletteNames(palettes)) {
+            try {
+                IndexColorModel icm = getPalette(name);
+                if (icm != null) {
+                    getInverseColorMapOp(icm);
+                }
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Failed to preload palette " + name, e);
+            }
+        }
+    }
+
+    /** The palette names, that is, the palette files names without extension */
+    private static Set<String> getPaletteNames(Resource palettes) {
+        Set<String> names = new HashSet<String>();
+        for (Resource item : palettes.list()) {
+            String fileName = item.name();
+            int idx = fileName.lastIndexOf('.');
+            if (idx > 0) {
+                names.add(fileName.substring(0, idx).toLowerCase());
+            }
+        }
+        return names;
+    }
+
+    private static synchronized Resource getPalettesDirectory() {
+        GeoServerResourceLoader loader = GeoServerExtensions.bean(GeoServerResourceLoader.class);
+        Resource palettes = loader.get(PALETTES_DIR);
+        if (watchedDirectory == null || !watchedDirectory.path().equals(palettes.path())) {
+            if (watchedDirectory != null) {
+                watchedDirectory.removeListener(PaletteWatcher.INSTANCE);
+            }
+            palettes.addListener(PaletteWatcher.INSTANCE);
+            watchedDirectory = palettes;
         }
+        return palettes;
     }
 
     /** Builds the internet safe paletteInverter */
@@ -204,21 +298,49 @@ public class PaletteManager {
         }
     }
 
+    /** Drops the cached palettes whose files changed in the palettes directory */
+    static class PaletteWatcher implements ResourceListener {
+
+        static final PaletteWatcher INSTANCE = new PaletteWatcher();
+
+        @Override
+        public void changed(ResourceNotification notify) {
+            for (ResourceNotification.Event event : notify.events()) {
+                String path = event.getPath();
+                String fileName = path.substring(path.lastIndexOf('/') + 1);
+                int idx = fileName.lastIndexOf('.');
+                String base = idx > 0 ? fileName.substring(0, idx) : fileName;
+                for (String name : new ArrayList<>(paletteCache.asMap().keySet())) {
+                    if (name.equalsIgnoreCase(base)) {
+                        invalidate(name);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * IndexColorModel has a broken hashcode implementation (inherited from ColorModel and not
-     * overridden), use a custom key that leverages identity hash code instead (a full equals would
-     * be expensive, palettes can have 65k entries)
+     * overridden), use a custom key comparing the palette colors, with a precomputed hash code, so
+     * that equal palettes share the same inverse color map
      */
     private static class IndexColorModelKey {
-        IndexColorModel icm;
+        final IndexColorModel icm;
+
+        final int[] rgbs;
+
+        final int hashCode;
 
         public IndexColorModelKey(IndexColorModel icm) {
             this.icm = icm;
+            this.rgbs = new int[icm.getMapSize()];
+            icm.getRGBs(rgbs);
+            this.hashCode = 31 * Arrays.hashCode(rgbs) + icm.getTransparentPixel();
         }
 
         @Override
         public int hashCode() {
-            return System.identityHashCode(icm);
+            return hashCode;
         }
 
         @Override
@@ -227,7 +349,10 @@ public class PaletteManager {
             if (obj == null) return false;
             if (getClass() != obj.getClass()) return false;
             IndexColorModelKey other = (IndexColorModelKey) obj;
-            return icm == other.icm;
+            return icm == other.icm
+                    || (hashCode == other.hashCode
+                            && icm.getTransparentPixel() == other.icm.getTransparentPixel()
+                            && Arrays.equals(rgbs, other.rgbs));
         }
     }
 }
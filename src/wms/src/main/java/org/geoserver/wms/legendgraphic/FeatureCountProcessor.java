@@ -174,14 +174,18 @@ class FeatureCountProcessor {
 
     private GetMapKvpRequestReader getMapReader;
 
+    private LegendCache cache;
+
     /**
      * Builds a new feature count processor given the legend graphic request. It can be used to
      * alter with feature counts many rule sets.
      *
      * @param request
+     * @param cache The cache of the feature counts, may be null
      */
-    public FeatureCountProcessor(GetLegendGraphicRequest request) {
+    public FeatureCountProcessor(GetLegendGraphicRequest request, LegendCache cache) {
         this.request = request;
+        this.cache = cache;
         this.getMapReader = new GetMapKvpRequestReader(request.getWms());
     }
 
@@ -204,10 +208,20 @@ class FeatureCountProcessor {
         boolean matchFirst = matchFirstVisitor.matchFirst;
 
         try {
-            GetMapRequest getMapRequest = parseAssociatedGetMap(legend, rules);
-            Map<Rule, AtomicInteger> counters =
-                    renderAndCountFeatures(rules, getMapRequest, matchFirst);
-            Rule[] result = updateRuleTitles(rules, counters);
+            // the counts might have been computed by a recent request
+            String key =
+                    cache != null ? cache.getCountKey(request, getLayerName(legend), rules) : null;
+            int[] counts = key != null ? cache.getCounts(key) : null;
+            if (counts == null) {
+                GetMapRequest getMapRequest = parseAssociatedGetMap(legend, rules);
+                Map<Rule, AtomicInteger> counters =
+                        renderAndCountFeatures(rules, getMapRequest, matchFirst);
+                counts = Arrays.stream(rules).mapToInt(r -> counters.get(r).get()).toArray();
+                if (key != null) {
+                    cache.putCounts(key, counts);
+                }
+            }
+            Rule[] result = updateRuleTitles(rules, counts);
 
             return result;
         } catch (ServiceException ex) {
@@ -217,16 +231,15 @@ class FeatureCountProcessor {
         }
     }
 
-    private Rule[] updateRuleTitles(Rule[] rules, Map<Rule, AtomicInteger> counters) {
+    private Rule[] updateRuleTitles(Rule[] rules, int[] counts) {
         Rule[] result = new Rule[rules.length];
         for (int i = 0; i < rules.length; i++) {
             Rule rule = rules[i];
-            AtomicInteger counter = counters.get(rule);
             String label = LegendUtils.getRuleLabel(rule, request);
             if (StringUtils.isEmpty(label)) {
-                label = "(" + counter.get() + ")";
+                label = "(" + counts[i] + ")";
             } else {
-                label = label + " (" + counter.get() + ")";
+                label = label + " (" + counts[i] + ")";
             }
             TargetLabelUpdater duplicatingVisitor = new TargetLabelUpdater(label);
             rule.accept(duplicatingVisitor);
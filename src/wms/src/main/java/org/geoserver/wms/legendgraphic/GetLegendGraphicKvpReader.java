@@ -39,6 +39,7 @@ import org.geoserver.platform.resource.Resource;
 import org.geoserver.wms.GetLegendGraphicRequest;
 import org.geoserver.wms.GetLegendGraphicRequest.LegendRequest;
 import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.StyleCompiler;
 import org.geoserver.wms.WMS;
 import org.geotools.coverage.grid.io.GridCoverage2DReader;
 import org.geotools.coverage.util.FeatureUtilities;
@@ -504,7 +505,7 @@ public class GetLegendGraphicKvpReader extends KvpRequestReader {
                     StyleInfo styleInfo = null;
                     if (count < groupStyles.size() && groupStyles.get(count) != null) {
                         styleInfo = groupStyles.get(count);
-                        sldStyles.add(styleInfo.getStyle());
+                        sldStyles.add(StyleCompiler.getStyle(styleInfo));
                     } else {
                         sldStyles.add(getStyleFromLayer(layerInfo));
                         styleInfo = layerInfo.getDefaultStyle();
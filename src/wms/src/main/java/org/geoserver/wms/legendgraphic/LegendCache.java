@@ -0,0 +1,368 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.ows.LocalPublished;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionListener;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wms.GetLegendGraphicRequest;
+import org.geotools.styling.Rule;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Caches the legends built by GetLegendGraphic, and the rule feature counts used by the {@link
+ * GetLegendGraphicRequest#COUNT_MATCHED_KEY} legend option.
+ *
+ * <p>Legends are keyed by the request parameters (sorted, case insensitive), the virtual service
+ * (workspace and layer the request is local to), the resolved layers and the user, and are kept
+ * until the cache is dropped as a whole, which happens when styles, layers or their data are
+ * modified in the catalog, when a WFS transaction changes the data, and when the configuration is
+ * changed or reloaded. Legends with feature counts are not cached, as the data might change
+ * outside of GeoServer, but their counts are, for the short time set by the {@link #COUNT_TTL_KEY}
+ * variable. Legends referring to a remote SLD document are not cached.
+ *
+ * <p>The legend cache is enabled by setting the maximum number of cached legends with the {@link
+ * #SIZE_KEY} variable, the feature count cache by setting its time to live.
+ */
+public class LegendCache
+        implements TransactionListener, CatalogListener, GeoServerLifecycleHandler, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(LegendCache.class);
+
+    /** Variable setting the maximum number of cached legends */
+    public static final String SIZE_KEY = "org.geoserver.wms.legendCacheSize";
+
+    /** Variable setting how long the rule feature counts are cached, in seconds */
+    public static final String COUNT_TTL_KEY = "org.geoserver.wms.legendCountCacheTTL";
+
+    /** Maximum number of cached feature count sets */
+    static final int MAX_COUNTS = 1000;
+
+    /** Parameters that do not affect the legend */
+    private static final List<String> IGNORED_PARAMETERS =
+            Arrays.asList("REQUEST", "SERVICE", "EXCEPTIONS");
+
+    private final Cache<String, LegendGraphic> legends;
+
+    private final Cache<String, int[]> counts;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private Catalog catalog;
+
+    /** Builds a disabled cache */
+    public LegendCache() {
+        this(0, 0);
+    }
+
+    /**
+     * Builds a cache configured by the {@link #SIZE_KEY} and {@link #COUNT_TTL_KEY} variables,
+     * listening to the configuration and catalog changes
+     */
+    public LegendCache(GeoServer geoServer) {
+        this(getInt(SIZE_KEY, 0), getInt(COUNT_TTL_KEY, 0));
+        this.catalog = geoServer.getCatalog();
+        catalog.addListener(this);
+        geoServer.addListener(
+                new ConfigurationListenerAdapter() {
+                    @Override
+                    public void handleGlobalChange(
+                            GeoServerInfo global,
+                            List<String> propertyNames,
+                            List<Object> oldValues,
+                            List<Object> newValues) {
+                        invalidateAll();
+                    }
+
+                    @Override
+                    public void handleServiceChange(
+                            ServiceInfo service,
+                            List<String> propertyNames,
+                            List<Object> oldValues,
+                            List<Object> newValues) {
+                        invalidateAll();
+                    }
+
+                    @Override
+                    public void reloaded() {
+                        invalidateAll();
+                    }
+                });
+    }
+
+    /**
+     * Builds a new cache
+     *
+     * @param maxLegends The maximum number of cached legends, zero disables the legend cache
+     * @param countTTL How long the feature counts are cached, in seconds, zero disables the
+     *     feature count cache
+     */
+    public LegendCache(int maxLegends, int countTTL) {
+        if (maxLegends > 0) {
+            this.legends = CacheBuilder.newBuilder().maximumSize(maxLegends).recordStats().build();
+        } else {
+            this.legends = null;
+        }
+        if (countTTL > 0) {
+            this.counts =
+                    CacheBuilder.newBuilder()
+                            .maximumSize(MAX_COUNTS)
+                            .expireAfterWrite(countTTL, TimeUnit.SECONDS)
+                            .recordStats()
+                            .build();
+        } else {
+            this.counts = null;
+        }
+    }
+
+    private static int getInt(String key, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + key + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns the key of the legend produced for the request, or null if the legend cannot be
+     * cached
+     */
+    public String getLegendKey(GetLegendGraphicRequest request) {
+        if (legends == null
+                || request.getRawKvp() == null
+                || Boolean.TRUE.equals(
+                        request.getLegendOption(
+                                GetLegendGraphicRequest.COUNT_MATCHED_KEY, Boolean.class))) {
+            return null;
+        }
+        return buildKey(request);
+    }
+
+    /** Returns the cached legend, or null if not found */
+    public LegendGraphic getLegend(String key) {
+        return legends.getIfPresent(key);
+    }
+
+    /** Caches a legend, if it cannot be modified by the code encoding it */
+    public void putLegend(String key, Object legend) {
+        if (legend instanceof BufferedImageLegendGraphic || legend instanceof JSONLegendGraphic) {
+            legends.put(key, (LegendGraphic) legend);
+        }
+    }
+
+    /**
+     * Returns the key of the feature counts of a layer legend, or null if the counts cannot be
+     * cached
+     *
+     * @param request The legend request
+     * @param layerName The layer whose features are counted
+     * @param rules The rules counting the features
+     */
+    String getCountKey(GetLegendGraphicRequest request, String layerName, Rule[] rules) {
+        if (counts == null || request.getRawKvp() == null) {
+            return null;
+        }
+        String key = buildKey(request);
+        if (key == null) {
+            return null;
+        }
+        // the same layer might show up more than once, with different styles
+        StringBuilder sb = new StringBuilder(key).append("|").append(layerName);
+        for (Rule rule : rules) {
+            sb.append("|").append(rule.isElseFilter() ? "ELSE" : rule.getFilter());
+        }
+        return sb.toString();
+    }
+
+    /** Returns the cached feature counts of the legend rules, or null if not found */
+    int[] getCounts(String key) {
+        return counts.getIfPresent(key);
+    }
+
+    /** Caches the feature counts of the legend rules */
+    void putCounts(String key, int[] ruleCounts) {
+        counts.put(key, ruleCounts);
+    }
+
+    /** The normalized request, or null if it refers to a remote style */
+    private String buildKey(GetLegendGraphicRequest request) {
+        Map<String, String> sorted = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, String> entry : request.getRawKvp().entrySet()) {
+            String name = entry.getKey().toUpperCase();
+            if ("SLD".equals(name)) {
+                // the remote document might change at any time
+                return null;
+            }
+            if (!IGNORED_PARAMETERS.contains(name)) {
+                sorted.put(name, entry.getValue());
+            }
+        }
+        return sorted
+                + "|"
+                + getServiceContext(request)
+                + "|"
+                + getUser()
+                + "|"
+                + generation.get();
+    }
+
+    /** Identifies the virtual service and the layers, names resolve differently per workspace */
+    private String getServiceContext(GetLegendGraphicRequest request) {
+        StringBuilder sb = new StringBuilder();
+        WorkspaceInfo workspace = LocalWorkspace.get();
+        PublishedInfo published = LocalPublished.get();
+        sb.append(workspace != null ? workspace.getId() : null);
+        sb.append(",").append(published != null ? published.getId() : null);
+        for (GetLegendGraphicRequest.LegendRequest legend : request.getLegends()) {
+            if (legend.getLayerInfo() != null) {
+                sb.append(",").append(legend.getLayerInfo().getId());
+            } else if (legend.getLayerGroupInfo() != null) {
+                sb.append(",").append(legend.getLayerGroupInfo().getId());
+            } else {
+                sb.append(",").append(legend.getLayerName());
+            }
+        }
+        return sb.toString();
+    }
+
+    /** The legends may depend on the layers and data the user can access */
+    private String getUser() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        return auth != null ? auth.getName() : null;
+    }
+
+    /** Drops all the cached legends and feature counts */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        if (legends != null) {
+            legends.invalidateAll();
+        }
+        if (counts != null) {
+            counts.invalidateAll();
+        }
+    }
+
+    /** The legend cache statistics, or null if the legend cache is disabled */
+    public CacheStats getLegendStats() {
+        return legends != null ? legends.stats() : null;
+    }
+
+    /** The feature count cache statistics, or null if the feature count cache is disabled */
+    public CacheStats getCountStats() {
+        return counts != null ? counts.stats() : null;
+    }
+
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        invalidateAll();
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {}
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {}
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        invalidate(event.getSource());
+    }
+
+    private void invalidate(Object source) {
+        if (source instanceof StyleInfo
+                || source instanceof LayerInfo
+                || source instanceof LayerGroupInfo
+                || source instanceof ResourceInfo
+                || source instanceof StoreInfo) {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void reloaded() {
+        invalidateAll();
+    }
+
+    @Override
+    public void onReset() {
+        invalidateAll();
+    }
+
+    @Override
+    public void onDispose() {
+        invalidateAll();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        invalidateAll();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (catalog != null) {
+            catalog.removeListener(this);
+        }
+        invalidateAll();
+    }
+
+    @Override
+    public String toString() {
+        return "LegendCache [legends="
+                + getLegendStats()
+                + ", counts="
+                + getCountStats()
+                + "]";
+    }
+}
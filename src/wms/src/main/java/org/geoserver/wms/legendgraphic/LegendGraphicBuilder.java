@@ -116,7 +116,7 @@ public abstract class LegendGraphicBuilder {
         if (Boolean.TRUE.equals(
                 request.getLegendOption(
                         GetLegendGraphicRequest.COUNT_MATCHED_KEY, Boolean.class))) {
-            countProcessor = new FeatureCountProcessor(request);
+            countProcessor = new FeatureCountProcessor(request, request.getLegendCache());
         }
         layers = request.getLegends();
     }
@@ -28,6 +28,7 @@ import javax.imageio.stream.ImageOutputStream;
 import javax.media.jai.PlanarImage;
 import javax.media.jai.RenderedImageList;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.AnimationFrames;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapProducerCapabilities;
 import org.geoserver.wms.RasterCleaner;
@@ -218,6 +219,10 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
                 if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Writing image " + i);
                 // get the image
                 RenderedImage ri = (RenderedImage) ril.get(i);
+                if (ri == null) {
+                    // the frame produced no image, skip it
+                    continue;
+                }
                 // convert it to gif compatible
                 ri = applyPalette(ri, mapContent, MIME_TYPE, false);
                 if (ri != null) {
@@ -232,6 +237,10 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
                 }
             }
 
+            if (images.isEmpty()) {
+                throw new ServiceException("Empty list of frames.");
+            }
+
             // close writing sequence
             gifWriter.endWriteSequence();
 
@@ -256,6 +265,11 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
                 // swallow
             }
 
+            // stop rendering the frames that won't be written
+            if (ril instanceof AnimationFrames) {
+                ((AnimationFrames) ril).cancel();
+            }
+
             // let go of the image chain as soon as possible to free memory
             for (RenderedImage image : images) {
                 if (image instanceof PlanarImage) {
@@ -57,6 +57,7 @@ import org.geoserver.util.EntityResolverProvider;
 import org.geoserver.wms.CacheConfiguration;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.StyleCompiler;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSErrorCode;
 import org.geoserver.wms.WMSInfo;
@@ -479,7 +480,7 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements Disposab
                         for (int j = 0; j < styles.size(); j++) {
                             StyleInfo si = styles.get(j);
                             if (si != null) {
-                                newStyles.add(si.getStyle());
+                                newStyles.add(StyleCompiler.getStyle(si));
                             } else {
                                 LayerInfo layer = layers.get(j);
                                 newStyles.add(getDefaultStyle(layer));
@@ -769,7 +770,7 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements Disposab
             return namedStyle;
         } else {
             StyleInfo defaultStyle = layer.getDefaultStyle();
-            return defaultStyle.getStyle();
+            return StyleCompiler.getStyle(defaultStyle);
         }
     }
 
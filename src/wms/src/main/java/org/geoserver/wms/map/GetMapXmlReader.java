@@ -26,6 +26,7 @@ import org.geoserver.ows.xml.v1_0.OWS;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.StyleCompiler;
 import org.geoserver.wms.WMS;
 import org.geotools.data.DataStore;
 import org.geotools.data.FeatureReader;
@@ -336,7 +337,7 @@ public class GetMapXmlReader extends org.geoserver.ows.XmlRequestReader {
                         LayerInfo layer = layerGroupLayers.get(j);
                         currLayer = new MapLayerInfo(layer);
                         if (si != null) {
-                            currLayer.setStyle(si.getStyle());
+                            currLayer.setStyle(StyleCompiler.getStyle(si));
                         }
                         addStyles(
                                 wms,
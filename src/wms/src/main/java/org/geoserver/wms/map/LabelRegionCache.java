@@ -0,0 +1,749 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.ows.LocalPublished;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionListener;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.geometry.jts.LiteShape2;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.FeatureLayer;
+import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.CRS.AxisOrder;
+import org.geotools.renderer.lite.LabelCache;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.Symbolizer;
+import org.geotools.styling.TextSymbolizer;
+import org.geotools.styling.visitor.DuplicatingStyleVisitor;
+import org.geotools.util.NumberRange;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.Feature;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Caches the labels of tiled maps, so that neighbouring tiles do not resolve the label conflicts
+ * and lay out the same labels over and over.
+ *
+ * <p>The world is split in square regions of {@link #REGION_SIZE_KEY} pixels, aligned on the pixel
+ * grid of the request resolution. The labels of a region are rendered once, with the conflict
+ * resolution of the whole region, in a transparent image that is then drawn on top of every tile
+ * intersecting the region. Labels are thus consistent at the tile borders. Labels crossing a region
+ * border are dropped, just like the ones crossing the border of a meta tile, so a tiled map shows
+ * fewer labels along the region borders than the same map rendered at once. Labels falling within
+ * a region are the same as in the map rendered at once.
+ *
+ * <p>Regions are keyed by map definition (the GetMap parameters, tiling ones excluded), virtual
+ * service (workspace and layer the request is local to), resolved layers, user, resolution and
+ * position. The region labels are rendered within the map rendering time, errors and memory
+ * limits, a region whose rendering is stopped is not cached. The cache is dropped as a whole when
+ * styles, layers or their data are modified in the catalog, when a WFS transaction changes the
+ * data, and when the configuration is changed or reloaded. The cache is enabled by setting its
+ * size in megabytes with the {@link #MEMORY_KEY} variable. Maps that are rotated, larger than a
+ * region, not aligned to their pixel grid, use remote SLDs or label obstacles are rendered as
+ * usual, as well as maps whose memory limit is smaller than a region.
+ */
+public class LabelRegionCache
+        implements TransactionListener, CatalogListener, GeoServerLifecycleHandler, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(LabelRegionCache.class);
+
+    /** Variable setting the memory used by the cached labels, in megabytes */
+    public static final String MEMORY_KEY = "org.geoserver.wms.labelRegionCacheSize";
+
+    /** Variable setting the size of the label regions, in pixels */
+    public static final String REGION_SIZE_KEY = "org.geoserver.wms.labelRegionSize";
+
+    static final int DEFAULT_REGION_SIZE = 1024;
+
+    /** Maximum misalignment, in pixels, tolerated between the map and the region grid */
+    private static final double ALIGNMENT_TOLERANCE = 1e-3;
+
+    /** Parameters that do not affect the labels, or that define the tiling */
+    private static final List<String> IGNORED_PARAMETERS =
+            Arrays.asList(
+                    "REQUEST",
+                    "SERVICE",
+                    "TILED",
+                    "TILESORIGIN",
+                    "BBOX",
+                    "WIDTH",
+                    "HEIGHT",
+                    "EXCEPTIONS");
+
+    /** Marks the regions without any label */
+    private static final BufferedImage EMPTY = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+    private final Cache<String, BufferedImage> regions;
+
+    private final int regionSize;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong renderedRegions = new AtomicLong();
+
+    private Catalog catalog;
+
+    /** Builds a disabled cache */
+    public LabelRegionCache() {
+        this(0, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * Builds a cache configured by the {@link #MEMORY_KEY} and {@link #REGION_SIZE_KEY} variables,
+     * listening to the configuration and catalog changes
+     */
+    public LabelRegionCache(GeoServer geoServer) {
+        this(
+                getInt(MEMORY_KEY, 0) * 1024L * 1024L,
+                getInt(REGION_SIZE_KEY, DEFAULT_REGION_SIZE));
+        this.catalog = geoServer.getCatalog();
+        catalog.addListener(this);
+        geoServer.addListener(
+                new ConfigurationListenerAdapter() {
+                    @Override
+                    public void handleGlobalChange(
+                            GeoServerInfo global,
+                            List<String> propertyNames,
+                            List<Object> oldValues,
+                            List<Object> newValues) {
+                        invalidateAll();
+                    }
+
+                    @Override
+                    public void handleServiceChange(
+                            ServiceInfo service,
+                            List<String> propertyNames,
+                            List<Object> oldValues,
+                            List<Object> newValues) {
+                        invalidateAll();
+                    }
+
+                    @Override
+                    public void reloaded() {
+                        invalidateAll();
+                    }
+                });
+    }
+
+    /**
+     * Builds a new cache
+     *
+     * @param maxMemory The memory used by the cached labels, in bytes, zero disables the cache
+     * @param regionSize The size of the label regions, in pixels
+     */
+    public LabelRegionCache(long maxMemory, int regionSize) {
+        this.regionSize = regionSize;
+        if (maxMemory > 0 && regionSize > 0) {
+            this.regions =
+                    CacheBuilder.newBuilder()
+                            .maximumWeight(maxMemory)
+                            .<String, BufferedImage>weigher(
+                                    (k, image) -> image.getWidth() * image.getHeight() * 4)
+                            .recordStats()
+                            .build();
+        } else {
+            this.regions = null;
+        }
+    }
+
+    private static int getInt(String key, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + key + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    /** Returns true if labels are going to be cached */
+    public boolean isEnabled() {
+        return regions != null;
+    }
+
+    /**
+     * Returns a label cache painting the cached labels of the regions intersecting the map, or
+     * null if the map labels cannot be cached
+     *
+     * @param mapContent The map being rendered
+     * @param rendererParams The renderer hints, used to render the labels of the regions
+     * @param wms The WMS configuration, providing the rendering limits
+     */
+    public LabelCache getLabelCache(
+            WMSMapContent mapContent, Map<Object, Object> rendererParams, WMS wms) {
+        if (!isEnabled()) {
+            return null;
+        }
+        // the region image cannot be larger than the memory a map is allowed to use
+        long maxMemory = wms.getMaxRequestMemory() * 1024L;
+        if (maxMemory > 0 && (long) regionSize * regionSize * 4 > maxMemory) {
+            return null;
+        }
+        GetMapRequest request = mapContent.getRequest();
+        if (request == null
+                || request.getRawKvp() == null
+                || request.getSld() != null
+                || mapContent.getAngle() != 0
+                || mapContent.getMapWidth() > regionSize
+                || mapContent.getMapHeight() > regionSize
+                || !hasCacheableLabels(mapContent.layers())) {
+            return null;
+        }
+
+        ReferencedEnvelope area = mapContent.getRenderingArea();
+        boolean flipped =
+                CRS.getAxisOrder(area.getCoordinateReferenceSystem()) == AxisOrder.NORTH_EAST;
+        double minX = flipped ? area.getMinY() : area.getMinX();
+        double maxX = flipped ? area.getMaxY() : area.getMaxX();
+        double minY = flipped ? area.getMinX() : area.getMinY();
+        double maxY = flipped ? area.getMaxX() : area.getMaxY();
+        double resX = (maxX - minX) / mapContent.getMapWidth();
+        double resY = (maxY - minY) / mapContent.getMapHeight();
+        double col = minX / resX;
+        double row = -maxY / resY;
+        if (Math.abs(col - Math.round(col)) > ALIGNMENT_TOLERANCE
+                || Math.abs(row - Math.round(row)) > ALIGNMENT_TOLERANCE) {
+            return null;
+        }
+
+        String key =
+                buildMapDefinition(request.getRawKvp())
+                        + "|"
+                        + getServiceContext(request)
+                        + "|"
+                        + getUser()
+                        + "|"
+                        + normalize(resX)
+                        + ","
+                        + normalize(resY);
+        RegionGrid grid =
+                new RegionGrid(
+                        key,
+                        mapContent,
+                        rendererParams,
+                        resX,
+                        resY,
+                        Math.round(col),
+                        Math.round(row),
+                        flipped,
+                        wms.getMaxRenderingErrors());
+        return new RegionLabelCache(grid);
+    }
+
+    /**
+     * Returns true if the layers have labels, and no symbolizer acting as a label obstacle (the
+     * obstacles would have to be painted along with the labels)
+     */
+    private boolean hasCacheableLabels(List<Layer> layers) {
+        boolean labels = false;
+        for (Layer layer : layers) {
+            if (!(layer instanceof FeatureLayer) || layer.getStyle() == null) {
+                continue;
+            }
+            for (FeatureTypeStyle fts : layer.getStyle().featureTypeStyles()) {
+                for (Rule rule : fts.rules()) {
+                    for (Symbolizer symbolizer : rule.symbolizers()) {
+                        if (symbolizer instanceof TextSymbolizer) {
+                            labels = true;
+                        } else if (symbolizer.getOptions() != null
+                                && Boolean.valueOf(symbolizer.getOptions().get("labelObstacle"))) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return labels;
+    }
+
+    /** The parameters defining the map, sorted, without the tiling ones */
+    private String buildMapDefinition(Map<String, String> kvp) {
+        Map<String, String> sorted = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, String> entry : kvp.entrySet()) {
+            if (!IGNORED_PARAMETERS.contains(entry.getKey().toUpperCase())) {
+                sorted.put(entry.getKey().toUpperCase(), entry.getValue());
+            }
+        }
+        return sorted.toString();
+    }
+
+    /**
+     * The virtual service and the layers the request resolved to, the same layer names can refer to
+     * different layers in different workspaces
+     */
+    private String getServiceContext(GetMapRequest request) {
+        StringBuilder sb = new StringBuilder();
+        WorkspaceInfo workspace = LocalWorkspace.get();
+        PublishedInfo published = LocalPublished.get();
+        sb.append(workspace != null ? workspace.getId() : null);
+        sb.append(",").append(published != null ? published.getId() : null);
+        for (MapLayerInfo layer : request.getLayers()) {
+            LayerInfo info = layer.getLayerInfo();
+            sb.append(",").append(info != null ? info.getId() : layer.getName());
+        }
+        return sb.toString();
+    }
+
+    /** The labels may depend on the data the user can access */
+    private String getUser() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        return auth != null ? auth.getName() : null;
+    }
+
+    /** Rounds the resolution so that the tiles of the same zoom level share the same one */
+    private static String normalize(double resolution) {
+        return new BigDecimal(resolution).round(new MathContext(9)).toString();
+    }
+
+    /**
+     * Returns the labels of the region, rendering them if not cached, or null if the map rendering
+     * has been stopped
+     */
+    BufferedImage getRegion(RegionGrid grid, long rx, long ry, RenderingHints hints) {
+        String key = grid.key + "|" + rx + "," + ry + "|" + generation.get();
+        while (!grid.stopped) {
+            try {
+                return regions.get(key, () -> renderRegion(grid, rx, ry, hints));
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                // another map sharing the region might have been stopped, if so try again
+                Throwable cause = e.getCause();
+                if (cause instanceof ServiceException) {
+                    throw (ServiceException) cause;
+                } else if (!(cause instanceof RegionStoppedException)) {
+                    throw new ServiceException("Failed to render the map labels", cause);
+                }
+            }
+        }
+        return null;
+    }
+
+    private BufferedImage renderRegion(RegionGrid grid, long rx, long ry, RenderingHints hints)
+            throws Exception {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Rendering labels of region " + rx + "," + ry + " for " + grid.key);
+        }
+        MapContent labels = new MapContent();
+        try {
+            for (Layer layer : grid.mapContent.layers()) {
+                Layer labelLayer = getLabelLayer(layer);
+                if (labelLayer != null) {
+                    labels.addLayer(labelLayer);
+                }
+            }
+
+            BufferedImage image =
+                    new BufferedImage(regionSize, regionSize, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = image.createGraphics();
+            RenderExceptionStrategy errors;
+            MaxErrorEnforcer errorChecker;
+            try {
+                graphics.setRenderingHints(hints);
+                StreamingRenderer renderer = new StreamingRenderer();
+                Map<Object, Object> params = new HashMap<>(grid.rendererParams);
+                params.remove(StreamingRenderer.LABEL_CACHE_KEY);
+                renderer.setRendererHints(params);
+                renderer.setJava2DHints(hints);
+                renderer.setMapContent(labels);
+                errorChecker = new MaxErrorEnforcer(renderer, grid.maxErrors);
+                errors = new RenderExceptionStrategy(renderer);
+                renderer.addRenderListener(errors);
+                // the map rendering timeout stops the region rendering too
+                grid.setRenderer(renderer);
+                try {
+                    renderer.paint(
+                            graphics,
+                            new Rectangle(regionSize, regionSize),
+                            grid.getArea(rx, ry));
+                } finally {
+                    grid.setRenderer(null);
+                }
+            } finally {
+                graphics.dispose();
+            }
+            if (grid.stopped) {
+                throw new RegionStoppedException();
+            }
+            if (errorChecker.exceedsMaxErrors()) {
+                throw new ServiceException(
+                        "More than " + grid.maxErrors + " rendering errors occurred, bailing out.",
+                        errorChecker.getLastException(),
+                        "internalError");
+            }
+            if (errors.exceptionOccurred()) {
+                throw errors.getException();
+            }
+
+            renderedRegions.incrementAndGet();
+            return isEmpty(image) ? EMPTY : image;
+        } finally {
+            labels.dispose();
+        }
+    }
+
+    /** A copy of the layer painting only its labels, or null if it has none */
+    private Layer getLabelLayer(Layer layer) {
+        if (!(layer instanceof FeatureLayer) || !layer.isVisible() || layer.getStyle() == null) {
+            return null;
+        }
+        DuplicatingStyleVisitor copier = new DuplicatingStyleVisitor();
+        layer.getStyle().accept(copier);
+        Style style = (Style) copier.getCopy();
+        boolean hasLabels = false;
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            for (Rule rule : fts.rules()) {
+                // empty rules are kept, they still matter for the else rules
+                rule.symbolizers().removeIf(s -> !(s instanceof TextSymbolizer));
+                hasLabels |= !rule.symbolizers().isEmpty();
+            }
+        }
+        if (!hasLabels) {
+            return null;
+        }
+
+        FeatureLayer source = (FeatureLayer) layer;
+        FeatureLayer result = new FeatureLayer(source.getFeatureSource(), style, layer.getTitle());
+        result.setQuery(source.getQuery());
+        result.getUserData().putAll(layer.getUserData());
+        return result;
+    }
+
+    private boolean isEmpty(BufferedImage image) {
+        int[] pixels = new int[image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, pixels.length, 1, pixels, 0, pixels.length);
+            for (int pixel : pixels) {
+                if ((pixel >>> 24) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Drops all the cached labels */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        if (regions != null) {
+            regions.invalidateAll();
+        }
+    }
+
+    /** The number of regions currently cached */
+    public long getCount() {
+        return regions != null ? regions.size() : 0;
+    }
+
+    /** Number of regions whose labels have been rendered */
+    public long getRenderedCount() {
+        return renderedRegions.get();
+    }
+
+    /** The cache statistics, or null if the cache is disabled */
+    public CacheStats getStats() {
+        return regions != null ? regions.stats() : null;
+    }
+
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        // as in the meta tile cache, we don't try to figure out which maps are affected
+        invalidateAll();
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {}
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {}
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        invalidate(event.getSource());
+    }
+
+    private void invalidate(Object source) {
+        if (source instanceof StyleInfo
+                || source instanceof LayerInfo
+                || source instanceof LayerGroupInfo
+                || source instanceof ResourceInfo
+                || source instanceof StoreInfo) {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void reloaded() {
+        invalidateAll();
+    }
+
+    @Override
+    public void onReset() {
+        invalidateAll();
+    }
+
+    @Override
+    public void onDispose() {
+        invalidateAll();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        invalidateAll();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (catalog != null) {
+            catalog.removeListener(this);
+        }
+        invalidateAll();
+    }
+
+    @Override
+    public String toString() {
+        return "LabelRegionCache [regionSize="
+                + regionSize
+                + ", count="
+                + getCount()
+                + ", rendered="
+                + renderedRegions
+                + ", stats="
+                + getStats()
+                + "]";
+    }
+
+    /** Marks the regions whose rendering has been stopped */
+    private static class RegionStoppedException extends Exception {
+        private static final long serialVersionUID = -3391265743364802515L;
+    }
+
+    /** The region grid of a map, at its resolution */
+    class RegionGrid {
+
+        final String key;
+
+        final WMSMapContent mapContent;
+
+        final Map<Object, Object> rendererParams;
+
+        final double resX;
+
+        final double resY;
+
+        /** Position of the map in the global pixel grid */
+        final long col;
+
+        final long row;
+
+        final boolean flipped;
+
+        final int maxErrors;
+
+        /** Set when the map rendering is stopped, e.g., by the rendering timeout */
+        volatile boolean stopped;
+
+        /** The renderer of the region being rendered for the map, if any */
+        private StreamingRenderer renderer;
+
+        RegionGrid(
+                String key,
+                WMSMapContent mapContent,
+                Map<Object, Object> rendererParams,
+                double resX,
+                double resY,
+                long col,
+                long row,
+                boolean flipped,
+                int maxErrors) {
+            this.key = key;
+            this.mapContent = mapContent;
+            this.rendererParams = rendererParams;
+            this.resX = resX;
+            this.resY = resY;
+            this.col = col;
+            this.row = row;
+            this.flipped = flipped;
+            this.maxErrors = maxErrors;
+        }
+
+        synchronized void setRenderer(StreamingRenderer renderer) {
+            this.renderer = renderer;
+            if (renderer != null && stopped) {
+                renderer.stopRendering();
+            }
+        }
+
+        /** Stops the rendering of the regions */
+        synchronized void stop() {
+            stopped = true;
+            if (renderer != null) {
+                renderer.stopRendering();
+            }
+        }
+
+        /** The world area of the region */
+        ReferencedEnvelope getArea(long rx, long ry) {
+            double minX = rx * regionSize * resX;
+            double maxX = (rx + 1) * regionSize * resX;
+            double maxY = -ry * regionSize * resY;
+            double minY = -(ry + 1) * regionSize * resY;
+            ReferencedEnvelope area = mapContent.getRenderingArea();
+            if (flipped) {
+                return new ReferencedEnvelope(
+                        minY, maxY, minX, maxX, area.getCoordinateReferenceSystem());
+            }
+            return new ReferencedEnvelope(
+                    minX, maxX, minY, maxY, area.getCoordinateReferenceSystem());
+        }
+
+        /** Draws the labels of the regions intersecting the map */
+        void paint(Graphics2D graphics) {
+            RenderingHints hints = graphics.getRenderingHints();
+            long firstX = Math.floorDiv(col, regionSize);
+            long lastX = Math.floorDiv(col + mapContent.getMapWidth() - 1, regionSize);
+            long firstY = Math.floorDiv(row, regionSize);
+            long lastY = Math.floorDiv(row + mapContent.getMapHeight() - 1, regionSize);
+            for (long ry = firstY; ry <= lastY; ry++) {
+                for (long rx = firstX; rx <= lastX; rx++) {
+                    BufferedImage labels = getRegion(this, rx, ry, hints);
+                    if (labels == null) {
+                        return;
+                    }
+                    if (labels != EMPTY) {
+                        int x = (int) (rx * regionSize - col);
+                        int y = (int) (ry * regionSize - row);
+                        graphics.drawImage(labels, x, y, null);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Label cache used while rendering a map: the labels are not collected, the cached ones of the
+     * regions intersecting the map are painted instead
+     */
+    static class RegionLabelCache implements LabelCache {
+
+        RegionGrid grid;
+
+        RegionLabelCache(RegionGrid grid) {
+            this.grid = grid;
+        }
+
+        @Override
+        public void start() {}
+
+        @Override
+        public void startLayer(String layerId) {}
+
+        @Override
+        public void put(
+                String layerId,
+                TextSymbolizer symbolizer,
+                Feature feature,
+                LiteShape2 shape,
+                NumberRange<Double> scaleRange) {}
+
+        @Override
+        public void put(Rectangle2D area) {}
+
+        @Override
+        public void endLayer(String layerId, Graphics2D graphics, Rectangle displayArea) {}
+
+        @Override
+        public void end(Graphics2D graphics, Rectangle displayArea) {
+            grid.paint(graphics);
+        }
+
+        @Override
+        public void stop() {
+            grid.stop();
+        }
+
+        @Override
+        public void clear() {}
+
+        @Override
+        public void clear(String layerId) {}
+
+        @Override
+        public void disableLayer(String layerId) {}
+
+        @Override
+        public void enableLayer(String layerId) {}
+
+        @Override
+        public List orderedLabels() {
+            return Collections.emptyList();
+        }
+    }
+}
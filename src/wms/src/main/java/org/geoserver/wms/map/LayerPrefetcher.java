@@ -0,0 +1,443 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.security.decorators.DecoratingSimpleFeatureSource;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.data.Query;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
+import org.geotools.map.FeatureLayer;
+import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Style;
+import org.geotools.util.factory.Hints;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Reads the data of the vector layers of a map concurrently, so that the I/O latencies of layers
+ * coming from different stores overlap, while the renderer keeps on painting them one at a time,
+ * in map order.
+ *
+ * <p>The queries the renderer is going to run are captured by painting the map against empty
+ * feature sources first, then each query is read on the rendering pool into a bounded buffer.
+ * The renderer is handed the buffered streams when it runs the same queries, and reads the data
+ * directly otherwise. Raster layers, and layers using rendering transformations, are not
+ * prefetched.
+ */
+public class LayerPrefetcher {
+
+    static final Logger LOGGER = Logging.getLogger(LayerPrefetcher.class);
+
+    /** Enables the concurrent prefetch of the vector layers in multi-layer maps */
+    public static boolean LAYER_PREFETCH_ENABLED =
+            Boolean.getBoolean("org.geoserver.wms.layerPrefetch");
+
+    /** Number of features each layer query can read ahead of the renderer */
+    public static int LAYER_PREFETCH_BUFFER =
+            Integer.getInteger("org.geoserver.wms.layerPrefetchBuffer", 1000);
+
+    /** Marks the end of a prefetched stream */
+    static final Object END = new Object();
+
+    ExecutorService executor;
+
+    int bufferSize;
+
+    List<Prefetch> prefetches = new CopyOnWriteArrayList<>();
+
+    List<Layer> copies = new ArrayList<>();
+
+    WMSMapContent content;
+
+    AtomicInteger served = new AtomicInteger();
+
+    public LayerPrefetcher(ExecutorService executor, int bufferSize) {
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+    }
+
+    /** Returns true if the prefetch is enabled and there is a pool to run it */
+    public static boolean isEnabled(ExecutorService executor) {
+        return LAYER_PREFETCH_ENABLED && executor != null && LAYER_PREFETCH_BUFFER > 0;
+    }
+
+    /**
+     * Starts reading the data of the vector layers in the map, and returns a copy of the map
+     * content serving the prefetched data, or null if less than two layers can be prefetched
+     *
+     * @param mapContent The map to be painted
+     * @param paintArea The area the map is going to be painted into
+     * @param rendererHints The renderer hints that will be used to paint the map
+     * @param java2dHints The Java2D hints that will be used to paint the map
+     */
+    public MapContent prefetch(
+            WMSMapContent mapContent,
+            Rectangle paintArea,
+            Map<Object, Object> rendererHints,
+            RenderingHints java2dHints) {
+        List<Layer> layers = mapContent.layers();
+        List<RecordingFeatureSource> recorders = new ArrayList<>();
+        WMSMapContent dryRun = new WMSMapContent(mapContent, false);
+        try {
+            for (Layer layer : layers) {
+                RecordingFeatureSource recorder = null;
+                if (canPrefetch(layer)) {
+                    recorder =
+                            new RecordingFeatureSource(
+                                    (SimpleFeatureSource) layer.getFeatureSource());
+                    dryRun.layers().add(copy((FeatureLayer) layer, recorder));
+                }
+                recorders.add(recorder);
+            }
+            if (dryRun.layers().size() < 2) {
+                return null;
+            }
+
+            // paint against empty sources, just to collect the queries
+            StreamingRenderer renderer = new StreamingRenderer();
+            renderer.setMapContent(dryRun);
+            renderer.setJava2DHints(java2dHints);
+            Map<Object, Object> hints = new HashMap<>(rendererHints);
+            hints.remove(StreamingRenderer.LABEL_CACHE_KEY);
+            renderer.setRendererHints(hints);
+            Graphics2D graphics =
+                    new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+            try {
+                renderer.paint(
+                        graphics,
+                        paintArea,
+                        mapContent.getRenderingArea(),
+                        mapContent.getRenderingTransform());
+            } finally {
+                graphics.dispose();
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Could not collect the layer queries, skipping prefetch", e);
+            return null;
+        } finally {
+            dryRun.dispose();
+        }
+
+        int queried = 0;
+        for (RecordingFeatureSource recorder : recorders) {
+            if (recorder != null && !recorder.queries.isEmpty()) {
+                queried++;
+            }
+        }
+        if (queried < 2) {
+            return null;
+        }
+
+        content = new WMSMapContent(mapContent, false);
+        try {
+            for (int i = 0; i < layers.size(); i++) {
+                Layer layer = layers.get(i);
+                RecordingFeatureSource recorder = recorders.get(i);
+                if (recorder != null && !recorder.queries.isEmpty()) {
+                    PrefetchingFeatureSource source =
+                            new PrefetchingFeatureSource(recorder.getDelegate());
+                    for (Query query : recorder.queries) {
+                        source.pending.add(start(recorder.getDelegate(), query));
+                    }
+                    layer = copy((FeatureLayer) layer, source);
+                    copies.add(layer);
+                }
+                // the layers already went through the GetMap callbacks
+                content.layers().add(layer);
+            }
+        } catch (IOException | RejectedExecutionException e) {
+            LOGGER.log(Level.FINE, "Could not start the layer prefetch", e);
+            dispose();
+            return null;
+        }
+
+        return content;
+    }
+
+    private boolean canPrefetch(Layer layer) {
+        if (!(layer instanceof FeatureLayer)
+                || !layer.isVisible()
+                || !(layer.getFeatureSource() instanceof SimpleFeatureSource)) {
+            return false;
+        }
+        Style style = ((FeatureLayer) layer).getStyle();
+        if (style == null) {
+            return false;
+        }
+        // transformations change the queries, and can run processes on the collected data
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            if (fts.getTransformation() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private FeatureLayer copy(FeatureLayer layer, SimpleFeatureSource source) {
+        FeatureLayer copy = new FeatureLayer(source, layer.getStyle(), layer.getTitle());
+        copy.setQuery(layer.getQuery());
+        copy.setVisible(layer.isVisible());
+        copy.getUserData().putAll(layer.getUserData());
+        return copy;
+    }
+
+    private Prefetch start(SimpleFeatureSource source, Query query) throws IOException {
+        Prefetch prefetch = new Prefetch(query, source.getFeatures(query));
+        prefetches.add(prefetch);
+        executor.submit(prefetch);
+        return prefetch;
+    }
+
+    /** Returns the number of queries served from the prefetched data */
+    public int getServedCount() {
+        return served.get();
+    }
+
+    /** Stops all the prefetches, the renderer will see the streams ending */
+    public void cancel() {
+        for (Prefetch prefetch : prefetches) {
+            prefetch.cancel();
+        }
+    }
+
+    /** Stops the prefetches not yet used by the renderer */
+    void cancelPending() {
+        for (Prefetch prefetch : prefetches) {
+            if (!prefetch.taken) {
+                prefetch.cancel();
+            }
+        }
+    }
+
+    /** Stops the prefetches and releases the map content copy, leaving the original layers alone */
+    public void dispose() {
+        cancel();
+        if (content != null) {
+            for (Layer layer : new ArrayList<>(content.layers())) {
+                content.removeLayer(layer);
+            }
+            content.dispose();
+            content = null;
+        }
+        for (Layer copy : copies) {
+            copy.dispose();
+        }
+        copies.clear();
+    }
+
+    /** Keeps track of the queries run by the renderer, returning no data */
+    static class RecordingFeatureSource extends DecoratingSimpleFeatureSource {
+
+        List<Query> queries = new CopyOnWriteArrayList<>();
+
+        public RecordingFeatureSource(SimpleFeatureSource delegate) {
+            super(delegate);
+        }
+
+        SimpleFeatureSource getDelegate() {
+            return delegate;
+        }
+
+        @Override
+        public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+            queries.add(new Query(query));
+            return new ListFeatureCollection(getSchema());
+        }
+    }
+
+    /** Serves the prefetched streams for the queries it has been prepared for */
+    class PrefetchingFeatureSource extends DecoratingSimpleFeatureSource {
+
+        List<Prefetch> pending = new CopyOnWriteArrayList<>();
+
+        public PrefetchingFeatureSource(SimpleFeatureSource delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+            Prefetch prefetch = take(query);
+            if (prefetch == null) {
+                // the renderer is not following the plan, avoid holding resources while the
+                // data gets read directly
+                cancelPending();
+                return super.getFeatures(query);
+            }
+            served.incrementAndGet();
+            return new PrefetchedFeatureCollection(prefetch);
+        }
+
+        private Prefetch take(Query query) {
+            Query key = withoutHints(query);
+            for (Iterator<Prefetch> it = pending.iterator(); it.hasNext(); ) {
+                Prefetch prefetch = it.next();
+                // screen maps and other hints are created anew on each paint
+                if (!prefetch.cancelled && withoutHints(prefetch.query).equals(key)) {
+                    pending.remove(prefetch);
+                    prefetch.taken = true;
+                    return prefetch;
+                }
+            }
+            return null;
+        }
+
+        private Query withoutHints(Query query) {
+            Query result = new Query(query);
+            result.setHints(new Hints());
+            return result;
+        }
+    }
+
+    /** Reads the results of a query into a bounded buffer */
+    class Prefetch implements Runnable {
+
+        Query query;
+
+        SimpleFeatureCollection features;
+
+        BlockingQueue<Object> buffer;
+
+        volatile boolean cancelled;
+
+        volatile boolean taken;
+
+        Prefetch(Query query, SimpleFeatureCollection features) {
+            this.query = query;
+            this.features = features;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        @Override
+        public void run() {
+            try {
+                try (SimpleFeatureIterator it = features.features()) {
+                    while (!cancelled && it.hasNext()) {
+                        put(it.next());
+                    }
+                }
+                put(END);
+            } catch (InterruptedException e) {
+                cancelled = true;
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                try {
+                    put(t);
+                } catch (InterruptedException e) {
+                    cancelled = true;
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void put(Object value) throws InterruptedException {
+            while (!cancelled) {
+                if (buffer.offer(value, 100, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        }
+
+        /** Returns the next feature, or null if the stream is over or got cancelled */
+        SimpleFeature next() {
+            try {
+                while (!cancelled) {
+                    Object value = buffer.poll(100, TimeUnit.MILLISECONDS);
+                    if (value == END) {
+                        return null;
+                    } else if (value instanceof SimpleFeature) {
+                        return (SimpleFeature) value;
+                    } else if (value instanceof RuntimeException) {
+                        throw (RuntimeException) value;
+                    } else if (value instanceof Throwable) {
+                        throw new RuntimeException(
+                                "Failed to read the data of " + query.getTypeName(),
+                                (Throwable) value);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+
+        void cancel() {
+            cancelled = true;
+            // let the reader thread get out of a full buffer
+            buffer.clear();
+        }
+    }
+
+    /** A collection whose iterator returns the prefetched features */
+    static class PrefetchedFeatureCollection extends DecoratingSimpleFeatureCollection {
+
+        Prefetch prefetch;
+
+        PrefetchedFeatureCollection(Prefetch prefetch) {
+            super(prefetch.features);
+            this.prefetch = prefetch;
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            return new SimpleFeatureIterator() {
+
+                SimpleFeature next;
+
+                boolean done;
+
+                @Override
+                public boolean hasNext() {
+                    if (next == null && !done) {
+                        next = prefetch.next();
+                        done = next == null;
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public SimpleFeature next() throws NoSuchElementException {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    SimpleFeature result = next;
+                    next = null;
+                    return result;
+                }
+
+                @Override
+                public void close() {
+                    prefetch.cancel();
+                }
+            };
+        }
+    }
+}
@@ -40,6 +40,9 @@ public class PNGMapResponse extends RenderedImageMapResponse {
 
     private static final String[] OUTPUT_FORMATS = {MIME_TYPE, MIME_TYPE_8BIT, "image/png8"};
 
+    /** The PNGJ writer is stateless, a single instance is shared among concurrent encodings */
+    private static final PNGJWriter PNGJ_WRITER = new PNGJWriter();
+
     /** The two quantizers available for PNG images */
     public enum QuantizeMethod {
         Octree,
@@ -97,7 +100,7 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         float quality = (100 - wms.getPngCompression()) / 100.0f;
         JAIInfo.PngEncoderType encoder = wms.getPNGEncoderType();
         if (encoder == JAIInfo.PngEncoderType.PNGJ) {
-            image = new PNGJWriter().writePNG(image, outStream, quality, mapContent);
+            image = PNGJ_WRITER.writePNG(image, outStream, quality, mapContent);
             RasterCleaner.addImage(image);
         } else {
             Boolean PNGNativeAcc = (encoder == JAIInfo.PngEncoderType.NATIVE);
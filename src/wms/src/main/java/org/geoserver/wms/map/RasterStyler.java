@@ -0,0 +1,451 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.ROI;
+import org.geotools.image.ImageWorker;
+import org.geotools.styling.ChannelSelection;
+import org.geotools.styling.ColorMap;
+import org.geotools.styling.ColorMapEntry;
+import org.geotools.styling.ContrastEnhancement;
+import org.geotools.styling.RasterSymbolizer;
+import org.geotools.styling.SelectedChannelType;
+import org.opengis.filter.expression.Expression;
+import org.opengis.style.ContrastMethod;
+
+/**
+ * Applies the color map of a {@link RasterSymbolizer} to a single band image, reading the samples
+ * as primitive arrays and processing the tiles in parallel, instead of going through the generic
+ * JAI piecewise and lookup operations.
+ *
+ * <p>Handles non extended ramp, intervals and values color maps only, the ones the aligned direct
+ * rendering path accepts. Symbolizers with contrast enhancement, channel selection, shaded relief
+ * or opacity are rejected, as their result depends on the image statistics or on the rendering
+ * chain, and the caller is expected to fall back on the GeoTools raster symbolizer support. NaN and
+ * no data values are rendered transparent.
+ */
+class RasterStyler {
+
+    /** Number of threads used to style the tiles, defaults to the number of processors */
+    public static final String THREADS_KEY = "wms.raster.stylerThreads";
+
+    /** Images smaller than this number of pixels are styled in the calling thread */
+    static final int MIN_PARALLEL_PIXELS = 256 * 256;
+
+    static final ExecutorService EXECUTOR =
+            Executors.newFixedThreadPool(
+                    Math.max(
+                            1,
+                            Integer.getInteger(
+                                    THREADS_KEY, Runtime.getRuntime().availableProcessors())),
+                    new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("GeoServer-Raster-Styler-%d")
+                            .build());
+
+    /** Sorted color map quantities */
+    final double[] quantities;
+
+    /** Color map colors, as non premultiplied ARGB */
+    final int[] colors;
+
+    final int type;
+
+    private RasterStyler(double[] quantities, int[] colors, int type) {
+        this.quantities = quantities;
+        this.colors = colors;
+        this.type = type;
+    }
+
+    /**
+     * Builds a styler for the given symbolizer, or returns null if the symbolizer uses features
+     * that are not supported
+     */
+    static RasterStyler create(RasterSymbolizer symbolizer) {
+        if (symbolizer.getShadedRelief() != null || !isNeutral(symbolizer.getOpacity(), 1)) {
+            return null;
+        }
+
+        // contrast enhancement depends on the statistics of the image being styled, which
+        // differ from the ones of the image the GeoTools rendering chain would style
+        if (!isNeutral(symbolizer.getContrastEnhancement())) {
+            return null;
+        }
+        ChannelSelection selection = symbolizer.getChannelSelection();
+        if (selection != null) {
+            SelectedChannelType[] rgb = selection.getRGBChannels();
+            if (rgb != null && (rgb[0] != null || rgb[1] != null || rgb[2] != null)) {
+                return null;
+            }
+            SelectedChannelType gray = selection.getGrayChannel();
+            if (gray != null && !isNeutral(gray.getContrastEnhancement())) {
+                return null;
+            }
+        }
+
+        ColorMap colorMap = symbolizer.getColorMap();
+        if (colorMap == null
+                || colorMap.getColorMapEntries() == null
+                || colorMap.getColorMapEntries().length == 0) {
+            // nothing to do without a color map
+            return null;
+        }
+        int type = colorMap.getType();
+        if (colorMap.getExtendedColors()
+                || (type != ColorMap.TYPE_RAMP
+                        && type != ColorMap.TYPE_INTERVALS
+                        && type != ColorMap.TYPE_VALUES)) {
+            return null;
+        }
+        ColorMapEntry[] entries = colorMap.getColorMapEntries();
+        double[] quantities = new double[entries.length];
+        int[] colors = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            Double quantity =
+                    entries[i].getQuantity() != null
+                            ? entries[i].getQuantity().evaluate(null, Double.class)
+                            : null;
+            Color color =
+                    entries[i].getColor() != null
+                            ? entries[i].getColor().evaluate(null, Color.class)
+                            : null;
+            Double opacity =
+                    entries[i].getOpacity() != null
+                            ? entries[i].getOpacity().evaluate(null, Double.class)
+                            : Double.valueOf(1);
+            if (quantity == null || color == null || opacity == null) {
+                return null;
+            }
+            int alpha = (int) Math.round(Math.max(0, Math.min(1, opacity)) * 255);
+            quantities[i] = quantity;
+            colors[i] = (alpha << 24) | (color.getRGB() & 0xFFFFFF);
+            // ramps and intervals need ascending quantities, values are looked up by binary search
+            if (i > 0 && quantities[i] <= quantities[i - 1]) {
+                if (type != ColorMap.TYPE_VALUES) {
+                    return null;
+                }
+            }
+        }
+        if (type == ColorMap.TYPE_VALUES) {
+            sortByQuantity(quantities, colors);
+        }
+
+        return new RasterStyler(quantities, colors, type);
+    }
+
+    private static void sortByQuantity(double[] quantities, int[] colors) {
+        Integer[] order = new Integer[quantities.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        double[] sourceQuantities = quantities.clone();
+        int[] sourceColors = colors.clone();
+        Arrays.sort(order, (a, b) -> Double.compare(sourceQuantities[a], sourceQuantities[b]));
+        for (int i = 0; i < order.length; i++) {
+            quantities[i] = sourceQuantities[order[i]];
+            colors[i] = sourceColors[order[i]];
+        }
+    }
+
+    private static boolean isNeutral(ContrastEnhancement ce) {
+        if (ce == null) {
+            return true;
+        }
+        ContrastMethod method = ce.getMethod();
+        return (method == null || method == ContrastMethod.NONE)
+                && isNeutral(ce.getGammaValue(), 1);
+    }
+
+    private static boolean isNeutral(Expression expression, double neutralValue) {
+        if (expression == null) {
+            return true;
+        }
+        Double value = expression.evaluate(null, Double.class);
+        return value != null && value == neutralValue;
+    }
+
+    /**
+     * Styles the image, returning a non premultiplied ARGB image with the same bounds and ROI, or
+     * null if the image is not a single band one
+     *
+     * @param noData the no data value, or NaN if there is none
+     */
+    RenderedImage style(RenderedImage image, double noData) {
+        if (image.getSampleModel().getNumBands() != 1) {
+            return null;
+        }
+
+        // whole range lookup for the small integral types
+        int[] lookup = null;
+        int lookupOffset = 0;
+        int dataType = image.getSampleModel().getDataType();
+        if (dataType == DataBuffer.TYPE_BYTE
+                || dataType == DataBuffer.TYPE_USHORT
+                || dataType == DataBuffer.TYPE_SHORT) {
+            lookupOffset = dataType == DataBuffer.TYPE_SHORT ? Short.MIN_VALUE : 0;
+            lookup = new int[dataType == DataBuffer.TYPE_BYTE ? 256 : 65536];
+            for (int i = 0; i < lookup.length; i++) {
+                int value = i + lookupOffset;
+                lookup[i] = value == noData ? 0 : color(value);
+            }
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int minX = image.getMinX();
+        int minY = image.getMinY();
+        // the ROI (e.g., a mosaic footprint) still applies to the styled pixels
+        Hashtable<String, Object> properties = new Hashtable<>();
+        Object roi = image.getProperty("ROI");
+        if (roi instanceof ROI) {
+            properties.put("ROI", roi);
+        }
+        ColorModel cm = ColorModel.getRGBdefault();
+        BufferedImage result =
+                new BufferedImage(
+                        cm, cm.createCompatibleWritableRaster(width, height), false, properties);
+        int[] target = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        final int[] lut = lookup;
+        final int offset = lookupOffset;
+        processTiles(
+                image,
+                (samples, area) -> {
+                    int i = 0;
+                    for (int y = area.y; y < area.y + area.height; y++) {
+                        int t = (y - minY) * width + area.x - minX;
+                        for (int x = 0; x < area.width; x++, i++, t++) {
+                            double v = samples[i];
+                            if (lut != null) {
+                                target[t] = lut[(int) v - offset];
+                            } else if (Double.isNaN(v) || v == noData) {
+                                target[t] = 0;
+                            } else {
+                                target[t] = color(v);
+                            }
+                        }
+                    }
+                    return null;
+                });
+
+        if (minX == 0 && minY == 0) {
+            return result;
+        }
+        PlanarImage translated =
+                new ImageWorker(result).translate(minX, minY, null).getPlanarImage();
+        if (roi instanceof ROI) {
+            translated.setProperty("ROI", roi);
+        }
+        return translated;
+    }
+
+    /** Returns the ARGB color of a value according to the color map */
+    int color(double v) {
+        int n = quantities.length;
+        if (type == ColorMap.TYPE_VALUES) {
+            int idx = Arrays.binarySearch(quantities, v);
+            return idx >= 0 ? colors[idx] : 0;
+        } else if (type == ColorMap.TYPE_INTERVALS) {
+            // entry i covers [q(i - 1), q(i)), the first one everything below q(0)
+            int idx = Arrays.binarySearch(quantities, v);
+            idx = idx >= 0 ? idx + 1 : -idx - 1;
+            return idx < n ? colors[idx] : 0;
+        }
+
+        // ramp, extended with the first and last colors outside of the quantities range
+        if (v <= quantities[0]) {
+            return colors[0];
+        } else if (v >= quantities[n - 1]) {
+            return colors[n - 1];
+        }
+        int idx = Arrays.binarySearch(quantities, v);
+        if (idx >= 0) {
+            return colors[idx];
+        }
+        int upper = -idx - 1;
+        int lower = upper - 1;
+        double t = (v - quantities[lower]) / (quantities[upper] - quantities[lower]);
+        return interpolate(colors[lower], colors[upper], t);
+    }
+
+    private static int interpolate(int c1, int c2, double t) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int a = (c1 >>> shift) & 0xFF;
+            int b = (c2 >>> shift) & 0xFF;
+            result |= ((int) Math.round(a + (b - a) * t)) << shift;
+        }
+        return result;
+    }
+
+    /** Computes a value out of the samples of a tile */
+    @FunctionalInterface
+    interface TileFunction<T> {
+        /**
+         * @param samples the samples in the area, row by row
+         * @param area the area of the tile inside the image bounds
+         */
+        T apply(double[] samples, Rectangle area);
+    }
+
+    /**
+     * Runs the function on each tile of the image, in parallel if the image is large enough, and
+     * returns the results in tile order
+     */
+    static <T> List<T> processTiles(RenderedImage image, TileFunction<T> function) {
+        Rectangle bounds =
+                new Rectangle(
+                        image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight());
+        List<int[]> tiles = new ArrayList<>();
+        for (int ty = image.getMinTileY(); ty < image.getMinTileY() + image.getNumYTiles(); ty++) {
+            for (int tx = image.getMinTileX();
+                    tx < image.getMinTileX() + image.getNumXTiles();
+                    tx++) {
+                tiles.add(new int[] {tx, ty});
+            }
+        }
+
+        List<T> results = new ArrayList<>(tiles.size());
+        long pixels = (long) image.getWidth() * image.getHeight();
+        if (tiles.size() == 1 || pixels < MIN_PARALLEL_PIXELS) {
+            for (int[] tile : tiles) {
+                results.add(processTile(image, tile[0], tile[1], bounds, function));
+            }
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<>(tiles.size());
+        try {
+            for (int[] tile : tiles) {
+                futures.add(
+                        EXECUTOR.submit(
+                                () -> processTile(image, tile[0], tile[1], bounds, function)));
+            }
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while styling the raster", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Failed to style the raster", cause);
+        } finally {
+            // the tiles come from a shared image, do not interrupt the threads computing them
+            for (Future<T> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return results;
+    }
+
+    private static <T> T processTile(
+            RenderedImage image, int tx, int ty, Rectangle bounds, TileFunction<T> function) {
+        Raster tile = image.getTile(tx, ty);
+        Rectangle area = tile.getBounds().intersection(bounds);
+        double[] samples = new double[area.width * area.height];
+        readSamples(tile, area, samples);
+        return function.apply(samples, area);
+    }
+
+    /**
+     * Copies the samples of the first band in the area, reading straight from the data arrays for
+     * the common component sample models
+     */
+    static void readSamples(Raster tile, Rectangle area, double[] samples) {
+        if (!(tile.getSampleModel() instanceof ComponentSampleModel)) {
+            tile.getSamples(area.x, area.y, area.width, area.height, 0, samples);
+            return;
+        }
+        ComponentSampleModel sm = (ComponentSampleModel) tile.getSampleModel();
+        DataBuffer db = tile.getDataBuffer();
+        int pixelStride = sm.getPixelStride();
+        int scanlineStride = sm.getScanlineStride();
+        int bank = sm.getBankIndices()[0];
+        int start =
+                db.getOffsets()[bank]
+                        + sm.getBandOffsets()[0]
+                        + (area.y - tile.getSampleModelTranslateY()) * scanlineStride
+                        + (area.x - tile.getSampleModelTranslateX()) * pixelStride;
+        int i = 0;
+        if (db instanceof DataBufferFloat) {
+            float[] data = ((DataBufferFloat) db).getData(bank);
+            for (int y = 0; y < area.height; y++) {
+                for (int x = 0, p = start + y * scanlineStride; x < area.width; x++) {
+                    samples[i++] = data[p];
+                    p += pixelStride;
+                }
+            }
+        } else if (db instanceof DataBufferDouble) {
+            double[] data = ((DataBufferDouble) db).getData(bank);
+            for (int y = 0; y < area.height; y++) {
+                for (int x = 0, p = start + y * scanlineStride; x < area.width; x++) {
+                    samples[i++] = data[p];
+                    p += pixelStride;
+                }
+            }
+        } else if (db instanceof DataBufferByte) {
+            byte[] data = ((DataBufferByte) db).getData(bank);
+            for (int y = 0; y < area.height; y++) {
+                for (int x = 0, p = start + y * scanlineStride; x < area.width; x++) {
+                    samples[i++] = data[p] & 0xFF;
+                    p += pixelStride;
+                }
+            }
+        } else if (db instanceof DataBufferUShort) {
+            short[] data = ((DataBufferUShort) db).getData(bank);
+            for (int y = 0; y < area.height; y++) {
+                for (int x = 0, p = start + y * scanlineStride; x < area.width; x++) {
+                    samples[i++] = data[p] & 0xFFFF;
+                    p += pixelStride;
+                }
+            }
+        } else if (db instanceof DataBufferShort) {
+            short[] data = ((DataBufferShort) db).getData(bank);
+            for (int y = 0; y < area.height; y++) {
+                for (int x = 0, p = start + y * scanlineStride; x < area.width; x++) {
+                    samples[i++] = data[p];
+                    p += pixelStride;
+                }
+            }
+        } else if (db instanceof DataBufferInt) {
+            int[] data = ((DataBufferInt) db).getData(bank);
+            for (int y = 0; y < area.height; y++) {
+                for (int x = 0, p = start + y * scanlineStride; x < area.width; x++) {
+                    samples[i++] = data[p];
+                    p += pixelStride;
+                }
+            }
+        } else {
+            tile.getSamples(area.x, area.y, area.width, area.height, 0, samples);
+        }
+    }
+}
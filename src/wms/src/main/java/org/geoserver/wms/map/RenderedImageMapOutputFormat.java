@@ -7,6 +7,7 @@ package org.geoserver.wms.map;
 
 import it.geosolutions.jaiext.lookup.LookupTable;
 import it.geosolutions.jaiext.lookup.LookupTableFactory;
+import it.geosolutions.jaiext.range.NoDataContainer;
 import it.geosolutions.jaiext.range.Range;
 import it.geosolutions.jaiext.vectorbin.ROIGeometry;
 import it.geosolutions.rendered.viewer.RenderedImageBrowser;
@@ -25,6 +26,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -65,6 +67,7 @@ import org.geotools.coverage.grid.GridEnvelope2D;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
 import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.util.CoverageUtilities;
 import org.geotools.data.Query;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.gce.imagemosaic.ImageMosaicFormat;
@@ -72,6 +75,7 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.image.ImageWorker;
 import org.geotools.image.util.ColorUtilities;
 import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
 import org.geotools.map.StyleLayer;
 import org.geotools.parameter.Parameter;
 import org.geotools.process.Processors;
@@ -85,21 +89,31 @@ import org.geotools.renderer.lite.RenderingTransformationHelper;
 import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.renderer.lite.gridcoverage2d.ChannelSelectionUpdateStyleVisitor;
 import org.geotools.renderer.lite.gridcoverage2d.GridCoverageRenderer;
+import org.geotools.renderer.lite.gridcoverage2d.RasterSymbolizerHelper;
+import org.geotools.styling.ChannelSelection;
+import org.geotools.styling.ColorMap;
+import org.geotools.styling.ContrastEnhancement;
 import org.geotools.styling.RasterSymbolizer;
+import org.geotools.styling.SelectedChannelType;
 import org.geotools.styling.Style;
+import org.geotools.util.factory.Hints;
 import org.geotools.util.logging.Logging;
 import org.opengis.coverage.grid.Format;
 import org.opengis.feature.Feature;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.Name;
 import org.opengis.filter.expression.Expression;
+import org.opengis.metadata.spatial.PixelOrientation;
 import org.opengis.parameter.GeneralParameterDescriptor;
 import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.parameter.ParameterDescriptorGroup;
 import org.opengis.parameter.ParameterValueGroup;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.crs.GeographicCRS;
 import org.opengis.referencing.datum.PixelInCell;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.style.ContrastMethod;
 
 /**
  * A {@link GetMapOutputFormat} that produces {@link RenderedImageMap} instances to be encoded in
@@ -168,6 +182,28 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
     /** Disable Gutter */
     private static Boolean DISABLE_GUTTER = Boolean.getBoolean(DISABLE_GUTTER_KEY);
 
+    /** Disable the direct rendering fast path for maps aligned with a native resolution level */
+    public static final String DISABLE_ALIGNED_FAST_PATH_KEY = "wms.raster.disableAlignedFastPath";
+
+    /** Disable the direct rendering fast path for maps aligned with a native resolution level */
+    private static Boolean DISABLE_ALIGNED_FAST_PATH =
+            Boolean.getBoolean(DISABLE_ALIGNED_FAST_PATH_KEY);
+
+    /** Number of maps rendered via the aligned fast path, see {@link #renderAlignedCoverage} */
+    static final AtomicLong ALIGNED_FAST_PATH_COUNT = new AtomicLong();
+
+    /** Disable the primitive array color map styling, see {@link RasterStyler} */
+    public static final String DISABLE_RASTER_STYLER_KEY = "wms.raster.disableRasterStyler";
+
+    /** Disable the primitive array color map styling, see {@link RasterStyler} */
+    private static Boolean DISABLE_RASTER_STYLER = Boolean.getBoolean(DISABLE_RASTER_STYLER_KEY);
+
+    /** Number of maps styled by the {@link RasterStyler} */
+    static final AtomicLong RASTER_STYLER_COUNT = new AtomicLong();
+
+    /** Maximum misalignment, in pixels, tolerated between the map and native grids */
+    private static final double ALIGNMENT_TOLERANCE = 1e-3;
+
     /** The size of a megabyte */
     private static final int KB = 1024;
 
@@ -496,12 +532,19 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
             rendererParams.put(StreamingRenderer.DPI_KEY, (request.getFormatOptions().get("dpi")));
         }
 
+        // reuse the labels rendered for the neighbouring tiles, if possible
+        final LabelCache regionLabels =
+                labelCache == null && wms.getLabelRegionCache() != null
+                        ? wms.getLabelRegionCache().getLabelCache(mapContent, rendererParams, wms)
+                        : null;
         if (labelCache != null) {
             try {
                 rendererParams.put(StreamingRenderer.LABEL_CACHE_KEY, labelCache.apply(mapContent));
             } catch (Exception e) {
                 throw new ServiceException(e);
             }
+        } else if (regionLabels != null) {
+            rendererParams.put(StreamingRenderer.LABEL_CACHE_KEY, regionLabels);
         }
 
         boolean kmplacemark = false;
@@ -573,6 +616,26 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
 
         onBeforeRender(renderer);
 
+        // overlap the data reads of the vector layers, if enabled
+        final LayerPrefetcher prefetcher;
+        if (LayerPrefetcher.isEnabled(DefaultWebMapService.getRenderingPool())) {
+            prefetcher =
+                    new LayerPrefetcher(
+                            DefaultWebMapService.getRenderingPool(),
+                            LayerPrefetcher.LAYER_PREFETCH_BUFFER);
+            MapContent prefetched =
+                    prefetcher.prefetch(
+                            mapContent,
+                            paintArea,
+                            renderer.getRendererHints(),
+                            renderer.getJava2DHints());
+            if (prefetched != null) {
+                renderer.setMapContent(prefetched);
+            }
+        } else {
+            prefetcher = null;
+        }
+
         int maxRenderingTime = wms.getMaxRenderingTime(request);
         ServiceException serviceException = null;
         boolean saveMap =
@@ -587,6 +650,17 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                     public void saveMap() {
                         this.map = optimizeAndBuildMap(palette, preparedImage, mapContent);
                     }
+
+                    /** Stop waiting for the layers data, and rendering the region labels */
+                    @Override
+                    public void onTimeout() {
+                        if (prefetcher != null) {
+                            prefetcher.cancel();
+                        }
+                        if (regionLabels != null) {
+                            regionLabels.stop();
+                        }
+                    }
                 };
         timeout.start();
         try {
@@ -655,6 +729,9 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         } finally {
             timeout.stop();
             graphic.dispose();
+            if (prefetcher != null) {
+                prefetcher.dispose();
+            }
         }
         throw serviceException;
     }
@@ -1031,7 +1108,22 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                 new RenderingHints(JAI.KEY_INTERPOLATION, interpolation);
         try {
             final Color readerBgColor = transparent ? null : bgColor;
-            if (transformation == null && wms.isAdvancedProjectionHandlingEnabled()) {
+            final RenderedImage alignedImage =
+                    transformation == null
+                            ? renderAlignedCoverage(
+                                    layer,
+                                    context,
+                                    mapEnvelope,
+                                    mapRasterArea,
+                                    worldToScreen,
+                                    symbolizer,
+                                    interpolation,
+                                    readerBgColor,
+                                    bandIndices)
+                            : null;
+            if (alignedImage != null) {
+                image = alignedImage;
+            } else if (transformation == null && wms.isAdvancedProjectionHandlingEnabled()) {
                 //
                 // Get the reader
                 //
@@ -1507,6 +1599,215 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         return image;
     }
 
+    /**
+     * Renders the coverage straight out of one of its native resolution levels. This is possible
+     * when the map is in the native CRS, has the resolution of the native data or of one of its
+     * overviews, and its pixels are aligned with the grid of that level: no crop, warp or affine
+     * is needed, the color map is applied to the data as read and the result is translated in the
+     * map raster space. Only symbolizers without contrast enhancement, shaded relief, opacity or
+     * extended color maps qualify. The color map is applied by the {@link RasterStyler} when it
+     * supports it, which is only used on this path.
+     *
+     * @return the rendered image, or null if the map is not aligned with a native resolution level
+     */
+    private RenderedImage renderAlignedCoverage(
+            Layer layer,
+            ReadingContext context,
+            ReferencedEnvelope mapEnvelope,
+            Rectangle mapRasterArea,
+            AffineTransform worldToScreen,
+            RasterSymbolizer symbolizer,
+            Interpolation interpolation,
+            Color readerBgColor,
+            int[] bandIndices)
+            throws IOException {
+        if (DISABLE_ALIGNED_FAST_PATH
+                || !isSimpleSymbolizer(symbolizer)
+                || isWrappingDateline(mapEnvelope)) {
+            return null;
+        }
+        final Feature feature = layer.getFeatureSource().getFeatures().features().next();
+        final GridCoverage2DReader reader =
+                (GridCoverage2DReader) feature.getProperty("grid").getValue();
+        if (!isAlignedWithResolutionLevel(reader, mapEnvelope, mapRasterArea)) {
+            return null;
+        }
+
+        context.reader = reader;
+        context.params = feature.getProperty("params").getValue();
+        GridCoverage2D coverage =
+                readBestCoverage(
+                        context,
+                        mapEnvelope,
+                        mapRasterArea,
+                        interpolation,
+                        readerBgColor,
+                        bandIndices);
+        if (coverage == null) {
+            return null;
+        }
+
+        // the reader might still have returned data on a different grid (e.g., if it used
+        // decimation), check the coverage pixels really match the map ones
+        MathTransform gridToWorld =
+                coverage.getGridGeometry().getGridToCRS2D(PixelOrientation.UPPER_LEFT);
+        if (!(gridToWorld instanceof AffineTransform2D)) {
+            coverage.dispose(true);
+            return null;
+        }
+        AffineTransform gridToScreen = new AffineTransform(worldToScreen);
+        gridToScreen.concatenate((AffineTransform2D) gridToWorld);
+        double tx = Math.rint(gridToScreen.getTranslateX());
+        double ty = Math.rint(gridToScreen.getTranslateY());
+        if (Math.abs(gridToScreen.getScaleX() - 1) * mapRasterArea.width > ALIGNMENT_TOLERANCE
+                || Math.abs(gridToScreen.getScaleY() - 1) * mapRasterArea.height
+                        > ALIGNMENT_TOLERANCE
+                || gridToScreen.getShearX() != 0
+                || gridToScreen.getShearY() != 0
+                || Math.abs(gridToScreen.getTranslateX() - tx) > ALIGNMENT_TOLERANCE
+                || Math.abs(gridToScreen.getTranslateY() - ty) > ALIGNMENT_TOLERANCE) {
+            coverage.dispose(true);
+            return null;
+        }
+
+        // apply the color map, if any, on the data as read
+        symbolizer = updateSymbolizerForBandSelection(context, symbolizer, bandIndices);
+        RenderedImage image = null;
+        RasterStyler styler = getRasterStyler(symbolizer);
+        if (styler != null) {
+            NoDataContainer noData = CoverageUtilities.getNoDataProperty(coverage);
+            image =
+                    styler.style(
+                            coverage.getRenderedImage(),
+                            noData != null ? noData.getAsSingleValue() : Double.NaN);
+            if (image != null) {
+                RASTER_STYLER_COUNT.incrementAndGet();
+            }
+        }
+        if (image == null) {
+            RasterSymbolizerHelper helper =
+                    new RasterSymbolizerHelper(
+                            coverage, new Hints(JAI.KEY_INTERPOLATION, interpolation));
+            helper.visit(symbolizer);
+            image = ((GridCoverage2D) helper.getOutput()).getRenderedImage();
+        }
+        if (tx != 0 || ty != 0) {
+            image =
+                    new ImageWorker(image)
+                            .translate((float) tx, (float) ty, null)
+                            .getRenderedImage();
+        }
+
+        ALIGNED_FAST_PATH_COUNT.incrementAndGet();
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(
+                    "Map aligned with a native resolution level, rendered "
+                            + reader.getFormat().getName()
+                            + " data without resampling");
+        }
+        return image;
+    }
+
+    private static RasterStyler getRasterStyler(RasterSymbolizer symbolizer) {
+        return DISABLE_RASTER_STYLER ? null : RasterStyler.create(symbolizer);
+    }
+
+    /**
+     * Returns true if the symbolizer only needs a color map applied to the data, without any
+     * operation depending on the output resolution or on the image statistics
+     */
+    static boolean isSimpleSymbolizer(RasterSymbolizer symbolizer) {
+        if (symbolizer.getShadedRelief() != null || !isNeutral(symbolizer.getOpacity(), 1)) {
+            return false;
+        }
+        if (!isNeutral(symbolizer.getContrastEnhancement())) {
+            return false;
+        }
+        ChannelSelection selection = symbolizer.getChannelSelection();
+        if (selection != null) {
+            if (selection.getGrayChannel() != null
+                    && !isNeutral(selection.getGrayChannel().getContrastEnhancement())) {
+                return false;
+            }
+            if (selection.getRGBChannels() != null) {
+                for (SelectedChannelType channel : selection.getRGBChannels()) {
+                    if (channel != null && !isNeutral(channel.getContrastEnhancement())) {
+                        return false;
+                    }
+                }
+            }
+        }
+        ColorMap colorMap = symbolizer.getColorMap();
+        return colorMap == null || !colorMap.getExtendedColors();
+    }
+
+    private static boolean isNeutral(ContrastEnhancement ce) {
+        if (ce == null) {
+            return true;
+        }
+        ContrastMethod method = ce.getMethod();
+        return (method == null || method == ContrastMethod.NONE)
+                && isNeutral(ce.getGammaValue(), 1);
+    }
+
+    private static boolean isNeutral(Expression expression, double neutralValue) {
+        if (expression == null) {
+            return true;
+        }
+        Double value = expression.evaluate(null, Double.class);
+        return value != null && value == neutralValue;
+    }
+
+    private boolean isWrappingDateline(ReferencedEnvelope mapEnvelope) {
+        return wms.isContinuousMapWrappingEnabled()
+                && mapEnvelope.getCoordinateReferenceSystem() instanceof GeographicCRS
+                && (mapEnvelope.getMinX() < -180 || mapEnvelope.getMaxX() > 180);
+    }
+
+    /**
+     * Returns true if the map is in the reader native CRS, has the same resolution as one of the
+     * reader resolution levels, and its pixels are aligned with the grid of that level
+     */
+    static boolean isAlignedWithResolutionLevel(
+            GridCoverage2DReader reader, ReferencedEnvelope mapEnvelope, Rectangle mapRasterArea)
+            throws IOException {
+        if (!CRS.equalsIgnoreMetadata(
+                mapEnvelope.getCoordinateReferenceSystem(),
+                reader.getCoordinateReferenceSystem())) {
+            return false;
+        }
+        MathTransform nativeGridToWorld = reader.getOriginalGridToWorld(PixelInCell.CELL_CORNER);
+        if (!(nativeGridToWorld instanceof AffineTransform2D)) {
+            return false;
+        }
+        AffineTransform2D at = (AffineTransform2D) nativeGridToWorld;
+        if (at.getShearX() != 0
+                || at.getShearY() != 0
+                || at.getScaleX() <= 0
+                || at.getScaleY() >= 0) {
+            return false;
+        }
+        double[][] levels = reader.getResolutionLevels();
+        if (levels == null) {
+            return false;
+        }
+        double resX = mapEnvelope.getWidth() / mapRasterArea.width;
+        double resY = mapEnvelope.getHeight() / mapRasterArea.height;
+        for (double[] level : levels) {
+            // the accumulated error across the map must stay below the tolerance
+            if (Math.abs(resX - level[0]) / level[0] * mapRasterArea.width < ALIGNMENT_TOLERANCE
+                    && Math.abs(resY - level[1]) / level[1] * mapRasterArea.height
+                            < ALIGNMENT_TOLERANCE) {
+                // the map corner must fall on a pixel corner of the level grid
+                double offsetX = (mapEnvelope.getMinX() - at.getTranslateX()) / level[0];
+                double offsetY = (at.getTranslateY() - mapEnvelope.getMaxY()) / level[1];
+                return Math.abs(offsetX - Math.rint(offsetX)) < ALIGNMENT_TOLERANCE
+                        && Math.abs(offsetY - Math.rint(offsetY)) < ALIGNMENT_TOLERANCE;
+            }
+        }
+        return false;
+    }
+
     private RenderedImage applyBackgroundTransparency(
             final Rectangle mapRasterArea,
             RenderedImage image,
@@ -1522,7 +1823,13 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         if (roiCandidate instanceof ROI) {
             ROI imageROI = (ROI) roiCandidate;
             try {
-                roi = new ROIGeometry(mapRasterArea).intersect(imageROI);
+                // a footprint fully inside the map is used as is, keeping its mask when
+                // it's shared among requests (see FootprintMaskCache)
+                if (mapRasterArea.contains(imageROI.getBounds())) {
+                    roi = imageROI;
+                } else {
+                    roi = new ROIGeometry(mapRasterArea).intersect(imageROI);
+                }
             } catch (IllegalArgumentException e) {
                 // in the unlikely event that the ROI does not intersect the target map
                 // area an exception will be thrown. Catching the exception instead of checking
@@ -42,6 +42,9 @@ public class RenderingTimeoutEnforcer {
 
     public void saveMap() {}
 
+    /** Called when the timeout elapses, before the renderer is stopped */
+    public void onTimeout() {}
+
     public WebMap getMap() {
         return map;
     }
@@ -82,6 +85,7 @@ public class RenderingTimeoutEnforcer {
             if (saveMap) {
                 saveMap();
             }
+            onTimeout();
             // ask gently...
             renderer.stopRendering();
             // ... but also be rude for extra measure (coverage rendering is
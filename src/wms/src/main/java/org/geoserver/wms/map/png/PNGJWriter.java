@@ -9,7 +9,9 @@ import ar.com.hjg.pngj.FilterType;
 import it.geosolutions.imageio.plugins.png.PNGWriter;
 import java.awt.image.RenderedImage;
 import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.WMSMapContent;
 import org.geotools.image.ImageWorker;
 import org.geotools.map.Layer;
@@ -18,16 +20,47 @@ import org.geotools.styling.ColorMap;
 import org.geotools.styling.Style;
 
 /**
- * Encodes the image in PNG using the PNGJ library
+ * Encodes the image in PNG using the PNGJ library. The writer holds no state, a single instance
+ * can be shared among concurrent encodings
  *
  * @author Andrea Aime - GeoSolutions
  */
 public class PNGJWriter {
 
+    /** Enables the parallel encoding of large images */
+    public static boolean PARALLEL_ENCODING_ENABLED =
+            Boolean.getBoolean("org.geoserver.wms.png.parallelEncoding");
+
+    /** The minimum number of pixels an image needs to be encoded in parallel */
+    public static int PARALLEL_ENCODING_THRESHOLD =
+            Integer.getInteger("org.geoserver.wms.png.parallelThreshold", 1024 * 1024);
+
+    /** The target size of the bands of rows deflated independently, in bytes */
+    static final int PARALLEL_BAND_SIZE = 128 * 1024;
+
     public RenderedImage writePNG(
             RenderedImage image, OutputStream outStream, float quality, WMSMapContent mapContent) {
         // what kind of scaline filtering are we going to use?
         FilterType filterType = getFilterType(mapContent);
+        ExecutorService executor = DefaultWebMapService.getRenderingPool();
+        if (PARALLEL_ENCODING_ENABLED
+                && executor != null
+                && (long) image.getWidth() * image.getHeight() >= PARALLEL_ENCODING_THRESHOLD
+                && ParallelPNGEncoder.canEncode(image)) {
+            ParallelPNGEncoder encoder =
+                    new ParallelPNGEncoder(
+                            executor,
+                            Runtime.getRuntime().availableProcessors(),
+                            PARALLEL_BAND_SIZE);
+            // a quality of 1 means no compression, 0 the strongest one
+            int level = Math.max(0, Math.min(9, Math.round(9 * (1 - quality))));
+            try {
+                encoder.encode(image, outStream, level, filterType != FilterType.FILTER_NONE);
+            } catch (Exception e) {
+                throw new ServiceException("Failed to encode the PNG", e);
+            }
+            return image;
+        }
         // Creation of a new PNGWriter object
         PNGWriter writer = new PNGWriter();
         // Check if a Scanline is supported by the writer
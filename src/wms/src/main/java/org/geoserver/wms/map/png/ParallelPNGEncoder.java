@@ -0,0 +1,495 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A PNG encoder splitting the image in bands of rows that are filtered and deflated concurrently,
+ * and then concatenated into a single zlib stream, the same way pigz does: each band but the last
+ * ends with a sync flush, and is compressed using the tail of the previous band as its
+ * dictionary, so the result decodes as a regular PNG.
+ *
+ * <p>Only images with 8 bits samples (RGB, gray, with or without alpha) or palettes of up to 256
+ * entries are supported, see {@link #canEncode(RenderedImage)}.
+ */
+class ParallelPNGEncoder {
+
+    static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+
+    static final int COLOR_GRAY = 0;
+
+    static final int COLOR_RGB = 2;
+
+    static final int COLOR_PALETTE = 3;
+
+    static final int COLOR_GRAY_ALPHA = 4;
+
+    static final int COLOR_RGB_ALPHA = 6;
+
+    /** The deflate window size, the dictionary shared among consecutive bands */
+    static final int WINDOW = 32 * 1024;
+
+    static final int ADLER_BASE = 65521;
+
+    ExecutorService executor;
+
+    int parallelism;
+
+    int bandSize;
+
+    /**
+     * @param executor The pool running the band encodings
+     * @param parallelism The maximum number of bands encoded at the same time
+     * @param bandSize The target size of a band of rows, in bytes
+     */
+    public ParallelPNGEncoder(ExecutorService executor, int parallelism, int bandSize) {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        this.bandSize = bandSize;
+    }
+
+    /** Returns true if the image uses 8 bit samples, or a palette, that can be encoded as is */
+    public static boolean canEncode(RenderedImage image) {
+        return getColorType(image) >= 0;
+    }
+
+    static int getColorType(RenderedImage image) {
+        ColorModel cm = image.getColorModel();
+        SampleModel sm = image.getSampleModel();
+        if (cm == null || sm == null || cm.isAlphaPremultiplied()) {
+            return -1;
+        }
+        int bands = sm.getNumBands();
+        if (cm instanceof IndexColorModel) {
+            if (bands == 1
+                    && sm.getSampleSize(0) <= 8
+                    && ((IndexColorModel) cm).getMapSize() <= 256) {
+                return COLOR_PALETTE;
+            }
+            return -1;
+        }
+        if (!(cm instanceof ComponentColorModel || cm instanceof DirectColorModel)
+                || cm.getNumComponents() != bands) {
+            return -1;
+        }
+        for (int i = 0; i < bands; i++) {
+            if (sm.getSampleSize(i) != 8 || cm.getComponentSize(i) != 8) {
+                return -1;
+            }
+        }
+        int colorSpace = cm.getColorSpace().getType();
+        if (colorSpace == ColorSpace.TYPE_RGB && bands == 3) {
+            return COLOR_RGB;
+        } else if (colorSpace == ColorSpace.TYPE_RGB && bands == 4 && cm.hasAlpha()) {
+            return COLOR_RGB_ALPHA;
+        } else if (colorSpace == ColorSpace.TYPE_GRAY && bands == 1) {
+            return COLOR_GRAY;
+        } else if (colorSpace == ColorSpace.TYPE_GRAY && bands == 2 && cm.hasAlpha()) {
+            return COLOR_GRAY_ALPHA;
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes the image
+     *
+     * @param image The image to be encoded, must be accepted by {@link #canEncode(RenderedImage)}
+     * @param out The destination stream, it won't be closed
+     * @param level The deflate compression level
+     * @param adaptiveFiltering If true, picks the best filter for each row, otherwise no filter
+     *     is applied
+     */
+    public void encode(RenderedImage image, OutputStream out, int level, boolean adaptiveFiltering)
+            throws IOException {
+        int colorType = getColorType(image);
+        if (colorType < 0) {
+            throw new IllegalArgumentException("Unsupported image layout");
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int bpp = image.getSampleModel().getNumBands();
+        int rowBytes = width * bpp + 1;
+
+        out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        writeInt(header, width);
+        writeInt(header, height);
+        header.write(8);
+        header.write(colorType);
+        header.write(0);
+        header.write(0);
+        header.write(0);
+        writeChunk(out, "IHDR", header.toByteArray(), header.size());
+        if (colorType == COLOR_PALETTE) {
+            writePalette(out, (IndexColorModel) image.getColorModel());
+        }
+
+        // zlib header, then the bands in order, then the adler32 of all the uncompressed data
+        writeChunk(out, "IDAT", new byte[] {0x78, (byte) 0x9C}, 2);
+        int rowsPerBand = Math.max(1, bandSize / rowBytes);
+        int dictionaryRows = Math.min(height, (WINDOW + rowBytes - 1) / rowBytes);
+        long adler = 1;
+        Deque<Future<Band>> running = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (next < height || !running.isEmpty()) {
+                while (next < height && running.size() < parallelism) {
+                    int start = next;
+                    int end = Math.min(height, start + rowsPerBand);
+                    BandEncoder encoder =
+                            new BandEncoder(
+                                    image,
+                                    start,
+                                    end,
+                                    Math.min(start, dictionaryRows),
+                                    level,
+                                    adaptiveFiltering);
+                    running.add(executor.submit(encoder));
+                    next = end;
+                }
+                Band band = running.removeFirst().get();
+                writeChunk(out, "IDAT", band.compressed, band.compressed.length);
+                adler = combineAdler(adler, band.adler, band.length);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while encoding the PNG", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to encode the PNG", e.getCause());
+        } finally {
+            for (Future<Band> future : running) {
+                future.cancel(true);
+            }
+        }
+        ByteArrayOutputStream trailer = new ByteArrayOutputStream(4);
+        writeInt(trailer, (int) adler);
+        writeChunk(out, "IDAT", trailer.toByteArray(), 4);
+        writeChunk(out, "IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    private void writePalette(OutputStream out, IndexColorModel icm) throws IOException {
+        int size = icm.getMapSize();
+        byte[] palette = new byte[size * 3];
+        byte[] alphas = new byte[size];
+        int lastTranslucent = -1;
+        for (int i = 0; i < size; i++) {
+            int rgb = icm.getRGB(i);
+            palette[i * 3] = (byte) (rgb >> 16);
+            palette[i * 3 + 1] = (byte) (rgb >> 8);
+            palette[i * 3 + 2] = (byte) rgb;
+            alphas[i] = (byte) (rgb >>> 24);
+            if ((rgb >>> 24) != 255) {
+                lastTranslucent = i;
+            }
+        }
+        writeChunk(out, "PLTE", palette, palette.length);
+        if (lastTranslucent >= 0) {
+            writeChunk(out, "tRNS", alphas, lastTranslucent + 1);
+        }
+    }
+
+    private void writeChunk(OutputStream out, String type, byte[] data, int length)
+            throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream prefix = new ByteArrayOutputStream(8);
+        writeInt(prefix, length);
+        prefix.write(typeBytes);
+        prefix.writeTo(out);
+        out.write(data, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        ByteArrayOutputStream suffix = new ByteArrayOutputStream(4);
+        writeInt(suffix, (int) crc.getValue());
+        suffix.writeTo(out);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /** The adler32 of the concatenation of two blocks, as computed by zlib adler32_combine */
+    static long combineAdler(long adler1, long adler2, long length2) {
+        long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= (ADLER_BASE << 1)) {
+            sum2 -= (ADLER_BASE << 1);
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    /** A compressed band of rows */
+    static class Band {
+        byte[] compressed;
+
+        long adler;
+
+        int length;
+    }
+
+    /** Filters and deflates a band of rows */
+    static class BandEncoder implements Callable<Band> {
+
+        RenderedImage image;
+
+        int start;
+
+        int end;
+
+        int dictionaryRows;
+
+        int level;
+
+        boolean adaptiveFiltering;
+
+        boolean last;
+
+        BandEncoder(
+                RenderedImage image,
+                int start,
+                int end,
+                int dictionaryRows,
+                int level,
+                boolean adaptiveFiltering) {
+            this.image = image;
+            this.start = start;
+            this.end = end;
+            this.dictionaryRows = dictionaryRows;
+            this.level = level;
+            this.adaptiveFiltering = adaptiveFiltering;
+            this.last = end == image.getHeight();
+        }
+
+        @Override
+        public Band call() throws Exception {
+            int width = image.getWidth();
+            int bpp = image.getSampleModel().getNumBands();
+            int rowBytes = width * bpp + 1;
+
+            // the rows preceding the band are filtered again to rebuild the dictionary, and the
+            // one before them is needed as the reference for the first filtered row
+            int first = start - dictionaryRows;
+            int readFrom = Math.max(0, first - 1);
+            Raster raster =
+                    image.getData(
+                            new Rectangle(
+                                    image.getMinX(),
+                                    image.getMinY() + readFrom,
+                                    width,
+                                    end - readFrom));
+
+            byte[] filtered = new byte[(end - first) * rowBytes];
+            int[] samples = new int[width * bpp];
+            byte[] previous = new byte[width * bpp];
+            byte[] current = new byte[width * bpp];
+            RowFilter filter = new RowFilter(width * bpp, bpp, adaptiveFiltering);
+            for (int row = readFrom; row < end; row++) {
+                raster.getPixels(raster.getMinX(), image.getMinY() + row, width, 1, samples);
+                for (int i = 0; i < samples.length; i++) {
+                    current[i] = (byte) samples[i];
+                }
+                if (row >= first) {
+                    byte[] above = row == 0 ? null : previous;
+                    filter.filter(current, above, filtered, (row - first) * rowBytes);
+                }
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+
+            int offset = dictionaryRows * rowBytes;
+            int length = filtered.length - offset;
+            Band band = new Band();
+            Adler32 adler = new Adler32();
+            adler.update(filtered, offset, length);
+            band.adler = adler.getValue();
+            band.length = length;
+            band.compressed = deflate(filtered, offset, length);
+            return band;
+        }
+
+        private byte[] deflate(byte[] data, int offset, int length) {
+            Deflater deflater = new Deflater(level, true);
+            try {
+                if (offset > 0) {
+                    int dictionary = Math.min(offset, WINDOW);
+                    deflater.setDictionary(data, offset - dictionary, dictionary);
+                }
+                deflater.setInput(data, offset, length);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4 + 64);
+                byte[] buffer = new byte[64 * 1024];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        int n = deflater.deflate(buffer);
+                        out.write(buffer, 0, n);
+                    }
+                } else {
+                    while (!deflater.needsInput()) {
+                        int n = deflater.deflate(buffer, 0, buffer.length, Deflater.NO_FLUSH);
+                        out.write(buffer, 0, n);
+                    }
+                    // end on a byte boundary without marking the final block
+                    int n;
+                    do {
+                        n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        out.write(buffer, 0, n);
+                    } while (n == buffer.length);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    /** Applies the PNG filters to a row, picking the one with the smallest sum of residuals */
+    static class RowFilter {
+
+        static final byte NONE = 0;
+
+        static final byte SUB = 1;
+
+        static final byte UP = 2;
+
+        static final byte AVERAGE = 3;
+
+        static final byte PAETH = 4;
+
+        int length;
+
+        int bpp;
+
+        boolean adaptive;
+
+        byte[][] candidates;
+
+        RowFilter(int length, int bpp, boolean adaptive) {
+            this.length = length;
+            this.bpp = bpp;
+            this.adaptive = adaptive;
+            if (adaptive) {
+                candidates = new byte[5][length];
+            }
+        }
+
+        /** Filters the row into the target, previous is null for the first row of the image */
+        void filter(byte[] row, byte[] previous, byte[] target, int offset) {
+            if (!adaptive) {
+                target[offset] = NONE;
+                System.arraycopy(row, 0, target, offset + 1, length);
+                return;
+            }
+            long best = sum(row);
+            int bestType = NONE;
+            System.arraycopy(row, 0, candidates[NONE], 0, length);
+
+            byte[] sub = candidates[SUB];
+            for (int i = 0; i < bpp; i++) {
+                sub[i] = row[i];
+            }
+            for (int i = bpp; i < length; i++) {
+                sub[i] = (byte) (row[i] - row[i - bpp]);
+            }
+            long sum = sum(sub);
+            if (sum < best) {
+                best = sum;
+                bestType = SUB;
+            }
+
+            if (previous != null) {
+                byte[] up = candidates[UP];
+                for (int i = 0; i < length; i++) {
+                    up[i] = (byte) (row[i] - previous[i]);
+                }
+                sum = sum(up);
+                if (sum < best) {
+                    best = sum;
+                    bestType = UP;
+                }
+            }
+
+            byte[] average = candidates[AVERAGE];
+            for (int i = 0; i < length; i++) {
+                int left = i < bpp ? 0 : row[i - bpp] & 0xFF;
+                int above = previous == null ? 0 : previous[i] & 0xFF;
+                average[i] = (byte) (row[i] - ((left + above) >>> 1));
+            }
+            sum = sum(average);
+            if (sum < best) {
+                best = sum;
+                bestType = AVERAGE;
+            }
+
+            byte[] paeth = candidates[PAETH];
+            for (int i = 0; i < length; i++) {
+                int a = i < bpp ? 0 : row[i - bpp] & 0xFF;
+                int b = previous == null ? 0 : previous[i] & 0xFF;
+                int c = i < bpp || previous == null ? 0 : previous[i - bpp] & 0xFF;
+                int p = a + b - c;
+                int pa = Math.abs(p - a);
+                int pb = Math.abs(p - b);
+                int pc = Math.abs(p - c);
+                int predictor = (pa <= pb && pa <= pc) ? a : (pb <= pc ? b : c);
+                paeth[i] = (byte) (row[i] - predictor);
+            }
+            sum = sum(paeth);
+            if (sum < best) {
+                bestType = PAETH;
+            }
+
+            target[offset] = (byte) bestType;
+            System.arraycopy(candidates[bestType], 0, target, offset + 1, length);
+        }
+
+        /** Sum of the residuals, read as signed bytes */
+        private long sum(byte[] values) {
+            long sum = 0;
+            for (int i = 0; i < length; i++) {
+                int v = values[i];
+                sum += v < 0 ? -v : v;
+            }
+            return sum;
+        }
+    }
+}
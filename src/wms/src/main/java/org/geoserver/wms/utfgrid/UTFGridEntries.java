@@ -55,10 +55,11 @@ class UTFGridEntries {
         return entry.getValue();
     }
 
-    Map<Integer, UTFGridEntry> getEntryMap() {
-        Map<Integer, UTFGridEntry> result = new HashMap<>();
+    /** Returns the entries indexed by their value, the values being a dense sequence */
+    UTFGridEntry[] getEntryArray() {
+        UTFGridEntry[] result = new UTFGridEntry[value];
         for (UTFGridEntry entry : entryMap.values()) {
-            result.put(entry.getValue(), entry);
+            result[entry.getValue()] = entry;
         }
 
         return result;
@@ -0,0 +1,574 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.utfgrid;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.awt.RenderingHints;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.decorators.DecoratingSimpleFeatureSource;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionListener;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wms.GetMapCallbackAdapter;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.data.Query;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.FeatureLayer;
+import org.geotools.map.Layer;
+import org.geotools.referencing.CRS;
+import org.geotools.util.factory.Hints;
+import org.geotools.util.logging.Logging;
+import org.locationtech.jts.geom.Envelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Shares the features read by an image GetMap with the UTFGrid GetMap of the same map, as it
+ * happens when a tile cache seeds both formats for each meta tile.
+ *
+ * <p>While an image map is rendered the features of its vector layers are collected, with all
+ * their attributes, as the renderer reads them. A UTFGrid request for the same map (the same
+ * parameters, besides the format and the background ones) then renders the collected features
+ * instead of querying the stores again. The collected features are used only if the image query
+ * covered the whole map area. The UTFGrid query area is usually a bit larger, as the rendering
+ * buffer is rounded to whole pixels of the lower UTFGrid resolution, but the symbols have the same
+ * size on the ground, so the features outside of the image query area cannot be seen in the grid.
+ *
+ * <p>The features are kept for a short time, and the cache is dropped as a whole when styles,
+ * layers or their data are modified in the catalog, when a WFS transaction changes the data, and
+ * when the configuration is changed or reloaded. The cache is enabled by setting the maximum
+ * number of cached features with the {@link #SIZE_KEY} variable. Collecting the features makes
+ * the image maps read all the attributes of the layers, so it should be enabled only when the
+ * UTFGrid format is requested along with the images.
+ */
+public class UTFGridFeatureCache extends GetMapCallbackAdapter
+        implements TransactionListener, CatalogListener, GeoServerLifecycleHandler, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(UTFGridFeatureCache.class);
+
+    /** Variable setting the maximum number of cached features */
+    public static final String SIZE_KEY = "org.geoserver.wms.utfgrid.featureCacheSize";
+
+    /** Variable setting how long the features are cached, in seconds */
+    public static final String TTL_KEY = "org.geoserver.wms.utfgrid.featureCacheTTL";
+
+    static final int DEFAULT_TTL = 60;
+
+    /** Parameters that do not affect the features read by the map */
+    private static final List<String> IGNORED_PARAMETERS =
+            Arrays.asList("FORMAT", "TRANSPARENT", "BGCOLOR", "EXCEPTIONS");
+
+    /** User data key counting the layers added to a map */
+    private static final String LAYER_COUNT_KEY = "utfGridFeatureCacheLayers";
+
+    private final Cache<String, CachedFeatures> cache;
+
+    private final int maxFeatures;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong servedLayers = new AtomicLong();
+
+    private Catalog catalog;
+
+    /** Builds a disabled cache */
+    public UTFGridFeatureCache() {
+        this(0, DEFAULT_TTL);
+    }
+
+    /**
+     * Builds a cache configured by the {@link #SIZE_KEY} and {@link #TTL_KEY} variables, listening
+     * to the configuration and catalog changes
+     */
+    public UTFGridFeatureCache(GeoServer geoServer) {
+        this(getInt(SIZE_KEY, 0), getInt(TTL_KEY, DEFAULT_TTL));
+        this.catalog = geoServer.getCatalog();
+        catalog.addListener(this);
+        geoServer.addListener(
+                new ConfigurationListenerAdapter() {
+                    @Override
+                    public void handleGlobalChange(
+                            GeoServerInfo global,
+                            List<String> propertyNames,
+                            List<Object> oldValues,
+                            List<Object> newValues) {
+                        invalidateAll();
+                    }
+
+                    @Override
+                    public void handleServiceChange(
+                            ServiceInfo service,
+                            List<String> propertyNames,
+                            List<Object> oldValues,
+                            List<Object> newValues) {
+                        invalidateAll();
+                    }
+
+                    @Override
+                    public void reloaded() {
+                        invalidateAll();
+                    }
+                });
+    }
+
+    /**
+     * Builds a new cache
+     *
+     * @param maxFeatures The maximum number of cached features, zero disables the cache
+     * @param ttl How long the features are cached, in seconds
+     */
+    public UTFGridFeatureCache(int maxFeatures, int ttl) {
+        this.maxFeatures = maxFeatures;
+        if (maxFeatures > 0 && ttl > 0) {
+            this.cache =
+                    CacheBuilder.newBuilder()
+                            .maximumWeight(maxFeatures)
+                            .<String, CachedFeatures>weigher(
+                                    (k, cached) -> Math.max(1, cached.features.size()))
+                            .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                            .recordStats()
+                            .build();
+        } else {
+            this.cache = null;
+        }
+    }
+
+    private static int getInt(String key, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + key + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    /** Returns true if features are going to be cached */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    @Override
+    public Layer beforeLayer(WMSMapContent mapContent, Layer layer) {
+        if (!isEnabled()) {
+            return layer;
+        }
+        GetMapRequest request = mapContent.getRequest();
+        if (request == null || request.getRawKvp() == null) {
+            return layer;
+        }
+        // the layer position is part of the key, count also the layers we are not handling
+        Map<String, Object> userData = mapContent.getUserData();
+        Integer position = (Integer) userData.get(LAYER_COUNT_KEY);
+        position = position == null ? 0 : position + 1;
+        userData.put(LAYER_COUNT_KEY, position);
+        if (!(layer instanceof FeatureLayer)
+                || !(layer.getFeatureSource() instanceof SimpleFeatureSource)) {
+            return layer;
+        }
+
+        SimpleFeatureSource source = (SimpleFeatureSource) layer.getFeatureSource();
+        String key =
+                buildMapDefinition(request.getRawKvp())
+                        + "|"
+                        + getUser()
+                        + "|"
+                        + position
+                        + "|"
+                        + source.getSchema().getName()
+                        + "|"
+                        + generation.get();
+        if (isUTFGrid(request.getFormat())) {
+            CachedFeatures cached = cache.getIfPresent(key);
+            if (cached == null) {
+                return layer;
+            }
+            // the buffer around the map differs, as the grid is rendered at a lower resolution,
+            // but the features touching the map have all been read by the image
+            Envelope area = getNativeArea(mapContent, source);
+            if (area == null || !cached.bounds.contains(area)) {
+                return layer;
+            }
+            return copy((FeatureLayer) layer, new CachedFeatureSource(source, cached));
+        } else {
+            return copy((FeatureLayer) layer, new CollectingFeatureSource(source, key));
+        }
+    }
+
+    private boolean isUTFGrid(String format) {
+        return UTFGridMapOutputFormat.MIME_TYPE.equalsIgnoreCase(format)
+                || UTFGridMapOutputFormat.OUTPUT_FORMAT_NAME.equalsIgnoreCase(format);
+    }
+
+    private FeatureLayer copy(FeatureLayer layer, SimpleFeatureSource source) {
+        FeatureLayer copy = new FeatureLayer(source, layer.getStyle(), layer.getTitle());
+        copy.setQuery(layer.getQuery());
+        copy.setVisible(layer.isVisible());
+        copy.getUserData().putAll(layer.getUserData());
+        return copy;
+    }
+
+    /** The parameters defining the map, sorted, without the ones not affecting the features */
+    private String buildMapDefinition(Map<String, String> kvp) {
+        Map<String, String> sorted = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, String> entry : kvp.entrySet()) {
+            if (!IGNORED_PARAMETERS.contains(entry.getKey().toUpperCase())) {
+                sorted.put(entry.getKey().toUpperCase(), entry.getValue());
+            }
+        }
+        return sorted.toString();
+    }
+
+    /** The features depend on the data the user can access */
+    private String getUser() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        return auth != null ? auth.getName() : null;
+    }
+
+    /** Returns the map area in the native CRS of the source, or null if it cannot be computed */
+    private Envelope getNativeArea(WMSMapContent mapContent, SimpleFeatureSource source) {
+        ReferencedEnvelope area = mapContent.getRenderingArea();
+        CoordinateReferenceSystem crs = source.getSchema().getCoordinateReferenceSystem();
+        try {
+            if (crs != null
+                    && area.getCoordinateReferenceSystem() != null
+                    && !CRS.equalsIgnoreMetadata(crs, area.getCoordinateReferenceSystem())) {
+                area = area.transform(crs, true);
+            }
+            return area;
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not compute the native map area", e);
+            return null;
+        }
+    }
+
+    /** Returns the area covered by the filter, or null if it cannot be determined */
+    static Envelope getBounds(Filter filter) {
+        if (filter == null) {
+            filter = Filter.INCLUDE;
+        }
+        return (Envelope) filter.accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR, null);
+    }
+
+    /** Returns true if the query reads the features as they are, without changing their order */
+    static boolean isPlain(Query query) {
+        return query.getCoordinateSystem() == null
+                && query.getCoordinateSystemReproject() == null
+                && query.getStartIndex() == null
+                && query.isMaxFeaturesUnlimited()
+                && (query.getSortBy() == null || query.getSortBy().length == 0);
+    }
+
+    /** Drops all the cached features */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /** The number of layers currently cached */
+    public long getCount() {
+        return cache != null ? cache.size() : 0;
+    }
+
+    /** Number of UTFGrid layers rendered out of the cached features */
+    public long getServedCount() {
+        return servedLayers.get();
+    }
+
+    /** The cache statistics, or null if the cache is disabled */
+    public CacheStats getStats() {
+        return cache != null ? cache.stats() : null;
+    }
+
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        invalidateAll();
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {}
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {}
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        invalidate(event.getSource());
+    }
+
+    private void invalidate(Object source) {
+        if (source instanceof StyleInfo
+                || source instanceof LayerInfo
+                || source instanceof LayerGroupInfo
+                || source instanceof ResourceInfo
+                || source instanceof StoreInfo) {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void reloaded() {
+        invalidateAll();
+    }
+
+    @Override
+    public void onReset() {
+        invalidateAll();
+    }
+
+    @Override
+    public void onDispose() {
+        invalidateAll();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        invalidateAll();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (catalog != null) {
+            catalog.removeListener(this);
+        }
+        invalidateAll();
+    }
+
+    @Override
+    public String toString() {
+        return "UTFGridFeatureCache [count="
+                + getCount()
+                + ", served="
+                + servedLayers
+                + ", stats="
+                + getStats()
+                + "]";
+    }
+
+    /** The features read by a layer of an image map, and the area they were queried in */
+    static class CachedFeatures {
+
+        final SimpleFeatureType schema;
+
+        final List<SimpleFeature> features;
+
+        final Envelope bounds;
+
+        CachedFeatures(SimpleFeatureType schema, List<SimpleFeature> features, Envelope bounds) {
+            this.schema = schema;
+            this.features = features;
+            this.bounds = bounds;
+        }
+    }
+
+    /** Collects the features of the first query, with all their attributes, as they are read */
+    class CollectingFeatureSource extends DecoratingSimpleFeatureSource {
+
+        final String key;
+
+        final AtomicInteger queries = new AtomicInteger();
+
+        CollectingFeatureSource(SimpleFeatureSource delegate, String key) {
+            super(delegate);
+            this.key = key;
+        }
+
+        @Override
+        public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+            if (queries.incrementAndGet() > 1 || !isPlain(query)) {
+                // the UTFGrid would need to merge more queries, give up
+                cache.invalidate(key);
+                return super.getFeatures(query);
+            }
+            Envelope bounds = getBounds(query.getFilter());
+            if (bounds == null) {
+                return super.getFeatures(query);
+            }
+            Query q = new Query(query);
+            q.setProperties(Query.ALL_PROPERTIES);
+            return new CollectingFeatureCollection(this, super.getFeatures(q), bounds);
+        }
+
+        @Override
+        public Set<RenderingHints.Key> getSupportedHints() {
+            // the collected features are kept, the renderer must not transform their geometries
+            // in place, nor have the store skip the ones too small to be seen in the image
+            Set<RenderingHints.Key> hints = super.getSupportedHints();
+            if (hints == null) {
+                return Collections.emptySet();
+            }
+            hints = new HashSet<>(hints);
+            hints.remove(Hints.FEATURE_DETACHED);
+            hints.remove(Hints.SCREENMAP);
+            return hints;
+        }
+    }
+
+    class CollectingFeatureCollection extends DecoratingSimpleFeatureCollection {
+
+        final CollectingFeatureSource source;
+
+        final Envelope bounds;
+
+        CollectingFeatureCollection(
+                CollectingFeatureSource source, SimpleFeatureCollection delegate, Envelope bounds) {
+            super(delegate);
+            this.source = source;
+            this.bounds = bounds;
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            return new CollectingFeatureIterator(this, super.features());
+        }
+
+        void collected(List<SimpleFeature> collected) {
+            // another query might have been run meanwhile
+            if (source.queries.get() == 1) {
+                cache.put(source.key, new CachedFeatures(getSchema(), collected, bounds));
+            }
+        }
+    }
+
+    class CollectingFeatureIterator implements SimpleFeatureIterator {
+
+        final CollectingFeatureCollection collection;
+
+        final SimpleFeatureIterator delegate;
+
+        List<SimpleFeature> collected = new ArrayList<>();
+
+        boolean complete;
+
+        CollectingFeatureIterator(
+                CollectingFeatureCollection collection, SimpleFeatureIterator delegate) {
+            this.collection = collection;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            boolean hasNext = delegate.hasNext();
+            if (!hasNext) {
+                complete = true;
+            }
+            return hasNext;
+        }
+
+        @Override
+        public SimpleFeature next() {
+            SimpleFeature feature = delegate.next();
+            if (collected != null) {
+                if (collected.size() < maxFeatures) {
+                    collected.add(feature);
+                } else {
+                    // too many features to cache
+                    collected = null;
+                }
+            }
+            return feature;
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+            // a partial read (e.g., a rendering timeout) cannot be reused
+            if (complete && collected != null) {
+                collection.collected(collected);
+            }
+            collected = null;
+        }
+    }
+
+    /** Serves the UTFGrid queries out of the features collected by the image map */
+    class CachedFeatureSource extends DecoratingSimpleFeatureSource {
+
+        final CachedFeatures cached;
+
+        CachedFeatureSource(SimpleFeatureSource delegate, CachedFeatures cached) {
+            super(delegate);
+            this.cached = cached;
+        }
+
+        @Override
+        public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+            if (!isPlain(query)) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Cannot serve " + query + " out of the cached features");
+                }
+                return super.getFeatures(query);
+            }
+            servedLayers.incrementAndGet();
+            SimpleFeatureCollection fc = new ListFeatureCollection(cached.schema, cached.features);
+            Filter filter = query.getFilter();
+            return filter == null || filter == Filter.INCLUDE ? fc : fc.subCollection(filter);
+        }
+
+        @Override
+        public Set<RenderingHints.Key> getSupportedHints() {
+            // the renderer has to do the generalization and screen map work itself
+            return Collections.emptySet();
+        }
+    }
+}
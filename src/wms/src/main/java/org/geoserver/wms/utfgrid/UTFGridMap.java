@@ -12,7 +12,6 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import net.sf.json.util.JSONBuilder;
 import net.sf.json.util.JSONStringer;
 import org.geoserver.wms.map.RawMap;
@@ -121,23 +120,27 @@ public class UTFGridMap extends RawMap {
      */
     private List<UTFGridEntry> writeGrid(
             PrintWriter pw, RenderedImage image, UTFGridEntries entries) {
-        Map<Integer, UTFGridEntry> keyToFeature = entries.getEntryMap();
+        // array lookups and a single write per row, grids can be large
+        UTFGridEntry[] valueToEntry = entries.getEntryArray();
         List<UTFGridEntry> result = new ArrayList<UTFGridEntry>();
 
         int key = 1;
         Raster data = getData(image);
         int width = data.getWidth();
         int[] pixels = new int[width];
+        // the row, with its quotes and the trailing comma
+        char[] row = new char[width + 3];
+        row[0] = '"';
+        row[width + 1] = '"';
         int height = data.getHeight();
         for (int r = 0; r < height; r++) {
             data.getDataElements(0, r, width, 1, pixels);
-            pw.print("\"");
             for (int i = 0; i < pixels.length; i++) {
                 int pixel = pixels[i] & 0xFFFFFF;
                 if (pixel == 0) {
-                    pw.print(" ");
+                    row[i + 1] = ' ';
                 } else {
-                    UTFGridEntry entry = keyToFeature.get(pixel);
+                    UTFGridEntry entry = pixel < valueToEntry.length ? valueToEntry[pixel] : null;
                     if (entry == null) {
                         throw new RuntimeException(
                                 "Could not find entry for pixel value "
@@ -151,14 +154,16 @@ public class UTFGridMap extends RawMap {
                         entry.setKey(entryKey);
                         result.add(entry);
                     }
-                    pw.print(getGridChar(entryKey));
+                    row[i + 1] = getGridChar(entryKey);
                 }
             }
             if (r < height - 1) {
-                pw.println("\",");
+                row[width + 2] = ',';
+                pw.write(row, 0, width + 3);
             } else {
-                pw.println("\"");
+                pw.write(row, 0, width + 2);
             }
+            pw.println();
         }
 
         return result;
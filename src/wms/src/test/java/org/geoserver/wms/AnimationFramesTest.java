@@ -0,0 +1,210 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.geoserver.platform.ServiceException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AnimationFramesTest {
+
+    ExecutorService executor;
+
+    @Before
+    public void setupExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    private MaxAnimationTimeHelper timeHelper(int maxTime) {
+        WMS wms = createNiceMock(WMS.class);
+        expect(wms.getMaxAnimationRenderingTime(anyObject())).andReturn(maxTime).anyTimes();
+        replay(wms);
+        return new MaxAnimationTimeHelper(wms, new GetMapRequest());
+    }
+
+    private List<Callable<RenderedImage>> frames(int count, List<RenderedImage> images) {
+        List<Callable<RenderedImage>> frames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            RenderedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_INDEXED);
+            images.add(image);
+            frames.add(() -> image);
+        }
+        return frames;
+    }
+
+    @Test
+    public void testOrderedDelivery() throws Exception {
+        List<RenderedImage> images = new ArrayList<>();
+        List<Callable<RenderedImage>> frames = frames(3, images);
+        // the first frame completes last
+        CountDownLatch othersDone = new CountDownLatch(2);
+        Callable<RenderedImage> first = frames.get(0);
+        frames.set(
+                0,
+                () -> {
+                    assertTrue(othersDone.await(10, TimeUnit.SECONDS));
+                    return first.call();
+                });
+        for (int i = 1; i < 3; i++) {
+            Callable<RenderedImage> frame = frames.get(i);
+            frames.set(
+                    i,
+                    () -> {
+                        othersDone.countDown();
+                        return frame.call();
+                    });
+        }
+
+        AnimationFrames list = new AnimationFrames(frames, executor, 3, timeHelper(0), null);
+        assertEquals(3, list.size());
+        for (int i = 0; i < 3; i++) {
+            assertSame(images.get(i), list.get(i));
+        }
+    }
+
+    @Test
+    public void testParallelismWindow() throws Exception {
+        AtomicInteger started = new AtomicInteger();
+        List<Callable<RenderedImage>> frames = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            frames.add(
+                    () -> {
+                        started.incrementAndGet();
+                        return new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_INDEXED);
+                    });
+        }
+
+        AnimationFrames list = new AnimationFrames(frames, executor, 2, timeHelper(0), null);
+        list.getFrame(0);
+        // only the frames in the window following the requested one have been scheduled
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(2, started.get());
+
+        // the remaining frames are rendered by the consumer
+        for (int i = 1; i < 10; i++) {
+            list.getFrame(i);
+        }
+        assertEquals(10, started.get());
+    }
+
+    @Test
+    public void testSequential() throws Exception {
+        Thread caller = Thread.currentThread();
+        List<Callable<RenderedImage>> frames = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            frames.add(
+                    () -> {
+                        assertSame(caller, Thread.currentThread());
+                        return new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_INDEXED);
+                    });
+        }
+
+        AnimationFrames list = new AnimationFrames(frames, null, 4, timeHelper(0), null);
+        for (int i = 0; i < 3; i++) {
+            list.getFrame(i);
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        List<Callable<RenderedImage>> frames = frames(3, new ArrayList<>());
+        frames.set(
+                1,
+                () -> {
+                    throw new ServiceException("Frame failed");
+                });
+
+        AnimationFrames list = new AnimationFrames(frames, executor, 3, timeHelper(0), null);
+        list.getFrame(0);
+        try {
+            list.getFrame(1);
+            fail("The frame failure should have been reported");
+        } catch (ServiceException e) {
+            assertEquals("Frame failed", e.getMessage());
+        }
+        try {
+            list.getFrame(2);
+            fail("The animation should have been stopped");
+        } catch (ServiceException e) {
+            assertTrue(e.getMessage().contains("stopped"));
+        }
+    }
+
+    @Test
+    public void testFramesWithoutImage() throws Exception {
+        List<RenderedImage> images = new ArrayList<>();
+        List<Callable<RenderedImage>> frames = frames(3, images);
+        frames.set(1, () -> null);
+
+        // the frame without image is delivered as null, the following ones are still rendered
+        AnimationFrames list = new AnimationFrames(frames, executor, 3, timeHelper(0), 1000L);
+        assertSame(images.get(0), list.getFrame(0));
+        assertNull(list.getFrame(1));
+        assertSame(images.get(2), list.getFrame(2));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        List<Callable<RenderedImage>> frames = frames(3, new ArrayList<>());
+        Callable<RenderedImage> slow = frames.get(1);
+        frames.set(
+                1,
+                () -> {
+                    Thread.sleep(200);
+                    return slow.call();
+                });
+
+        AnimationFrames list = new AnimationFrames(frames, executor, 3, timeHelper(50), null);
+        try {
+            for (int i = 0; i < 3; i++) {
+                list.getFrame(i);
+            }
+            fail("The animation should have timed out");
+        } catch (ServiceException e) {
+            assertTrue(e.getMessage().contains("more time than allowed"));
+        }
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        List<Callable<RenderedImage>> frames = frames(10, new ArrayList<>());
+        AnimationFrames list = new AnimationFrames(frames, executor, 2, timeHelper(0), 50L);
+        try {
+            for (int i = 0; i < 10; i++) {
+                list.getFrame(i);
+            }
+            fail("The animation should have exceeded the max rendering size");
+        } catch (ServiceException e) {
+            assertTrue(e.getMessage().contains("Max rendering size"));
+        }
+    }
+}
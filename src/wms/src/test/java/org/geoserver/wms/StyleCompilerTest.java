@@ -0,0 +1,120 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.geoserver.catalog.StyleInfo;
+import org.geotools.data.DataUtilities;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.After;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsGreaterThan;
+import org.opengis.filter.expression.Function;
+import org.opengis.filter.expression.Literal;
+
+public class StyleCompilerTest {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    @After
+    public void reset() {
+        StyleCompiler.STYLE_COMPILATION_ENABLED = true;
+        StyleCompiler.clear();
+    }
+
+    private Style buildStyle() {
+        StyleBuilder sb = new StyleBuilder();
+        Rule rule = sb.createRule(sb.createPolygonSymbolizer());
+        rule.setFilter(FF.greater(FF.property("pop"), FF.add(FF.literal(1), FF.literal(2))));
+        Style style = sb.createStyle();
+        style.featureTypeStyles().add(sb.createFeatureTypeStyle("Feature", rule));
+        return style;
+    }
+
+    @Test
+    public void testCompile() throws Exception {
+        Style compiled = StyleCompiler.compile(buildStyle());
+        Rule rule = compiled.featureTypeStyles().get(0).rules().get(0);
+        PropertyIsGreaterThan filter = (PropertyIsGreaterThan) rule.getFilter();
+        assertTrue(filter.getExpression1() instanceof IndexedPropertyName);
+        assertTrue(filter.getExpression2() instanceof Literal);
+        assertEquals(3, filter.getExpression2().evaluate(null, Integer.class).intValue());
+    }
+
+    @Test
+    public void testFunctions() throws Exception {
+        StyleBuilder sb = new StyleBuilder();
+        Rule pure = sb.createRule(sb.createPolygonSymbolizer());
+        pure.setFilter(
+                FF.equals(FF.property("name"), FF.function("strToUpperCase", FF.literal("a"))));
+        // the result depends on the feature, despite the literal argument
+        Rule data = sb.createRule(sb.createPolygonSymbolizer());
+        data.setFilter(FF.equals(FF.property("name"), FF.function("property", FF.literal("pop"))));
+        Style style = sb.createStyle();
+        style.featureTypeStyles().add(sb.createFeatureTypeStyle("Feature", pure));
+        style.featureTypeStyles().get(0).rules().add(data);
+
+        Style compiled = StyleCompiler.compile(style);
+        List<Rule> rules = compiled.featureTypeStyles().get(0).rules();
+        PropertyIsEqualTo folded = (PropertyIsEqualTo) rules.get(0).getFilter();
+        assertTrue(folded.getExpression2() instanceof Literal);
+        assertEquals("A", folded.getExpression2().evaluate(null));
+        PropertyIsEqualTo kept = (PropertyIsEqualTo) rules.get(1).getFilter();
+        assertTrue(kept.getExpression2() instanceof Function);
+        assertFalse(kept.getExpression2() instanceof Literal);
+
+        SimpleFeatureType type = DataUtilities.createType("t", "name:String,pop:String");
+        SimpleFeature f = SimpleFeatureBuilder.build(type, new Object[] {"10", "10"}, "t.1");
+        assertTrue(kept.evaluate(f));
+    }
+
+    @Test
+    public void testIndexedPropertyName() throws Exception {
+        SimpleFeatureType type1 = DataUtilities.createType("t1", "name:String,pop:Integer");
+        SimpleFeatureType type2 = DataUtilities.createType("t2", "pop:String,name:String");
+        SimpleFeature f1 = SimpleFeatureBuilder.build(type1, new Object[] {"a", 10}, "t1.1");
+        SimpleFeature f2 = SimpleFeatureBuilder.build(type2, new Object[] {"20", "b"}, "t2.1");
+
+        IndexedPropertyName pop = new IndexedPropertyName("pop");
+        assertEquals(Integer.valueOf(10), pop.evaluate(f1, Integer.class));
+        // the index follows the feature type
+        assertEquals(Integer.valueOf(20), pop.evaluate(f2, Integer.class));
+        assertEquals("10", pop.evaluate(f1, String.class));
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        Style style = buildStyle();
+        StyleInfo info = createNiceMock(StyleInfo.class);
+        expect(info.getStyle()).andReturn(style).anyTimes();
+        replay(info);
+
+        long hits = StyleCompiler.getStats().hitCount();
+        Style compiled = StyleCompiler.getStyle(info);
+        assertNotSame(style, compiled);
+        assertSame(compiled, StyleCompiler.getStyle(info));
+        assertEquals(hits + 1, StyleCompiler.getStats().hitCount());
+
+        StyleCompiler.STYLE_COMPILATION_ENABLED = false;
+        assertSame(style, StyleCompiler.getStyle(info));
+    }
+}
@@ -0,0 +1,179 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.dimension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.geoserver.catalog.DimensionInfo;
+import org.geoserver.catalog.DimensionPresentation;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.wms.WMSDimensionsTestSupport;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureStore;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+public class DimensionDomainCacheTest extends WMSDimensionsTestSupport {
+
+    DimensionDomainCache cache;
+
+    @Before
+    public void setupCache() {
+        cache = new DimensionDomainCache(60 * 1000, false);
+        getCatalog().addListener(cache);
+    }
+
+    @After
+    public void disposeCache() throws Exception {
+        getCatalog().removeListener(cache);
+        cache.destroy();
+    }
+
+    private DimensionInfo setupElevation(String layerName) {
+        setupVectorDimension(
+                layerName,
+                ResourceInfo.ELEVATION,
+                "elevation",
+                DimensionPresentation.LIST,
+                null,
+                null,
+                null);
+        return getFeatureType(layerName)
+                .getMetadata()
+                .get(ResourceInfo.ELEVATION, DimensionInfo.class);
+    }
+
+    private FeatureTypeInfo getFeatureType(String layerName) {
+        return getCatalog().getFeatureTypeByName(layerName);
+    }
+
+    @Test
+    public void testValuesAndRange() throws Exception {
+        DimensionInfo elevation = setupElevation(V_TIME_ELEVATION.getLocalPart());
+        FeatureTypeInfo typeInfo = getFeatureType(V_TIME_ELEVATION.getLocalPart());
+
+        DimensionDomain domain = cache.getDomain(typeInfo, elevation, true);
+        assertEquals(Arrays.asList(0d, 1d, 2d, 3d), domain.getValues());
+        assertSame(domain, cache.getDomain(typeInfo, elevation, true));
+        // the range is served from the cached values
+        assertSame(domain, cache.getDomain(typeInfo, elevation, false));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void testRangeOnly() throws Exception {
+        DimensionInfo elevation = setupElevation(V_TIME_ELEVATION.getLocalPart());
+        FeatureTypeInfo typeInfo = getFeatureType(V_TIME_ELEVATION.getLocalPart());
+
+        DimensionDomain range = cache.getDomain(typeInfo, elevation, false);
+        assertFalse(range.hasValues());
+        assertEquals(0d, ((Number) range.getMinimum()).doubleValue(), 0d);
+        assertEquals(3d, ((Number) range.getMaximum()).doubleValue(), 0d);
+
+        // asking for the values requires a new load
+        DimensionDomain values = cache.getDomain(typeInfo, elevation, true);
+        assertTrue(values.hasValues());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testCatalogInvalidation() throws Exception {
+        DimensionInfo elevation = setupElevation(V_TIME_ELEVATION.getLocalPart());
+        FeatureTypeInfo typeInfo = getFeatureType(V_TIME_ELEVATION.getLocalPart());
+        cache.getDomain(typeInfo, elevation, true);
+        assertEquals(1, cache.getCount());
+
+        getCatalog().save(typeInfo);
+        assertEquals(0, cache.getCount());
+    }
+
+    @Test
+    public void testDataInvalidation() throws Exception {
+        String layerName = V_TIME_ELEVATION_EMPTY.getLocalPart();
+        DimensionInfo elevation = setupElevation(layerName);
+        FeatureTypeInfo typeInfo = getFeatureType(layerName);
+        assertTrue(cache.getDomain(typeInfo, elevation, true).isEmpty());
+
+        SimpleFeatureStore store = (SimpleFeatureStore) typeInfo.getFeatureSource(null, null);
+        try {
+            SimpleFeatureBuilder fb =
+                    new SimpleFeatureBuilder((SimpleFeatureType) typeInfo.getFeatureType());
+            fb.set("elevation", 5d);
+            store.addFeatures(DataUtilities.collection(fb.buildFeature(null)));
+            assertEquals(0, cache.getCount());
+
+            DimensionDomain domain = cache.getDomain(typeInfo, elevation, true);
+            assertEquals(Collections.singletonList(5d), domain.getValues());
+        } finally {
+            store.removeFeatures(Filter.INCLUDE);
+        }
+        assertEquals(0, cache.getCount());
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+        DimensionDomainCache refreshing = new DimensionDomainCache(1, true);
+        try {
+            DimensionInfo elevation = setupElevation(V_TIME_ELEVATION.getLocalPart());
+            FeatureTypeInfo typeInfo = getFeatureType(V_TIME_ELEVATION.getLocalPart());
+            DimensionDomain domain = refreshing.getDomain(typeInfo, elevation, true);
+            Thread.sleep(10);
+
+            // the expired domain is returned, while it's reloaded in the background
+            assertSame(domain, refreshing.getDomain(typeInfo, elevation, true));
+            for (int i = 0; i < 500 && refreshing.getRefreshCount() == 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, refreshing.getRefreshCount());
+            assertEquals(1, refreshing.getMissCount());
+        } finally {
+            refreshing.destroy();
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        DimensionDomainCache disabled = new DimensionDomainCache();
+        DimensionInfo elevation = setupElevation(V_TIME_ELEVATION.getLocalPart());
+        FeatureTypeInfo typeInfo = getFeatureType(V_TIME_ELEVATION.getLocalPart());
+        disabled.getDomain(typeInfo, elevation, true);
+        assertEquals(0, disabled.getCount());
+        assertEquals(0, disabled.getMissCount());
+    }
+
+    @Test
+    public void testNearest() throws Exception {
+        DimensionDomain values = DimensionDomain.values(Arrays.asList(7d, 1d, null, 3d));
+        assertEquals(Arrays.asList(1d, 3d, 7d), values.getValues());
+        assertEquals(1d, values.getNearest(0d));
+        assertEquals(1d, values.getNearest(2d));
+        assertEquals(3d, values.getNearest(2.5));
+        assertEquals(3d, values.getNearest(3d));
+        assertEquals(7d, values.getNearest(6d));
+        assertEquals(7d, values.getNearest(10d));
+        assertNull(values.getNearest("abc"));
+
+        // a range can only resolve references outside of it
+        DimensionDomain range = DimensionDomain.range(1d, 7d);
+        assertEquals(1d, range.getNearest(-5d));
+        assertEquals(7d, range.getNearest(8d));
+        assertNull(range.getNearest(4d));
+
+        assertNull(DimensionDomain.EMPTY.getNearest(1d));
+        assertTrue(DimensionDomain.values(Collections.singleton(null)).isEmpty());
+    }
+}
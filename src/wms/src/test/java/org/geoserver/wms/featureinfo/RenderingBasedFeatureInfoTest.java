@@ -8,7 +8,9 @@ package org.geoserver.wms.featureinfo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -25,6 +27,7 @@ import org.apache.commons.lang3.mutable.MutableDouble;
 import org.custommonkey.xmlunit.SimpleNamespaceContext;
 import org.custommonkey.xmlunit.XMLUnit;
 import org.custommonkey.xmlunit.XpathEngine;
+import org.geoserver.catalog.StyleInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
@@ -122,11 +125,13 @@ public class RenderingBasedFeatureInfoTest extends WMSTestSupport {
         testData.addStyle("doublepoly", "doublepoly.sld", this.getClass(), getCatalog());
         testData.addStyle("pureLabel", "purelabel.sld", this.getClass(), getCatalog());
         testData.addStyle("transform", "transform.sld", this.getClass(), getCatalog());
+        testData.addStyle("stroke-only", "stroke-only.sld", this.getClass(), getCatalog());
     }
 
     @After
     public void cleanup() {
         VectorRenderingLayerIdentifier.RENDERING_FEATUREINFO_ENABLED = true;
+        VectorRenderingLayerIdentifier.GEOMETRIC_FEATUREINFO_ENABLED = false;
         // make sure GetFeatureInfo is not deactivated (this will only update the global service)
         WMSInfo wms = getGeoServer().getService(WMSInfo.class);
         wms.setFeaturesReprojectionDisabled(false);
@@ -721,6 +726,110 @@ public class RenderingBasedFeatureInfoTest extends WMSTestSupport {
         checkCoordinates(interiorLinearRing, 0.0001, 2, 61.5, 2, 62.5, 4, 62, 2, 61.5);
     }
 
+    @Test
+    public void testGeometricDynamicSize() throws Exception {
+        VectorRenderingLayerIdentifier.GEOMETRIC_FEATUREINFO_ENABLED = true;
+        String baseUrl =
+                "wms?REQUEST=GetFeatureInfo"
+                        + "&BBOX=0.000196%2C0.000696%2C0.000204%2C0.000704&SERVICE=WMS"
+                        + "&INFO_FORMAT=application/json&QUERY_LAYERS=cite%3ABridges"
+                        + "&Layers=cite%3ABridges&WIDTH=100&HEIGHT=100&format=image%2Fpng"
+                        + "&styles=dynamic&srs=EPSG%3A4326&version=1.1.1&feature_count=50";
+
+        // the mark size is computed from the feature attributes
+        JSONObject result1 = (JSONObject) getAsJSON(baseUrl + "&x=49&y=60");
+        assertEquals(1, result1.getJSONArray("features").size());
+
+        // too far from the mark
+        JSONObject result2 = (JSONObject) getAsJSON(baseUrl + "&x=49&y=80");
+        assertEquals(0, result2.getJSONArray("features").size());
+    }
+
+    @Test
+    public void testGeometricRangedSize() throws Exception {
+        // only the small symbol of the active rule is considered
+        VectorRenderingLayerIdentifier.GEOMETRIC_FEATUREINFO_ENABLED = true;
+        String url =
+                "wms?REQUEST=GetFeatureInfo&BBOX=0.000196%2C0.000696%2C0.000204%2C0.000704"
+                        + "&SERVICE=WMS&INFO_FORMAT=application/json&QUERY_LAYERS=cite%3ABridges"
+                        + "&Layers=cite%3ABridges&WIDTH=100&HEIGHT=100&format=image%2Fpng"
+                        + "&styles=ranged&srs=EPSG%3A4326&version=1.1.1&feature_count=50";
+        JSONObject result1 = (JSONObject) getAsJSON(url + "&x=49&y=65");
+        assertEquals(0, result1.getJSONArray("features").size());
+        JSONObject result2 = (JSONObject) getAsJSON(url + "&x=49&y=52");
+        assertEquals(1, result2.getJSONArray("features").size());
+    }
+
+    @Test
+    public void testGeometricBoxOffset() throws Exception {
+        // external graphics cannot be approximated, the style is painted instead
+        VectorRenderingLayerIdentifier.GEOMETRIC_FEATUREINFO_ENABLED = true;
+        String url =
+                "wms?REQUEST=GetFeatureInfo&BBOX=1.9E-4,6.9E-4,2.1E-4,7.1E-4&SERVICE=WMS"
+                        + "&INFO_FORMAT=application/json&QUERY_LAYERS=cite%3ABridges"
+                        + "&Layers=cite%3ABridges&WIDTH=100&HEIGHT=100&format=image%2Fpng"
+                        + "&styles=box-offset&srs=EPSG%3A4326&version=1.1.1&x=50&y=63"
+                        + "&feature_count=50";
+        JSONObject result = (JSONObject) getAsJSON(url);
+        assertEquals(0, result.getJSONArray("features").size());
+    }
+
+    @Test
+    public void testGeometricPolygons() throws Exception {
+        VectorRenderingLayerIdentifier.GEOMETRIC_FEATUREINFO_ENABLED = true;
+        String layer = getLayerId(MockData.FORESTS);
+        for (String style : new String[] {"two-rules", "two-fts", "polydash", "transform"}) {
+            String request =
+                    "wms?version=1.1.1&bbox=-0.002,-0.002,0.002,0.002&format=image/png"
+                            + "&request=GetFeatureInfo&layers="
+                            + layer
+                            + "&query_layers="
+                            + layer
+                            + "&styles="
+                            + style
+                            + "&srs=EPSG:4326&width=20&height=20&x=10&y=10"
+                            + "&info_format=application/json&feature_count=50";
+
+            // a single result even if the feature is hit by multiple rules or styles
+            JSONObject result = (JSONObject) getAsJSON(request);
+            assertEquals(style, 1, result.getJSONArray("features").size());
+        }
+    }
+
+    @Test
+    public void testGeometricStrokeOnlyPolygon() throws Exception {
+        VectorRenderingLayerIdentifier.GEOMETRIC_FEATUREINFO_ENABLED = true;
+        String layer = getLayerId(GIANT_POLYGON);
+        String baseUrl =
+                "wms?version=1.1.1&bbox=-10,-10,10,10&format=image/png"
+                        + "&request=GetFeatureInfo&layers="
+                        + layer
+                        + "&query_layers="
+                        + layer
+                        + "&srs=EPSG:4326&width=100&height=100&x=50&y=50"
+                        + "&info_format=application/json&feature_count=50";
+
+        // the interior of an outline only polygon is not painted
+        JSONObject result = (JSONObject) getAsJSON(baseUrl + "&styles=stroke-only");
+        assertEquals(0, result.getJSONArray("features").size());
+
+        // while a filled one is hit, even if the fill is transparent
+        result = (JSONObject) getAsJSON(baseUrl + "&styles=transparent-fill");
+        assertEquals(1, result.getJSONArray("features").size());
+    }
+
+    @Test
+    public void testGeometricEvaluation() throws Exception {
+        StyleInfo dynamic = getCatalog().getStyleByName("dynamic");
+        StyleInfo offset = getCatalog().getStyleByName("box-offset");
+        assertTrue(
+                GeometricHitEvaluator.canEvaluate(
+                        dynamic.getStyle().featureTypeStyles().get(0).rules()));
+        assertFalse(
+                GeometricHitEvaluator.canEvaluate(
+                        offset.getStyle().featureTypeStyles().get(0).rules()));
+    }
+
     /**
      * Helper method that checks if the string represented coordinates correspond to the expected
      * ones. The provided precision will be used to compare the numeric values.
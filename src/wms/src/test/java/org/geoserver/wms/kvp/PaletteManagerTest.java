@@ -32,6 +32,16 @@ public class PaletteManagerTest {
         assertNotEquals(op1, op2);
     }
 
+    @Test
+    public void testEqualColorModels() {
+        // palettes built per request share the inverse color map of an equal one
+        InverseColorMapOp op1 = PaletteManager.getInverseColorMapOp(buildGrayPalette());
+        long builds = PaletteManager.getInverseColorMapCacheStats().missCount();
+        InverseColorMapOp op2 = PaletteManager.getInverseColorMapOp(buildGrayPalette());
+        assertSame(op1, op2);
+        assertEquals(builds, PaletteManager.getInverseColorMapCacheStats().missCount());
+    }
+
     /** Builds a palette with the same structure as the safe one, but fully gray */
     static IndexColorModel buildGrayPalette() {
         int[] cmap = new int[256];
@@ -0,0 +1,143 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.geoserver.catalog.impl.LayerInfoImpl;
+import org.geoserver.catalog.impl.WorkspaceInfoImpl;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.wms.GetLegendGraphicRequest;
+import org.geoserver.wms.GetLegendGraphicRequest.LegendRequest;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.styling.Rule;
+import org.geotools.styling.StyleBuilder;
+import org.junit.Test;
+import org.opengis.filter.FilterFactory;
+
+public class LegendCacheTest {
+
+    private GetLegendGraphicRequest buildRequest(String... kvp) {
+        GetLegendGraphicRequest request = new GetLegendGraphicRequest(null);
+        Map<String, String> rawKvp = new HashMap<>();
+        for (int i = 0; i < kvp.length; i += 2) {
+            rawKvp.put(kvp[i], kvp[i + 1]);
+        }
+        request.setRawKvp(rawKvp);
+        return request;
+    }
+
+    @Test
+    public void testLegendKey() throws Exception {
+        LegendCache cache = new LegendCache(10, 0);
+        String key =
+                cache.getLegendKey(
+                        buildRequest("REQUEST", "GetLegendGraphic", "LAYER", "a", "WIDTH", "20"));
+        assertNotNull(key);
+        // parameter case and order do not matter
+        assertEquals(key, cache.getLegendKey(buildRequest("width", "20", "layer", "a")));
+        assertNotEquals(key, cache.getLegendKey(buildRequest("LAYER", "a", "WIDTH", "30")));
+        // remote styles can change at any time
+        assertNull(cache.getLegendKey(buildRequest("LAYER", "a", "SLD", "http://host/a.sld")));
+
+        // feature counts are not cached along with the legends
+        GetLegendGraphicRequest request = buildRequest("LAYER", "a");
+        request.setLegendOptions(
+                Collections.singletonMap(GetLegendGraphicRequest.COUNT_MATCHED_KEY, "true"));
+        assertNull(cache.getLegendKey(request));
+
+        // disabled cache
+        assertNull(new LegendCache().getLegendKey(buildRequest("LAYER", "a")));
+    }
+
+    @Test
+    public void testVirtualServices() throws Exception {
+        LegendCache cache = new LegendCache(10, 0);
+        String global = cache.getLegendKey(buildRequest("LAYER", "a"));
+        WorkspaceInfoImpl ws1 = new WorkspaceInfoImpl();
+        ws1.setId("ws1");
+        WorkspaceInfoImpl ws2 = new WorkspaceInfoImpl();
+        ws2.setId("ws2");
+        try {
+            // the same parameters, sent to different workspace services
+            LocalWorkspace.set(ws1);
+            String key1 = cache.getLegendKey(buildRequest("LAYER", "a"));
+            LocalWorkspace.set(ws2);
+            String key2 = cache.getLegendKey(buildRequest("LAYER", "a"));
+            assertNotEquals(global, key1);
+            assertNotEquals(key1, key2);
+        } finally {
+            LocalWorkspace.remove();
+        }
+
+        // the same parameters, resolved to different layers
+        LayerInfoImpl layer = new LayerInfoImpl();
+        layer.setId("layer1");
+        GetLegendGraphicRequest request = buildRequest("LAYER", "a");
+        LegendRequest legend = new LegendRequest();
+        legend.setLayerInfo(layer);
+        request.getLegends().add(legend);
+        String resolved = cache.getLegendKey(request);
+        layer.setId("layer2");
+        assertNotEquals(resolved, cache.getLegendKey(request));
+    }
+
+    @Test
+    public void testLegends() throws Exception {
+        LegendCache cache = new LegendCache(10, 0);
+        String key = cache.getLegendKey(buildRequest("LAYER", "a"));
+        BufferedImageLegendGraphic legend =
+                new BufferedImageLegendGraphic(
+                        new BufferedImage(20, 20, BufferedImage.TYPE_INT_ARGB));
+        cache.putLegend(key, legend);
+        assertSame(legend, cache.getLegend(key));
+
+        // the catalog or data changed
+        cache.invalidateAll();
+        assertNull(cache.getLegend(key));
+        assertNotEquals(key, cache.getLegendKey(buildRequest("LAYER", "a")));
+
+        // other legend types might be altered while encoded
+        String otherKey = cache.getLegendKey(buildRequest("LAYER", "b"));
+        cache.putLegend(otherKey, (LegendGraphic) () -> "legend");
+        assertNull(cache.getLegend(otherKey));
+    }
+
+    @Test
+    public void testCounts() throws Exception {
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory();
+        StyleBuilder sb = new StyleBuilder();
+        Rule r1 = sb.createRule(sb.createPolygonSymbolizer());
+        r1.setFilter(ff.equals(ff.property("a"), ff.literal(1)));
+        Rule r2 = sb.createRule(sb.createPolygonSymbolizer());
+        r2.setElseFilter(true);
+        Rule[] rules = {r1, r2};
+
+        LegendCache cache = new LegendCache(0, 60);
+        GetLegendGraphicRequest request = buildRequest("LAYER", "a", "BBOX", "0,0,1,1");
+        String key = cache.getCountKey(request, "a", rules);
+        assertNotNull(key);
+        cache.putCounts(key, new int[] {3, 5});
+        assertArrayEquals(new int[] {3, 5}, cache.getCounts(key));
+
+        // different rules, layers or areas have their own counts
+        assertNotEquals(key, cache.getCountKey(request, "a", new Rule[] {r1}));
+        assertNotEquals(key, cache.getCountKey(request, "b", rules));
+        assertNotEquals(
+                key, cache.getCountKey(buildRequest("LAYER", "a", "BBOX", "0,0,2,2"), "a", rules));
+
+        // disabled cache
+        assertNull(new LegendCache(10, 0).getCountKey(request, "a", rules));
+    }
+}
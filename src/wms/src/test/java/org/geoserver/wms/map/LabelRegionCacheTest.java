@@ -0,0 +1,168 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import javax.xml.namespace.QName;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.data.test.SystemTestData;
+import org.geoserver.wms.WMSTestSupport;
+import org.geotools.image.test.ImageAssert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LabelRegionCacheTest extends WMSTestSupport {
+
+    /** Same name as the cite one, in another workspace */
+    static final QName SF_NAMED_PLACES =
+            new QName(MockData.SF_URI, "NamedPlaces", MockData.SF_PREFIX);
+
+    LabelRegionCache cache;
+
+    LabelRegionCache defaultCache;
+
+    @Override
+    protected void onSetUp(SystemTestData testData) throws Exception {
+        super.onSetUp(testData);
+        testData.addStyle("regionLabels", "regionLabels.sld", getClass(), getCatalog());
+        testData.addVectorLayer(
+                SF_NAMED_PLACES,
+                Collections.emptyMap(),
+                "NamedPlaces.properties",
+                SystemTestData.class,
+                getCatalog());
+    }
+
+    @Before
+    public void setupCache() {
+        defaultCache = getWMS().getLabelRegionCache();
+        cache = new LabelRegionCache(16 * 1024 * 1024, 1024);
+        getCatalog().addListener(cache);
+        getWMS().setLabelRegionCache(cache);
+    }
+
+    @After
+    public void resetCache() throws Exception {
+        getWMS().setLabelRegionCache(defaultCache);
+        getCatalog().removeListener(cache);
+        cache.destroy();
+    }
+
+    private String getTileRequest(String bbox, String style, int size) {
+        return getTileRequest("wms", getLayerId(MockData.NAMED_PLACES), bbox, style, size);
+    }
+
+    private String getTileRequest(String path, String layer, String bbox, String style, int size) {
+        return path
+                + "?service=WMS&version=1.1.1&request=GetMap&format=image/png"
+                + "&format_options=antialias:none"
+                + "&layers="
+                + layer
+                + "&styles="
+                + style
+                + "&srs=EPSG:4326&tiled=true&width="
+                + size
+                + "&height="
+                + size
+                + "&bbox="
+                + bbox;
+    }
+
+    @Test
+    public void testNeighbourTiles() throws Exception {
+        BufferedImage tile1 =
+                getAsImage(getTileRequest("0,0,0.00256,0.00256", "regionLabels", 256), "image/png");
+        assertEquals(1, cache.getRenderedCount());
+        assertEquals(1, cache.getCount());
+
+        // the neighbour tile is in the same region, its labels are already there
+        BufferedImage tile2 =
+                getAsImage(
+                        getTileRequest("0.00256,0,0.00512,0.00256", "regionLabels", 256),
+                        "image/png");
+        assertEquals(1, cache.getRenderedCount());
+        assertEquals(1, cache.getStats().hitCount());
+        assertEquals(256, tile1.getWidth());
+        assertEquals(256, tile2.getWidth());
+
+        // a different resolution uses a different region grid
+        getAsImage(getTileRequest("0,0,0.00512,0.00512", "regionLabels", 256), "image/png");
+        assertEquals(2, cache.getRenderedCount());
+    }
+
+    @Test
+    public void testSameAsUncached() throws Exception {
+        // the labels of the region the tile belongs to, rendered at once
+        getWMS().setLabelRegionCache(new LabelRegionCache());
+        String regionRequest = getTileRequest("0,0,0.01024,0.01024", "regionLabels", 1024);
+        BufferedImage region = getAsImage(regionRequest, "image/png");
+        getWMS().setLabelRegionCache(cache);
+
+        // the tile cuts the polygon, yet its label is the same as in the whole region
+        BufferedImage tile =
+                getAsImage(
+                        getTileRequest("0.00256,0,0.00512,0.00256", "regionLabels", 256),
+                        "image/png");
+        assertEquals(1, cache.getRenderedCount());
+        ImageAssert.assertEquals(region.getSubimage(256, 768, 256, 256), tile, 0);
+    }
+
+    @Test
+    public void testVirtualServices() throws Exception {
+        // same parameters, but different layers in different workspaces
+        String bbox = "0,0,0.00256,0.00256";
+        String citeRequest = getTileRequest("cite/wms", "NamedPlaces", bbox, "regionLabels", 256);
+        String sfRequest = getTileRequest("sf/wms", "NamedPlaces", bbox, "regionLabels", 256);
+        getAsImage(citeRequest, "image/png");
+        getAsImage(sfRequest, "image/png");
+        assertEquals(2, cache.getRenderedCount());
+        assertEquals(2, cache.getCount());
+
+        getAsImage(sfRequest, "image/png");
+        assertEquals(2, cache.getRenderedCount());
+    }
+
+    @Test
+    public void testStyleChange() throws Exception {
+        String request = getTileRequest("0,0,0.00256,0.00256", "regionLabels", 256);
+        getAsImage(request, "image/png");
+        assertEquals(1, cache.getCount());
+
+        StyleInfo style = getCatalog().getStyleByName("regionLabels");
+        getCatalog().save(style);
+        assertEquals(0, cache.getCount());
+
+        getAsImage(request, "image/png");
+        assertEquals(2, cache.getRenderedCount());
+    }
+
+    @Test
+    public void testNotCached() throws Exception {
+        // no labels in the style
+        getAsImage(getTileRequest("0,0,0.00256,0.00256", "polygon", 256), "image/png");
+        // larger than a region
+        getAsImage(getTileRequest("0,0,0.02048,0.02048", "regionLabels", 2048), "image/png");
+        // not aligned to the pixel grid
+        getAsImage(
+                getTileRequest("0.0000013,0,0.0025613,0.00256", "regionLabels", 256), "image/png");
+        assertEquals(0, cache.getRenderedCount());
+        assertTrue(cache.isEnabled());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        LabelRegionCache disabled = new LabelRegionCache();
+        getWMS().setLabelRegionCache(disabled);
+        getAsImage(getTileRequest("0,0,0.00256,0.00256", "regionLabels", 256), "image/png");
+        assertEquals(0, disabled.getCount());
+        assertEquals(0, disabled.getRenderedCount());
+    }
+}
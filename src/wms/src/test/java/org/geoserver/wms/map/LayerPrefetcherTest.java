@@ -0,0 +1,149 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.xml.namespace.QName;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.WMSTestSupport;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.image.test.ImageAssert;
+import org.geotools.map.FeatureLayer;
+import org.geotools.map.MapContent;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.Style;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LayerPrefetcherTest extends WMSTestSupport {
+
+    static final Rectangle PAINT_AREA = new Rectangle(200, 200);
+
+    ExecutorService executor;
+
+    @Before
+    public void setupExecutor() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    private WMSMapContent buildMap(QName... layers) throws Exception {
+        WMSMapContent map = new WMSMapContent(new GetMapRequest());
+        Style style = getCatalog().getStyleByName("polygon").getStyle();
+        for (QName name : layers) {
+            FeatureTypeInfo info = getCatalog().getFeatureTypeByName(getLayerId(name));
+            SimpleFeatureSource source = (SimpleFeatureSource) info.getFeatureSource(null, null);
+            map.addLayer(new FeatureLayer(source, style));
+        }
+        map.getViewport()
+                .setBounds(new ReferencedEnvelope(-2, 2, -1, 6, DefaultGeographicCRS.WGS84));
+        map.setMapWidth(PAINT_AREA.width);
+        map.setMapHeight(PAINT_AREA.height);
+        return map;
+    }
+
+    private Map<Object, Object> rendererHints(int buffer) {
+        Map<Object, Object> hints = new HashMap<>();
+        hints.put("optimizedDataLoadingEnabled", Boolean.TRUE);
+        hints.put("renderingBuffer", buffer);
+        return hints;
+    }
+
+    private BufferedImage paint(MapContent content, WMSMapContent map, int buffer) {
+        BufferedImage image =
+                new BufferedImage(
+                        PAINT_AREA.width, PAINT_AREA.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        StreamingRenderer renderer = new StreamingRenderer();
+        renderer.setMapContent(content);
+        renderer.setRendererHints(rendererHints(buffer));
+        renderer.paint(
+                graphics, PAINT_AREA, map.getRenderingArea(), map.getRenderingTransform());
+        graphics.dispose();
+        return image;
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        WMSMapContent map =
+                buildMap(MockData.BASIC_POLYGONS, MockData.LAKES, MockData.NAMED_PLACES);
+        try {
+            BufferedImage expected = paint(map, map, 0);
+
+            // a tiny buffer, the readers have to wait for the renderer
+            LayerPrefetcher prefetcher = new LayerPrefetcher(executor, 1);
+            MapContent content =
+                    prefetcher.prefetch(
+                            map, PAINT_AREA, rendererHints(0), new RenderingHints(null));
+            assertNotNull(content);
+            BufferedImage actual = paint(content, map, 0);
+            prefetcher.dispose();
+
+            assertEquals(3, prefetcher.getServedCount());
+            ImageAssert.assertEquals(expected, actual, 0);
+            // the original map is untouched
+            assertEquals(3, map.layers().size());
+            ImageAssert.assertEquals(expected, paint(map, map, 0), 0);
+        } finally {
+            map.dispose();
+        }
+    }
+
+    @Test
+    public void testSingleLayer() throws Exception {
+        WMSMapContent map = buildMap(MockData.BASIC_POLYGONS);
+        try {
+            LayerPrefetcher prefetcher = new LayerPrefetcher(executor, 10);
+            assertNull(
+                    prefetcher.prefetch(
+                            map, PAINT_AREA, rendererHints(0), new RenderingHints(null)));
+        } finally {
+            map.dispose();
+        }
+    }
+
+    @Test
+    public void testUnexpectedQueries() throws Exception {
+        WMSMapContent map = buildMap(MockData.BASIC_POLYGONS, MockData.NAMED_PLACES);
+        try {
+            BufferedImage expected = paint(map, map, 10);
+
+            LayerPrefetcher prefetcher = new LayerPrefetcher(executor, 10);
+            MapContent content =
+                    prefetcher.prefetch(
+                            map, PAINT_AREA, rendererHints(0), new RenderingHints(null));
+            assertNotNull(content);
+            // a different buffer changes the queries, the data gets read directly
+            BufferedImage actual = paint(content, map, 10);
+            prefetcher.dispose();
+
+            assertEquals(0, prefetcher.getServedCount());
+            ImageAssert.assertEquals(expected, actual, 0);
+        } finally {
+            map.dispose();
+        }
+    }
+}
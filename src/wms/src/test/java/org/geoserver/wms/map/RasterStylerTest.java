@@ -0,0 +1,373 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.opengis.style.ContrastMethod.HISTOGRAM;
+import static org.opengis.style.ContrastMethod.NORMALIZE;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.util.HashMap;
+import java.util.Map;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.ROI;
+import javax.media.jai.ROIShape;
+import javax.media.jai.TiledImage;
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.NoDataContainer;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.util.CoverageUtilities;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.renderer.lite.gridcoverage2d.RasterSymbolizerHelper;
+import org.geotools.styling.ChannelSelection;
+import org.geotools.styling.ColorMap;
+import org.geotools.styling.ContrastEnhancement;
+import org.geotools.styling.ContrastEnhancementImpl;
+import org.geotools.styling.RasterSymbolizer;
+import org.geotools.styling.SelectedChannelType;
+import org.geotools.styling.StyleBuilder;
+import org.geotools.styling.StyleFactory;
+import org.junit.Test;
+import org.opengis.filter.FilterFactory;
+import org.opengis.style.ContrastMethod;
+
+public class RasterStylerTest {
+
+    static final int RED = Color.RED.getRGB();
+
+    static final int GREEN = Color.GREEN.getRGB();
+
+    static final int BLUE = Color.BLUE.getRGB();
+
+    StyleBuilder sb = new StyleBuilder();
+
+    FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+
+    private RasterSymbolizer symbolizer(int type, double[] quantities, Color... colors) {
+        ColorMap colorMap = sb.createColorMap(new String[colors.length], quantities, colors, type);
+        return sb.createRasterSymbolizer(colorMap, 1);
+    }
+
+    private TiledImage image(int dataType, int width, int height, int tileSize, double... values) {
+        SampleModel sm =
+                new ComponentSampleModel(dataType, tileSize, tileSize, 1, tileSize, new int[] {0});
+        TiledImage image =
+                new TiledImage(0, 0, width, height, 0, 0, sm, PlanarImage.createColorModel(sm));
+        for (int i = 0; i < values.length; i++) {
+            image.setSample(i % width, i / width, 0, values[i]);
+        }
+        return image;
+    }
+
+    private int[] pixels(RenderedImage image) {
+        Raster data = image.getData();
+        int[] result = new int[image.getWidth() * image.getHeight()];
+        int[] argb = new int[4];
+        for (int i = 0; i < result.length; i++) {
+            int x = image.getMinX() + i % image.getWidth();
+            int y = image.getMinY() + i / image.getWidth();
+            data.getPixel(x, y, argb);
+            result[i] = (argb[3] << 24) | (argb[0] << 16) | (argb[1] << 8) | argb[2];
+        }
+        return result;
+    }
+
+    @Test
+    public void testRamp() throws Exception {
+        RasterStyler styler =
+                RasterStyler.create(
+                        symbolizer(
+                                ColorMap.TYPE_RAMP,
+                                new double[] {0, 100, 200},
+                                Color.RED,
+                                Color.GREEN,
+                                Color.BLUE));
+        assertNotNull(styler);
+        RenderedImage image =
+                image(DataBuffer.TYPE_FLOAT, 7, 1, 8, -50, 0, 50, 100, 200, 300, Double.NaN);
+        int[] pixels = pixels(styler.style(image, Double.NaN));
+
+        assertEquals(RED, pixels[0]);
+        assertEquals(RED, pixels[1]);
+        assertEquals(new Color(128, 128, 0).getRGB(), pixels[2]);
+        assertEquals(GREEN, pixels[3]);
+        assertEquals(BLUE, pixels[4]);
+        assertEquals(BLUE, pixels[5]);
+        assertEquals(0, pixels[6]);
+    }
+
+    @Test
+    public void testRampOpacityAndNoData() throws Exception {
+        RasterSymbolizer symbolizer =
+                symbolizer(ColorMap.TYPE_RAMP, new double[] {0, 100}, Color.RED, Color.BLUE);
+        symbolizer.getColorMap().getColorMapEntry(0).setOpacity(ff.literal(0));
+        RasterStyler styler = RasterStyler.create(symbolizer);
+        RenderedImage image = image(DataBuffer.TYPE_FLOAT, 4, 1, 8, -9999, 0, 50, 100);
+        int[] pixels = pixels(styler.style(image, -9999));
+
+        assertEquals(0, pixels[0]);
+        assertEquals(Color.RED.getRGB() & 0xFFFFFF, pixels[1]);
+        assertEquals(new Color(128, 0, 128, 128).getRGB(), pixels[2]);
+        assertEquals(BLUE, pixels[3]);
+    }
+
+    @Test
+    public void testIntervals() throws Exception {
+        RasterStyler styler =
+                RasterStyler.create(
+                        symbolizer(
+                                ColorMap.TYPE_INTERVALS,
+                                new double[] {10, 50, 100},
+                                Color.RED,
+                                Color.GREEN,
+                                Color.BLUE));
+        RenderedImage image = image(DataBuffer.TYPE_FLOAT, 6, 1, 8, 5, 10, 49.9, 50, 99, 100);
+        int[] pixels = pixels(styler.style(image, Double.NaN));
+
+        // each entry covers values from the previous quantity, up to its own one excluded
+        assertEquals(RED, pixels[0]);
+        assertEquals(GREEN, pixels[1]);
+        assertEquals(GREEN, pixels[2]);
+        assertEquals(BLUE, pixels[3]);
+        assertEquals(BLUE, pixels[4]);
+        assertEquals(0, pixels[5]);
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        RasterStyler styler =
+                RasterStyler.create(
+                        symbolizer(
+                                ColorMap.TYPE_VALUES,
+                                new double[] {3, 1, 2},
+                                Color.BLUE,
+                                Color.RED,
+                                Color.GREEN));
+        RenderedImage image = image(DataBuffer.TYPE_BYTE, 5, 1, 8, 0, 1, 2, 3, 4);
+        int[] pixels = pixels(styler.style(image, Double.NaN));
+
+        assertEquals(0, pixels[0]);
+        assertEquals(RED, pixels[1]);
+        assertEquals(GREEN, pixels[2]);
+        assertEquals(BLUE, pixels[3]);
+        assertEquals(0, pixels[4]);
+    }
+
+    @Test
+    public void testSameAsRasterSymbolizerHelper() throws Exception {
+        double[] values = new double[64];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = -50 + i * 5.3;
+        }
+        values[10] = -9999;
+        RenderedImage floats = image(DataBuffer.TYPE_FLOAT, 8, 8, 8, values);
+        double[] integers = new double[64];
+        for (int i = 0; i < integers.length; i++) {
+            integers[i] = i * 4;
+        }
+        RenderedImage bytes = image(DataBuffer.TYPE_BYTE, 8, 8, 8, integers);
+
+        RasterSymbolizer ramp =
+                symbolizer(
+                        ColorMap.TYPE_RAMP,
+                        new double[] {0, 100, 200},
+                        Color.RED,
+                        Color.GREEN,
+                        Color.BLUE);
+        assertSameAsHelper(ramp, floats, -9999);
+        assertSameAsHelper(ramp, bytes, Double.NaN);
+
+        RasterSymbolizer translucent =
+                symbolizer(ColorMap.TYPE_RAMP, new double[] {0, 100}, Color.RED, Color.BLUE);
+        translucent.getColorMap().getColorMapEntry(0).setOpacity(ff.literal(0.5));
+        assertSameAsHelper(translucent, floats, -9999);
+
+        RasterSymbolizer intervals =
+                symbolizer(
+                        ColorMap.TYPE_INTERVALS,
+                        new double[] {10, 50, 100},
+                        Color.RED,
+                        Color.GREEN,
+                        Color.BLUE);
+        assertSameAsHelper(intervals, floats, -9999);
+        assertSameAsHelper(intervals, bytes, Double.NaN);
+
+        RasterSymbolizer valueMap =
+                symbolizer(
+                        ColorMap.TYPE_VALUES,
+                        new double[] {0, 40, 100},
+                        Color.RED,
+                        Color.GREEN,
+                        Color.BLUE);
+        assertSameAsHelper(valueMap, bytes, Double.NaN);
+    }
+
+    /**
+     * Checks the styler output matches the GeoTools one, allowing for the rounding of the ramp
+     * colors in the GeoTools palettes
+     */
+    private void assertSameAsHelper(RasterSymbolizer symbolizer, RenderedImage image, double noData)
+            throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        if (!Double.isNaN(noData)) {
+            CoverageUtilities.setNoDataProperty(properties, new NoDataContainer(noData));
+        }
+        GridCoverage2D coverage =
+                CoverageFactoryFinder.getGridCoverageFactory(null)
+                        .create(
+                                "test",
+                                image,
+                                new ReferencedEnvelope(0, 8, 0, 8, DefaultGeographicCRS.WGS84),
+                                null,
+                                null,
+                                properties);
+        RasterSymbolizerHelper helper = new RasterSymbolizerHelper(coverage, null);
+        helper.visit(symbolizer);
+        int[] expected = rgb(((GridCoverage2D) helper.getOutput()).getRenderedImage());
+        int[] actual = rgb(RasterStyler.create(symbolizer).style(image, noData));
+
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                int e = (expected[i] >>> shift) & 0xFF;
+                int a = (actual[i] >>> shift) & 0xFF;
+                assertEquals("Pixel " + i + ", channel shift " + shift, e, a, 8);
+                if (shift == 24 && e == 0) {
+                    // transparent, colors do not matter
+                    break;
+                }
+            }
+        }
+    }
+
+    /** The non premultiplied ARGB values of the image pixels, whatever its color model */
+    private int[] rgb(RenderedImage image) {
+        Raster data = image.getData();
+        ColorModel cm = image.getColorModel();
+        int[] result = new int[image.getWidth() * image.getHeight()];
+        Object pixel = null;
+        for (int i = 0; i < result.length; i++) {
+            int x = image.getMinX() + i % image.getWidth();
+            int y = image.getMinY() + i / image.getWidth();
+            pixel = data.getDataElements(x, y, pixel);
+            result[i] = cm.getRGB(pixel);
+        }
+        return result;
+    }
+
+    @Test
+    public void testParallelTiles() throws Exception {
+        RasterStyler styler =
+                RasterStyler.create(
+                        symbolizer(
+                                ColorMap.TYPE_RAMP,
+                                new double[] {0, 500, 1000},
+                                Color.RED,
+                                Color.GREEN,
+                                Color.BLUE));
+        int width = 600;
+        int height = 500;
+        double[] values = new double[width * height];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 1100 - 50;
+        }
+        TiledImage image = image(DataBuffer.TYPE_FLOAT, width, height, 128, values);
+        int[] pixels = pixels(styler.style(image, Double.NaN));
+
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(styler.color(values[i]), pixels[i]);
+        }
+    }
+
+    @Test
+    public void testTranslatedImage() throws Exception {
+        RasterStyler styler =
+                RasterStyler.create(
+                        symbolizer(ColorMap.TYPE_VALUES, new double[] {1}, Color.RED));
+        SampleModel sm = new ComponentSampleModel(DataBuffer.TYPE_SHORT, 8, 8, 1, 8, new int[] {0});
+        TiledImage image =
+                new TiledImage(10, 20, 4, 4, 8, 16, sm, PlanarImage.createColorModel(sm));
+        image.setSample(11, 21, 0, 1);
+        RenderedImage styled = styler.style(image, Double.NaN);
+
+        assertEquals(10, styled.getMinX());
+        assertEquals(20, styled.getMinY());
+        int[] pixels = pixels(styled);
+        assertEquals(0, pixels[0]);
+        assertEquals(RED, pixels[5]);
+    }
+
+    @Test
+    public void testROI() throws Exception {
+        RasterStyler styler =
+                RasterStyler.create(
+                        symbolizer(ColorMap.TYPE_VALUES, new double[] {0}, Color.RED));
+        ROI roi = new ROIShape(new Rectangle(10, 20, 2, 2));
+
+        TiledImage image = image(DataBuffer.TYPE_BYTE, 4, 4, 4, new double[16]);
+        image.setProperty("ROI", roi);
+        assertSame(roi, styler.style(image, Double.NaN).getProperty("ROI"));
+
+        SampleModel sm = new ComponentSampleModel(DataBuffer.TYPE_SHORT, 8, 8, 1, 8, new int[] {0});
+        TiledImage translated =
+                new TiledImage(10, 20, 4, 4, 8, 16, sm, PlanarImage.createColorModel(sm));
+        translated.setProperty("ROI", roi);
+        assertSame(roi, styler.style(translated, Double.NaN).getProperty("ROI"));
+    }
+
+    @Test
+    public void testUnsupported() throws Exception {
+        RasterSymbolizer extended =
+                symbolizer(ColorMap.TYPE_RAMP, new double[] {0, 1}, Color.RED, Color.BLUE);
+        extended.getColorMap().setExtendedColors(true);
+        assertNull(RasterStyler.create(extended));
+
+        RasterSymbolizer rgb = sb.createRasterSymbolizer();
+        StyleFactory sf = sb.getStyleFactory();
+        ChannelSelection selection =
+                sf.createChannelSelection(
+                        new SelectedChannelType[] {
+                            sf.createSelectedChannelType("1", (ContrastEnhancement) null),
+                            sf.createSelectedChannelType("2", (ContrastEnhancement) null),
+                            sf.createSelectedChannelType("3", (ContrastEnhancement) null)
+                        });
+        rgb.setChannelSelection(selection);
+        assertNull(RasterStyler.create(rgb));
+
+        // nothing to do
+        assertNull(RasterStyler.create(sb.createRasterSymbolizer()));
+
+        // contrast enhancement depends on the statistics of the image being styled
+        for (ContrastMethod method : new ContrastMethod[] {NORMALIZE, HISTOGRAM}) {
+            RasterSymbolizer enhanced =
+                    symbolizer(ColorMap.TYPE_RAMP, new double[] {0, 1}, Color.RED, Color.BLUE);
+            ContrastEnhancementImpl ce = new ContrastEnhancementImpl();
+            ce.setMethod(method);
+            enhanced.setContrastEnhancement(ce);
+            assertNull(RasterStyler.create(enhanced));
+        }
+
+        // multiband images are not supported
+        RasterStyler styler =
+                RasterStyler.create(
+                        symbolizer(ColorMap.TYPE_RAMP, new double[] {0, 1}, Color.RED, Color.BLUE));
+        SampleModel sm =
+                new ComponentSampleModel(DataBuffer.TYPE_BYTE, 8, 8, 2, 16, new int[] {0, 1});
+        TiledImage image =
+                new TiledImage(0, 0, 8, 8, 0, 0, sm, PlanarImage.createColorModel(sm));
+        assertNull(styler.style(image, Double.NaN));
+    }
+}
@@ -13,6 +13,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import it.geosolutions.jaiext.vectorbin.ROIGeometry;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Point;
@@ -41,7 +42,9 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
 import javax.media.jai.Interpolation;
+import javax.media.jai.PlanarImage;
 import javax.media.jai.RenderedOp;
+import javax.media.jai.RenderedImageAdapter;
 import javax.xml.namespace.QName;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.RegexFileFilter;
@@ -61,6 +64,7 @@ import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.security.decorators.DecoratingFeatureSource;
+import org.geoserver.security.decorators.DecoratingGridCoverage2DReader;
 import org.geoserver.wms.CachedGridReaderLayer;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapLayerInfo;
@@ -69,6 +73,8 @@ import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WMSPartialMapException;
 import org.geoserver.wms.WMSTestSupport;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
 import org.geotools.coverage.grid.io.GridCoverage2DReader;
 import org.geotools.coverage.util.FeatureUtilities;
@@ -81,6 +87,7 @@ import org.geotools.filter.IllegalFilterException;
 import org.geotools.gce.imagemosaic.ImageMosaicReader;
 import org.geotools.geometry.Envelope2D;
 import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.LiteShape2;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.image.test.ImageAssert;
@@ -94,6 +101,7 @@ import org.geotools.renderer.lite.LabelCache;
 import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.styling.ChannelSelection;
 import org.geotools.styling.ChannelSelectionImpl;
+import org.geotools.styling.ColorMap;
 import org.geotools.styling.RasterSymbolizer;
 import org.geotools.styling.SelectedChannelType;
 import org.geotools.styling.SelectedChannelTypeImpl;
@@ -667,6 +675,176 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         imageMap.dispose();
     }
 
+    @Test
+    public void testAlignedFastPath() throws Exception {
+        CoverageInfo ci =
+                getCatalog()
+                        .getCoverageByName(
+                                SystemTestData.MULTIBAND.getPrefix(),
+                                SystemTestData.MULTIBAND.getLocalPart());
+        GridCoverage2DReader reader = (GridCoverage2DReader) ci.getGridCoverageReader(null, null);
+        ReferencedEnvelope nativeEnvelope =
+                ReferencedEnvelope.reference(reader.getOriginalEnvelope());
+        int width = reader.getOriginalGridRange().getSpan(0);
+        int height = reader.getOriginalGridRange().getSpan(1);
+        double resX = nativeEnvelope.getWidth() / width;
+        double resY = nativeEnvelope.getHeight() / height;
+        Style style = getCatalog().getStyleByName(StyleInfo.DEFAULT_RASTER).getStyle();
+
+        // a sub-area at native resolution, on pixel corners
+        ReferencedEnvelope aligned =
+                new ReferencedEnvelope(
+                        nativeEnvelope.getMinX() + 10 * resX,
+                        nativeEnvelope.getMinX() + 50 * resX,
+                        nativeEnvelope.getMaxY() - 45 * resY,
+                        nativeEnvelope.getMaxY() - 5 * resY,
+                        nativeEnvelope.getCoordinateReferenceSystem());
+        long count = RenderedImageMapOutputFormat.ALIGNED_FAST_PATH_COUNT.get();
+        RenderedImageMap fastMap = produceNativeMap(reader, style, aligned, 40, 40);
+        assertEquals(count + 1, RenderedImageMapOutputFormat.ALIGNED_FAST_PATH_COUNT.get());
+
+        // same output as the regular direct rendering path
+        setDisableAlignedFastPath(true);
+        try {
+            RenderedImageMap regularMap = produceNativeMap(reader, style, aligned, 40, 40);
+            assertEquals(count + 1, RenderedImageMapOutputFormat.ALIGNED_FAST_PATH_COUNT.get());
+            ImageAssert.assertEquals(regularMap.getImage(), fastMap.getImage(), 0);
+            regularMap.dispose();
+        } finally {
+            setDisableAlignedFastPath(false);
+        }
+        fastMap.dispose();
+
+        // half a pixel off the native grid, needs resampling
+        ReferencedEnvelope shifted = new ReferencedEnvelope(aligned);
+        shifted.translate(resX / 2, 0);
+        produceNativeMap(reader, style, shifted, 40, 40).dispose();
+        assertEquals(count + 1, RenderedImageMapOutputFormat.ALIGNED_FAST_PATH_COUNT.get());
+    }
+
+    @Test
+    public void testAlignedFastPathFootprint() throws Exception {
+        CoverageInfo ci = getCatalog().getCoverageByName(getLayerId(TAZ_BYTE));
+        GridCoverage2DReader reader =
+                new FootprintReader((GridCoverage2DReader) ci.getGridCoverageReader(null, null));
+        ReferencedEnvelope nativeEnvelope =
+                ReferencedEnvelope.reference(reader.getOriginalEnvelope());
+        int width = reader.getOriginalGridRange().getSpan(0);
+        int height = reader.getOriginalGridRange().getSpan(1);
+        double resX = nativeEnvelope.getWidth() / width;
+        double resY = nativeEnvelope.getHeight() / height;
+        StyleBuilder builder = new StyleBuilder();
+        ColorMap colorMap =
+                builder.createColorMap(
+                        new String[3],
+                        new double[] {50, 100, 256},
+                        new Color[] {Color.BLUE, Color.GREEN, Color.YELLOW},
+                        ColorMap.TYPE_INTERVALS);
+        Style style = builder.createStyle(builder.createRasterSymbolizer(colorMap, 1));
+
+        // the whole native grid, the right half is outside of the footprint
+        ReferencedEnvelope aligned =
+                new ReferencedEnvelope(
+                        nativeEnvelope.getMinX(),
+                        nativeEnvelope.getMinX() + width * resX,
+                        nativeEnvelope.getMaxY() - height * resY,
+                        nativeEnvelope.getMaxY(),
+                        nativeEnvelope.getCoordinateReferenceSystem());
+        long count = RenderedImageMapOutputFormat.RASTER_STYLER_COUNT.get();
+        RenderedImageMap styledMap = produceNativeMap(reader, style, aligned, width, height);
+        assertEquals(count + 1, RenderedImageMapOutputFormat.RASTER_STYLER_COUNT.get());
+        BufferedImage styled =
+                PlanarImage.wrapRenderedImage(styledMap.getImage()).getAsBufferedImage();
+        assertEquals(Color.RED.getRGB(), styled.getRGB(width - 1, height / 2));
+
+        // same output as the GeoTools raster symbolizer support
+        setDisableRasterStyler(true);
+        try {
+            RenderedImageMap regularMap = produceNativeMap(reader, style, aligned, width, height);
+            assertEquals(count + 1, RenderedImageMapOutputFormat.RASTER_STYLER_COUNT.get());
+            ImageAssert.assertEquals(regularMap.getImage(), styledMap.getImage(), 0);
+            regularMap.dispose();
+        } finally {
+            setDisableRasterStyler(false);
+        }
+        styledMap.dispose();
+    }
+
+    /** Masks the coverages read with a footprint covering the left half of the native grid */
+    private static class FootprintReader extends DecoratingGridCoverage2DReader {
+
+        FootprintReader(GridCoverage2DReader delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public GridCoverage2D read(GeneralParameterValue[] parameters) throws IOException {
+            return mask(super.read(parameters));
+        }
+
+        @Override
+        public GridCoverage2D read(String coverageName, GeneralParameterValue[] parameters)
+                throws IOException {
+            return mask(super.read(coverageName, parameters));
+        }
+
+        private GridCoverage2D mask(GridCoverage2D coverage) {
+            if (coverage == null) {
+                return null;
+            }
+            RenderedImage image = coverage.getRenderedImage();
+            int half = getOriginalGridRange().getSpan(0) / 2;
+            Envelope footprint =
+                    new Envelope(
+                            image.getMinX(),
+                            image.getMinX() + half,
+                            image.getMinY(),
+                            image.getMinY() + image.getHeight());
+            RenderedImageAdapter masked = new RenderedImageAdapter(image);
+            masked.setProperty("ROI", new ROIGeometry(JTS.toGeometry(footprint)));
+            return new GridCoverageFactory()
+                    .create(
+                            coverage.getName(),
+                            masked,
+                            coverage.getGridGeometry(),
+                            coverage.getSampleDimensions(),
+                            null,
+                            coverage.getProperties());
+        }
+    }
+
+    private void setDisableRasterStyler(boolean value) throws Exception {
+        Field field = RenderedImageMapOutputFormat.class.getDeclaredField("DISABLE_RASTER_STYLER");
+        field.setAccessible(true);
+        field.set(null, value);
+    }
+
+    private RenderedImageMap produceNativeMap(
+            GridCoverage2DReader reader,
+            Style style,
+            ReferencedEnvelope bbox,
+            int width,
+            int height) {
+        GetMapRequest request = new GetMapRequest();
+        request.setBbox(bbox);
+        request.setFormat("image/png");
+        final WMSMapContent map = new WMSMapContent(request);
+        map.setMapWidth(width);
+        map.setMapHeight(height);
+        map.setBgColor(Color.red);
+        map.setTransparent(false);
+        map.getViewport().setBounds(bbox);
+        map.addLayer(new CachedGridReaderLayer(reader, style));
+        return this.rasterMapProducer.produceMap(map);
+    }
+
+    private void setDisableAlignedFastPath(boolean value) throws Exception {
+        Field field =
+                RenderedImageMapOutputFormat.class.getDeclaredField("DISABLE_ALIGNED_FAST_PATH");
+        field.setAccessible(true);
+        field.set(null, value);
+    }
+
     @Test
     public void testTimeoutOption() throws Exception {
         Catalog catalog = getCatalog();
@@ -0,0 +1,164 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Adler32;
+import javax.imageio.ImageIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelPNGEncoderTest {
+
+    ExecutorService executor;
+
+    @Before
+    public void setupExecutor() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    private BufferedImage fill(BufferedImage image) {
+        Random random = new Random(0);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                // smooth gradients with some noise, so that all filters get picked
+                int r = (x * 2 + random.nextInt(4)) & 0xFF;
+                int g = (y * 3) & 0xFF;
+                int b = random.nextInt(256);
+                int a = (x + y) & 0xFF;
+                image.setRGB(x, y, (a << 24) | (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    private BufferedImage encodeDecode(BufferedImage image, boolean adaptive) throws Exception {
+        // tiny bands, to get many of them sharing dictionaries
+        ParallelPNGEncoder encoder = new ParallelPNGEncoder(executor, 3, 1000);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        encoder.encode(image, bos, 6, adaptive);
+        return ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+    }
+
+    private void assertRGBEquals(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(
+                        "Pixel " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    private void assertRoundTrip(BufferedImage image) throws Exception {
+        assertTrue(ParallelPNGEncoder.canEncode(image));
+        assertRGBEquals(image, encodeDecode(image, false));
+        assertRGBEquals(image, encodeDecode(image, true));
+    }
+
+    @Test
+    public void testRGB() throws Exception {
+        assertRoundTrip(fill(new BufferedImage(123, 97, BufferedImage.TYPE_INT_RGB)));
+        assertRoundTrip(fill(new BufferedImage(123, 97, BufferedImage.TYPE_3BYTE_BGR)));
+    }
+
+    @Test
+    public void testRGBA() throws Exception {
+        assertRoundTrip(fill(new BufferedImage(123, 97, BufferedImage.TYPE_INT_ARGB)));
+        assertRoundTrip(fill(new BufferedImage(123, 97, BufferedImage.TYPE_4BYTE_ABGR)));
+    }
+
+    @Test
+    public void testGray() throws Exception {
+        BufferedImage image = new BufferedImage(123, 97, BufferedImage.TYPE_BYTE_GRAY);
+        Random random = new Random(0);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.getRaster().setSample(x, y, 0, (x + y + random.nextInt(8)) & 0xFF);
+            }
+        }
+        assertTrue(ParallelPNGEncoder.canEncode(image));
+        BufferedImage decoded = encodeDecode(image, true);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals(
+                        image.getRaster().getSample(x, y, 0),
+                        decoded.getRaster().getSample(x, y, 0));
+            }
+        }
+    }
+
+    @Test
+    public void testPalette() throws Exception {
+        byte[] r = new byte[16];
+        byte[] g = new byte[16];
+        byte[] b = new byte[16];
+        byte[] a = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            r[i] = (byte) (i * 16);
+            g[i] = (byte) (255 - i * 16);
+            b[i] = (byte) (i * 7);
+            a[i] = (byte) (i == 0 ? 0 : (i == 1 ? 128 : 255));
+        }
+        IndexColorModel icm = new IndexColorModel(8, 16, r, g, b, a);
+        BufferedImage image = new BufferedImage(123, 97, BufferedImage.TYPE_BYTE_INDEXED, icm);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.getRaster().setSample(x, y, 0, (x / 10 + y / 10) % 16);
+            }
+        }
+        assertRoundTrip(image);
+
+        BufferedImage binary = new BufferedImage(123, 97, BufferedImage.TYPE_BYTE_BINARY);
+        for (int y = 0; y < binary.getHeight(); y++) {
+            for (int x = 0; x < binary.getWidth(); x++) {
+                binary.getRaster().setSample(x, y, 0, (x + y) % 3 == 0 ? 1 : 0);
+            }
+        }
+        assertRoundTrip(binary);
+    }
+
+    @Test
+    public void testUnsupported() throws Exception {
+        assertFalse(
+                ParallelPNGEncoder.canEncode(
+                        new BufferedImage(10, 10, BufferedImage.TYPE_USHORT_GRAY)));
+        assertFalse(
+                ParallelPNGEncoder.canEncode(
+                        new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB_PRE)));
+    }
+
+    @Test
+    public void testCombineAdler() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(0).nextBytes(data);
+        Adler32 full = new Adler32();
+        full.update(data);
+        Adler32 first = new Adler32();
+        first.update(data, 0, 40000);
+        Adler32 second = new Adler32();
+        second.update(data, 40000, 60000);
+        assertEquals(
+                full.getValue(),
+                ParallelPNGEncoder.combineAdler(first.getValue(), second.getValue(), 60000));
+    }
+}
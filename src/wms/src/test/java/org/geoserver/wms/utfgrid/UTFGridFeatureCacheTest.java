@@ -0,0 +1,193 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.utfgrid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.RenderingHints;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.security.decorators.DecoratingSimpleFeatureSource;
+import org.geoserver.wms.GetMapCallback;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.WMSTestSupport;
+import org.geoserver.wms.map.RenderedImageMap;
+import org.geoserver.wms.map.RenderedImageMapOutputFormat;
+import org.geotools.data.Query;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.FeatureLayer;
+import org.geotools.map.Layer;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.styling.Style;
+import org.geotools.util.factory.Hints;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+
+public class UTFGridFeatureCacheTest extends WMSTestSupport {
+
+    /**
+     * A store returning new features at every query, and thus letting the renderer transform
+     * their geometries in place
+     */
+    static class DetachedFeatureSource extends DecoratingSimpleFeatureSource {
+
+        DetachedFeatureSource(SimpleFeatureSource delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+            SimpleFeatureCollection fc = super.getFeatures(query);
+            List<SimpleFeature> features = new ArrayList<>();
+            try (SimpleFeatureIterator it = fc.features()) {
+                while (it.hasNext()) {
+                    features.add(SimpleFeatureBuilder.deep(it.next()));
+                }
+            }
+            return new ListFeatureCollection(fc.getSchema(), features);
+        }
+
+        @Override
+        public Set<RenderingHints.Key> getSupportedHints() {
+            Set<RenderingHints.Key> hints = new HashSet<>(super.getSupportedHints());
+            hints.add(Hints.FEATURE_DETACHED);
+            return hints;
+        }
+    }
+
+    private WMSMapContent buildMap(String format, String bbox, GetMapCallback callback)
+            throws Exception {
+        return buildMap(format, bbox, callback, false);
+    }
+
+    private WMSMapContent buildMap(
+            String format, String bbox, GetMapCallback callback, boolean detached)
+            throws Exception {
+        GetMapRequest request = new GetMapRequest();
+        request.setFormat(format);
+        Map<String, String> kvp = new HashMap<>();
+        kvp.put("LAYERS", getLayerId(MockData.BASIC_POLYGONS));
+        kvp.put("BBOX", bbox);
+        kvp.put("WIDTH", "256");
+        kvp.put("HEIGHT", "256");
+        kvp.put("FORMAT", format);
+        request.setRawKvp(kvp);
+
+        WMSMapContent map = new WMSMapContent(request);
+        if (callback != null) {
+            map.setGetMapCallbacks(Collections.singletonList(callback));
+        }
+        String[] coords = bbox.split(",");
+        map.getViewport()
+                .setBounds(
+                        new ReferencedEnvelope(
+                                Double.parseDouble(coords[0]),
+                                Double.parseDouble(coords[2]),
+                                Double.parseDouble(coords[1]),
+                                Double.parseDouble(coords[3]),
+                                DefaultGeographicCRS.WGS84));
+        map.setMapWidth(256);
+        map.setMapHeight(256);
+        map.setTransparent(false);
+
+        FeatureTypeInfo info =
+                getCatalog().getFeatureTypeByName(getLayerId(MockData.BASIC_POLYGONS));
+        Style style = getCatalog().getStyleByName("polygon").getStyle();
+        SimpleFeatureSource source = (SimpleFeatureSource) info.getFeatureSource(null, null);
+        if (detached) {
+            source = new DetachedFeatureSource(source);
+        }
+        map.addLayer(new FeatureLayer(source, style));
+        return map;
+    }
+
+    private void renderImage(WMSMapContent map) throws Exception {
+        RenderedImageMap image = new RenderedImageMapOutputFormat(getWMS()).produceMap(map);
+        image.dispose();
+    }
+
+    private String renderGrid(WMSMapContent map) throws Exception {
+        UTFGridMap grid = (UTFGridMap) new UTFGridMapOutputFormat(getWMS()).produceMap(map);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        grid.writeTo(bos);
+        grid.dispose();
+        return bos.toString("UTF-8");
+    }
+
+    @Test
+    public void testShareFeatures() throws Exception {
+        String bbox = "-2,-1,2,6";
+        String expected = renderGrid(buildMap("utfgrid", bbox, null));
+
+        UTFGridFeatureCache cache = new UTFGridFeatureCache(1000, 60);
+        renderImage(buildMap("image/png", bbox, cache));
+        assertEquals(1, cache.getCount());
+
+        assertEquals(expected, renderGrid(buildMap("utfgrid", bbox, cache)));
+        assertEquals(1, cache.getServedCount());
+
+        // a different map is read from the store
+        renderGrid(buildMap("utfgrid", "-2,-1,2,5", cache));
+        assertEquals(1, cache.getServedCount());
+    }
+
+    @Test
+    public void testDetachedStore() throws Exception {
+        String bbox = "-2,-1,2,6";
+        String expected = renderGrid(buildMap("utfgrid", bbox, null, true));
+
+        // the image rendering must not turn the collected geometries into screen coordinates
+        UTFGridFeatureCache cache = new UTFGridFeatureCache(1000, 60);
+        renderImage(buildMap("image/png", bbox, cache, true));
+        assertEquals(1, cache.getCount());
+
+        assertEquals(expected, renderGrid(buildMap("utfgrid", bbox, cache, true)));
+        assertEquals(1, cache.getServedCount());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        String bbox = "-2,-1,2,6";
+        UTFGridFeatureCache cache = new UTFGridFeatureCache(1000, 60);
+        renderImage(buildMap("image/png", bbox, cache));
+        cache.invalidateAll();
+        assertEquals(0, cache.getCount());
+
+        renderGrid(buildMap("utfgrid", bbox, cache));
+        assertEquals(0, cache.getServedCount());
+    }
+
+    @Test
+    public void testTooManyFeatures() throws Exception {
+        UTFGridFeatureCache cache = new UTFGridFeatureCache(1, 60);
+        renderImage(buildMap("image/png", "-2,-1,2,6", cache));
+        assertEquals(0, cache.getCount());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        UTFGridFeatureCache cache = new UTFGridFeatureCache();
+        WMSMapContent map = buildMap("image/png", "-2,-1,2,6", null);
+        Layer layer = map.layers().get(0);
+        assertSame(layer, cache.beforeLayer(map, layer));
+        map.dispose();
+    }
+}